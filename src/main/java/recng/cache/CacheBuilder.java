@@ -12,6 +12,7 @@ public class CacheBuilder<K, V> {
     private int maxSize = -1;
     private long maxWeight = -1;
     private Weigher<K, V> weigher = null;
+    private EvictionListener<K, V> evictionListener = null;
 
     /**
      * Specifies the maximum number of entries that the cache should contain.
@@ -66,6 +67,18 @@ public class CacheBuilder<K, V> {
         return this;
     }
 
+    /**
+     * Specifies a listener notified when entries are evicted to make room for
+     * other entries, i.e. when the maximum size or weight is surpassed.
+     *
+     * Defaults to null.
+     */
+    public synchronized CacheBuilder<K, V>
+        evictionListener(EvictionListener<K, V> evictionListener) {
+        this.evictionListener = evictionListener;
+        return this;
+    }
+
     /**
      * Specifies the expected number of threads that will concurrently read
      * from/write to the cache. The cache is internally partitioned to allow
@@ -84,12 +97,12 @@ public class CacheBuilder<K, V> {
      */
     public synchronized Cache<K, V> build() {
         if (concurrencyLevel == 1)
-            return new LRUCache<K, V>(maxSize, maxWeight, weigher);
+            return new LRUCache<K, V>(maxSize, maxWeight, weigher, evictionListener);
         int maxSizePerShard =
             maxSize > 0 ? (int) Math.ceil(1d * maxSize / concurrencyLevel) : maxSize;
         long maxWeightPerShard = maxWeight > 0 ?
             (int) Math.ceil(1d * maxWeight / concurrencyLevel) : maxWeight;
         return new ShardedLRUCache<K, V>(concurrencyLevel, maxSizePerShard, maxWeightPerShard,
-                                         weigher);
+                                         weigher, evictionListener);
     }
 }
@@ -0,0 +1,20 @@
+package recng.cache;
+
+/**
+ * Classes that need to know when entries are evicted from a cache, in order to
+ * make room for other entries, should implement this interface.
+ * 
+ * @author Jon Ivmark
+ */
+public interface EvictionListener<K, V> {
+
+    /**
+     * Called when an entry has been evicted from the cache because the cache
+     * was full. Not called for entries removed by {@link Cache#evict(Object)}
+     * or {@link Cache#clear()}.
+     * 
+     * NOTE: This method is called while holding the lock of the cache, and
+     * should not call back into the cache.
+     */
+    void evicted(K key, V value);
+}
@@ -21,6 +21,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
     private final Map<K, V> cache;
     private final long maxWeight;
     private final Weigher<K, V> weigher;
+    private final EvictionListener<K, V> evictionListener;
 
     /**
      * Approximate memory overhead (in bytes) for each cached key/value pair.
@@ -38,17 +39,41 @@ public class LRUCache<K, V> implements Cache<K, V> {
      *            Used to weigh, i.e. estimate size in bytes, the ey/value pairs
      */
     LRUCache(final int maxSize, final long maxWeight, Weigher<K, V> weigher) {
+        this(maxSize, maxWeight, weigher, null);
+    }
+
+    /**
+     * Constructs a new cache.
+     * 
+     * @param maxSize
+     *            The maximum number of elements in the cache.
+     * @param maxWeight
+     *            The maximum total weight, sized in bytes, of the cache.
+     * @param weigher
+     *            Used to weigh, i.e. estimate size in bytes, the ey/value pairs
+     * @param evictionListener
+     *            Notified of LRU evictions, may be null.
+     */
+    LRUCache(final int maxSize, final long maxWeight, Weigher<K, V> weigher,
+             final EvictionListener<K, V> evictionListener) {
         this.maxSize = maxSize;
         this.maxWeight = maxWeight;
         this.weigher = weigher;
+        this.evictionListener = evictionListener;
         Map<K, V> underlying = new LinkedHashMap<K, V>(maxSize + 1, LOAD_FACTOR, true) {
             private static final long serialVersionUID = 201212231211L;
 
             @Override
             protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                if ((maxSize >= 0 && super.size() > maxSize) ||
-                    (maxWeight >= 0 && getWeight() > maxWeight)) {
-                    evict(eldest.getKey());
+                // Evict LRU entries until we're within the limits, entries
+                // of varying weight might require more than one eviction
+                while (!isEmpty() &&
+                    ((maxSize >= 0 && super.size() > maxSize) ||
+                    (maxWeight >= 0 && getWeight() > maxWeight))) {
+                    K key = keySet().iterator().next();
+                    V value = evict(key);
+                    if (evictionListener != null && value != null)
+                        evictionListener.evicted(key, value);
                 }
                 // Note: Always return false here since we modify the map
                 // ourselves through evict
@@ -91,7 +116,10 @@ public class LRUCache<K, V> implements Cache<K, V> {
     }
 
     public void clear() {
-        cache.clear();
+        synchronized (cache) {
+            cache.clear();
+            weight.set(0);
+        }
     }
 
     public int maxSize() {
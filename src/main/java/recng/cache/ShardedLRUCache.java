@@ -26,12 +26,18 @@ class ShardedLRUCache<K, V> implements Cache<K, V> {
 
     ShardedLRUCache(int shardCount, int maxSizePerShard, long maxWeightPerShard,
                     Weigher<K, V> weigher) {
+        this(shardCount, maxSizePerShard, maxWeightPerShard, weigher, null);
+    }
+
+    ShardedLRUCache(int shardCount, int maxSizePerShard, long maxWeightPerShard,
+                    Weigher<K, V> weigher, EvictionListener<K, V> evictionListener) {
         if (shardCount < 1)
             throw new IllegalArgumentException("Shard count must be positive");
         this.maxSizePerShard = maxSizePerShard;
         this.shards = new ArrayList<LRUCache<K, V>>(shardCount);
         for (int i = 0; i < shardCount; i++)
-            shards.add(new LRUCache<K, V>(maxSizePerShard, maxWeightPerShard, weigher));
+            shards.add(new LRUCache<K, V>(maxSizePerShard, maxWeightPerShard, weigher,
+                                          evictionListener));
     }
 
     /**
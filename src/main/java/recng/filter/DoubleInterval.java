@@ -0,0 +1,101 @@
+package recng.filter;
+
+/**
+ * An interval of double values, with both bounds inclusive. Empty if the min is
+ * greater than the max, or if either bound is NaN. NaN is never contained.
+ *
+ * Use {@link #valueOf(Interval)} to convert a generic interval. Exclusive and
+ * missing bounds are then turned into the closest inclusive bounds, so that
+ * {@link #contains(double)} is just two primitive comparisons.
+ */
+public final class DoubleInterval {
+
+    public static final DoubleInterval EMPTY = new DoubleInterval(Double.NaN, Double.NaN);
+    public static final DoubleInterval ALL = new DoubleInterval(Double.NEGATIVE_INFINITY,
+                                                               Double.POSITIVE_INFINITY);
+
+    private final double min;
+    private final double max;
+
+    public DoubleInterval(double min, double max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Converts a generic interval of any numeric type, with the same semantics
+     * for inclusive, exclusive and missing (null) bounds. Long bounds beyond
+     * 2^53 may lose precision.
+     */
+    public static <N extends Number & Comparable<N>> DoubleInterval valueOf(Interval<N> interval) {
+        LowerIntervalBound<N> lowerBound = interval.getLowerBound();
+        double min = Double.NEGATIVE_INFINITY;
+        if (lowerBound.getBound() != null) {
+            min = lowerBound.getBound().doubleValue();
+            if (!lowerBound.isInclusive()) {
+                min = Math.nextUp(min);
+            }
+        }
+        UpperIntervalBound<N> upperBound = interval.getUpperBound();
+        double max = Double.POSITIVE_INFINITY;
+        if (upperBound.getBound() != null) {
+            max = upperBound.getBound().doubleValue();
+            if (!upperBound.isInclusive()) {
+                max = Math.nextAfter(max, Double.NEGATIVE_INFINITY);
+            }
+        }
+        return isEmpty(min, max) ? EMPTY : new DoubleInterval(min, max);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean contains(double value) {
+        return value >= min && value <= max;
+    }
+
+    public boolean isEmpty() {
+        return isEmpty(min, max);
+    }
+
+    private static boolean isEmpty(double min, double max) {
+        return !(min <= max);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        long temp = Double.doubleToLongBits(min);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(max);
+        result = prime * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        DoubleInterval other = (DoubleInterval) obj;
+        return Double.doubleToLongBits(min) == Double.doubleToLongBits(other.min)
+            && Double.doubleToLongBits(max) == Double.doubleToLongBits(other.max);
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleInterval [min=" + min + ", max=" + max + "]";
+    }
+}
@@ -0,0 +1,145 @@
+package recng.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * A set of double values, represented as a union of {@link DoubleInterval}s.
+ * The intervals are kept sorted and merged in two primitive arrays, so
+ * {@link #contains(double)} is a binary search with no boxing. NaN is never
+ * contained.
+ *
+ * Instances are immutable.
+ */
+public final class DoubleIntervals {
+
+    private final double[] mins;
+    private final double[] maxs;
+
+    public DoubleIntervals(List<DoubleInterval> intervals) {
+        Assert.notNull(intervals);
+        List<DoubleInterval> sorted = new ArrayList<DoubleInterval>(intervals.size());
+        for (DoubleInterval interval : intervals) {
+            if (!interval.isEmpty()) {
+                sorted.add(interval);
+            }
+        }
+        Collections.sort(sorted, new Comparator<DoubleInterval>() {
+            @Override
+            public int compare(DoubleInterval i0, DoubleInterval i1) {
+                if (i0.getMin() == i1.getMin()) {
+                    return 0;
+                }
+                return i0.getMin() < i1.getMin() ? -1 : 1;
+            }
+        });
+        double[] mins = new double[sorted.size()];
+        double[] maxs = new double[sorted.size()];
+        int size = 0;
+        for (DoubleInterval interval : sorted) {
+            if (size > 0 && interval.getMin() <= Math.nextUp(maxs[size - 1])) {
+                maxs[size - 1] = Math.max(maxs[size - 1], interval.getMax());
+            } else {
+                mins[size] = interval.getMin();
+                maxs[size] = interval.getMax();
+                size++;
+            }
+        }
+        this.mins = copyOf(mins, size);
+        this.maxs = copyOf(maxs, size);
+    }
+
+    /**
+     * Converts generic intervals of any numeric type, see
+     * {@link DoubleInterval#valueOf(Interval)}.
+     */
+    public static <N extends Number & Comparable<N>> DoubleIntervals valueOf(Intervals<N> intervals) {
+        Assert.notNull(intervals);
+        List<DoubleInterval> converted = new ArrayList<DoubleInterval>();
+        for (Interval<N> interval : intervals.getIntervals()) {
+            converted.add(DoubleInterval.valueOf(interval));
+        }
+        return new DoubleIntervals(converted);
+    }
+
+    public boolean contains(double value) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        int low = 0;
+        int high = mins.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mins[mid] > value) {
+                high = mid - 1;
+            } else if (maxs[mid] < value) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return mins.length == 0;
+    }
+
+    /**
+     * Gets the number of (merged) intervals.
+     */
+    public int size() {
+        return mins.length;
+    }
+
+    public DoubleInterval getInterval(int index) {
+        return new DoubleInterval(mins[index], maxs[index]);
+    }
+
+    private static double[] copyOf(double[] values, int length) {
+        double[] copy = new double[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Arrays.hashCode(mins);
+        result = prime * result + Arrays.hashCode(maxs);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        DoubleIntervals other = (DoubleIntervals) obj;
+        return Arrays.equals(mins, other.mins) && Arrays.equals(maxs, other.maxs);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DoubleIntervals [");
+        for (int i = 0; i < mins.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("[").append(mins[i]).append(", ").append(maxs[i]).append("]");
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,98 @@
+package recng.filter;
+
+/**
+ * An interval of int values, with both bounds inclusive. Empty if the min is
+ * greater than the max.
+ *
+ * Use {@link #valueOf(Interval)} to convert a generic interval. Exclusive and
+ * missing bounds are then turned into the closest inclusive bounds, so that
+ * {@link #contains(int)} is just two primitive comparisons.
+ */
+public final class IntInterval {
+
+    public static final IntInterval EMPTY = new IntInterval(Integer.MAX_VALUE, Integer.MIN_VALUE);
+    public static final IntInterval ALL = new IntInterval(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    private final int min;
+    private final int max;
+
+    public IntInterval(int min, int max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Converts a generic interval, with the same semantics for inclusive,
+     * exclusive and missing (null) bounds.
+     */
+    public static IntInterval valueOf(Interval<Integer> interval) {
+        LowerIntervalBound<Integer> lowerBound = interval.getLowerBound();
+        int min = Integer.MIN_VALUE;
+        if (lowerBound.getBound() != null) {
+            min = lowerBound.getBound();
+            if (!lowerBound.isInclusive()) {
+                if (min == Integer.MAX_VALUE) {
+                    return EMPTY;
+                }
+                min++;
+            }
+        }
+        UpperIntervalBound<Integer> upperBound = interval.getUpperBound();
+        int max = Integer.MAX_VALUE;
+        if (upperBound.getBound() != null) {
+            max = upperBound.getBound();
+            if (!upperBound.isInclusive()) {
+                if (max == Integer.MIN_VALUE) {
+                    return EMPTY;
+                }
+                max--;
+            }
+        }
+        return min > max ? EMPTY : new IntInterval(min, max);
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean contains(int value) {
+        return value >= min && value <= max;
+    }
+
+    public boolean isEmpty() {
+        return min > max;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + min;
+        result = prime * result + max;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        IntInterval other = (IntInterval) obj;
+        return min == other.min && max == other.max;
+    }
+
+    @Override
+    public String toString() {
+        return "IntInterval [min=" + min + ", max=" + max + "]";
+    }
+}
@@ -0,0 +1,140 @@
+package recng.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * A set of int values, represented as a union of {@link IntInterval}s. The
+ * intervals are kept sorted and merged in two primitive arrays, so
+ * {@link #contains(int)} is a binary search with no boxing.
+ *
+ * Instances are immutable.
+ */
+public final class IntIntervals {
+
+    private final int[] mins;
+    private final int[] maxs;
+
+    public IntIntervals(List<IntInterval> intervals) {
+        Assert.notNull(intervals);
+        List<IntInterval> sorted = new ArrayList<IntInterval>(intervals.size());
+        for (IntInterval interval : intervals) {
+            if (!interval.isEmpty()) {
+                sorted.add(interval);
+            }
+        }
+        Collections.sort(sorted, new Comparator<IntInterval>() {
+            @Override
+            public int compare(IntInterval i0, IntInterval i1) {
+                if (i0.getMin() == i1.getMin()) {
+                    return 0;
+                }
+                return i0.getMin() < i1.getMin() ? -1 : 1;
+            }
+        });
+        int[] mins = new int[sorted.size()];
+        int[] maxs = new int[sorted.size()];
+        int size = 0;
+        for (IntInterval interval : sorted) {
+            if (size > 0 && (long) interval.getMin() <= (long) maxs[size - 1] + 1) {
+                maxs[size - 1] = Math.max(maxs[size - 1], interval.getMax());
+            } else {
+                mins[size] = interval.getMin();
+                maxs[size] = interval.getMax();
+                size++;
+            }
+        }
+        this.mins = copyOf(mins, size);
+        this.maxs = copyOf(maxs, size);
+    }
+
+    /**
+     * Converts generic intervals, see {@link IntInterval#valueOf(Interval)}.
+     */
+    public static IntIntervals valueOf(Intervals<Integer> intervals) {
+        Assert.notNull(intervals);
+        List<IntInterval> converted = new ArrayList<IntInterval>();
+        for (Interval<Integer> interval : intervals.getIntervals()) {
+            converted.add(IntInterval.valueOf(interval));
+        }
+        return new IntIntervals(converted);
+    }
+
+    public boolean contains(int value) {
+        int low = 0;
+        int high = mins.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mins[mid] > value) {
+                high = mid - 1;
+            } else if (maxs[mid] < value) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return mins.length == 0;
+    }
+
+    /**
+     * Gets the number of (merged) intervals.
+     */
+    public int size() {
+        return mins.length;
+    }
+
+    public IntInterval getInterval(int index) {
+        return new IntInterval(mins[index], maxs[index]);
+    }
+
+    private static int[] copyOf(int[] values, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Arrays.hashCode(mins);
+        result = prime * result + Arrays.hashCode(maxs);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        IntIntervals other = (IntIntervals) obj;
+        return Arrays.equals(mins, other.mins) && Arrays.equals(maxs, other.maxs);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IntIntervals [");
+        for (int i = 0; i < mins.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("[").append(mins[i]).append(", ").append(maxs[i]).append("]");
+        }
+        return sb.append("]").toString();
+    }
+}
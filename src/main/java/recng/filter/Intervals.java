@@ -2,64 +2,252 @@ package recng.filter;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.springframework.util.Assert;
 
+/**
+ * A set of values, represented as a union of intervals.
+ *
+ * The intervals are always kept in canonical form: sorted by lower bound,
+ * non-empty and with no two intervals overlapping or touching. This makes
+ * contains O(log n), and union, intersection and complement O(n + m).
+ */
 public class Intervals<T extends Comparable<T>> {
 
     private final List<Interval<T>> intervals;
 
     public Intervals() {
-        this(new ArrayList<Interval<T>>());
+        this.intervals = new ArrayList<Interval<T>>();
     }
 
     public Intervals(List<Interval<T>> intervals) {
         Assert.notNull(intervals);
-        this.intervals = new ArrayList<Interval<T>>(intervals);
+        List<Interval<T>> sorted = new ArrayList<Interval<T>>(intervals);
+        Collections.sort(sorted, new Comparator<Interval<T>>() {
+            @Override
+            public int compare(Interval<T> i0, Interval<T> i1) {
+                return i0.getLowerBound().compareTo(i1.getLowerBound());
+            }
+        });
+        this.intervals = merge(sorted);
+    }
+
+    /**
+     * Creates intervals from a list already sorted by lower bound.
+     */
+    private Intervals(List<Interval<T>> sorted, boolean canonical) {
+        this.intervals = canonical ? sorted : merge(sorted);
     }
 
+    /**
+     * Gets the intervals in canonical form.
+     */
     public List<Interval<T>> getIntervals() {
         return Collections.unmodifiableList(intervals);
     }
 
+    /**
+     * Adds an interval, merging it with any overlapping or touching
+     * intervals.
+     */
     public void addInterval(Interval<T> interval) {
-        intervals.add(interval);
+        Assert.notNull(interval);
+        if (interval.isEmpty()) {
+            return;
+        }
+        int from = firstNotBefore(interval.getLowerBound());
+        int to = from;
+        LowerIntervalBound<T> lowerBound = interval.getLowerBound();
+        UpperIntervalBound<T> upperBound = interval.getUpperBound();
+        while (to < intervals.size()
+            && !isBefore(upperBound, intervals.get(to).getLowerBound())) {
+            Interval<T> merged = intervals.get(to);
+            lowerBound = LowerIntervalBound.min(lowerBound, merged.getLowerBound());
+            upperBound = UpperIntervalBound.max(upperBound, merged.getUpperBound());
+            to++;
+        }
+        intervals.subList(from, to).clear();
+        intervals.add(from, new Interval<T>(lowerBound, upperBound));
     }
 
     public boolean contains(T value) {
         Assert.notNull(value);
-        for (Interval<T> interval : intervals) {
-            if (interval.contains(value)) {
-                return true;
+        // The lower bounds are strictly increasing, so find the last interval
+        // with a lower bound accepting the value
+        int low = 0;
+        int high = intervals.size() - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (intervals.get(mid).getLowerBound().accepts(value)) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
-        return false;
+        return candidate >= 0 && intervals.get(candidate).getUpperBound().accepts(value);
     }
 
     public boolean isEmpty() {
-        for (Interval<T> interval : intervals) {
-            if (!interval.isEmpty()) {
-                return false;
-            }
-        }
-        return true;
+        return intervals.isEmpty();
     }
 
+    /**
+     * Returns the values contained in both these and the other intervals.
+     */
     public Intervals<T> intersectWith(Intervals<T> other) {
-        List<Interval<T>> otherIntervals = other.getIntervals();
+        Assert.notNull(other);
+        List<Interval<T>> otherIntervals = other.intervals;
         List<Interval<T>> intersections = new ArrayList<Interval<T>>();
+        int i = 0;
+        int j = 0;
+        while (i < intervals.size() && j < otherIntervals.size()) {
+            Interval<T> interval = intervals.get(i);
+            Interval<T> otherInterval = otherIntervals.get(j);
+            Interval<T> intersection = interval.intersectWith(otherInterval);
+            if (!intersection.isEmpty()) {
+                intersections.add(intersection);
+            }
+            // Move past the interval ending first, it can not intersect any
+            // other intervals
+            if (interval.getUpperBound().compareTo(otherInterval.getUpperBound()) <= 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        // Intersections of canonical intervals are canonical
+        return new Intervals<T>(intersections, true);
+    }
+
+    /**
+     * Returns the values contained in either these or the other intervals.
+     */
+    public Intervals<T> unionWith(Intervals<T> other) {
+        Assert.notNull(other);
+        List<Interval<T>> otherIntervals = other.intervals;
+        List<Interval<T>> sorted =
+            new ArrayList<Interval<T>>(intervals.size() + otherIntervals.size());
+        int i = 0;
+        int j = 0;
+        while (i < intervals.size() || j < otherIntervals.size()) {
+            if (j == otherIntervals.size()
+                || (i < intervals.size() && intervals.get(i).getLowerBound()
+                    .compareTo(otherIntervals.get(j).getLowerBound()) <= 0)) {
+                sorted.add(intervals.get(i++));
+            } else {
+                sorted.add(otherIntervals.get(j++));
+            }
+        }
+        return new Intervals<T>(sorted, false);
+    }
 
+    /**
+     * Returns the values not contained in these intervals.
+     */
+    public Intervals<T> complement() {
+        List<Interval<T>> gaps = new ArrayList<Interval<T>>(intervals.size() + 1);
+        LowerIntervalBound<T> lowerBound = new LowerIntervalBound<T>(null);
         for (Interval<T> interval : intervals) {
-            for (Interval<T> otherInterval : otherIntervals) {
-                Interval<T> intersection = interval.intersectWith(otherInterval);
-                if (!intersection.isEmpty()) {
-                    intersections.add(intersection);
-                }
+            if (interval.getLowerBound().getBound() != null) {
+                gaps.add(new Interval<T>(lowerBound, interval.getLowerBound().invert()));
+            }
+            if (interval.getUpperBound().getBound() == null) {
+                return new Intervals<T>(gaps, true);
             }
+            lowerBound = interval.getUpperBound().invert();
+        }
+        gaps.add(new Interval<T>(lowerBound, new UpperIntervalBound<T>(null)));
+        return new Intervals<T>(gaps, true);
+    }
+
+    /**
+     * Gets the index of the first interval not ending before the lower bound,
+     * i.e. the first interval that may be merged with an interval starting at
+     * the bound.
+     */
+    private int firstNotBefore(LowerIntervalBound<T> lowerBound) {
+        int low = 0;
+        int high = intervals.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (isBefore(intervals.get(mid).getUpperBound(), lowerBound)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merges a list of intervals sorted by lower bound into canonical form.
+     */
+    private static <T extends Comparable<T>> List<Interval<T>> merge(List<Interval<T>> sorted) {
+        List<Interval<T>> merged = new ArrayList<Interval<T>>(sorted.size());
+        Interval<T> current = null;
+        for (Interval<T> interval : sorted) {
+            if (interval.isEmpty()) {
+                continue;
+            }
+            if (current == null) {
+                current = interval;
+            } else if (isBefore(current.getUpperBound(), interval.getLowerBound())) {
+                merged.add(current);
+                current = interval;
+            } else {
+                current = new Interval<T>(current.getLowerBound(),
+                                          UpperIntervalBound.max(current.getUpperBound(),
+                                                                 interval.getUpperBound()));
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * Checks if an interval ending at the upper bound ends before, and does not
+     * touch, an interval starting at the lower bound. Touching intervals, like
+     * [1, 3) and [3, 5], leave no gap and are merged.
+     */
+    private static <T extends Comparable<T>> boolean isBefore(UpperIntervalBound<T> upperBound,
+                                                              LowerIntervalBound<T> lowerBound) {
+        T upper = upperBound.getBound();
+        T lower = lowerBound.getBound();
+        if (upper == null || lower == null) { // null is MIN/MAX
+            return false;
+        }
+        int comp = upper.compareTo(lower);
+        if (comp != 0) {
+            return comp < 0;
+        }
+        return !upperBound.isInclusive() && !lowerBound.isInclusive();
+    }
+
+    @Override
+    public int hashCode() {
+        return intervals.hashCode();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
         }
-        Intervals<T> res = new Intervals<T>(intersections);
-        return res;
+        Intervals<T> other = (Intervals<T>) obj;
+        return intervals.equals(other.intervals);
     }
 
     @Override
@@ -0,0 +1,116 @@
+package recng.filter;
+
+import java.util.Date;
+
+/**
+ * An interval of long values, with both bounds inclusive. Empty if the min is
+ * greater than the max.
+ *
+ * Use {@link #valueOf(Interval)} to convert a generic interval. Exclusive and
+ * missing bounds are then turned into the closest inclusive bounds, so that
+ * {@link #contains(long)} is just two primitive comparisons.
+ */
+public final class LongInterval {
+
+    public static final LongInterval EMPTY = new LongInterval(Long.MAX_VALUE, Long.MIN_VALUE);
+    public static final LongInterval ALL = new LongInterval(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final long min;
+    private final long max;
+
+    public LongInterval(long min, long max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Converts a generic interval, with the same semantics for inclusive,
+     * exclusive and missing (null) bounds.
+     */
+    public static LongInterval valueOf(Interval<Long> interval) {
+        LowerIntervalBound<Long> lowerBound = interval.getLowerBound();
+        long min = Long.MIN_VALUE;
+        if (lowerBound.getBound() != null) {
+            min = lowerBound.getBound();
+            if (!lowerBound.isInclusive()) {
+                if (min == Long.MAX_VALUE) {
+                    return EMPTY;
+                }
+                min++;
+            }
+        }
+        UpperIntervalBound<Long> upperBound = interval.getUpperBound();
+        long max = Long.MAX_VALUE;
+        if (upperBound.getBound() != null) {
+            max = upperBound.getBound();
+            if (!upperBound.isInclusive()) {
+                if (max == Long.MIN_VALUE) {
+                    return EMPTY;
+                }
+                max--;
+            }
+        }
+        return min > max ? EMPTY : new LongInterval(min, max);
+    }
+
+    /**
+     * Converts a generic date interval to an interval of millis, with the same
+     * semantics for inclusive, exclusive and missing (null) bounds.
+     */
+    public static LongInterval valueOfDates(Interval<Date> interval) {
+        Date lower = interval.getLowerBound().getBound();
+        LowerIntervalBound<Long> lowerBound =
+            new LowerIntervalBound<Long>(lower != null ? lower.getTime() : null);
+        lowerBound.setInclusive(interval.getLowerBound().isInclusive());
+        Date upper = interval.getUpperBound().getBound();
+        UpperIntervalBound<Long> upperBound =
+            new UpperIntervalBound<Long>(upper != null ? upper.getTime() : null);
+        upperBound.setInclusive(interval.getUpperBound().isInclusive());
+        return valueOf(new Interval<Long>(lowerBound, upperBound));
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public boolean contains(long value) {
+        return value >= min && value <= max;
+    }
+
+    public boolean isEmpty() {
+        return min > max;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (min ^ (min >>> 32));
+        result = prime * result + (int) (max ^ (max >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        LongInterval other = (LongInterval) obj;
+        return min == other.min && max == other.max;
+    }
+
+    @Override
+    public String toString() {
+        return "LongInterval [min=" + min + ", max=" + max + "]";
+    }
+}
@@ -0,0 +1,154 @@
+package recng.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * A set of long values, represented as a union of {@link LongInterval}s. The
+ * intervals are kept sorted and merged in two primitive arrays, so
+ * {@link #contains(long)} is a binary search with no boxing.
+ *
+ * Instances are immutable.
+ */
+public final class LongIntervals {
+
+    private final long[] mins;
+    private final long[] maxs;
+
+    public LongIntervals(List<LongInterval> intervals) {
+        Assert.notNull(intervals);
+        List<LongInterval> sorted = new ArrayList<LongInterval>(intervals.size());
+        for (LongInterval interval : intervals) {
+            if (!interval.isEmpty()) {
+                sorted.add(interval);
+            }
+        }
+        Collections.sort(sorted, new Comparator<LongInterval>() {
+            @Override
+            public int compare(LongInterval i0, LongInterval i1) {
+                if (i0.getMin() == i1.getMin()) {
+                    return 0;
+                }
+                return i0.getMin() < i1.getMin() ? -1 : 1;
+            }
+        });
+        long[] mins = new long[sorted.size()];
+        long[] maxs = new long[sorted.size()];
+        int size = 0;
+        for (LongInterval interval : sorted) {
+            if (size > 0 && (maxs[size - 1] == Long.MAX_VALUE || interval.getMin() <= maxs[size - 1] + 1)) {
+                maxs[size - 1] = Math.max(maxs[size - 1], interval.getMax());
+            } else {
+                mins[size] = interval.getMin();
+                maxs[size] = interval.getMax();
+                size++;
+            }
+        }
+        this.mins = copyOf(mins, size);
+        this.maxs = copyOf(maxs, size);
+    }
+
+    /**
+     * Converts generic intervals, see {@link LongInterval#valueOf(Interval)}.
+     */
+    public static LongIntervals valueOf(Intervals<Long> intervals) {
+        Assert.notNull(intervals);
+        List<LongInterval> converted = new ArrayList<LongInterval>();
+        for (Interval<Long> interval : intervals.getIntervals()) {
+            converted.add(LongInterval.valueOf(interval));
+        }
+        return new LongIntervals(converted);
+    }
+
+    /**
+     * Converts generic date intervals to intervals of millis, see
+     * {@link LongInterval#valueOf(Interval)}.
+     */
+    public static LongIntervals valueOfDates(Intervals<Date> intervals) {
+        Assert.notNull(intervals);
+        List<LongInterval> converted = new ArrayList<LongInterval>();
+        for (Interval<Date> interval : intervals.getIntervals()) {
+            converted.add(LongInterval.valueOfDates(interval));
+        }
+        return new LongIntervals(converted);
+    }
+
+    public boolean contains(long value) {
+        int low = 0;
+        int high = mins.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mins[mid] > value) {
+                high = mid - 1;
+            } else if (maxs[mid] < value) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return mins.length == 0;
+    }
+
+    /**
+     * Gets the number of (merged) intervals.
+     */
+    public int size() {
+        return mins.length;
+    }
+
+    public LongInterval getInterval(int index) {
+        return new LongInterval(mins[index], maxs[index]);
+    }
+
+    private static long[] copyOf(long[] values, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Arrays.hashCode(mins);
+        result = prime * result + Arrays.hashCode(maxs);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        LongIntervals other = (LongIntervals) obj;
+        return Arrays.equals(mins, other.mins) && Arrays.equals(maxs, other.maxs);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LongIntervals [");
+        for (int i = 0; i < mins.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("[").append(mins[i]).append(", ").append(maxs[i]).append("]");
+        }
+        return sb.append("]").toString();
+    }
+}
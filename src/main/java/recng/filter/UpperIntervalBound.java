@@ -81,6 +81,17 @@ public class UpperIntervalBound<T extends Comparable<T>> extends AbstractInterva
         return b1;
     }
 
+    public static <T extends Comparable<T>> UpperIntervalBound<T> max(UpperIntervalBound<T> b0,
+                                                                      UpperIntervalBound<T> b1) {
+        Assert.notNull(b0);
+        Assert.notNull(b1);
+        int comp = b0.compareTo(b1);
+        if (comp >= 0) {
+            return b0;
+        }
+        return b1;
+    }
+
     @Override
     public String toString() {
         return "UpperIntervalBound [isInclusive()=" + isInclusive() + ", getBound()=" + getBound()
@@ -0,0 +1,316 @@
+package recng.graph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.map.AbstractObjectIntMap;
+
+/**
+ * Base class for immutable graphs where edges are stored in compressed sparse
+ * row (CSR) format.
+ *
+ * For each edge type there is one offsets array, indexed by node primary key,
+ * and packed arrays holding the end node primary keys and edge weights of all
+ * edges of that type. The out edges of node n are found in the range
+ * offsets[n] .. offsets[n + 1] - 1 of the packed arrays, ordered by
+ * descending edge weight. Subclasses decide where these arrays are stored.
+ *
+ * Graph nodes are not stored as objects but created on demand as light weight
+ * views of a primary key.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+abstract class AbstractCompactGraph<T> extends AbstractGraph<T> implements
+    ImmutableGraph<T> {
+
+    /** Index node id -> internal primary key */
+    private final AbstractObjectIntMap<NodeID<T>> nodeIndex;
+    /** All node ids in the graph, indexed by primary key */
+    private final NodeID<T>[] nodeIds;
+    /**
+     * The number of edges starting in nodes of each type, indexed by node
+     * type ordinal. Counted on first use, since it requires a pass over the
+     * offsets.
+     */
+    private volatile int[] edgeCountsByNodeType = null;
+
+    public AbstractCompactGraph(GraphMetadata metadata,
+                                AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                                NodeID<T>[] nodeIds) {
+        super(metadata);
+        this.nodeIndex = nodeIndex;
+        this.nodeIds = nodeIds;
+        for (int i = 0; i < nodeIds.length; i++)
+            indexNode(i, nodeIds[i].getNodeType());
+    }
+
+    /**
+     * Gets the number of edge type slots, i.e. the highest edge type ordinal
+     * + 1.
+     */
+    protected abstract int getEdgeTypeCount();
+
+    /**
+     * Checks if there are any edges of a certain type in the graph.
+     */
+    protected abstract boolean hasEdges(int edgeTypeOrdinal);
+
+    /**
+     * Gets offsets[node] for an edge type. Only called for edge types with
+     * edges.
+     */
+    protected abstract int getOffset(int edgeTypeOrdinal, int node);
+
+    /**
+     * Gets the end node primary key of the edge at a certain offset.
+     */
+    protected abstract int getEndNode(int edgeTypeOrdinal, int offset);
+
+    /**
+     * Gets the weight of the edge at a certain offset.
+     */
+    protected abstract float getWeight(int edgeTypeOrdinal, int offset);
+
+    @Override
+    protected List<GraphNode<T>> getNodes() {
+        return new AbstractList<GraphNode<T>>() {
+            @Override
+            public GraphNode<T> get(int index) {
+                return getNode(index);
+            }
+
+            @Override
+            public int size() {
+                return nodeIds.length;
+            }
+        };
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeIds.length;
+    }
+
+    @Override
+    public int edgeCount() {
+        int edgeCount = 0;
+        for (int type = 0; type < getEdgeTypeCount(); type++) {
+            if (hasEdges(type))
+                edgeCount += getOffset(type, nodeIds.length);
+        }
+        return edgeCount;
+    }
+
+    @Override
+    public int edgeCount(EdgeType edgeType) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        if (!hasEdges(edgeType))
+            return 0;
+        return getOffset(edgeType.ordinal(), nodeIds.length);
+    }
+
+    @Override
+    public int edgeCount(NodeType nodeType) {
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        int[] counts = edgeCountsByNodeType;
+        if (counts == null) {
+            // Racing threads count the same immutable edges, so the result
+            // is the same whichever array is published last
+            counts = countEdgesByNodeType();
+            edgeCountsByNodeType = counts;
+        }
+        int ordinal = nodeType.ordinal();
+        if (ordinal < 0 || ordinal >= counts.length)
+            return 0;
+        return counts[ordinal];
+    }
+
+    private int[] countEdgesByNodeType() {
+        int[] counts = new int[0];
+        for (int type = 0; type < getEdgeTypeCount(); type++) {
+            if (!hasEdges(type))
+                continue;
+            int from = getOffset(type, 0);
+            for (int i = 0; i < nodeIds.length; i++) {
+                int to = getOffset(type, i + 1);
+                if (to > from) {
+                    int ordinal = nodeIds[i].getNodeType().ordinal();
+                    if (ordinal >= counts.length)
+                        counts = Arrays.copyOf(counts, ordinal + 1);
+                    counts[ordinal] += to - from;
+                }
+                from = to;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Gets a node from it's primary key.
+     */
+    @Override
+    public GraphNode<T> getNode(int index) {
+        if (index < 0 || index >= nodeIds.length)
+            return null;
+        return new CompactGraphNode(index);
+    }
+
+    @Override
+    public int getPrimaryKey(NodeID<T> nodeID) {
+        if (!nodeIndex.containsKey(nodeID))
+            return -1;
+        return nodeIndex.get(nodeID);
+    }
+
+    /**
+     * Reads the edges straight from the packed arrays, without creating a
+     * node view.
+     */
+    @Override
+    void traverseNeighbors(int node, EdgeType edgeType, IntFloatProcedure proc) {
+        if (node < 0 || node >= nodeIds.length || !hasEdges(edgeType))
+            return;
+        traverseEdges(node, edgeType.ordinal(), proc);
+    }
+
+    private void traverseEdges(int node, int ordinal, IntFloatProcedure proc) {
+        int from = getOffset(ordinal, node);
+        int to = getOffset(ordinal, node + 1);
+        for (int i = from; i < to; i++) {
+            if (!proc.apply(getEndNode(ordinal, i), getWeight(ordinal, i)))
+                break;
+        }
+    }
+
+    /**
+     * Checks if there are edges for an edge type in the graph.
+     */
+    private boolean hasEdges(EdgeType edgeType) {
+        int ordinal = edgeType.ordinal();
+        return ordinal >= 0 && ordinal < getEdgeTypeCount() && hasEdges(ordinal);
+    }
+
+    /**
+     * A light weight view of a node in the graph.
+     */
+    private class CompactGraphNode implements GraphNode<T> {
+
+        private final int index;
+
+        private CompactGraphNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Iterator<TraversableGraphEdge<T>>
+            traverseNeighbors(EdgeType edgeType) {
+            if (!hasEdges(edgeType))
+                return new EmptyIterator<TraversableGraphEdge<T>>();
+            int ordinal = edgeType.ordinal();
+            int from = getOffset(ordinal, index);
+            int to = getOffset(ordinal, index + 1);
+            if (from == to) // No out edges for this type
+                return new EmptyIterator<TraversableGraphEdge<T>>();
+            return new NeighborIterator(this, edgeType, from, to);
+        }
+
+        @Override
+        public void forEachNeighbor(EdgeType edgeType, NodeIDProcedure<T> proc) {
+            GraphStats status = getStats();
+            status.incTraversals();
+            if (!hasEdges(edgeType))
+                return;
+            int ordinal = edgeType.ordinal();
+            int from = getOffset(ordinal, index);
+            int to = getOffset(ordinal, index + 1);
+            int traversed = 0;
+            for (int i = from; i < to; i++) {
+                if (!proc.apply(nodeIds[getEndNode(ordinal, i)]))
+                    break;
+                traversed++;
+            }
+            status.incTraversedEdges(traversed);
+        }
+
+        @Override
+        public void traverseNeighbors(EdgeType edgeType, IntFloatProcedure proc) {
+            if (hasEdges(edgeType))
+                traverseEdges(index, edgeType.ordinal(), proc);
+        }
+
+        @Override
+        public NodeID<T> getNodeId() {
+            return nodeIds[index];
+        }
+
+        @Override
+        public int getEdgeCount() {
+            int count = 0;
+            for (int type = 0; type < getEdgeTypeCount(); type++) {
+                if (hasEdges(type))
+                    count += getOffset(type, index + 1) - getOffset(type, index);
+            }
+            return count;
+        }
+
+        @Override
+        public Graph<T> getGraph() {
+            return AbstractCompactGraph.this;
+        }
+
+        @Override
+        public String toString() {
+            return getNodeId().toString();
+        }
+    }
+
+    /**
+     * An iterator used to iterate over a range of the packed edge arrays.
+     */
+    private class NeighborIterator implements
+        Iterator<TraversableGraphEdge<T>> {
+
+        private final GraphNode<T> startNode;
+        private final EdgeType edgeType;
+        private final int ordinal;
+        private final int end;
+        private int current;
+
+        private NeighborIterator(GraphNode<T> startNode, EdgeType edgeType,
+                                 int from, int to) {
+            this.startNode = startNode;
+            this.edgeType = edgeType;
+            this.ordinal = edgeType.ordinal();
+            this.current = from;
+            this.end = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < end;
+        }
+
+        @Override
+        public TraversableGraphEdge<T> next() {
+            int endNodeIndex = getEndNode(ordinal, current);
+            GraphNode<T> endNode = getNode(endNodeIndex);
+            float weight = getWeight(ordinal, current);
+            current++;
+            return new TraversableGraphEdge<T>(startNode, endNode, endNodeIndex,
+                                               edgeType, weight);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -3,6 +3,10 @@ package recng.graph;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.function.IntProcedure;
 
 /**
  * Base class for weighted graphs.
@@ -16,14 +20,37 @@ abstract class AbstractGraph<T> implements Graph<T> {
 
     private final GraphMetadata metadata;
     private final GraphStats status;
+    private final NodeAttributes nodeAttributes;
+    private final NodeTypeIndex nodeTypeIndex;
+    private final EdgeCounters edgeCounters;
 
     public AbstractGraph(GraphMetadata metadata) {
         this.metadata = metadata;
         this.status = new GraphStatsImpl();
+        this.nodeAttributes = new NodeAttributes();
+        this.nodeTypeIndex = new NodeTypeIndex();
+        this.edgeCounters = new EdgeCounters();
     }
 
     protected abstract List<GraphNode<T>> getNodes();
 
+    /**
+     * Adds a node to the node type index. Must be called by the subclasses
+     * for every node, in primary key order, and never concurrently.
+     */
+    void indexNode(int primaryKey, NodeType nodeType) {
+        nodeTypeIndex.add(nodeType, primaryKey);
+    }
+
+    /**
+     * Adds delta to the number of edges of a type starting in nodes of a
+     * certain type. Must be called by the subclasses for all edges added or
+     * removed, unless the edge count methods are overridden.
+     */
+    void countEdges(NodeType nodeType, int edgeTypeOrdinal, int delta) {
+        edgeCounters.add(nodeType, edgeTypeOrdinal, delta);
+    }
+
     @Override
     public void forEachNode(NodeIDProcedure<T> proc) {
         for (GraphNode<T> node : getNodes())
@@ -31,12 +58,34 @@ abstract class AbstractGraph<T> implements Graph<T> {
     }
 
     @Override
-    public void forEachNode(NodeIDProcedure<T> proc, NodeType nodeType) {
-        for (GraphNode<T> node : getNodes())
-            if (node.getNodeId().getNodeType().equals(nodeType)) {
-                if (!proc.apply(node.getNodeId()))
-                    break;
+    public void forEachNode(final NodeIDProcedure<T> proc, NodeType nodeType) {
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        nodeTypeIndex.forEach(nodeType, new IntProcedure() {
+            @Override
+            public boolean apply(int primaryKey) {
+                return proc.apply(getNode(primaryKey).getNodeId());
             }
+        });
+    }
+
+    @Override
+    public int nodeCount(NodeType nodeType) {
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        return nodeTypeIndex.size(nodeType);
+    }
+
+    @Override
+    public List<NodeID<T>> sampleNodes(NodeType nodeType, int count,
+                                       Random random) {
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        int[] primaryKeys = nodeTypeIndex.sample(nodeType, count, random);
+        List<NodeID<T>> res = new ArrayList<NodeID<T>>(primaryKeys.length);
+        for (int primaryKey : primaryKeys)
+            res.add(getNode(primaryKey).getNodeId());
+        return res;
     }
 
     @Override
@@ -52,6 +101,67 @@ abstract class AbstractGraph<T> implements Graph<T> {
             startNode.forEachNeighbor(edgeType, proc);
     }
 
+    @Override
+    public void forEachNeighbor(int source, EdgeType edgeType,
+                                IntFloatProcedure proc) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        status.incTraversals();
+        traverseNeighbors(source, edgeType, proc);
+    }
+
+    /**
+     * Passes the primary key of the end node and the weight of each out edge
+     * of a node to the procedure, ordered by descending edge weight. No stats
+     * are logged.
+     */
+    void traverseNeighbors(int node, EdgeType edgeType, IntFloatProcedure proc) {
+        GraphNode<T> startNode = getNode(node);
+        if (startNode != null)
+            startNode.traverseNeighbors(edgeType, proc);
+    }
+
+    @Override
+    public boolean containsEdge(NodeID<T> startNode, NodeID<T> endNode,
+                                EdgeType edgeType) {
+        return !Float.isNaN(getEdgeWeight(startNode, endNode, edgeType));
+    }
+
+    @Override
+    public float getEdgeWeight(NodeID<T> startNode, NodeID<T> endNode,
+                               EdgeType edgeType) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        int start = getPrimaryKey(startNode);
+        int end = getPrimaryKey(endNode);
+        if (start < 0 || end < 0)
+            return Float.NaN;
+        return getEdgeWeight(start, end, edgeType);
+    }
+
+    /**
+     * Gets the weight of an edge between two nodes identified by their
+     * primary keys, or NaN if there is no such edge.
+     *
+     * Scans the out edges of the start node, subclasses with faster lookups
+     * should override this. Only {@link MutableGraphImpl} does. The compact
+     * graphs keep weighted edges sorted on weight rather than end node, so
+     * they have nothing better than the scan.
+     */
+    float getEdgeWeight(int startNode, final int endNode, EdgeType edgeType) {
+        final float[] res = { Float.NaN };
+        traverseNeighbors(startNode, edgeType, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int neighbor, float weight) {
+                if (neighbor != endNode)
+                    return true;
+                res[0] = weight;
+                return false;
+            }
+        });
+        return res[0];
+    }
+
     @Override
     public void forEachEdge(GraphEdgeProcedure<T> proc) {
         for (GraphNode<T> node : getNodes()) {
@@ -90,8 +200,22 @@ abstract class AbstractGraph<T> implements Graph<T> {
     }
 
     @Override
-    public Traverser<T> getMultiTraverser(List<NodeID<T>> sources,
-                                          EdgeType edgeType) {
+    public BestFirstTraverser<T> getBestFirstTraverser(NodeID<T> source,
+                                                       EdgeType edgeType) {
+        if (source == null)
+            throw new IllegalArgumentException("Null source node not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+
+        int index = getPrimaryKey(source);
+        if (index < 0)
+            return null;
+        return new BestFirstTraverserImpl<T>(this, index, edgeType);
+    }
+
+    @Override
+    public MultiSourceTraverser<T> getMultiTraverser(List<NodeID<T>> sources,
+                                                     EdgeType edgeType) {
         if (sources == null)
             throw new IllegalArgumentException("Null source nodes not allowed");
         if (edgeType == null)
@@ -110,6 +234,21 @@ abstract class AbstractGraph<T> implements Graph<T> {
         return new MultiTraverser<T>(this, sourceNodes, edgeType);
     }
 
+    @Override
+    public IndexTraverser getIndexTraverser(EdgeType edgeType) {
+        return new IndexTraverser(this, edgeType);
+    }
+
+    @Override
+    public NodeAttributes getNodeAttributes() {
+        return nodeAttributes;
+    }
+
+    @Override
+    public BatchTraverser<T> getBatchTraverser(EdgeType edgeType) {
+        return new BatchTraverser<T>(this, edgeType);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("** Graph **");
@@ -143,10 +282,21 @@ abstract class AbstractGraph<T> implements Graph<T> {
 
     @Override
     public int edgeCount() {
-        int edgeCount = 0;
-        for (GraphNode<T> node : getNodes())
-            edgeCount += node.getEdgeCount();
-        return edgeCount;
+        return (int) edgeCounters.total();
+    }
+
+    @Override
+    public int edgeCount(EdgeType edgeType) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        return (int) edgeCounters.countByEdgeType(edgeType.ordinal());
+    }
+
+    @Override
+    public int edgeCount(NodeType nodeType) {
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        return (int) edgeCounters.countByNodeType(nodeType.ordinal());
     }
 
     @Override
@@ -4,15 +4,22 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mahout.math.list.LongArrayList;
 import org.apache.mahout.math.map.AbstractObjectIntMap;
 import org.apache.mahout.math.map.OpenObjectIntHashMap;
 
+import recng.graph.jmx.JMXEdgeEvictions;
+import recng.jmx.JMXUtils;
+
 /**
  * Base class for building graphs where edges are stored as longs, the first 4
  * bytes representing the edge weight and the last 4 bytes the end node index.
  *
+ * Once all nodes have been added, edges may be added by several threads
+ * concurrently, as long as edges from the same start node are not.
+ *
  * @author jon
  *
  * @param <T>
@@ -29,12 +36,91 @@ public abstract class AbstractGraphBuilder<T> implements GraphBuilder<T> {
     // Out edges by node and edge type
     private final List<LongArrayList[]> edges = new ArrayList<LongArrayList[]>();
     // Keeps track of the number of added edges
-    private int edgeCount = 0;
+    private final AtomicInteger edgeCount = new AtomicInteger(0);
+    // The capped edge types and their max degrees, by ordinal
+    private EdgeType[] cappedTypes = new EdgeType[0];
+    private int[] maxDegrees = new int[0];
+    private EdgeEvictions evictions = null;
 
     public AbstractGraphBuilder(GraphMetadata metadata) {
         this.metadata = metadata;
     }
 
+    /**
+     * Caps the number of out edges of a type per node. Only the edges with
+     * the highest weights are kept, the others are evicted while adding
+     * edges, or when building the graph.
+     *
+     * @param maxDegree
+     *            The max number of edges, or 0 for no cap.
+     */
+    public AbstractGraphBuilder<T> setMaxDegree(EdgeType edgeType,
+                                                int maxDegree) {
+        if (maxDegree < 0)
+            throw new IllegalArgumentException("Illegal max degree: "
+                + maxDegree);
+        int ordinal = edgeType.ordinal();
+        if (ordinal >= maxDegrees.length) {
+            cappedTypes = Arrays.copyOf(cappedTypes, ordinal + 1);
+            maxDegrees = Arrays.copyOf(maxDegrees, ordinal + 1);
+        }
+        cappedTypes[ordinal] = edgeType;
+        maxDegrees[ordinal] = maxDegree;
+        if (evictions == null)
+            evictions = new EdgeEvictions();
+        return this;
+    }
+
+    /**
+     * Gets the max number of out edges of a type per node, or 0 if there is
+     * no cap.
+     */
+    public int getMaxDegree(EdgeType edgeType) {
+        int ordinal = edgeType.ordinal();
+        return ordinal < maxDegrees.length ? maxDegrees[ordinal] : 0;
+    }
+
+    /**
+     * Gets the edges evicted so far, or null if no edge type is capped.
+     */
+    public EdgeEvictions getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Evicts the edges with the lowest weights that do not fit within the max
+     * degree of the edge type. Among edges with equal weights the oldest ones
+     * are evicted first, like in a {@link MutableGraphImpl}.
+     *
+     * The remaining edges keep the order they were added in, so that their
+     * age is known when evicting again.
+     */
+    private void evict(int startNodeIndex, int ordinal, LongArrayList outEdges) {
+        int maxDegree = ordinal < maxDegrees.length ? maxDegrees[ordinal] : 0;
+        int size = outEdges.size();
+        int excess = size - maxDegree;
+        if (maxDegree <= 0 || excess <= 0)
+            return;
+        // Sort by weight and then by position, i.e. by age
+        long[] elements = outEdges.elements();
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = (elements[i] & 0xffffffff00000000L) | i;
+        Arrays.sort(keys);
+        boolean[] evicted = new boolean[size];
+        for (int i = 0; i < excess; i++)
+            evicted[(int) keys[i]] = true;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!evicted[i])
+                elements[kept++] = elements[i];
+        }
+        outEdges.setSize(kept);
+        edgeCount.addAndGet(-excess);
+        evictions.evicted(nodes.get(startNodeIndex), cappedTypes[ordinal],
+                          excess);
+    }
+
     /**
      * Each out edge for a node is internally stored as a long, where the first
      * 4 bytes represent the edge weight and the las 4 bytes represents the end
@@ -101,22 +187,44 @@ public abstract class AbstractGraphBuilder<T> implements GraphBuilder<T> {
             outEdges[ordinal] = typedEdges;
         }
         typedEdges.add(edge);
-        edgeCount++;
+        edgeCount.incrementAndGet();
+        // Trim full lists every maxDegree added edges, keeping the memory
+        // used by each list within twice the max degree
+        int maxDegree = ordinal < maxDegrees.length ? maxDegrees[ordinal] : 0;
+        if (maxDegree > 0 && typedEdges.size() >= 2 * maxDegree)
+            evict(startNodeIndex, ordinal, typedEdges);
     }
 
     @Override
     public Graph<T> build() {
         // Sort all out edges on edge weight (since stored in the first 4
         // bytes, just sorting on the entire long is fine)
+        int startNodeIndex = 0;
         for (LongArrayList[] edgeArrays : edges) {
-            for (LongArrayList outEdges : edgeArrays) {
+            for (int ordinal = 0; ordinal < edgeArrays.length; ordinal++) {
+                LongArrayList outEdges = edgeArrays[ordinal];
                 if (outEdges == null)
                     continue;
-                outEdges.trimToSize();
+                evict(startNodeIndex, ordinal, outEdges);
                 outEdges.sort();
+                outEdges.trimToSize();
             }
+            startNodeIndex++;
         }
-        return constructGraph(metadata, nodeIndex, nodes, edges);
+        Graph<T> graph = constructGraph(metadata, nodeIndex, nodes, edges);
+        if (evictions != null)
+            registerEvictions(graph, evictions);
+        return graph;
+    }
+
+    /**
+     * Registers an MBean exposing the edges evicted while building a graph,
+     * once the graph is built. Subclasses building graphs that keep evicting
+     * edges may leave the registration to the graph.
+     */
+    protected void registerEvictions(Graph<T> graph, EdgeEvictions evictions) {
+        JMXUtils.registerMBean(new JMXEdgeEvictions(graph.getClass().getName(),
+                                                    evictions));
     }
 
     /**
@@ -1,8 +1,8 @@
 package recng.graph;
 
-import java.nio.ByteBuffer;
 import java.util.Iterator;
 
+import org.apache.mahout.math.function.IntFloatProcedure;
 import org.apache.mahout.math.list.LongArrayList;
 
 /**
@@ -24,8 +24,10 @@ public abstract class AbstractGraphNode<T> implements GraphNode<T> {
      * The edges originating from this node. Contains one list of edges for each
      * edge type, using an offset into the array corresponding to
      * {@link EdgeType#ordinal()}.
+     *
+     * Volatile since mutable nodes publish new versions of the edge lists.
      */
-    private LongArrayList[] outEdges;
+    private volatile LongArrayList[] outEdges;
 
     public AbstractGraphNode(Graph<T> container, NodeID<T> id) {
         this.container = container;
@@ -67,6 +69,16 @@ public abstract class AbstractGraphNode<T> implements GraphNode<T> {
         status.incTraversedEdges(traversed);
     }
 
+    protected void traverseEdges(LongArrayList edges, IntFloatProcedure proc) {
+        if (edges == null)
+            return;
+        for (int i = edges.size() - 1; i >= 0; i--) {
+            long edge = edges.getQuick(i);
+            if (!proc.apply(getEndNodeIndex(edge), getWeight(edge)))
+                break;
+        }
+    }
+
     protected LongArrayList[] getOutEdges() {
         return outEdges;
     }
@@ -86,9 +98,7 @@ public abstract class AbstractGraphNode<T> implements GraphNode<T> {
      * The weight is in the first 4 bytes of the out edge.
      */
     protected static float getWeight(long edge) {
-        ByteBuffer buffer = ByteBuffer.allocate(4);
-        buffer.putInt((int) (edge >> 32));
-        return buffer.getFloat(0);
+        return Float.intBitsToFloat((int) (edge >> 32));
     }
 
     /**
@@ -149,7 +159,8 @@ public abstract class AbstractGraphNode<T> implements GraphNode<T> {
             GraphNode<T> start = getGraph().getNode(startNodeIndex);
             GraphNode<T> end = getGraph().getNode(endNodeIndex);
             currentIndex--;
-            return new TraversableGraphEdge<T>(start, end, edgeType, weight);
+            return new TraversableGraphEdge<T>(start, end, endNodeIndex,
+                                               edgeType, weight);
         }
 
         @Override
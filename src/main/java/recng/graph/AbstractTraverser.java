@@ -2,6 +2,11 @@ package recng.graph;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * An abstract traverser implementation.
@@ -15,9 +20,12 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
     private final Graph<T> graph;
     private final EdgeType edgeType;
     private EdgeFilter<T> returnableFilter;
+    private NodePredicate nodePredicate;
     private int maxDepth;
     private int maxReturnedEdges;
     private int maxTraversedEdges;
+    private long timeBudget;
+    private long deadline;
 
     /**
      * Creates a traverser.
@@ -38,6 +46,8 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
         this.maxDepth = 1;
         this.maxReturnedEdges = Integer.MAX_VALUE;
         this.maxTraversedEdges = Integer.MAX_VALUE;
+        this.timeBudget = -1;
+        this.deadline = Long.MAX_VALUE;
     }
 
     public EdgeType getEdgeType() {
@@ -48,6 +58,10 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
         return returnableFilter;
     }
 
+    public NodePredicate getNodePredicate() {
+        return nodePredicate;
+    }
+
     public int getMaxDepth() {
         return maxDepth;
     }
@@ -65,6 +79,11 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
         return this;
     }
 
+    public Traverser<T> setNodePredicate(NodePredicate nodePredicate) {
+        this.nodePredicate = nodePredicate;
+        return this;
+    }
+
     public Traverser<T> setMaxDepth(int maxDepth) {
         this.maxDepth = maxDepth;
         return this;
@@ -80,11 +99,74 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
         return this;
     }
 
+    public Traverser<T> setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+        return this;
+    }
+
+    public Traverser<T> setDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public GraphCursor<T> traverse() {
+        long startTime = System.currentTimeMillis();
+        return traverse(startTime, createBudget(startTime, null));
+    }
+
+    /**
+     * Starts a traversal.
+     *
+     * @param startTime
+     *            The time the traversal was requested.
+     * @param budget
+     *            Limits the time spent traversing, null if unlimited.
+     */
+    abstract GraphCursor<T> traverse(long startTime, TraversalBudget budget);
+
+    /**
+     * Creates a budget for a traversal, or returns null if neither a deadline
+     * nor cancellation applies.
+     */
+    private TraversalBudget createBudget(long startTime, AtomicBoolean cancelled) {
+        long end = deadline;
+        if (timeBudget >= 0 && startTime + timeBudget < end)
+            end = startTime + timeBudget;
+        if (end == Long.MAX_VALUE && cancelled == null)
+            return null;
+        return new TraversalBudget(end, cancelled);
+    }
+
+    public Future<List<GraphEdge<T>>> getPathAsync(ExecutorService executor) {
+        if (executor == null)
+            throw new IllegalArgumentException("Null executor not allowed");
+        final long startTime = System.currentTimeMillis();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final TraversalBudget budget = createBudget(startTime, cancelled);
+        FutureTask<List<GraphEdge<T>>> task =
+            new FutureTask<List<GraphEdge<T>>>(new Callable<List<GraphEdge<T>>>() {
+                @Override
+                public List<GraphEdge<T>> call() {
+                    return getPath(traverse(startTime, budget));
+                }
+            }) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    cancelled.set(true);
+                    return super.cancel(mayInterruptIfRunning);
+                }
+            };
+        executor.execute(task);
+        return task;
+    }
+
     public List<GraphEdge<T>> getPath() {
-        GraphCursor<T> cursor = null;
+        return getPath(traverse());
+    }
+
+    private List<GraphEdge<T>> getPath(GraphCursor<T> cursor) {
         List<GraphEdge<T>> res = new ArrayList<GraphEdge<T>>();
         try {
-            cursor = traverse();
             while (cursor.hasNext())
                 res.add(cursor.next());
         } finally {
@@ -102,10 +184,12 @@ abstract class AbstractTraverser<T> implements Traverser<T> {
     }
 
     protected void logTraversalStats(long startTime, int returnedEdges,
-                                     int traversedEdges) {
+                                     int traversedEdges, boolean truncated) {
         GraphStats status = getGraph().getStats();
         status.incTraversals();
         status.incTraversedEdges(traversedEdges);
+        if (truncated)
+            status.incTruncatedTraversals();
     }
 
 }
@@ -0,0 +1,87 @@
+package recng.graph;
+
+import java.util.Random;
+
+/**
+ * A table used to sample the out edges of a node proportionally to their
+ * weights in constant time, using the alias method (Vose).
+ *
+ * @author jon
+ *
+ */
+class AliasTable {
+
+    private final int[] targets;
+    private final float[] probabilities;
+    private final int[] aliases;
+
+    /**
+     * Creates a table for a set of weighted targets. Non positive weights are
+     * never sampled, unless all weights are non positive in which case
+     * targets are sampled uniformly.
+     */
+    AliasTable(int[] targets, float[] weights) {
+        int n = targets.length;
+        if (weights.length != n)
+            throw new IllegalArgumentException("Mismatch between target and "
+                + "weight count");
+        this.targets = targets;
+        this.probabilities = new float[n];
+        this.aliases = new int[n];
+        double total = 0;
+        for (float weight : weights)
+            total += Math.max(weight, 0f);
+
+        // Scale the weights so that the average is 1, and partition the slots
+        // into those below and above the average
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = total > 0 ? Math.max(weights[i], 0f) * n / total : 1;
+            if (scaled[i] < 1)
+                small[smallCount++] = i;
+            else
+                large[largeCount++] = i;
+        }
+        // Pair each small slot with a large one covering the rest of it
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probabilities[less] = (float) scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1)
+                small[smallCount++] = more;
+            else
+                large[largeCount++] = more;
+        }
+        // The remaining slots are (up to rounding errors) full
+        while (largeCount > 0)
+            probabilities[large[--largeCount]] = 1f;
+        while (smallCount > 0)
+            probabilities[small[--smallCount]] = 1f;
+    }
+
+    /**
+     * Gets the number of targets in this table.
+     */
+    int size() {
+        return targets.length;
+    }
+
+    /**
+     * Samples a target, or returns -1 if the table is empty.
+     */
+    int sample(Random random) {
+        int n = targets.length;
+        if (n == 0)
+            return -1;
+        int slot = random.nextInt(n);
+        if (random.nextFloat() < probabilities[slot])
+            return targets[slot];
+        return targets[aliases[slot]];
+    }
+}
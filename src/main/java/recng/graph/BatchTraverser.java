@@ -0,0 +1,299 @@
+package recng.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs breadth first traversals from many source nodes, split over a number
+ * of worker tasks.
+ *
+ * Each traversal follows the same rules, and returns the same edges in the
+ * same order, as a {@link Traverser} configured the same way. Workers claim
+ * chunks of sources from a shared counter, so a few expensive sources do not
+ * hold up the whole batch. Each worker keeps its own traversal scratch state
+ * for the entire batch, and records its traversals in the graph stats once.
+ *
+ * Paths are passed to a procedure as soon as they have been traversed. The
+ * procedure is called concurrently from all workers, and must thus be thread
+ * safe.
+ *
+ * NOTE: The setters are not thread safe, but once configured an instance may
+ * be used from multiple threads.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class BatchTraverser<T> {
+
+    /** The number of sources a worker claims at a time */
+    private static final int CHUNK_SIZE = 16;
+
+    private final AbstractGraph<T> graph;
+    private final EdgeType edgeType;
+    private IndexEdgeFilter returnableFilter = null;
+    private NodePredicate nodePredicate = null;
+    private int maxDepth = 1;
+    private int maxReturnedEdges = Integer.MAX_VALUE;
+    private int maxTraversedEdges = Integer.MAX_VALUE;
+    private ExecutorService executor = null;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a traverser.
+     *
+     * @param graph
+     *            The graph to traverse.
+     * @param edgeType
+     *            The type of edges to follow.
+     */
+    BatchTraverser(AbstractGraph<T> graph, EdgeType edgeType) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        this.graph = graph;
+        this.edgeType = edgeType;
+    }
+
+    /**
+     * Specifies a filter used to decide if a traversed edge should be included
+     * in the result, or null to include all edges.
+     */
+    public BatchTraverser<T> setReturnableFilter(IndexEdgeFilter returnableFilter) {
+        this.returnableFilter = returnableFilter;
+        return this;
+    }
+
+    /**
+     * Specifies a predicate the end node of a traversed edge must satisfy for
+     * the edge to be included in the result, or null to include all edges.
+     */
+    public BatchTraverser<T> setNodePredicate(NodePredicate nodePredicate) {
+        this.nodePredicate = nodePredicate;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum depth of each traversal.
+     */
+    public BatchTraverser<T> setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of edges that may be returned per
+     * traversal.
+     */
+    public BatchTraverser<T> setMaxReturnedEdges(int maxReturnedEdges) {
+        this.maxReturnedEdges = maxReturnedEdges;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of edges that may be traversed per
+     * traversal.
+     */
+    public BatchTraverser<T> setMaxTraversedEdges(int maxTraversedEdges) {
+        this.maxTraversedEdges = maxTraversedEdges;
+        return this;
+    }
+
+    /**
+     * Specifies the executor running the worker tasks. If null, which is the
+     * default, all traversals are run in the calling thread.
+     */
+    public BatchTraverser<T> setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Specifies the number of worker tasks to split a batch into. Only used if
+     * an executor has been set. Defaults to the number of available
+     * processors.
+     */
+    public BatchTraverser<T> setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Traverses the graph from each source node, and passes the paths to the
+     * procedure. Unknown source nodes get empty paths.
+     *
+     * Blocks until all traversals are done, or the procedure has cancelled
+     * the batch.
+     *
+     * @return The number of paths passed to the procedure.
+     */
+    public int traverse(final List<NodeID<T>> sources,
+                        final PathProcedure<T> proc) {
+        if (sources == null)
+            throw new IllegalArgumentException("Null sources not allowed");
+        if (proc == null)
+            throw new IllegalArgumentException("Null procedure not allowed");
+        int[] primaryKeys = new int[sources.size()];
+        for (int i = 0; i < primaryKeys.length; i++)
+            primaryKeys[i] = graph.getPrimaryKey(sources.get(i));
+        return run(primaryKeys, new SourceProcedure() {
+            @Override
+            public boolean apply(int index, int source, IndexCursor path) {
+                List<GraphEdge<T>> edges =
+                    new ArrayList<GraphEdge<T>>(path.size());
+                while (path.next()) {
+                    edges.add(new GraphEdge<T>(getNodeId(path.getStartNode()),
+                                               getNodeId(path.getEndNode()),
+                                               edgeType, path.getWeight()));
+                }
+                return proc.apply(sources.get(index), edges);
+            }
+        });
+    }
+
+    /**
+     * Traverses the graph from each source node, identified by it's primary
+     * key, and passes the paths to the procedure. Invalid primary keys get
+     * empty paths.
+     *
+     * Blocks until all traversals are done, or the procedure has cancelled
+     * the batch.
+     *
+     * @return The number of paths passed to the procedure.
+     */
+    public int traverse(int[] sources, final IndexPathProcedure proc) {
+        if (sources == null)
+            throw new IllegalArgumentException("Null sources not allowed");
+        if (proc == null)
+            throw new IllegalArgumentException("Null procedure not allowed");
+        return run(sources, new SourceProcedure() {
+            @Override
+            public boolean apply(int index, int source, IndexCursor path) {
+                return proc.apply(source, path);
+            }
+        });
+    }
+
+    private NodeID<T> getNodeId(int primaryKey) {
+        return graph.getNode(primaryKey).getNodeId();
+    }
+
+    private int run(int[] sources, SourceProcedure proc) {
+        if (sources.length == 0)
+            return 0;
+        Batch batch = new Batch(sources, proc);
+        int workerCount =
+            executor == null ? 1 : Math.min(parallelism,
+                                             (sources.length + CHUNK_SIZE - 1)
+                                                 / CHUNK_SIZE);
+        if (workerCount == 1) {
+            new Worker(batch).call();
+            return batch.processed.get();
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(workerCount);
+        for (int i = 0; i < workerCount; i++)
+            futures.add(executor.submit(new Worker(batch)));
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            batch.cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while traversing", e);
+        } catch (ExecutionException e) {
+            batch.cancelled.set(true);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException("Traversal failed", cause);
+        }
+        return batch.processed.get();
+    }
+
+    /**
+     * Receives the paths along with the index of the source in the batch.
+     */
+    private interface SourceProcedure {
+        boolean apply(int index, int source, IndexCursor path);
+    }
+
+    /**
+     * The state shared by the workers of a batch.
+     */
+    private static class Batch {
+        private final int[] sources;
+        private final SourceProcedure proc;
+        private final AtomicInteger nextSource = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private Batch(int[] sources, SourceProcedure proc) {
+            this.sources = sources;
+            this.proc = proc;
+        }
+    }
+
+    /**
+     * Traverses chunks of sources until the batch is done, reusing a single
+     * traverser.
+     */
+    private class Worker implements Callable<Void> {
+
+        private final Batch batch;
+
+        private Worker(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public Void call() {
+            IndexTraverser traverser =
+                new IndexTraverser(graph, edgeType)
+                    .setReturnableFilter(returnableFilter)
+                    .setNodePredicate(nodePredicate)
+                    .setMaxDepth(maxDepth)
+                    .setMaxReturnedEdges(maxReturnedEdges)
+                    .setMaxTraversedEdges(maxTraversedEdges);
+            traverser.setLogStats(false);
+            int traversals = 0;
+            int traversedEdges = 0;
+            int maxTraversed = 0;
+            int[] sources = batch.sources;
+            try {
+                while (!batch.cancelled.get()) {
+                    int first = batch.nextSource.getAndAdd(CHUNK_SIZE);
+                    if (first >= sources.length || first < 0)
+                        break;
+                    int last = Math.min(first + CHUNK_SIZE, sources.length);
+                    for (int i = first; i < last; i++) {
+                        if (batch.cancelled.get())
+                            break;
+                        IndexCursor path = traverser.traverse(sources[i]);
+                        traversals++;
+                        int traversed = traverser.getTraversedEdgeCount();
+                        traversedEdges += traversed;
+                        maxTraversed = Math.max(maxTraversed, traversed);
+                        batch.processed.incrementAndGet();
+                        if (!batch.proc.apply(i, sources[i], path))
+                            batch.cancelled.set(true);
+                    }
+                }
+            } catch (RuntimeException e) {
+                batch.cancelled.set(true);
+                throw e;
+            } finally {
+                graph.getStats().addTraversals(traversals, traversedEdges,
+                                               maxTraversed);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package recng.graph;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+
+/**
+ * A cursor performing a best first traversal, see {@link BestFirstTraverser}.
+ *
+ * Traversed paths are kept in a binary max heap ordered by path score (ties
+ * are broken by discovery order). When a path is popped from the heap, no
+ * other path to that node can have a higher score, so the end node can be
+ * returned right away. Since the depth of the traversal is limited, a node
+ * is expanded again if it's later reached by a shorter path.
+ *
+ * Edge weights are not assumed to be normalized. Below the first level, the
+ * weights of the edges from a node are divided by its highest out edge
+ * weight, which is the weight of the first traversed edge since edges are
+ * traversed by descending weight. This keeps path scores from increasing
+ * with depth.
+ *
+ * Expanding a node is deferred until the next edge is requested, so no edges
+ * are traversed beyond the last returned one.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+class BestFirstCursor<T> implements GraphCursor<T>, IntFloatProcedure {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final AbstractGraph<T> graph;
+    private final int source;
+    private final EdgeType edgeType;
+    private final EdgeFilter<T> returnableFilter;
+    private final float depthDecay;
+    private final int maxDepth;
+    private final int maxReturnedEdges;
+    private final int maxTraversedEdges;
+    // Evaluated on end nodes before returning, may be null
+    private NodePredicate nodePredicate = null;
+    // Limits the time spent traversing, may be null
+    private final TraversalBudget budget;
+
+    // The heap of traversed paths, represented by their end node, the
+    // predecessor of the end node, the path length, score and sequence number
+    private int[] endNodes = new int[INITIAL_CAPACITY];
+    private int[] startNodes = new int[INITIAL_CAPACITY];
+    private int[] depths = new int[INITIAL_CAPACITY];
+    private float[] scores = new float[INITIAL_CAPACITY];
+    private int[] sequence = new int[INITIAL_CAPACITY];
+    private int heapSize = 0;
+    private int sequenceCounter = 0;
+
+    // Node -> the shortest path length it's been expanded at
+    private final OpenIntIntHashMap expandedDepths = new OpenIntIntHashMap();
+    // Node -> 1 if returned or rejected by the filter
+    private final OpenIntIntHashMap visited = new OpenIntIntHashMap();
+
+    // The node to expand before looking for the next edge, or -1
+    private int pendingNode;
+    private int pendingDepth;
+    private float pendingScore;
+    // The node currently being expanded
+    private int expandingNode = -1;
+    // The highest out edge weight of the node being expanded, or -1 before
+    // its first edge is traversed
+    private float maxWeight = -1f;
+
+    private GraphEdge<T> nextEdge = null;
+    private int nextDepth = 0;
+    private int returnedEdgeCount = 0;
+    private int traversedEdgeCount = 0;
+    private boolean exhausted = false;
+    private boolean isClosed = false;
+
+    BestFirstCursor(AbstractGraph<T> graph, int source, EdgeType edgeType,
+                    EdgeFilter<T> returnableFilter, float depthDecay,
+                    int maxDepth, int maxReturnedEdges, int maxTraversedEdges,
+                    TraversalBudget budget) {
+        this.graph = graph;
+        this.source = source;
+        this.edgeType = edgeType;
+        this.returnableFilter = returnableFilter;
+        this.depthDecay = depthDecay;
+        this.maxDepth = maxDepth;
+        this.maxReturnedEdges = maxReturnedEdges;
+        this.maxTraversedEdges = maxTraversedEdges;
+        this.budget = budget;
+        // The source is expanded at depth 0 with score 1, i.e. the edges from
+        // the source are not decayed
+        this.pendingNode = maxDepth > 0 ? source : -1;
+        this.pendingDepth = 0;
+        this.pendingScore = 1f / depthDecay;
+    }
+
+    @Override
+    public boolean hasNext() {
+        checkOpen();
+        if (nextEdge != null)
+            return true;
+        if (exhausted || returnedEdgeCount >= maxReturnedEdges)
+            return false;
+        while (true) {
+            if (pendingNode >= 0) {
+                expandingNode = pendingNode;
+                pendingNode = -1;
+                maxWeight = -1f;
+                graph.traverseNeighbors(expandingNode, edgeType, this);
+                if (exhausted)
+                    return false; // We've traversed too many edges
+            }
+            if (heapSize == 0) {
+                exhausted = true;
+                return false;
+            }
+            int endNode = endNodes[0];
+            int startNode = startNodes[0];
+            int depth = depths[0];
+            float score = scores[0];
+            removeTop();
+            if (expandedDepths.containsKey(endNode)
+                && expandedDepths.get(endNode) <= depth)
+                continue; // Already reached by a better and shorter path
+            expandedDepths.put(endNode, depth);
+            if (depth < maxDepth) {
+                pendingNode = endNode;
+                pendingDepth = depth;
+                pendingScore = score;
+            }
+            if (visited.containsKey(endNode))
+                continue; // Already returned or rejected
+            visited.put(endNode, 1);
+            if (nodePredicate != null && !nodePredicate.accepts(endNode))
+                continue;
+            NodeID<T> start = graph.getNode(startNode).getNodeId();
+            NodeID<T> end = graph.getNode(endNode).getNodeId();
+            if (returnableFilter.accepts(start, end)) {
+                nextEdge = new GraphEdge<T>(start, end, edgeType, score);
+                nextDepth = depth;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Specifies a predicate the end node of an edge must satisfy for the edge
+     * to be returned. Must be called before the traversal starts.
+     */
+    void setNodePredicate(NodePredicate nodePredicate) {
+        this.nodePredicate = nodePredicate;
+    }
+
+    /**
+     * Called for each out edge of the node being expanded.
+     */
+    @Override
+    public boolean apply(int endNode, float weight) {
+        if (budget != null && budget.isExhausted()) {
+            exhausted = true; // We've run out of time
+            return false;
+        }
+        if (traversedEdgeCount++ >= maxTraversedEdges) {
+            exhausted = true;
+            return false;
+        }
+        if (endNode == expandingNode)
+            throw new IllegalStateException("Illegal edge: " + endNode
+                + " -> " + endNode);
+        if (maxDepth > 1)
+            checkWeight(endNode, weight);
+        if (pendingDepth > 0)
+            weight = normalize(weight);
+        if (endNode == source)
+            return true; // Avoid loops
+        int depth = pendingDepth + 1;
+        if (expandedDepths.containsKey(endNode)
+            && expandedDepths.get(endNode) <= depth)
+            return true; // Already reached by a better and shorter path
+        push(endNode, expandingNode, depth, pendingScore * depthDecay * weight);
+        return true;
+    }
+
+    /**
+     * Scales the weight of an edge below the first level into the range
+     * [0, 1], relative to the highest out edge weight of the node being
+     * expanded.
+     */
+    private float normalize(float weight) {
+        if (maxWeight < 0f)
+            maxWeight = weight;
+        if (maxWeight == 0f)
+            return 0f;
+        // Guards against edge lists not sorted by weight
+        return Math.min(weight / maxWeight, 1f);
+    }
+
+    /**
+     * Checks that an edge weight is not negative, or path scores could
+     * increase with depth, and nodes could be returned before better paths to
+     * other nodes are found.
+     */
+    private void checkWeight(int endNode, float weight) {
+        if (weight >= 0f)
+            return;
+        throw new IllegalStateException("Illegal edge weight for a best first "
+            + "traversal: " + expandingNode + " -> " + endNode + " (" + weight
+            + ")");
+    }
+
+    @Override
+    public GraphEdge<T> next() {
+        if (!hasNext())
+            throw new IllegalStateException("No more edges");
+        GraphEdge<T> next = nextEdge;
+        nextEdge = null;
+        returnedEdgeCount++;
+        return next;
+    }
+
+    @Override
+    public GraphEdge<T> peekNext() {
+        if (!hasNext())
+            throw new IllegalStateException("No more edges");
+        return nextEdge;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    @Override
+    public int getReturnedEdgeCount() {
+        return returnedEdgeCount;
+    }
+
+    @Override
+    public int getTraversedEdgeCount() {
+        return traversedEdgeCount;
+    }
+
+    @Override
+    public int currentDepth() {
+        return nextDepth;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return budget != null && budget.isTruncated();
+    }
+
+    private void checkOpen() {
+        if (isClosed)
+            throw new IllegalStateException("This cursor has been closed");
+    }
+
+    private void push(int endNode, int startNode, int depth, float score) {
+        if (heapSize == endNodes.length) {
+            int capacity = 2 * heapSize;
+            endNodes = Arrays.copyOf(endNodes, capacity);
+            startNodes = Arrays.copyOf(startNodes, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+        }
+        int pos = heapSize++;
+        int seq = sequenceCounter++;
+        // Sift up
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!before(score, seq, parent))
+                break;
+            move(parent, pos);
+            pos = parent;
+        }
+        set(pos, endNode, startNode, depth, score, seq);
+    }
+
+    private void removeTop() {
+        int last = --heapSize;
+        if (last == 0)
+            return;
+        int endNode = endNodes[last];
+        int startNode = startNodes[last];
+        int depth = depths[last];
+        float score = scores[last];
+        int seq = sequence[last];
+        // Sift down
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize
+                && before(scores[child + 1], sequence[child + 1], child))
+                child++;
+            if (!before(scores[child], sequence[child], score, seq))
+                break;
+            move(child, pos);
+            pos = child;
+        }
+        set(pos, endNode, startNode, depth, score, seq);
+    }
+
+    private boolean before(float score, int seq, int pos) {
+        return before(score, seq, scores[pos], sequence[pos]);
+    }
+
+    private static boolean before(float score, int seq, float otherScore,
+                                  int otherSeq) {
+        if (score != otherScore)
+            return score > otherScore;
+        return seq < otherSeq;
+    }
+
+    private void move(int from, int to) {
+        set(to, endNodes[from], startNodes[from], depths[from], scores[from],
+            sequence[from]);
+    }
+
+    private void set(int pos, int endNode, int startNode, int depth,
+                     float score, int seq) {
+        endNodes[pos] = endNode;
+        startNodes[pos] = startNode;
+        depths[pos] = depth;
+        scores[pos] = score;
+        sequence[pos] = seq;
+    }
+}
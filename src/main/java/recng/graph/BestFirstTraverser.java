@@ -0,0 +1,34 @@
+package recng.graph;
+
+/**
+ * A traverser expanding nodes best first, i.e. by descending path score, rather
+ * than breadth first.
+ *
+ * The score of a path is the product of the weights of it's edges, multiplied
+ * by the depth decay once for every level below the first. Below the first
+ * level, the weight of an edge is divided by the highest out edge weight of
+ * its start node, so that edges of any weight scale never increase the score
+ * of a path. Each end node is returned once, with it's best path score as
+ * weight and it's predecessor on that path as start node, and end nodes are
+ * returned ordered by descending score. Thus the first n returned edges are
+ * the top n reachable nodes, and the traversal stops as soon as they are
+ * known.
+ *
+ * This requires that path scores never increase with depth, so when
+ * traversing more than one level, edge weights must not be negative. A
+ * negative weight makes the cursor throw an {@link IllegalStateException}
+ * when the edge is traversed, rather than return nodes out of order.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public interface BestFirstTraverser<T> extends Traverser<T> {
+
+    /**
+     * Specifies the decay applied for each level of depth below the first.
+     * Must be in the range (0, 1], defaults to 1 (no decay).
+     */
+    BestFirstTraverser<T> setDepthDecay(float depthDecay);
+}
@@ -0,0 +1,61 @@
+package recng.graph;
+
+/**
+ * A best first traverser implementation.
+ *
+ * @author jon
+ *
+ * @param <T>
+ */
+class BestFirstTraverserImpl<T> extends AbstractTraverser<T> implements
+    BestFirstTraverser<T> {
+
+    private final AbstractGraph<T> graph;
+    private final int source;
+    private float depthDecay = 1f;
+
+    /**
+     * Creates a traverser.
+     *
+     * @param graph
+     *            The graph to traverse.
+     * @param source
+     *            The primary key of the node to start traversing from
+     * @param edgeType
+     *            The type of edges to follow
+     */
+    BestFirstTraverserImpl(AbstractGraph<T> graph, int source,
+                           EdgeType edgeType) {
+        super(graph, edgeType);
+        this.graph = graph;
+        this.source = source;
+    }
+
+    @Override
+    public BestFirstTraverser<T> setDepthDecay(float depthDecay) {
+        if (!(depthDecay > 0f && depthDecay <= 1f))
+            throw new IllegalArgumentException("Illegal depth decay: "
+                + depthDecay);
+        this.depthDecay = depthDecay;
+        return this;
+    }
+
+    @Override
+    GraphCursor<T> traverse(final long startTime, TraversalBudget budget) {
+        BestFirstCursor<T> cursor = new BestFirstCursor<T>(graph, source, getEdgeType(),
+                                      getReturnableFilter(), depthDecay,
+                                      getMaxDepth(), getMaxReturnedEdges(),
+                                      getMaxTraversedEdges(), budget) {
+            @Override
+            public void close() {
+                if (isClosed())
+                    return;
+                super.close();
+                logTraversalStats(startTime, getReturnedEdgeCount(),
+                                  getTraversedEdgeCount(), isTruncated());
+            }
+        };
+        cursor.setNodePredicate(getNodePredicate());
+        return cursor;
+    }
+}
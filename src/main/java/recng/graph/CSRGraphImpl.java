@@ -0,0 +1,154 @@
+package recng.graph;
+
+import java.util.List;
+
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.AbstractObjectIntMap;
+
+import recng.graph.jmx.JMXGraph;
+import recng.jmx.JMXUtils;
+
+/**
+ * An immutable graph where edges are stored in compressed sparse row (CSR)
+ * format, using one flat int[] offsets array plus packed int[] end nodes and
+ * float[] weights per edge type.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class CSRGraphImpl<T> extends AbstractCompactGraph<T> {
+
+    /** Edge offsets per edge type (ordinal) and node, may contain nulls */
+    private final int[][] offsets;
+    /** End node primary keys per edge type (ordinal) */
+    private final int[][] targets;
+    /** Edge weights per edge type (ordinal) */
+    private final float[][] weights;
+
+    private CSRGraphImpl(GraphMetadata metadata,
+                         AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                         List<NodeID<T>> nodes,
+                         List<LongArrayList[]> edges) {
+        this(metadata, nodeIndex, nodes, edges, true);
+    }
+
+    private CSRGraphImpl(GraphMetadata metadata,
+                         AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                         List<NodeID<T>> nodes,
+                         List<LongArrayList[]> edges,
+                         boolean registerMBean) {
+        super(metadata, nodeIndex,
+              nodes.toArray(NodeID.<T> newArray(nodes.size())));
+        int nodeCount = nodes.size();
+        int edgeTypeCount = 0;
+        for (LongArrayList[] nodeEdges : edges)
+            edgeTypeCount = Math.max(edgeTypeCount, nodeEdges.length);
+        this.offsets = new int[edgeTypeCount][];
+        this.targets = new int[edgeTypeCount][];
+        this.weights = new float[edgeTypeCount][];
+
+        for (int type = 0; type < edgeTypeCount; type++) {
+            // First pass, compute the offsets for each node
+            int[] typedOffsets = new int[nodeCount + 1];
+            int typedEdgeCount = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                typedOffsets[node] = typedEdgeCount;
+                LongArrayList nodeEdges = getEdges(edges.get(node), type);
+                if (nodeEdges != null)
+                    typedEdgeCount += nodeEdges.size();
+            }
+            typedOffsets[nodeCount] = typedEdgeCount;
+            if (typedEdgeCount == 0)
+                continue; // No edges of this type, leave the arrays as null
+
+            // Second pass, copy the edges. The edge lists are sorted by
+            // ascending weight, so we copy them backwards.
+            int[] typedTargets = new int[typedEdgeCount];
+            float[] typedWeights = new float[typedEdgeCount];
+            int pos = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                LongArrayList nodeEdges = getEdges(edges.get(node), type);
+                if (nodeEdges == null)
+                    continue;
+                for (int i = nodeEdges.size() - 1; i >= 0; i--) {
+                    long edge = nodeEdges.get(i);
+                    typedTargets[pos] = AbstractGraphNode.getEndNodeIndex(edge);
+                    typedWeights[pos] = AbstractGraphNode.getWeight(edge);
+                    pos++;
+                }
+            }
+            offsets[type] = typedOffsets;
+            targets[type] = typedTargets;
+            weights[type] = typedWeights;
+        }
+        if (registerMBean)
+            JMXUtils.registerMBean(new JMXGraph<T>(this));
+    }
+
+    /**
+     * Creates a graph from edge lists sorted by ascending weight. Used for
+     * internal copies of other graphs, which are not registered as MBeans.
+     */
+    static <T> CSRGraphImpl<T> copyOf(GraphMetadata metadata,
+                                      AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                                      List<NodeID<T>> nodes,
+                                      List<LongArrayList[]> edges) {
+        return new CSRGraphImpl<T>(metadata, nodeIndex, nodes, edges, false);
+    }
+
+    private static LongArrayList getEdges(LongArrayList[] nodeEdges, int type) {
+        if (nodeEdges == null || type >= nodeEdges.length)
+            return null;
+        return nodeEdges[type];
+    }
+
+    @Override
+    protected int getEdgeTypeCount() {
+        return offsets.length;
+    }
+
+    @Override
+    protected boolean hasEdges(int edgeTypeOrdinal) {
+        return offsets[edgeTypeOrdinal] != null;
+    }
+
+    @Override
+    protected int getOffset(int edgeTypeOrdinal, int node) {
+        return offsets[edgeTypeOrdinal][node];
+    }
+
+    @Override
+    protected int getEndNode(int edgeTypeOrdinal, int offset) {
+        return targets[edgeTypeOrdinal][offset];
+    }
+
+    @Override
+    protected float getWeight(int edgeTypeOrdinal, int offset) {
+        return weights[edgeTypeOrdinal][offset];
+    }
+
+    /**
+     * A class used to build a graph.
+     */
+    public static class Builder<T> extends AbstractGraphBuilder<T> {
+
+        private Builder(GraphMetadata metadata) {
+            super(metadata);
+        }
+
+        @Override
+        protected Graph<T>
+            constructGraph(GraphMetadata metadata,
+                           AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                           List<NodeID<T>> nodes,
+                           List<LongArrayList[]> nodeEdges) {
+            return new CSRGraphImpl<T>(metadata, nodeIndex, nodes, nodeEdges);
+        }
+
+        public static <T> Builder<T> create(GraphMetadata metadata) {
+            return new Builder<T>(metadata);
+        }
+    }
+}
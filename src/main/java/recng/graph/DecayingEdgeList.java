@@ -0,0 +1,199 @@
+package recng.graph;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.map.OpenIntLongHashMap;
+
+/**
+ * A list of out edges that age according to an {@link EdgeDecay}.
+ *
+ * The weights are stored as they were at the landmark time of the list. Since
+ * all edges decay by the same factor, the list stays sorted, and the current
+ * weights are found by scaling with a single factor per traversal. The time
+ * in millis each edge was last added or updated is kept in a parallel array.
+ * The timestamps are absolute, so they are carried over exactly no matter how
+ * often the list is rebased.
+ *
+ * A decaying list is not mutated in place. A mutation starts from the current
+ * weights, see {@link #current(long)}, and creates a new list with the
+ * current time as landmark. Reads scale the stored edges as they go, without
+ * copying the list. Lists with at least {@link IndexedEdgeList#DEFAULT_MIN_SIZE}
+ * edges find the edge to an end node through an index, built on the first
+ * lookup.
+ *
+ * @author jon
+ */
+final class DecayingEdgeList extends LongArrayList {
+
+    private static final long serialVersionUID = 202610181412L;
+
+    private final EdgeDecay decay;
+    private final long landmark;
+    private final long[] timestamps;
+    // End node -> position + 1 of its highest weighted edge, since missing
+    // keys map to 0. Built lazily, the list itself never changes.
+    private transient volatile OpenIntIntHashMap positions;
+
+    private DecayingEdgeList(long[] edges, long[] timestamps, EdgeDecay decay,
+                             long landmark) {
+        super(edges);
+        this.timestamps = timestamps;
+        this.decay = decay;
+        this.landmark = landmark;
+    }
+
+    /**
+     * Creates a list of edges with weights as of now.
+     *
+     * @param edges
+     *            The edges, with their current weights.
+     * @param previous
+     *            The previous version of the list, may be null. Edges to end
+     *            nodes not updated now keep their timestamps from it.
+     * @param updated
+     *            The sorted end nodes whose edges were added or updated now,
+     *            or null if all were.
+     */
+    static DecayingEdgeList create(LongArrayList edges, LongArrayList previous,
+                                   int[] updated, EdgeDecay decay, long now) {
+        int size = edges.size();
+        long[] elements = Arrays.copyOf(edges.elements(), size);
+        long[] timestamps = new long[size];
+        Arrays.fill(timestamps, now);
+        if (updated != null && previous instanceof DecayingEdgeList) {
+            OpenIntLongHashMap previousTimestamps =
+                ((DecayingEdgeList) previous).getTimestamps();
+            for (int i = 0; i < size; i++) {
+                int endNode = AbstractGraphNode.getEndNodeIndex(elements[i]);
+                if (Arrays.binarySearch(updated, endNode) < 0
+                    && previousTimestamps.containsKey(endNode))
+                    timestamps[i] = previousTimestamps.get(endNode);
+            }
+        }
+        return new DecayingEdgeList(elements, timestamps, decay, now);
+    }
+
+    /**
+     * Gets the newest timestamp of the edges to each end node.
+     */
+    private OpenIntLongHashMap getTimestamps() {
+        int size = size();
+        long[] elements = elements();
+        OpenIntLongHashMap res = new OpenIntLongHashMap(size * 2);
+        for (int i = 0; i < size; i++) {
+            int endNode = AbstractGraphNode.getEndNodeIndex(elements[i]);
+            if (!res.containsKey(endNode) || res.get(endNode) < timestamps[i])
+                res.put(endNode, timestamps[i]);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the time in millis the edge at an index was last added or updated.
+     */
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    EdgeDecay getDecay() {
+        return decay;
+    }
+
+    /**
+     * Gets the factor the stored weights are scaled by to get the weights as
+     * of now.
+     */
+    float getFactor(long now) {
+        return (float) decay.getFactor(now - landmark);
+    }
+
+    /**
+     * Checks if the edge at an index has expired.
+     */
+    boolean isExpired(int index, long now) {
+        return decay.getTtlMillis() > 0
+            && decay.isExpired(now - getTimestamp(index));
+    }
+
+    /**
+     * Gets the weight as of now of the edge to an end node, or NaN if there
+     * is no such edge or it has expired.
+     */
+    float getWeight(int endNode, long now) {
+        int index = indexOf(endNode);
+        if (index < 0 || isExpired(index, now))
+            return Float.NaN;
+        return AbstractGraphNode.getWeight(getQuick(index)) * getFactor(now);
+    }
+
+    /**
+     * Gets the position of the highest weighted edge to an end node, or -1 if
+     * there is none.
+     */
+    private int indexOf(int endNode) {
+        long[] elements = elements();
+        if (size() < IndexedEdgeList.DEFAULT_MIN_SIZE) {
+            for (int i = size() - 1; i >= 0; i--) {
+                if (AbstractGraphNode.getEndNodeIndex(elements[i]) == endNode)
+                    return i;
+            }
+            return -1;
+        }
+        OpenIntIntHashMap index = positions;
+        if (index == null) {
+            // Several threads may build the index, they all build the same
+            int size = size();
+            index = new OpenIntIntHashMap(size * 2);
+            for (int i = 0; i < size; i++)
+                index.put(AbstractGraphNode.getEndNodeIndex(elements[i]), i + 1);
+            positions = index;
+        }
+        return index.get(endNode) - 1;
+    }
+
+    /**
+     * Passes the unexpired edges to a procedure, with their weights as of
+     * now, ordered by descending weight.
+     */
+    void traverse(IntFloatProcedure proc, long now) {
+        float factor = getFactor(now);
+        long[] elements = elements();
+        for (int i = size() - 1; i >= 0; i--) {
+            if (isExpired(i, now))
+                continue;
+            long edge = elements[i];
+            if (!proc.apply(AbstractGraphNode.getEndNodeIndex(edge),
+                            AbstractGraphNode.getWeight(edge) * factor))
+                break;
+        }
+    }
+
+    /**
+     * Creates a list of the unexpired edges, with their weights as of now.
+     */
+    LongArrayList current(long now) {
+        float factor = getFactor(now);
+        int size = size();
+        long[] elements = elements();
+        long[] res = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (isExpired(i, now))
+                continue;
+            long edge = elements[i];
+            res[count++] =
+                createOutEdge(AbstractGraphNode.getEndNodeIndex(edge),
+                              AbstractGraphNode.getWeight(edge) * factor);
+        }
+        return new LongArrayList(count == size ? res : Arrays.copyOf(res,
+                                                                     count));
+    }
+
+    private static long createOutEdge(int endNode, float weight) {
+        return ((long) Float.floatToRawIntBits(weight) << 32)
+            | (endNode & 0xffffffffL);
+    }
+}
@@ -0,0 +1,154 @@
+package recng.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the number of edges in a graph, broken down per start node type and
+ * edge type, so that edge counts can be read without visiting any nodes.
+ *
+ * Each (node type, edge type) pair has its own counter, and each counter is
+ * striped over a number of padded slots. Writers pick a slot based on their
+ * thread, so concurrent writers rarely update the same cache line. Reading a
+ * count sums the slots, which takes time proportional to the number of types
+ * and stripes but not to the size of the graph.
+ *
+ * Counts read while writers are active are not a consistent snapshot, but
+ * every completed update is included.
+ *
+ * @author jon
+ *
+ */
+class EdgeCounters {
+
+    private static final int STRIPES = stripeCount();
+    /** Longs per stripe, to keep stripes on separate cache lines */
+    private static final int PADDING = 8;
+
+    /**
+     * The counters, indexed by node type ordinal and edge type ordinal. The
+     * arrays grow on demand under the lock, but a created counter is never
+     * replaced, so no updates are lost.
+     */
+    private volatile StripedCounter[][] counters = new StripedCounter[0][];
+    private final Object lock = new Object();
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64)
+            stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * Adds delta to the number of edges of a type starting in nodes of a
+     * certain type.
+     */
+    void add(NodeType nodeType, int edgeTypeOrdinal, int delta) {
+        if (delta == 0)
+            return;
+        getOrCreate(nodeType.ordinal(), edgeTypeOrdinal).add(delta);
+    }
+
+    /**
+     * Gets the total number of edges.
+     */
+    long total() {
+        long sum = 0;
+        for (StripedCounter[] row : counters) {
+            if (row == null)
+                continue;
+            for (StripedCounter counter : row) {
+                if (counter != null)
+                    sum += counter.sum();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of edges of a certain type.
+     */
+    long countByEdgeType(int edgeTypeOrdinal) {
+        long sum = 0;
+        for (StripedCounter[] row : counters) {
+            if (row == null || edgeTypeOrdinal < 0
+                || edgeTypeOrdinal >= row.length)
+                continue;
+            StripedCounter counter = row[edgeTypeOrdinal];
+            if (counter != null)
+                sum += counter.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of edges starting in nodes of a certain type.
+     */
+    long countByNodeType(int nodeTypeOrdinal) {
+        StripedCounter[][] current = counters;
+        if (nodeTypeOrdinal < 0 || nodeTypeOrdinal >= current.length
+            || current[nodeTypeOrdinal] == null)
+            return 0;
+        long sum = 0;
+        for (StripedCounter counter : current[nodeTypeOrdinal]) {
+            if (counter != null)
+                sum += counter.sum();
+        }
+        return sum;
+    }
+
+    private StripedCounter getOrCreate(int nodeTypeOrdinal, int edgeTypeOrdinal) {
+        StripedCounter[][] current = counters;
+        if (nodeTypeOrdinal < current.length) {
+            StripedCounter[] row = current[nodeTypeOrdinal];
+            if (row != null && edgeTypeOrdinal < row.length
+                && row[edgeTypeOrdinal] != null)
+                return row[edgeTypeOrdinal];
+        }
+        synchronized (lock) {
+            current = counters;
+            if (nodeTypeOrdinal >= current.length)
+                current = Arrays.copyOf(current, nodeTypeOrdinal + 1);
+            StripedCounter[] row = current[nodeTypeOrdinal];
+            if (row == null)
+                row = new StripedCounter[edgeTypeOrdinal + 1];
+            else if (edgeTypeOrdinal >= row.length)
+                row = Arrays.copyOf(row, edgeTypeOrdinal + 1);
+            StripedCounter counter = row[edgeTypeOrdinal];
+            if (counter == null) {
+                counter = new StripedCounter();
+                row[edgeTypeOrdinal] = counter;
+            }
+            current[nodeTypeOrdinal] = row;
+            counters = current; // Publishes the new counter
+            return counter;
+        }
+    }
+
+    /**
+     * A counter spread over a number of slots, one per stripe.
+     */
+    private static class StripedCounter {
+        private final AtomicLongArray slots =
+            new AtomicLongArray(STRIPES * PADDING);
+
+        private void add(int delta) {
+            slots.addAndGet(stripe() * PADDING, delta);
+        }
+
+        private long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++)
+                sum += slots.get(i * PADDING);
+            return sum;
+        }
+
+        private static int stripe() {
+            long id = Thread.currentThread().getId();
+            int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+            return (hash >>> 16) & (STRIPES - 1);
+        }
+    }
+}
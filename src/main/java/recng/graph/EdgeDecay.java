@@ -0,0 +1,82 @@
+package recng.graph;
+
+/**
+ * Describes how the edges of a certain type age, see
+ * {@link MutableGraphImpl#setEdgeDecay(EdgeType, EdgeDecay)}.
+ *
+ * The weight of an edge is halved every half life, counted from when the edge
+ * was last added or updated. An edge that has not been updated for longer
+ * than the time to live expires, and is no longer traversed.
+ *
+ * @author jon
+ */
+public class EdgeDecay {
+
+    private final long halfLifeMillis;
+    private final long ttlMillis;
+
+    /**
+     * Creates a decay.
+     *
+     * @param halfLifeMillis
+     *            The half life of edge weights, or 0 for weights that do not
+     *            decay.
+     * @param ttlMillis
+     *            The time to live of edges, or 0 for edges that never expire.
+     */
+    public EdgeDecay(long halfLifeMillis, long ttlMillis) {
+        if (halfLifeMillis < 0)
+            throw new IllegalArgumentException("Illegal half life: "
+                + halfLifeMillis);
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Illegal ttl: " + ttlMillis);
+        if (halfLifeMillis == 0 && ttlMillis == 0)
+            throw new IllegalArgumentException("No half life or ttl");
+        this.halfLifeMillis = halfLifeMillis;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Creates a decay of edge weights, where edges never expire.
+     */
+    public static EdgeDecay halfLife(long halfLifeMillis) {
+        return new EdgeDecay(halfLifeMillis, 0);
+    }
+
+    /**
+     * Creates a time to live for edges, whose weights do not decay.
+     */
+    public static EdgeDecay ttl(long ttlMillis) {
+        return new EdgeDecay(0, ttlMillis);
+    }
+
+    public long getHalfLifeMillis() {
+        return halfLifeMillis;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Gets the factor that weights have decayed by after a certain time.
+     */
+    public double getFactor(long elapsedMillis) {
+        if (halfLifeMillis == 0 || elapsedMillis == 0)
+            return 1;
+        return Math.pow(0.5, (double) elapsedMillis / halfLifeMillis);
+    }
+
+    /**
+     * Checks if an edge last updated a certain time ago has expired.
+     */
+    public boolean isExpired(long ageMillis) {
+        return ttlMillis > 0 && ageMillis > ttlMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EdgeDecay [halfLifeMillis=%s, ttlMillis=%s]",
+                             halfLifeMillis, ttlMillis);
+    }
+}
@@ -0,0 +1,187 @@
+package recng.graph;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recng.graph.jmx.JMXEdgeDecaySweeper;
+import recng.jmx.JMXUtils;
+
+/**
+ * Incrementally sweeps the nodes of a {@link MutableGraphImpl} whose edges
+ * decay, see {@link MutableGraphImpl#setEdgeDecay(EdgeType, EdgeDecay)}.
+ *
+ * Sweeping a node drops its expired edges, and rebases the weights of its
+ * decaying edges to the current time. Each swept edge list is replaced by a
+ * new copy, so reads are never blocked, and writers only wait for the node
+ * being swept. The nodes are swept a batch at a time, continuing where the
+ * last batch ended and starting over after the last node.
+ *
+ * @author jon
+ */
+public class EdgeDecaySweeper<T> implements Closeable {
+
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+
+    private final MutableGraphImpl<T> graph;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    /** The next node to sweep, guarded by this */
+    private int cursor = 0;
+    private final AtomicLong sweptNodes = new AtomicLong(0);
+    private final AtomicLong expiredEdges = new AtomicLong(0);
+    private final AtomicLong passes = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+
+    /** Guards the scheduling state */
+    private final Object lock = new Object();
+    private Thread thread = null;
+    private boolean closed = false;
+
+    public EdgeDecaySweeper(MutableGraphImpl<T> graph) {
+        this.graph = graph;
+        JMXUtils.registerMBean(new JMXEdgeDecaySweeper(getClass().getName(),
+                                                       this));
+    }
+
+    /**
+     * Sets the number of nodes swept per batch by the background thread.
+     *
+     * Defaults to 10000.
+     */
+    public EdgeDecaySweeper<T> setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Illegal batch size: "
+                + batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sweeps the next batch of nodes.
+     *
+     * @return The number of expired edges that were dropped.
+     */
+    public synchronized int sweep(int maxNodes) {
+        int nodeCount = graph.nodeCount();
+        int count = Math.min(maxNodes, nodeCount);
+        int expired = 0;
+        for (int i = 0; i < count; i++) {
+            if (cursor >= nodeCount) {
+                cursor = 0;
+                passes.incrementAndGet();
+            }
+            expired += graph.sweep(cursor++);
+        }
+        if (cursor >= nodeCount && count > 0) {
+            cursor = 0;
+            passes.incrementAndGet();
+        }
+        sweptNodes.addAndGet(count);
+        expiredEdges.addAndGet(expired);
+        return expired;
+    }
+
+    /**
+     * Sweeps all nodes, starting where the last batch ended.
+     *
+     * @return The number of expired edges that were dropped.
+     */
+    public int sweepAll() {
+        return sweep(graph.nodeCount());
+    }
+
+    /**
+     * Starts sweeping in a background thread, with a fixed delay between
+     * batches.
+     */
+    public void start(final long delayMillis) {
+        if (delayMillis <= 0)
+            throw new IllegalArgumentException("Illegal delay: " + delayMillis);
+        synchronized (lock) {
+            if (thread != null || closed)
+                throw new IllegalStateException("Sweeper already started");
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (awaitDelay(delayMillis)) {
+                        try {
+                            sweep(batchSize);
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }, "EdgeDecaySweeper");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits for the delay to pass.
+     *
+     * @return False if the sweeper was closed while waiting.
+     */
+    private boolean awaitDelay(long delayMillis) {
+        long end = System.currentTimeMillis() + delayMillis;
+        synchronized (lock) {
+            try {
+                long remaining;
+                while (!closed
+                    && (remaining = end - System.currentTimeMillis()) > 0)
+                    lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !closed;
+        }
+    }
+
+    /**
+     * Stops the background thread, if started.
+     */
+    @Override
+    public void close() {
+        Thread running;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            running = thread;
+        }
+        if (running != null && running != Thread.currentThread()) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the total number of swept nodes.
+     */
+    public long getSweptNodes() {
+        return sweptNodes.get();
+    }
+
+    /**
+     * Gets the total number of dropped expired edges.
+     */
+    public long getExpiredEdges() {
+        return expiredEdges.get();
+    }
+
+    /**
+     * Gets the number of completed passes over all nodes.
+     */
+    public long getPasses() {
+        return passes.get();
+    }
+
+    /**
+     * Gets the number of failed background sweeps.
+     */
+    public long getFailedSweeps() {
+        return failures.get();
+    }
+}
@@ -0,0 +1,103 @@
+package recng.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the edges evicted from edge lists that reached the max
+ * degree of their edge type, per edge type and per start node.
+ *
+ * To bound the memory used, at most 10000 start nodes are tracked. Evictions
+ * from further nodes are only included in the totals.
+ *
+ * @author jon
+ */
+public class EdgeEvictions {
+
+    private static final int MAX_TRACKED_NODES = 10000;
+
+    private final AtomicLong evictedEdges = new AtomicLong(0);
+    private final ConcurrentMap<String, AtomicLong> byEdgeType =
+        new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<NodeID<?>, AtomicLong> byNode =
+        new ConcurrentHashMap<NodeID<?>, AtomicLong>();
+
+    /**
+     * Records evicted edges.
+     */
+    void evicted(NodeID<?> startNode, EdgeType edgeType, int count) {
+        if (count <= 0)
+            return;
+        evictedEdges.addAndGet(count);
+        increment(byEdgeType, edgeType.name(), count);
+        if (byNode.containsKey(startNode) || byNode.size() < MAX_TRACKED_NODES)
+            increment(byNode, startNode, count);
+    }
+
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> counters,
+                                      K key, int count) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong(0);
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null)
+                counter = created;
+        }
+        counter.addAndGet(count);
+    }
+
+    /**
+     * Gets the total number of evicted edges.
+     */
+    public long getEvictedEdges() {
+        return evictedEdges.get();
+    }
+
+    /**
+     * Gets the number of evicted edges per edge type name.
+     */
+    public Map<String, Long> getEvictedEdgesByType() {
+        Map<String, Long> res = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : byEdgeType.entrySet())
+            res.put(e.getKey(), e.getValue().get());
+        return res;
+    }
+
+    /**
+     * Gets the number of tracked start nodes that edges have been evicted
+     * from.
+     */
+    public int getEvictingNodeCount() {
+        return byNode.size();
+    }
+
+    /**
+     * Gets the start nodes that most edges have been evicted from, and the
+     * number of evicted edges, by descending count.
+     */
+    public Map<String, Long> getTopEvictingNodes(int count) {
+        // A snapshot, so that the order does not change while sorting
+        final Map<NodeID<?>, Long> counts = new HashMap<NodeID<?>, Long>();
+        for (Map.Entry<NodeID<?>, AtomicLong> e : byNode.entrySet())
+            counts.put(e.getKey(), e.getValue().get());
+        List<NodeID<?>> nodes = new ArrayList<NodeID<?>>(counts.keySet());
+        Collections.sort(nodes, new Comparator<NodeID<?>>() {
+            @Override
+            public int compare(NodeID<?> n1, NodeID<?> n2) {
+                return counts.get(n2).compareTo(counts.get(n1));
+            }
+        });
+        Map<String, Long> res = new LinkedHashMap<String, Long>();
+        for (NodeID<?> node : nodes.subList(0, Math.min(count, nodes.size())))
+            res.put(node.toString(), counts.get(node));
+        return res;
+    }
+}
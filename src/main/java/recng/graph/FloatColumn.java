@@ -0,0 +1,87 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A named float attribute for each node, indexed by node primary key. Nodes
+ * without a value get the default value of the column.
+ *
+ * Reads never block. Writes are serialized, and grow the column as needed.
+ *
+ * This class is thread safe.
+ *
+ * @author jon
+ *
+ */
+public class FloatColumn {
+
+    private final String name;
+    private final float defaultValue;
+    private final Object lock = new Object();
+    // The raw int bits of the values
+    private volatile AtomicIntegerArray values = new AtomicIntegerArray(0);
+
+    FloatColumn(String name, float defaultValue) {
+        this.name = name;
+        this.defaultValue = defaultValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Gets the value for a node.
+     */
+    public float get(int node) {
+        AtomicIntegerArray current = values;
+        if (node < 0 || node >= current.length())
+            return defaultValue;
+        return Float.intBitsToFloat(current.get(node));
+    }
+
+    /**
+     * Sets the value for a node.
+     */
+    public void set(int node, float value) {
+        if (node < 0)
+            throw new IllegalArgumentException("Illegal node: " + node);
+        synchronized (lock) {
+            AtomicIntegerArray current = values;
+            if (node >= current.length()) {
+                if (Float.compare(value, defaultValue) == 0)
+                    return;
+                current = grow(current, node + 1);
+            }
+            current.set(node, Float.floatToRawIntBits(value));
+        }
+    }
+
+    /**
+     * Resets all values to the default value.
+     */
+    public void clear() {
+        synchronized (lock) {
+            values = new AtomicIntegerArray(0);
+        }
+    }
+
+    private AtomicIntegerArray grow(AtomicIntegerArray current, int minLength) {
+        int length = Math.max(minLength, current.length() * 3 / 2 + 1);
+        int defaultBits = Float.floatToRawIntBits(defaultValue);
+        AtomicIntegerArray grown = new AtomicIntegerArray(length);
+        for (int i = 0; i < length; i++)
+            grown.set(i, i < current.length() ? current.get(i) : defaultBits);
+        values = grown;
+        return grown;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (default: " + defaultValue + ")";
+    }
+}
@@ -1,6 +1,9 @@
 package recng.graph;
 
 import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
 
 /**
  * A graph containing nodes with (possibly weighted) edges to other nodes.
@@ -14,12 +17,31 @@ public interface Graph<T> {
      */
     Traverser<T> getTraverser(NodeID<T> source, EdgeType eType);
 
+    /**
+     * Returns a traverser expanding nodes best first, i.e. returning the
+     * reachable nodes ordered by descending path score.
+     */
+    BestFirstTraverser<T> getBestFirstTraverser(NodeID<T> source, EdgeType eType);
+
     /**
      * Returns an instance used for a graph traversal originating from multiple
      * start nodes. Traversed paths are merged based on edge weight with the
      * heaviest edges first.
      */
-    Traverser<T> getMultiTraverser(List<NodeID<T>> sourceNodes, EdgeType eType);
+    MultiSourceTraverser<T> getMultiTraverser(List<NodeID<T>> sourceNodes,
+                                              EdgeType eType);
+
+    /**
+     * Returns a reusable traverser working directly on node primary keys,
+     * without allocating any objects per traversed edge.
+     */
+    IndexTraverser getIndexTraverser(EdgeType eType);
+
+    /**
+     * Returns a traverser used to traverse the graph from many source nodes
+     * at once, possibly in parallel.
+     */
+    BatchTraverser<T> getBatchTraverser(EdgeType eType);
 
     /**
      * Iterates all nodes in the graph and passes them to the procedure.
@@ -50,16 +72,68 @@ public interface Graph<T> {
      */
     void forEachNeighbor(NodeID<T> source, EdgeType eType, NodeIDProcedure<T> proc);
 
+    /**
+     * Iterates all neighbors for a node, identified by it's primary key,
+     * following a certain edge type, and passes the primary key of each
+     * neighbor and the edge weight to the procedure.
+     *
+     * Iteration will cease once the procedure call returns false.
+     */
+    void forEachNeighbor(int primaryKey, EdgeType eType, IntFloatProcedure proc);
+
+    /**
+     * Checks if there is an edge of a certain type between two nodes.
+     *
+     * Only a {@link MutableGraphImpl} looks the edge up by end node, in the
+     * index of large edge lists. Other graphs scan the out edges of the start
+     * node, which takes time linear in its degree.
+     */
+    boolean containsEdge(NodeID<T> startNode, NodeID<T> endNode,
+                         EdgeType edgeType);
+
+    /**
+     * Gets the weight of the edge of a certain type between two nodes, or NaN
+     * if there is no such edge. If there are several such edges, it is
+     * unspecified which one's weight is returned.
+     *
+     * Takes time linear in the degree of the start node, except in a
+     * {@link MutableGraphImpl}, see
+     * {@link #containsEdge(NodeID, NodeID, EdgeType)}.
+     */
+    float getEdgeWeight(NodeID<T> startNode, NodeID<T> endNode,
+                        EdgeType edgeType);
+
     /**
      * Gets the number of nodes in this graph.
      */
     int nodeCount();
 
     /**
-     * Gets the number of nodes in this graph.
+     * Gets the number of nodes of a certain type in this graph.
+     */
+    int nodeCount(NodeType nodeType);
+
+    /**
+     * Picks up to count distinct nodes of a certain type, uniformly at random.
+     * Takes time proportional to count, not to the number of nodes.
+     */
+    List<NodeID<T>> sampleNodes(NodeType nodeType, int count, Random random);
+
+    /**
+     * Gets the number of edges in this graph.
      */
     int edgeCount();
 
+    /**
+     * Gets the number of edges of a certain type in this graph.
+     */
+    int edgeCount(EdgeType edgeType);
+
+    /**
+     * Gets the number of edges starting in nodes of a certain type.
+     */
+    int edgeCount(NodeType nodeType);
+
     /**
      * Gets the primary key of a node, or -1 if no such node exists.
      */
@@ -70,6 +144,12 @@ public interface Graph<T> {
      */
     GraphNode<T> getNode(int primaryKey);
 
+    /**
+     * Gets the primitive node attributes of this graph, used for filtering
+     * nodes during traversal.
+     */
+    NodeAttributes getNodeAttributes();
+
     /**
      * Gets metadata about this graph.
      */
@@ -0,0 +1,183 @@
+package recng.graph;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recng.graph.jmx.JMXGraphCompactor;
+import recng.jmx.JMXUtils;
+
+/**
+ * Periodically freezes a {@link MutableGraphImpl} into a compact immutable
+ * graph, and swaps it into a {@link GraphHandle} that readers go through.
+ *
+ * Writers keep writing to the mutable graph, and are never blocked. The copy
+ * on write edge lists are grabbed one node at a time, and the edges are copied
+ * into the compact graph in the background. Mutations done while freezing are
+ * not lost, they remain in the mutable graph and are part of the next
+ * generation if they are not part of this one.
+ *
+ * Freezing is skipped if the graph has not been modified since the last
+ * generation.
+ *
+ * @author jon
+ */
+public class GraphCompactor<T> implements Closeable {
+
+    private final MutableGraphImpl<T> graph;
+    private final GraphHandle<T> handle;
+    /** Set by mutations, cleared before freezing */
+    private volatile boolean modified = false;
+    private volatile long lastFreezeMillis = 0;
+    private final AtomicLong failures = new AtomicLong(0);
+
+    /** Guards the scheduling state */
+    private final Object lock = new Object();
+    private Thread thread = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a compactor, and freezes the first generation.
+     */
+    public GraphCompactor(MutableGraphImpl<T> graph) {
+        this.graph = graph;
+        graph.addMutationListener(new GraphMutationListener<T>() {
+            @Override
+            public void edgesChanged(NodeID<T> startNode, EdgeType edgeType) {
+                modified = true;
+            }
+        });
+        long start = System.currentTimeMillis();
+        this.handle = new GraphHandle<T>(graph.freeze());
+        this.lastFreezeMillis = System.currentTimeMillis() - start;
+        JMXUtils.registerMBean(new JMXGraphCompactor(getClass().getName(),
+                                                     this));
+    }
+
+    /**
+     * Gets the handle serving the frozen generations.
+     */
+    public GraphHandle<T> getHandle() {
+        return handle;
+    }
+
+    /**
+     * Freezes a new generation and swaps it into the handle, unless the
+     * graph is unchanged since the last generation.
+     *
+     * @return True if a new generation was swapped in.
+     */
+    public synchronized boolean compact() {
+        if (!modified)
+            return false;
+        // Cleared before capturing, so that mutations not included in the
+        // new generation set the flag again
+        modified = false;
+        long start = System.currentTimeMillis();
+        try {
+            handle.swap(graph.freeze());
+        } catch (RuntimeException e) {
+            modified = true;
+            failures.incrementAndGet();
+            throw e;
+        }
+        lastFreezeMillis = System.currentTimeMillis() - start;
+        return true;
+    }
+
+    /**
+     * Starts compacting in a background thread, with a fixed delay between
+     * compactions.
+     */
+    public void start(final long delayMillis) {
+        if (delayMillis <= 0)
+            throw new IllegalArgumentException("Illegal delay: " + delayMillis);
+        synchronized (lock) {
+            if (thread != null || closed)
+                throw new IllegalStateException("Compactor already started");
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (awaitDelay(delayMillis)) {
+                        try {
+                            compact();
+                        } catch (RuntimeException e) {
+                            // Counted, the next compaction tries again
+                        }
+                    }
+                }
+            }, "GraphCompactor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits for the delay to pass.
+     *
+     * @return False if the compactor was closed while waiting.
+     */
+    private boolean awaitDelay(long delayMillis) {
+        long end = System.currentTimeMillis() + delayMillis;
+        synchronized (lock) {
+            try {
+                long remaining;
+                while (!closed
+                    && (remaining = end - System.currentTimeMillis()) > 0)
+                    lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !closed;
+        }
+    }
+
+    /**
+     * Stops the background thread, if started. Generations already served by
+     * the handle stay valid.
+     */
+    @Override
+    public void close() {
+        Thread running;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            running = thread;
+        }
+        if (running != null && running != Thread.currentThread()) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of the current generation.
+     */
+    public long getGeneration() {
+        return handle.getGeneration();
+    }
+
+    /**
+     * Gets the time in millis it took to freeze the current generation.
+     */
+    public long getLastFreezeMillis() {
+        return lastFreezeMillis;
+    }
+
+    /**
+     * Gets the number of replaced generations still in use by readers.
+     */
+    public int getRetainedGenerations() {
+        return handle.getRetainedGenerations();
+    }
+
+    /**
+     * Gets the number of failed compactions.
+     */
+    public long getFailedCompactions() {
+        return failures.get();
+    }
+}
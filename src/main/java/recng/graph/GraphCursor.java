@@ -53,4 +53,10 @@ public interface GraphCursor<T> {
      */
     int currentDepth();
 
+    /**
+     * Checks if the traversal was cut short, because the deadline passed or
+     * the traversal was cancelled.
+     */
+    boolean isTruncated();
+
 }
\ No newline at end of file
@@ -69,4 +69,9 @@ class GraphCursorImpl<T> implements GraphCursor<T> {
         return iterator.currentDepth();
     }
 
+    @Override
+    public boolean isTruncated() {
+        return iterator.isTruncated();
+    }
+
 }
@@ -0,0 +1,93 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One generation of a graph served through a {@link GraphHandle}.
+ *
+ * Generations are reference counted. The handle holds a reference to the
+ * current generation, and each reader holds one from
+ * {@link GraphHandle#acquire()} until it calls {@link #release()}. Once a
+ * generation has been replaced and all readers have released it, the graph
+ * is dropped, and any further access fails.
+ *
+ * @author jon
+ */
+public class GraphGeneration<T> {
+
+    private final long number;
+    private final GraphHandle<T> handle;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile ImmutableGraph<T> graph;
+
+    GraphGeneration(long number, ImmutableGraph<T> graph,
+                    GraphHandle<T> handle) {
+        this.number = number;
+        this.graph = graph;
+        this.handle = handle;
+    }
+
+    /**
+     * Gets the generation number, starting at 0 and increased by one per
+     * swap.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * Gets the graph of this generation.
+     *
+     * @throws IllegalStateException
+     *             If the generation has been released.
+     */
+    public ImmutableGraph<T> getGraph() {
+        ImmutableGraph<T> res = graph;
+        if (res == null)
+            throw new IllegalStateException("Generation " + number
+                + " has been released");
+        return res;
+    }
+
+    /**
+     * Checks if this generation has been replaced and released by all
+     * readers.
+     */
+    public boolean isReleased() {
+        return graph == null;
+    }
+
+    /**
+     * Adds a reference, unless the generation has already been released.
+     */
+    boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0)
+                return false;
+            if (references.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Releases a reference to this generation. Must be called exactly once
+     * per acquired generation.
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count < 0)
+            throw new IllegalStateException("Generation " + number
+                + " released too many times");
+        if (count == 0) {
+            graph = null;
+            handle.released(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GraphGeneration [number=%s, references=%s]",
+                             number, references.get());
+    }
+}
@@ -0,0 +1,95 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A handle that readers go through to get the current generation of an
+ * immutable graph, which can be atomically replaced by a newer one.
+ *
+ * Readers should release each acquired generation when they are done with
+ * it, i.e.
+ *
+ * <pre>
+ * GraphGeneration&lt;T&gt; generation = handle.acquire();
+ * try {
+ *     traverse(generation.getGraph());
+ * } finally {
+ *     generation.release();
+ * }
+ * </pre>
+ *
+ * A traversal thus sees the same graph from start to end, and a replaced
+ * generation is released as soon as the last traversal using it finishes.
+ *
+ * @author jon
+ */
+public class GraphHandle<T> {
+
+    private final AtomicReference<GraphGeneration<T>> current;
+    /** The number of replaced generations still in use by readers */
+    private final AtomicInteger retained = new AtomicInteger(0);
+
+    public GraphHandle(ImmutableGraph<T> graph) {
+        if (graph == null)
+            throw new IllegalArgumentException("Null graph not allowed");
+        this.current =
+            new AtomicReference<GraphGeneration<T>>(new GraphGeneration<T>(0,
+                                                                           graph,
+                                                                           this));
+    }
+
+    /**
+     * Acquires the current generation. The generation must be released when
+     * no longer used.
+     */
+    public GraphGeneration<T> acquire() {
+        while (true) {
+            GraphGeneration<T> generation = current.get();
+            // Fails if the generation was swapped out and released since we
+            // read it, in which case there is a newer one
+            if (generation.retain())
+                return generation;
+        }
+    }
+
+    /**
+     * Replaces the current generation. Readers already using the replaced
+     * generation keep using it until they release it.
+     *
+     * @return The new generation.
+     */
+    public synchronized GraphGeneration<T> swap(ImmutableGraph<T> graph) {
+        if (graph == null)
+            throw new IllegalArgumentException("Null graph not allowed");
+        GraphGeneration<T> previous = current.get();
+        GraphGeneration<T> next =
+            new GraphGeneration<T>(previous.getNumber() + 1, graph, this);
+        retained.incrementAndGet();
+        current.set(next);
+        previous.release(); // The reference held by the handle
+        return next;
+    }
+
+    /**
+     * Gets the number of the current generation.
+     */
+    public long getGeneration() {
+        return current.get().getNumber();
+    }
+
+    /**
+     * Gets the number of replaced generations that have not yet been
+     * released by all readers.
+     */
+    public int getRetainedGenerations() {
+        return retained.get();
+    }
+
+    /**
+     * Called when a replaced generation has been released by all readers.
+     */
+    void released(GraphGeneration<T> generation) {
+        retained.decrementAndGet();
+    }
+}
@@ -1,8 +1,10 @@
 package recng.graph;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -49,6 +51,12 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
     private final Set<NodeID<T>> returnedNodes = new HashSet<NodeID<T>>();
     // Used to avoid using the same start node twice
     private final Set<NodeID<T>> startNodes = new HashSet<NodeID<T>>();
+    // Evaluated on the primary key of end nodes before returning, may be null
+    private NodePredicate nodePredicate = null;
+    // Limits the time spent in the iteration, may be null
+    private TraversalBudget budget = null;
+    // The nodes whose out edges have been read, only tracked on demand
+    private List<NodeID<T>> expandedNodes = null;
 
     /**
      * Created an iterator originating at a start node.
@@ -91,6 +99,48 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
         return currentDepth;
     }
 
+    /**
+     * Specifies a predicate the end node of an edge must satisfy for the edge
+     * to be returned. Must be called before the iteration starts.
+     */
+    void setNodePredicate(NodePredicate nodePredicate) {
+        this.nodePredicate = nodePredicate;
+    }
+
+    /**
+     * Limits the time spent iterating. Must be called before the iteration
+     * starts.
+     */
+    void setBudget(TraversalBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Checks if the iteration was cut short by it's budget.
+     */
+    boolean isTruncated() {
+        return budget != null && budget.isTruncated();
+    }
+
+    /**
+     * Starts keeping track of the nodes whose out edges are read by this
+     * iterator. Must be called before the iteration starts.
+     */
+    void trackExpandedNodes() {
+        expandedNodes = new ArrayList<NodeID<T>>();
+        if (sourceNode != null)
+            expandedNodes.add(sourceNode.getNodeId());
+    }
+
+    /**
+     * Gets the nodes whose out edges have been read so far, i.e. the nodes
+     * this iteration depends on. Only available if
+     * {@link #trackExpandedNodes()} was called.
+     */
+    List<NodeID<T>> getExpandedNodes() {
+        return expandedNodes;
+    }
+
     public boolean hasNext() {
         if (sourceNode == null)
             return false;
@@ -104,10 +154,14 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
             return false; // We've filled the quota
         if (currentDepth > maxDepth)
             return false; // We've traversed too deeply
+        if (isTruncated())
+            return false; // We've run out of time
 
         // Iterate immediate out edges until a valid edge is found (if one
         // exists)
         while (edgeIterator.hasNext()) {
+            if (budget != null && budget.isExhausted())
+                return false; // We've run out of time
             if (traversedEdgeCount++ >= maxTraversedEdges)
                 return false; // We've traversed too many edges
             TraversableGraphEdge<T> edge = edgeIterator.next();
@@ -128,7 +182,10 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
                 neighborQueue.add(new NodeAndDepth<T>(endNode, currentDepth));
                 startNodes.add(endNode.getNodeId());
             }
-            // Check the filter
+            // Check the node predicate, then the filter
+            if (nodePredicate != null
+                && !nodePredicate.accepts(edge.getEndNodeIndex()))
+                continue;
             if (returnableFilter.accepts(startNode.getNodeId(),
                                          endNode.getNodeId())) {
                 nextEdge = edge;
@@ -141,6 +198,8 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
         if (!neighborQueue.isEmpty()) {
             NodeAndDepth<T> neighbor = neighborQueue.removeFirst();
             currentDepth = neighbor.depth + 1;
+            if (expandedNodes != null && currentDepth <= maxDepth)
+                expandedNodes.add(neighbor.node.getNodeId());
             this.edges = neighbor.node.traverseNeighbors(edgeType);
             return hasNext();
         }
@@ -171,6 +230,14 @@ public class GraphIterator<T> implements Iterator<GraphEdge<T>> {
                                 next.getWeight());
     }
 
+    /**
+     * Returns the next edge, without iterating passed it or creating any new
+     * objects. Only valid if {@link #hasNext()} returned true.
+     */
+    TraversableGraphEdge<T> peekNextEdge() {
+        return nextEdge;
+    }
+
     public void remove() {
         throw new UnsupportedOperationException();
     }
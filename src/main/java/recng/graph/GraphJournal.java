@@ -0,0 +1,386 @@
+package recng.graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.springframework.core.convert.converter.Converter;
+
+import recng.common.IDParser;
+import recng.common.Procedure;
+
+/**
+ * Makes a {@link MutableGraphImpl} survive crashes, by combining snapshots of
+ * the graph with a {@link MutationLog} of all mutations since the last
+ * snapshot.
+ *
+ * Opening the journal loads the latest snapshot and replays the log tail on
+ * top of it. Replay is done in parallel, with the records partitioned by start
+ * node, since the mutations of different start nodes are independent. The
+ * opened graph logs all following mutations.
+ *
+ * A checkpoint rolls the log and writes a snapshot of the graph, after which
+ * the log segments and snapshots it replaces are deleted. Checkpointing
+ * regularly thus keeps the recovery time bounded, no matter how long the graph
+ * has been running.
+ *
+ * The snapshot written by a checkpoint is numbered after the first log
+ * segment it does not cover, i.e. recovering from snapshot n replays the log
+ * segments numbered n and above.
+ *
+ * @author jon
+ */
+public class GraphJournal<T> implements Closeable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** The number of records replayed per batch */
+    private static final int BATCH_SIZE = 4096;
+    /** The number of batches queued per replay thread */
+    private static final int QUEUE_SIZE = 4;
+
+    private final File directory;
+    private final GraphMetadata metadata;
+    private final IDParser<T> idParser;
+    private final MutationLog<T> log;
+    private int replayThreads = Runtime.getRuntime().availableProcessors();
+    private MutableGraphImpl<T> graph = null;
+
+    /**
+     * Creates a journal keeping its snapshots and log segments in a
+     * directory.
+     */
+    public GraphJournal(File directory, GraphMetadata metadata,
+                        IDParser<T> idParser) {
+        this.directory = directory;
+        this.metadata = metadata;
+        this.idParser = idParser;
+        this.log = new MutationLog<T>(directory, metadata, idParser);
+    }
+
+    /**
+     * Sets the number of threads used to replay the log.
+     *
+     * Defaults to the number of available processors.
+     */
+    public GraphJournal<T> setReplayThreads(int replayThreads) {
+        if (replayThreads < 1)
+            throw new IllegalArgumentException("Illegal thread count: "
+                + replayThreads);
+        this.replayThreads = replayThreads;
+        return this;
+    }
+
+    /**
+     * Gets the mutation log, used to configure how often it's synced.
+     */
+    public MutationLog<T> getMutationLog() {
+        return log;
+    }
+
+    /**
+     * Recovers the graph from the latest snapshot and the log tail, and
+     * starts logging mutations.
+     */
+    public synchronized MutableGraph<T> open() {
+        if (graph != null)
+            throw new IllegalStateException("Journal already opened");
+        for (File file : listFiles(TEMP_SUFFIX)) {
+            // Left by a checkpoint that did not complete
+            if (!file.delete())
+                throw new IllegalStateException("Failed to delete " + file);
+        }
+        List<Integer> snapshots = getSnapshots();
+        int first = 0;
+        MutableGraphImpl<T> recovered;
+        if (snapshots.isEmpty()) {
+            recovered = new MutableGraphImpl<T>(metadata);
+        } else {
+            first = snapshots.get(snapshots.size() - 1);
+            recovered = loadSnapshot(getSnapshotFile(first));
+        }
+        List<Integer> segments = new ArrayList<Integer>();
+        for (int segment : log.getSegments()) {
+            if (segment >= first)
+                segments.add(segment);
+        }
+        replay(recovered, segments);
+        log.open();
+        recovered.setMutationLog(log);
+        this.graph = recovered;
+        return recovered;
+    }
+
+    /**
+     * Writes a snapshot of the graph, and deletes the log segments and
+     * snapshots it replaces.
+     *
+     * Mutations are never blocked, see
+     * {@link MutableGraphImpl#capture(MutationLog, int[])}.
+     */
+    public synchronized void checkpoint() {
+        if (graph == null)
+            throw new IllegalStateException("Journal not opened");
+        int[] segment = new int[1];
+        ImmutableGraphImpl<T> snapshot = graph.capture(log, segment);
+        File target = getSnapshotFile(segment[0]);
+        File temp = new File(directory, target.getName() + TEMP_SUFFIX);
+        GraphSnapshotExporter<T> exporter = new GraphSnapshotExporter<T>() {
+            @Override
+            protected String serializeNodeID(T nodeID) {
+                return idParser.serialize(nodeID);
+            }
+        };
+        exporter.exportGraph(snapshot, temp.getPath());
+        force(temp);
+        if (!temp.renameTo(target))
+            throw new IllegalStateException("Failed to rename " + temp
+                + " to " + target);
+        for (int existing : getSnapshots()) {
+            if (existing < segment[0]
+                && !getSnapshotFile(existing).delete())
+                throw new IllegalStateException("Failed to delete snapshot "
+                    + existing);
+        }
+        log.deleteSegmentsBefore(segment[0]);
+    }
+
+    /**
+     * Closes the mutation log. The graph must not be mutated afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        log.close();
+    }
+
+    private MutableGraphImpl<T> loadSnapshot(File file) {
+        Converter<String, T> idConverter = new Converter<String, T>() {
+            @Override
+            public T convert(String id) {
+                return idParser.parse(id);
+            }
+        };
+        Graph<T> snapshot =
+            new GraphSnapshotImporter<T>(metadata, idConverter)
+                .importGraph(file.getPath());
+        final MutableGraphImpl.Builder<T> builder =
+            new MutableGraphImpl.Builder<T>(metadata);
+        int nodeCount = snapshot.nodeCount();
+        for (int i = 0; i < nodeCount; i++)
+            builder.addOrGetNode(snapshot.getNode(i).getNodeId());
+        for (int i = 0; i < nodeCount; i++) {
+            final int startNode = i;
+            for (final EdgeType edgeType : metadata.getEdgeTypes()) {
+                snapshot.forEachNeighbor(i, edgeType, new IntFloatProcedure() {
+                    @Override
+                    public boolean apply(int endNode, float weight) {
+                        builder.addEdge(startNode, endNode, edgeType, weight);
+                        return true;
+                    }
+                });
+            }
+        }
+        return (MutableGraphImpl<T>) builder.build();
+    }
+
+    /**
+     * Replays log segments, in order, using one thread per partition of the
+     * start nodes.
+     */
+    private void replay(MutableGraphImpl<T> graph, List<Integer> segments) {
+        if (segments.isEmpty())
+            return;
+        final int partitions = replayThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        final List<BlockingQueue<List<MutationLog.Record<T>>>> queues =
+            new ArrayList<BlockingQueue<List<MutationLog.Record<T>>>>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < partitions; i++) {
+                BlockingQueue<List<MutationLog.Record<T>>> queue =
+                    new ArrayBlockingQueue<List<MutationLog.Record<T>>>(QUEUE_SIZE);
+                queues.add(queue);
+                futures.add(executor.submit(new Replayer<T>(graph, queue)));
+            }
+            final List<List<MutationLog.Record<T>>> batches =
+                new ArrayList<List<MutationLog.Record<T>>>();
+            for (int i = 0; i < partitions; i++)
+                batches.add(new ArrayList<MutationLog.Record<T>>());
+            try {
+                for (int segment : segments) {
+                    // A torn tail only loses records that were never
+                    // acknowledged, later segments are written after recovery
+                    log.read(segment, new Procedure<MutationLog.Record<T>>() {
+                        @Override
+                        public boolean apply(MutationLog.Record<T> record) {
+                            int partition =
+                                (record.getStartNode().hashCode() & 0x7fffffff)
+                                    % partitions;
+                            List<MutationLog.Record<T>> batch =
+                                batches.get(partition);
+                            batch.add(record);
+                            if (batch.size() >= BATCH_SIZE) {
+                                put(queues.get(partition), batch);
+                                batches.set(partition,
+                                            new ArrayList<MutationLog.Record<T>>());
+                            }
+                            return true;
+                        }
+                    });
+                }
+                for (int i = 0; i < partitions; i++) {
+                    if (!batches.get(i).isEmpty())
+                        put(queues.get(i), batches.get(i));
+                }
+            } finally {
+                // Signals the end of the log
+                for (BlockingQueue<List<MutationLog.Record<T>>> queue : queues)
+                    put(queue, Collections.<MutationLog.Record<T>> emptyList());
+            }
+            for (Future<Void> future : futures)
+                getResult(future);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <E> void put(BlockingQueue<E> queue, E element) {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during replay", e);
+        }
+    }
+
+    private static <V> V getResult(Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during replay", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Replay failed", e.getCause());
+        }
+    }
+
+    private List<Integer> getSnapshots() {
+        List<Integer> res = new ArrayList<Integer>();
+        for (File file : listFiles(SNAPSHOT_SUFFIX)) {
+            String name = file.getName();
+            if (!name.startsWith(SNAPSHOT_PREFIX))
+                continue;
+            try {
+                res.add(Integer.parseInt(name.substring(SNAPSHOT_PREFIX.length(),
+                                                        name.length()
+                                                            - SNAPSHOT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not a snapshot
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    private List<File> listFiles(String suffix) {
+        List<File> res = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files == null)
+            return res;
+        for (File file : files) {
+            if (file.getName().endsWith(suffix))
+                res.add(file);
+        }
+        return res;
+    }
+
+    private File getSnapshotFile(int segment) {
+        return new File(directory, String.format("%s%010d%s", SNAPSHOT_PREFIX,
+                                                 segment, SNAPSHOT_SUFFIX));
+    }
+
+    private static void force(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.getChannel().force(true);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to sync " + file, e);
+        }
+    }
+
+    /**
+     * Applies the batches of one partition, in order. Keeps taking batches
+     * after a failure, so that the reader never blocks.
+     */
+    private static class Replayer<T> implements Callable<Void> {
+
+        private final MutableGraphImpl<T> graph;
+        private final BlockingQueue<List<MutationLog.Record<T>>> queue;
+
+        private Replayer(MutableGraphImpl<T> graph,
+                         BlockingQueue<List<MutationLog.Record<T>>> queue) {
+            this.graph = graph;
+            this.queue = queue;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            RuntimeException failure = null;
+            while (true) {
+                List<MutationLog.Record<T>> records = queue.take();
+                if (records.isEmpty())
+                    break;
+                if (failure != null)
+                    continue;
+                try {
+                    apply(records);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return null;
+        }
+
+        /**
+         * Applies edge mutations in batches, and replaced edge lists one at a
+         * time.
+         */
+        private void apply(List<MutationLog.Record<T>> records) {
+            List<GraphMutation<T>> mutations = new ArrayList<GraphMutation<T>>();
+            for (MutationLog.Record<T> record : records) {
+                GraphMutation<T> mutation = record.getMutation();
+                if (mutation != null) {
+                    mutations.add(mutation);
+                    continue;
+                }
+                if (!mutations.isEmpty()) {
+                    graph.applyBatch(mutations);
+                    mutations.clear();
+                }
+                graph.setEdges(record.getStartNode(), record.getEdgeType(),
+                               record.getEndNodes(), record.getWeights());
+            }
+            if (!mutations.isEmpty())
+                graph.applyBatch(mutations);
+        }
+    }
+}
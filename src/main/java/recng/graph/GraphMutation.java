@@ -0,0 +1,65 @@
+package recng.graph;
+
+/**
+ * An edge addition, update or removal, used to apply many mutations to a
+ * {@link MutableGraph} at once.
+ *
+ * @author jon
+ */
+public class GraphMutation<T> extends GraphEdge<T> {
+
+    /**
+     * The kinds of edge mutations.
+     */
+    public static enum Operation {
+        ADD, UPDATE, REMOVE
+    }
+
+    private final Operation operation;
+
+    public GraphMutation(Operation operation, NodeID<T> startNode,
+                         NodeID<T> endNode, EdgeType type, float weight) {
+        super(startNode, endNode, type, weight);
+        if (operation == null)
+            throw new IllegalArgumentException("Null operation not allowed");
+        this.operation = operation;
+    }
+
+    /**
+     * Creates a mutation adding an edge.
+     */
+    public static <T> GraphMutation<T> add(NodeID<T> startNode,
+                                           NodeID<T> endNode, EdgeType type,
+                                           float weight) {
+        return new GraphMutation<T>(Operation.ADD, startNode, endNode, type,
+                                    weight);
+    }
+
+    /**
+     * Creates a mutation updating the weight of an edge.
+     */
+    public static <T> GraphMutation<T> update(NodeID<T> startNode,
+                                              NodeID<T> endNode, EdgeType type,
+                                              float weight) {
+        return new GraphMutation<T>(Operation.UPDATE, startNode, endNode,
+                                    type, weight);
+    }
+
+    /**
+     * Creates a mutation removing an edge.
+     */
+    public static <T> GraphMutation<T> remove(NodeID<T> startNode,
+                                              NodeID<T> endNode, EdgeType type) {
+        return new GraphMutation<T>(Operation.REMOVE, startNode, endNode,
+                                    type, 0f);
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", operation, super.toString());
+    }
+}
@@ -0,0 +1,23 @@
+package recng.graph;
+
+/**
+ * Classes that need to be notified about modifications of a
+ * {@link MutableGraph}, e.g. to invalidate derived data, should implement this
+ * interface.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public interface GraphMutationListener<T> {
+
+    /**
+     * Called after the out edges of a certain type have been modified for a
+     * node. The modification is visible to readers once this method is called.
+     *
+     * NOTE: This method is called in the writing thread, and should return
+     * quickly.
+     */
+    void edgesChanged(NodeID<T> startNode, EdgeType edgeType);
+}
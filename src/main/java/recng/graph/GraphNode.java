@@ -2,6 +2,8 @@ package recng.graph;
 
 import java.util.Iterator;
 
+import org.apache.mahout.math.function.IntFloatProcedure;
+
 /**
  * A node in a graph.
  *
@@ -24,6 +26,15 @@ interface GraphNode<T> {
      */
     void forEachNeighbor(EdgeType edgeType, NodeIDProcedure<T> proc);
 
+    /**
+     * Iterates all out edges for this node of a certain edge type, ordered by
+     * descending edge weight, and passes the primary key of the end node and
+     * the edge weight to the procedure. No stats are logged.
+     *
+     * Iteration will cease once the procedure call returns false.
+     */
+    void traverseNeighbors(EdgeType edgeType, IntFloatProcedure proc);
+
     /**
      * Return the node id.
      */
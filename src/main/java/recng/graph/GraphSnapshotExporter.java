@@ -0,0 +1,194 @@
+package recng.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+
+/**
+ * Exports graphs to file in a versioned binary snapshot format, which can be
+ * opened with a {@link GraphSnapshotImporter}.
+ *
+ * The file layout (big endian) is:
+ *
+ * <pre>
+ * Header:        int magic, int version, int node count, int edge type count
+ * Nodes:         (int node type ordinal, UTF node id) * node count
+ * Per edge type: (int end node, float weight) * edge count
+ *                int offsets * (node count + 1)
+ * Section table: (long edges position, long offsets position,
+ *                 int edge count) * edge type count
+ * Trailer:       long section table position, int magic
+ * </pre>
+ *
+ * The edges of node n are found at index offsets[n] .. offsets[n + 1] - 1 of
+ * the edge section, ordered by descending weight. Edge types without any
+ * edges have positions set to -1.
+ *
+ * @author jon
+ */
+public abstract class GraphSnapshotExporter<T> implements GraphExporter<T> {
+
+    /** Identifies a graph snapshot file. */
+    static final int MAGIC = 0x52475348;
+    /** The current version of the snapshot format. */
+    static final int VERSION = 1;
+    /** The size in bytes of a stored edge. */
+    static final int EDGE_SIZE = 8;
+    /** The size in bytes of the trailer. */
+    static final int TRAILER_SIZE = 12;
+
+    @Override
+    public void exportGraph(Graph<T> graph, String file) {
+        try {
+            CountingOutputStream out = null;
+            try {
+                out = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+                writeSnapshot(graph, out);
+            } finally {
+                if (out != null)
+                    out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeSnapshot(Graph<T> graph, CountingOutputStream out)
+        throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        int nodeCount = graph.nodeCount();
+        int edgeTypeCount = 0;
+        for (EdgeType edgeType : graph.getMetadata().getEdgeTypes())
+            edgeTypeCount = Math.max(edgeTypeCount, edgeType.ordinal() + 1);
+        EdgeType[] edgeTypes = new EdgeType[edgeTypeCount];
+        for (EdgeType edgeType : graph.getMetadata().getEdgeTypes())
+            edgeTypes[edgeType.ordinal()] = edgeType;
+
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(nodeCount);
+        dos.writeInt(edgeTypeCount);
+
+        for (int i = 0; i < nodeCount; i++) {
+            NodeID<T> nodeId = getNodeId(graph, i);
+            dos.writeInt(nodeId.getNodeType().ordinal());
+            dos.writeUTF(serializeNodeID(nodeId.getID()));
+        }
+
+        long[] edgePositions = new long[edgeTypeCount];
+        long[] offsetPositions = new long[edgeTypeCount];
+        int[] edgeCounts = new int[edgeTypeCount];
+        int[] offsets = new int[nodeCount + 1];
+        EdgeWriter writer = new EdgeWriter(dos);
+        for (int type = 0; type < edgeTypeCount; type++) {
+            EdgeType edgeType = edgeTypes[type];
+            long edgePosition = out.getCount();
+            writer.count = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                offsets[i] = writer.count;
+                if (edgeType == null)
+                    continue;
+                graph.forEachNeighbor(i, edgeType, writer);
+                if (writer.error != null)
+                    throw writer.error;
+            }
+            int edgeCount = writer.count;
+            offsets[nodeCount] = edgeCount;
+            if (edgeCount == 0) {
+                edgePositions[type] = -1;
+                offsetPositions[type] = -1;
+                continue;
+            }
+            long offsetPosition = out.getCount();
+            for (int offset : offsets)
+                dos.writeInt(offset);
+            edgePositions[type] = edgePosition;
+            offsetPositions[type] = offsetPosition;
+            edgeCounts[type] = edgeCount;
+        }
+
+        long sectionTablePosition = out.getCount();
+        for (int type = 0; type < edgeTypeCount; type++) {
+            dos.writeLong(edgePositions[type]);
+            dos.writeLong(offsetPositions[type]);
+            dos.writeInt(edgeCounts[type]);
+        }
+        dos.writeLong(sectionTablePosition);
+        dos.writeInt(MAGIC);
+        dos.flush();
+    }
+
+    private static <T> NodeID<T> getNodeId(Graph<T> graph, int primaryKey) {
+        GraphNode<T> node = graph.getNode(primaryKey);
+        if (node == null)
+            throw new IllegalStateException("No node with primary key "
+                + primaryKey);
+        return node.getNodeId();
+    }
+
+    /**
+     * Serialized a node to a string.
+     */
+    protected abstract String serializeNodeID(T nodeID);
+
+    /**
+     * Writes the end node primary key and weight of each traversed edge.
+     */
+    private static class EdgeWriter implements IntFloatProcedure {
+
+        private final DataOutputStream dos;
+        private int count = 0;
+        private IOException error = null;
+
+        public EdgeWriter(DataOutputStream dos) {
+            this.dos = dos;
+        }
+
+        @Override
+        public boolean apply(int endNode, float weight) {
+            try {
+                dos.writeInt(endNode);
+                dos.writeFloat(weight);
+                count++;
+                return true;
+            } catch (IOException e) {
+                error = e;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the number of bytes written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package recng.graph;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.mahout.math.map.AbstractObjectIntMap;
+import org.apache.mahout.math.map.OpenObjectIntHashMap;
+import org.springframework.core.convert.converter.Converter;
+
+/**
+ * Opens graph snapshots written by a {@link GraphSnapshotExporter}.
+ *
+ * The node id dictionary is read into memory, while the edges are memory
+ * mapped and served directly from the mapped pages by the returned
+ * {@link MappedGraphImpl}. Startup time is thus proportional to the number of
+ * nodes, not the number of edges.
+ *
+ * @author jon
+ */
+public class GraphSnapshotImporter<T> implements GraphImporter<T> {
+
+    private static final int HEADER_SIZE = 16;
+
+    private final GraphMetadata metadata;
+    private final Map<Integer, NodeType> nodeTypes = new HashMap<Integer, NodeType>();
+    private final Converter<String, T> idConverter;
+
+    public GraphSnapshotImporter(GraphMetadata metadata,
+                                 Converter<String, T> idConverter) {
+        this.metadata = metadata;
+        this.idConverter = idConverter;
+        for (NodeType nodeType : metadata.getNodeTypes())
+            nodeTypes.put(nodeType.ordinal(), nodeType);
+    }
+
+    @Override
+    public Graph<T> importGraph(String file) {
+        try {
+            return openSnapshot(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Import failed", e);
+        }
+    }
+
+    private MappedGraphImpl<T> openSnapshot(String file) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length < HEADER_SIZE + GraphSnapshotExporter.TRAILER_SIZE)
+                throw new IllegalArgumentException("Not a graph snapshot: "
+                    + file);
+
+            raf.seek(length - GraphSnapshotExporter.TRAILER_SIZE);
+            long sectionTablePosition = raf.readLong();
+            checkMagic(raf.readInt(), file);
+
+            raf.seek(0);
+            checkMagic(raf.readInt(), file);
+            int version = raf.readInt();
+            if (version != GraphSnapshotExporter.VERSION)
+                throw new IllegalArgumentException("Unsupported snapshot " +
+                    "version: " + version);
+            int nodeCount = raf.readInt();
+            int edgeTypeCount = raf.readInt();
+
+            AbstractObjectIntMap<NodeID<T>> nodeIndex =
+                new OpenObjectIntHashMap<NodeID<T>>(nodeCount);
+            NodeID<T>[] nodeIds = readNodes(file, nodeCount, nodeIndex);
+
+            FileChannel channel = raf.getChannel();
+            ByteBuffer[] edges = new ByteBuffer[edgeTypeCount];
+            ByteBuffer[] offsets = new ByteBuffer[edgeTypeCount];
+            raf.seek(sectionTablePosition);
+            for (int type = 0; type < edgeTypeCount; type++) {
+                long edgePosition = raf.readLong();
+                long offsetPosition = raf.readLong();
+                int edgeCount = raf.readInt();
+                if (edgeCount == 0)
+                    continue;
+                edges[type] =
+                    map(channel, edgePosition,
+                        (long) edgeCount * GraphSnapshotExporter.EDGE_SIZE);
+                offsets[type] =
+                    map(channel, offsetPosition, (nodeCount + 1L) * 4);
+            }
+            return new MappedGraphImpl<T>(metadata, nodeIndex, nodeIds, edges,
+                                          offsets);
+        } finally {
+            // The mapped buffers stay valid after the channel is closed
+            if (raf != null)
+                raf.close();
+        }
+    }
+
+    private NodeID<T>[] readNodes(String file, int nodeCount,
+                                  AbstractObjectIntMap<NodeID<T>> nodeIndex)
+        throws IOException {
+        NodeID<T>[] nodeIds = NodeID.newArray(nodeCount);
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            dis.skipBytes(HEADER_SIZE);
+            for (int i = 0; i < nodeCount; i++) {
+                int type = dis.readInt();
+                NodeType nodeType = nodeTypes.get(type);
+                if (nodeType == null)
+                    throw new IllegalArgumentException("Illegal node type : "
+                        + type);
+                NodeID<T> nodeId =
+                    new NodeID<T>(idConverter.convert(dis.readUTF()), nodeType);
+                nodeIds[i] = nodeId;
+                nodeIndex.put(nodeId, i);
+            }
+        } finally {
+            if (dis != null)
+                dis.close();
+        }
+        return nodeIds;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size)
+        throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Snapshot section too large: "
+                + size);
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private static void checkMagic(int magic, String file) {
+        if (magic != GraphSnapshotExporter.MAGIC)
+            throw new IllegalArgumentException("Not a graph snapshot: " + file);
+    }
+}
@@ -35,6 +35,31 @@ public interface GraphStats {
      */
     void incTraversedEdges(int delta);
 
+    /**
+     * Records a batch of traversals at once.
+     *
+     * @param traversals
+     *            The number of traversals in the batch.
+     * @param traversedEdges
+     *            The total number of edges traversed in the batch.
+     * @param maxTraversedEdges
+     *            The max number of edges traversed in a single traversal in
+     *            the batch.
+     */
+    void addTraversals(int traversals, int traversedEdges,
+                       int maxTraversedEdges);
+
+    /**
+     * Gets the number of traversals cut short by their deadline or by being
+     * cancelled.
+     */
+    int getTruncatedTraversals();
+
+    /**
+     * Increments the number of truncated traversals by 1.
+     */
+    void incTruncatedTraversals();
+
     /**
      * Gets the max number of edges traversed in a single traversal.
      */
@@ -15,12 +15,14 @@ public class GraphStatsImpl implements GraphStats {
     private final AtomicInteger traversals;
     private final AtomicInteger traversedEdges;
     private final AtomicInteger maxTraversedEdges;
+    private final AtomicInteger truncatedTraversals;
 
     public GraphStatsImpl() {
         this.initTime = new Date();
         this.traversals = new AtomicInteger();
         this.maxTraversedEdges = new AtomicInteger();
         this.traversedEdges = new AtomicInteger();
+        this.truncatedTraversals = new AtomicInteger();
     }
 
     @Override
@@ -43,6 +45,16 @@ public class GraphStatsImpl implements GraphStats {
         return traversedEdges.get();
     }
 
+    @Override
+    public int getTruncatedTraversals() {
+        return truncatedTraversals.get();
+    }
+
+    @Override
+    public void incTruncatedTraversals() {
+        truncatedTraversals.incrementAndGet();
+    }
+
     @Override
     public int getMaxTraversedEdges() {
         return maxTraversedEdges.get();
@@ -57,6 +69,17 @@ public class GraphStatsImpl implements GraphStats {
         }
     }
 
+    @Override
+    public void addTraversals(int traversals, int traversedEdges,
+                              int maxTraversedEdges) {
+        this.traversals.addAndGet(traversals);
+        this.traversedEdges.addAndGet(traversedEdges);
+        if (this.maxTraversedEdges.get() < maxTraversedEdges) {
+            // Not totally synchronized here, but that shouln't matter much
+            this.maxTraversedEdges.set(maxTraversedEdges);
+        }
+    }
+
     @Override
     public String toString() {
         int nofTraversals = getTraversals();
@@ -68,8 +91,10 @@ public class GraphStatsImpl implements GraphStats {
                                  "Traversals: %d\n" +
                                  "Tot traversed edges: %d\n" +
                                  "Max traversed edges for a traversal: %d\n" +
-                                 "Avg traversed edges per traversal: %.1f",
+                                 "Avg traversed edges per traversal: %.1f\n" +
+                                 "Truncated traversals: %d",
                              initTime, nofTraversals,
-                             travEdges, maxTraversedEdges.get(), avgTraversedEdges);
+                             travEdges, maxTraversedEdges.get(), avgTraversedEdges,
+                             truncatedTraversals.get());
     }
 }
@@ -25,6 +25,14 @@ public class ImmutableGraphImpl<T> extends AbstractGraph<T> {
                                AbstractObjectIntMap<NodeID<T>> nodeIndex,
                                List<NodeID<T>> nodes,
                                List<LongArrayList[]> edges) {
+        this(metadata, nodeIndex, nodes, edges, true);
+    }
+
+    private ImmutableGraphImpl(GraphMetadata metadata,
+                               AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                               List<NodeID<T>> nodes,
+                               List<LongArrayList[]> edges,
+                               boolean registerMBean) {
         super(metadata);
         this.nodeIndex = nodeIndex;
         this.nodes = new ArrayList<GraphNode<T>>();
@@ -42,13 +50,29 @@ public class ImmutableGraphImpl<T> extends AbstractGraph<T> {
                     edgeLists[j] = new LongArrayList(0);
                 } else {
                     edgeLists[j] = el;
+                    countEdges(nodeId.getNodeType(), j, el.size());
                 }
                 j++;
             }
             GraphNode<T> node = new ImmutableGraphNodeImpl<T>(this, nodeId, edgeLists);
+            indexNode(this.nodes.size(), nodeId.getNodeType());
             this.nodes.add(node);
         }
-        JMXUtils.registerMBean(new JMXGraph<T>(this));
+        if (registerMBean)
+            JMXUtils.registerMBean(new JMXGraph<T>(this));
+    }
+
+    /**
+     * Creates a graph sharing the given edge lists, which must not be
+     * modified afterwards. Used for internal copies of other graphs, which
+     * are not registered as MBeans.
+     */
+    static <T> ImmutableGraphImpl<T>
+        copyOf(GraphMetadata metadata,
+               AbstractObjectIntMap<NodeID<T>> nodeIndex,
+               List<NodeID<T>> nodes, List<LongArrayList[]> edges) {
+        return new ImmutableGraphImpl<T>(metadata, nodeIndex, nodes, edges,
+                                         false);
     }
 
     @Override
@@ -2,6 +2,7 @@ package recng.graph;
 
 import java.util.Iterator;
 
+import org.apache.mahout.math.function.IntFloatProcedure;
 import org.apache.mahout.math.list.LongArrayList;
 
 /**
@@ -24,6 +25,11 @@ public class ImmutableGraphNodeImpl<T> extends AbstractGraphNode<T> {
         return traverseEdges(edgeType, getOutEdges(edgeType));
     }
 
+    @Override
+    public void traverseNeighbors(EdgeType edgeType, IntFloatProcedure proc) {
+        traverseEdges(getOutEdges(edgeType), proc);
+    }
+
     @Override
     public int getEdgeCount() {
         LongArrayList[] outEdges = getOutEdges();
@@ -0,0 +1,57 @@
+package recng.graph;
+
+import java.util.Date;
+
+/**
+ * Describes the progress of a graph import.
+ *
+ * @author jon
+ *
+ */
+public interface ImportStats {
+
+    /**
+     * Gets the time the import was started, or null if not yet started.
+     */
+    Date getStartTime();
+
+    /**
+     * Checks if the import is currently running.
+     */
+    boolean isRunning();
+
+    /**
+     * Gets the number of imported node rows.
+     */
+    long getNodeRows();
+
+    /**
+     * Increments the number of imported node rows by the delta.
+     */
+    void incNodeRows(int delta);
+
+    /**
+     * Gets the number of imported edge rows.
+     */
+    long getEdgeRows();
+
+    /**
+     * Increments the number of imported edge rows by the delta.
+     */
+    void incEdgeRows(int delta);
+
+    /**
+     * Gets the number of rows that could not be parsed.
+     */
+    long getParseErrors();
+
+    /**
+     * Increments the number of rows that could not be parsed by the delta.
+     */
+    void incParseErrors(int delta);
+
+    /**
+     * Gets the average number of imported rows per second.
+     */
+    double getRowsPerSecond();
+}
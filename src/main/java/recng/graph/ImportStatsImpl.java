@@ -0,0 +1,98 @@
+package recng.graph;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base import stats implementation.
+ *
+ * @author jon
+ *
+ */
+public class ImportStatsImpl implements ImportStats {
+
+    private final AtomicLong nodeRows = new AtomicLong();
+    private final AtomicLong edgeRows = new AtomicLong();
+    private final AtomicLong parseErrors = new AtomicLong();
+    private volatile long startTime = -1;
+    private volatile long endTime = -1;
+
+    /**
+     * Marks the start of an import, resetting all counters.
+     */
+    public void start() {
+        nodeRows.set(0);
+        edgeRows.set(0);
+        parseErrors.set(0);
+        endTime = -1;
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the end of an import.
+     */
+    public void stop() {
+        endTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public Date getStartTime() {
+        return startTime < 0 ? null : new Date(startTime);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return startTime >= 0 && endTime < 0;
+    }
+
+    @Override
+    public long getNodeRows() {
+        return nodeRows.get();
+    }
+
+    @Override
+    public void incNodeRows(int delta) {
+        nodeRows.addAndGet(delta);
+    }
+
+    @Override
+    public long getEdgeRows() {
+        return edgeRows.get();
+    }
+
+    @Override
+    public void incEdgeRows(int delta) {
+        edgeRows.addAndGet(delta);
+    }
+
+    @Override
+    public long getParseErrors() {
+        return parseErrors.get();
+    }
+
+    @Override
+    public void incParseErrors(int delta) {
+        parseErrors.addAndGet(delta);
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        if (startTime < 0)
+            return 0;
+        long end = endTime < 0 ? System.currentTimeMillis() : endTime;
+        long millis = Math.max(1, end - startTime);
+        return 1000d * (getNodeRows() + getEdgeRows()) / millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Start time: %s\n" +
+                                 "Running: %s\n" +
+                                 "Node rows: %d\n" +
+                                 "Edge rows: %d\n" +
+                                 "Parse errors: %d\n" +
+                                 "Rows per second: %.1f",
+                             getStartTime(), isRunning(), getNodeRows(),
+                             getEdgeRows(), getParseErrors(), getRowsPerSecond());
+    }
+}
@@ -0,0 +1,115 @@
+package recng.graph;
+
+import org.apache.mahout.math.list.FloatArrayList;
+import org.apache.mahout.math.list.IntArrayList;
+
+/**
+ * A cursor over the edges returned from a traversal performed by an
+ * {@link IndexTraverser}. Nodes are represented by their primary keys.
+ *
+ * A cursor is owned by the traverser that created it and is reused for every
+ * traversal, i.e. it is only valid until the next traversal is started.
+ *
+ * Usage:
+ *
+ * <pre>
+ * IndexCursor cursor = traverser.traverse(source);
+ * while (cursor.next()) {
+ *     int endNode = cursor.getEndNode();
+ *     float weight = cursor.getWeight();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author jon
+ *
+ */
+public class IndexCursor {
+
+    private final IntArrayList startNodes = new IntArrayList();
+    private final IntArrayList endNodes = new IntArrayList();
+    private final FloatArrayList weights = new FloatArrayList();
+    private final IntArrayList depths = new IntArrayList();
+    private int position = -1;
+
+    IndexCursor() {
+    }
+
+    /**
+     * Moves the cursor to the next edge.
+     *
+     * @return True if there was a next edge, false if the cursor is exhausted.
+     */
+    public boolean next() {
+        if (position >= endNodes.size())
+            return false;
+        return ++position < endNodes.size();
+    }
+
+    /**
+     * Gets the primary key of the start node of the current edge.
+     */
+    public int getStartNode() {
+        checkPosition();
+        return startNodes.getQuick(position);
+    }
+
+    /**
+     * Gets the primary key of the end node of the current edge.
+     */
+    public int getEndNode() {
+        checkPosition();
+        return endNodes.getQuick(position);
+    }
+
+    /**
+     * Gets the weight of the current edge.
+     */
+    public float getWeight() {
+        checkPosition();
+        return weights.getQuick(position);
+    }
+
+    /**
+     * Gets the depth of the current edge, i.e. the number of edges between the
+     * source node and the end node of the current edge.
+     */
+    public int getDepth() {
+        checkPosition();
+        return depths.getQuick(position);
+    }
+
+    /**
+     * Gets the total number of edges in this cursor.
+     */
+    public int size() {
+        return endNodes.size();
+    }
+
+    /**
+     * Moves the cursor back to before the first edge.
+     */
+    public void rewind() {
+        position = -1;
+    }
+
+    void clear() {
+        startNodes.clear();
+        endNodes.clear();
+        weights.clear();
+        depths.clear();
+        position = -1;
+    }
+
+    void add(int startNode, int endNode, float weight, int depth) {
+        startNodes.add(startNode);
+        endNodes.add(endNode);
+        weights.add(weight);
+        depths.add(depth);
+    }
+
+    private void checkPosition() {
+        if (position < 0 || position >= endNodes.size())
+            throw new IllegalStateException("No current edge");
+    }
+}
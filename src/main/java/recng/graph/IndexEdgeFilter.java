@@ -0,0 +1,21 @@
+package recng.graph;
+
+/**
+ * Used to filter edges during graph traversal over node primary keys.
+ *
+ * @author jon
+ *
+ */
+public interface IndexEdgeFilter {
+
+    /**
+     * Decides whether or not to accept an edge.
+     *
+     * @param startNode
+     *            The primary key of the start node.
+     * @param endNode
+     *            The primary key of the end node.
+     */
+    boolean accepts(int startNode, int endNode);
+
+}
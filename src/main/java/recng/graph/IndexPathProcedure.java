@@ -0,0 +1,25 @@
+package recng.graph;
+
+/**
+ * A procedure accepting the traversed path from a source node, identified by
+ * primary keys, as input.
+ *
+ * @author jon
+ *
+ */
+public interface IndexPathProcedure {
+
+    /**
+     * Applies the procedure to a traversed path.
+     *
+     * NOTE: The cursor is reused for the next traversal in the same thread, and
+     * is only valid until this method returns.
+     *
+     * @param source
+     *            The primary key of the source node.
+     * @param path
+     *            The traversed edges, in the order they were traversed.
+     * @return False to cancel any remaining traversals, true otherwise.
+     */
+    boolean apply(int source, IndexCursor path);
+}
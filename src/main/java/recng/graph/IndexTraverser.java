@@ -0,0 +1,296 @@
+package recng.graph;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.list.IntArrayList;
+
+/**
+ * A traverser working directly on node primary keys, intended for hot
+ * traversal paths.
+ *
+ * Traversals follow the same rules, and return the same edges in the same
+ * order, as a {@link Traverser} configured the same way. However, no edge or
+ * node objects are created during the traversal. Edges are either passed to
+ * an {@link IntFloatProcedure} as (end node, weight) pairs, or collected in a
+ * reusable {@link IndexCursor}. The visited node sets and the node queue are
+ * pooled per thread and reused between traversals.
+ *
+ * A traverser instance can be used for any number of traversals, but is not
+ * thread safe. Keep one instance per thread (and edge type) to avoid
+ * allocations altogether.
+ *
+ * @author jon
+ *
+ */
+public class IndexTraverser {
+
+    private static final ThreadLocal<TraversalState> STATE =
+        new ThreadLocal<TraversalState>() {
+            @Override
+            protected TraversalState initialValue() {
+                return new TraversalState();
+            }
+        };
+
+    private final AbstractGraph<?> graph;
+    private final EdgeType edgeType;
+    private IndexEdgeFilter returnableFilter = null;
+    private NodePredicate nodePredicate = null;
+    private int maxDepth = 1;
+    private int maxReturnedEdges = Integer.MAX_VALUE;
+    private int maxTraversedEdges = Integer.MAX_VALUE;
+    private IndexCursor cursor = null;
+    private boolean logStats = true;
+    private int traversedEdgeCount = 0;
+
+    /**
+     * Creates a traverser.
+     *
+     * @param graph
+     *            The graph to traverse.
+     * @param edgeType
+     *            The type of edges to follow.
+     */
+    IndexTraverser(AbstractGraph<?> graph, EdgeType edgeType) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        this.graph = graph;
+        this.edgeType = edgeType;
+    }
+
+    /**
+     * Specifies a filter used to decide if a traversed edge should be included
+     * in the result, or null to include all edges.
+     */
+    public IndexTraverser setReturnableFilter(IndexEdgeFilter returnableFilter) {
+        this.returnableFilter = returnableFilter;
+        return this;
+    }
+
+    /**
+     * Specifies a predicate the end node of a traversed edge must satisfy for
+     * the edge to be included in the result, or null to include all edges.
+     * Evaluated before the returnable filter.
+     */
+    public IndexTraverser setNodePredicate(NodePredicate nodePredicate) {
+        this.nodePredicate = nodePredicate;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum depth of the traversal.
+     */
+    public IndexTraverser setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of edges that may be returned.
+     */
+    public IndexTraverser setMaxReturnedEdges(int maxReturnedEdges) {
+        this.maxReturnedEdges = maxReturnedEdges;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of edges that may be traversed.
+     */
+    public IndexTraverser setMaxTraversedEdges(int maxTraversedEdges) {
+        this.maxTraversedEdges = maxTraversedEdges;
+        return this;
+    }
+
+    public EdgeType getEdgeType() {
+        return edgeType;
+    }
+
+    /**
+     * Specifies whether each traversal should be recorded in the graph stats.
+     * Callers running many traversals may turn this off, and record them in
+     * bulk instead.
+     */
+    void setLogStats(boolean logStats) {
+        this.logStats = logStats;
+    }
+
+    /**
+     * Gets the number of edges traversed in the latest traversal.
+     */
+    int getTraversedEdgeCount() {
+        return traversedEdgeCount;
+    }
+
+    /**
+     * Traverses the graph from a source node, passing the primary key of the
+     * end node and the weight of each returned edge to the procedure.
+     *
+     * The traversal will cease once the procedure call returns false.
+     *
+     * @return The number of returned edges.
+     */
+    public int traverse(int source, IntFloatProcedure proc) {
+        if (proc == null)
+            throw new IllegalArgumentException("Null procedure not allowed");
+        return run(source, proc, null);
+    }
+
+    /**
+     * Traverses the graph from a source node and collects all returned edges
+     * in a cursor.
+     *
+     * NOTE: The cursor is reused by this traverser, and is only valid until
+     * the next traversal.
+     */
+    public IndexCursor traverse(int source) {
+        if (cursor == null)
+            cursor = new IndexCursor();
+        cursor.clear();
+        run(source, null, cursor);
+        return cursor;
+    }
+
+    private int run(int source, IntFloatProcedure proc, IndexCursor collector) {
+        TraversalState state = STATE.get();
+        if (state.inUse) // Nested traversal from within a procedure
+            state = new TraversalState();
+        state.inUse = true;
+        try {
+            state.init(this, source, proc, collector);
+            state.traverse();
+            traversedEdgeCount = state.traversedEdgeCount;
+            if (logStats) {
+                GraphStats stats = graph.getStats();
+                stats.incTraversals();
+                stats.incTraversedEdges(traversedEdgeCount);
+            }
+            return state.returnedEdgeCount;
+        } finally {
+            state.reset();
+        }
+    }
+
+    /**
+     * Holds the state of a single traversal. Instances are pooled per thread.
+     *
+     * The traversal is a breadth first search replicating the rules of
+     * {@link GraphIterator}.
+     */
+    private static class TraversalState implements IntFloatProcedure {
+
+        // Avoid duplicates among returned end nodes
+        private final StampedIntSet returnedNodes = new StampedIntSet();
+        // Used to avoid using the same start node twice
+        private final StampedIntSet startNodes = new StampedIntSet();
+        // Queued nodes and depths used when traversing at a depth > 1
+        private final IntArrayList queuedNodes = new IntArrayList();
+        private final IntArrayList queuedDepths = new IntArrayList();
+
+        private boolean inUse = false;
+
+        private AbstractGraph<?> graph;
+        private EdgeType edgeType;
+        private IndexEdgeFilter returnableFilter;
+        private NodePredicate nodePredicate;
+        private int maxDepth;
+        private int maxReturnedEdges;
+        private int maxTraversedEdges;
+        private IntFloatProcedure proc;
+        private IndexCursor collector;
+
+        private int source;
+        private int currentNode;
+        private int currentDepth;
+        private int returnedEdgeCount;
+        private int traversedEdgeCount;
+        private boolean done;
+
+        private void init(IndexTraverser traverser, int source,
+                          IntFloatProcedure proc, IndexCursor collector) {
+            this.graph = traverser.graph;
+            this.edgeType = traverser.edgeType;
+            this.returnableFilter = traverser.returnableFilter;
+            this.nodePredicate = traverser.nodePredicate;
+            this.maxDepth = traverser.maxDepth;
+            this.maxReturnedEdges = traverser.maxReturnedEdges;
+            this.maxTraversedEdges = traverser.maxTraversedEdges;
+            this.proc = proc;
+            this.collector = collector;
+            this.source = source;
+            this.currentNode = source;
+            this.currentDepth = 1;
+            this.returnedEdgeCount = 0;
+            this.traversedEdgeCount = 0;
+            this.done = false;
+        }
+
+        private void traverse() {
+            if (source < 0 || source >= graph.nodeCount())
+                return; // No such node
+            if (maxReturnedEdges <= 0 || maxDepth < 1)
+                return;
+            int head = 0;
+            while (true) {
+                graph.traverseNeighbors(currentNode, edgeType, this);
+                if (done || head == queuedNodes.size())
+                    return;
+                // Descend one level deeper into the graph
+                currentNode = queuedNodes.getQuick(head);
+                currentDepth = queuedDepths.getQuick(head) + 1;
+                head++;
+                if (currentDepth > maxDepth)
+                    return;
+            }
+        }
+
+        @Override
+        public boolean apply(int endNode, float weight) {
+            if (traversedEdgeCount++ >= maxTraversedEdges) {
+                done = true; // We've traversed too many edges
+                return false;
+            }
+            if (endNode == currentNode)
+                throw new IllegalStateException("Illegal edge: " + currentNode
+                    + " -> " + endNode);
+            if (endNode == source)
+                return true; // Avoid loops
+            if (returnedNodes.contains(endNode))
+                return true; // Avoid duplicates
+            if (startNodes.add(endNode)) {
+                // Add the end node as a potential start node for further
+                // traversal
+                queuedNodes.add(endNode);
+                queuedDepths.add(currentDepth);
+            }
+            if (nodePredicate != null && !nodePredicate.accepts(endNode))
+                return true;
+            if (returnableFilter != null
+                && !returnableFilter.accepts(currentNode, endNode))
+                return true;
+            returnedNodes.add(endNode);
+            returnedEdgeCount++;
+            boolean proceed = true;
+            if (proc != null)
+                proceed = proc.apply(endNode, weight);
+            else
+                collector.add(currentNode, endNode, weight, currentDepth);
+            if (!proceed || returnedEdgeCount >= maxReturnedEdges) {
+                done = true;
+                return false;
+            }
+            return true;
+        }
+
+        private void reset() {
+            returnedNodes.clear();
+            startNodes.clear();
+            queuedNodes.clear();
+            queuedDepths.clear();
+            graph = null;
+            returnableFilter = null;
+            nodePredicate = null;
+            proc = null;
+            collector = null;
+            inUse = false;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package recng.graph;
+
+import java.util.Arrays;
+
+import org.apache.mahout.math.list.LongArrayList;
+
+/**
+ * A list of out edges with an index from end node to weight, used for the
+ * edge lists of high degree nodes in a {@link MutableGraphImpl}. The weight of
+ * the edge to an end node, and whether there is one, is found without
+ * scanning the list, while the list itself keeps its order for traversal.
+ *
+ * The index is a {@link PersistentIntFloatMap}. A copy of the list shares it
+ * with the original, and each mutation of the copy derives a new version for
+ * only the changed end node. Since the index holds no positions, edges that
+ * shift within the list need no reindexing. A list with several edges to the
+ * same end node is not indexed, and is searched like any other list.
+ *
+ * @author jon
+ */
+final class IndexedEdgeList extends LongArrayList {
+
+    private static final long serialVersionUID = 202610181650L;
+
+    /** Lists with at least this many edges are indexed, unless configured */
+    static final int DEFAULT_MIN_SIZE = 64;
+
+    /** End node -> weight. Null if the list is not indexed. */
+    private PersistentIntFloatMap weights;
+
+    private IndexedEdgeList(long[] edges, PersistentIntFloatMap weights) {
+        super(edges);
+        this.weights = weights;
+    }
+
+    /**
+     * Indexes a list that has at least a certain number of edges, unless it
+     * has several edges to the same end node. An indexed list, or one whose
+     * index was dropped, is returned as is, so that a dropped index is not
+     * rebuilt on every mutation.
+     *
+     * @return The indexed list, or the list itself.
+     */
+    static LongArrayList index(LongArrayList edges, int minSize) {
+        if (edges == null || edges.size() < minSize
+            || edges instanceof IndexedEdgeList)
+            return edges;
+        IndexedEdgeList res =
+            new IndexedEdgeList(Arrays.copyOf(edges.elements(), edges.size()),
+                                null);
+        res.rebuild();
+        return res.weights != null ? res : edges;
+    }
+
+    /**
+     * Checks if a list is an indexed list with a valid index.
+     */
+    static boolean isIndexed(LongArrayList edges) {
+        return edges instanceof IndexedEdgeList
+            && ((IndexedEdgeList) edges).weights != null;
+    }
+
+    @Override
+    public IndexedEdgeList copy() {
+        // Keeps the spare capacity, so that an added edge fits in the copy
+        IndexedEdgeList res =
+            new IndexedEdgeList(elements().clone(), weights);
+        res.setSize(size());
+        return res;
+    }
+
+    /**
+     * Checks if there is an edge to an end node. The list must be indexed.
+     */
+    boolean contains(int endNode) {
+        return weights.containsKey(endNode);
+    }
+
+    /**
+     * Gets the weight of the edge to an end node, or NaN if there is none.
+     * The list must be indexed.
+     */
+    float getWeight(int endNode) {
+        return weights.get(endNode);
+    }
+
+    /**
+     * Indexes the weight of an added or updated edge.
+     */
+    void index(int endNode, float weight) {
+        weights = weights.put(endNode, weight);
+    }
+
+    /**
+     * Removes an end node from the index, when its edge is removed.
+     */
+    void unindex(int endNode) {
+        weights = weights.remove(endNode);
+    }
+
+    /**
+     * Drops the index, when an edge to an end node already in the list is
+     * added.
+     */
+    void drop() {
+        weights = null;
+    }
+
+    /**
+     * Indexes all edges after the list was modified in bulk, or drops the
+     * index if there are several edges to the same end node.
+     */
+    void rebuild() {
+        int size = size();
+        long[] elements = elements();
+        int[] endNodes = new int[size];
+        float[] edgeWeights = new float[size];
+        for (int i = 0; i < size; i++) {
+            endNodes[i] = AbstractGraphNode.getEndNodeIndex(elements[i]);
+            edgeWeights[i] = AbstractGraphNode.getWeight(elements[i]);
+        }
+        weights = PersistentIntFloatMap.of(endNodes, edgeWeights, size);
+    }
+}
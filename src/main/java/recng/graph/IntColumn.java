@@ -0,0 +1,85 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A named int attribute for each node, indexed by node primary key. Nodes
+ * without a value get the default value of the column.
+ *
+ * Reads never block. Writes are serialized, and grow the column as needed.
+ *
+ * This class is thread safe.
+ *
+ * @author jon
+ *
+ */
+public class IntColumn {
+
+    private final String name;
+    private final int defaultValue;
+    private final Object lock = new Object();
+    private volatile AtomicIntegerArray values = new AtomicIntegerArray(0);
+
+    IntColumn(String name, int defaultValue) {
+        this.name = name;
+        this.defaultValue = defaultValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Gets the value for a node.
+     */
+    public int get(int node) {
+        AtomicIntegerArray current = values;
+        if (node < 0 || node >= current.length())
+            return defaultValue;
+        return current.get(node);
+    }
+
+    /**
+     * Sets the value for a node.
+     */
+    public void set(int node, int value) {
+        if (node < 0)
+            throw new IllegalArgumentException("Illegal node: " + node);
+        synchronized (lock) {
+            AtomicIntegerArray current = values;
+            if (node >= current.length()) {
+                if (value == defaultValue)
+                    return;
+                current = grow(current, node + 1);
+            }
+            current.set(node, value);
+        }
+    }
+
+    /**
+     * Resets all values to the default value.
+     */
+    public void clear() {
+        synchronized (lock) {
+            values = new AtomicIntegerArray(0);
+        }
+    }
+
+    private AtomicIntegerArray grow(AtomicIntegerArray current, int minLength) {
+        int length = Math.max(minLength, current.length() * 3 / 2 + 1);
+        AtomicIntegerArray grown = new AtomicIntegerArray(length);
+        for (int i = 0; i < length; i++)
+            grown.set(i, i < current.length() ? current.get(i) : defaultValue);
+        values = grown;
+        return grown;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (default: " + defaultValue + ")";
+    }
+}
@@ -0,0 +1,83 @@
+package recng.graph;
+
+import java.nio.ByteBuffer;
+
+import org.apache.mahout.math.map.AbstractObjectIntMap;
+
+import recng.graph.jmx.JMXGraph;
+import recng.jmx.JMXUtils;
+
+/**
+ * A read only graph backed by a memory mapped graph snapshot, see
+ * {@link GraphSnapshotExporter} for the file format.
+ *
+ * Only the node id dictionary is kept on the heap, edges are read directly
+ * from the mapped pages during traversal.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class MappedGraphImpl<T> extends AbstractCompactGraph<T> {
+
+    private static final int INT_SIZE = 4;
+    private static final int EDGE_SIZE = GraphSnapshotExporter.EDGE_SIZE;
+
+    /** Mapped edge sections per edge type (ordinal), may contain nulls */
+    private final ByteBuffer[] edges;
+    /** Mapped offset sections per edge type (ordinal), may contain nulls */
+    private final ByteBuffer[] offsets;
+
+    /**
+     * Creates a graph from mapped snapshot sections.
+     *
+     * @param metadata
+     *            The graph metadata.
+     * @param nodeIndex
+     *            Maps node id -> node index
+     * @param nodeIds
+     *            All nodes, indexed by primary key.
+     * @param edges
+     *            The mapped edge sections.
+     * @param offsets
+     *            The mapped offset sections.
+     */
+    MappedGraphImpl(GraphMetadata metadata,
+                    AbstractObjectIntMap<NodeID<T>> nodeIndex,
+                    NodeID<T>[] nodeIds, ByteBuffer[] edges,
+                    ByteBuffer[] offsets) {
+        super(metadata, nodeIndex, nodeIds);
+        if (edges.length != offsets.length)
+            throw new IllegalArgumentException("Mismatch between edge and " +
+                "offset sections");
+        this.edges = edges;
+        this.offsets = offsets;
+        JMXUtils.registerMBean(new JMXGraph<T>(this));
+    }
+
+    @Override
+    protected int getEdgeTypeCount() {
+        return offsets.length;
+    }
+
+    @Override
+    protected boolean hasEdges(int edgeTypeOrdinal) {
+        return offsets[edgeTypeOrdinal] != null;
+    }
+
+    @Override
+    protected int getOffset(int edgeTypeOrdinal, int node) {
+        return offsets[edgeTypeOrdinal].getInt(node * INT_SIZE);
+    }
+
+    @Override
+    protected int getEndNode(int edgeTypeOrdinal, int offset) {
+        return edges[edgeTypeOrdinal].getInt(offset * EDGE_SIZE);
+    }
+
+    @Override
+    protected float getWeight(int edgeTypeOrdinal, int offset) {
+        return edges[edgeTypeOrdinal].getFloat(offset * EDGE_SIZE + INT_SIZE);
+    }
+}
@@ -0,0 +1,47 @@
+package recng.graph;
+
+/**
+ * A traverser originating from multiple start nodes. The edges traversed from
+ * each start node are merged based on edge weight, with the heaviest edges
+ * first.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public interface MultiSourceTraverser<T> extends Traverser<T> {
+
+    /**
+     * Specifies a function used to adjust the edge weights based on the start
+     * node they were reached from. The adjusted weights are used for ranking,
+     * and are the weights of the returned edges.
+     */
+    MultiSourceTraverser<T>
+        setSourceWeightFunction(SourceWeightFunction<T> weightFunction);
+
+    /**
+     * Specifies how to combine the scores of edges reaching the same end node
+     * from different start nodes, or null to just return the heaviest edge for
+     * each end node (the default).
+     *
+     * With a combiner the edges from all start nodes are traversed before the
+     * first edge is returned, and each returned edge has the combined score as
+     * weight and the start node of the heaviest contributing edge as start
+     * node. The max number of returned edges then applies to the combined
+     * result, and the edges taken from each start node are limited by
+     * {@link #setMaxEdgesPerSource(int)}.
+     */
+    MultiSourceTraverser<T> setScoreCombiner(ScoreCombiner scoreCombiner);
+
+    /**
+     * Specifies the max number of edges taken from each start node before
+     * combining scores. Only used with a score combiner.
+     *
+     * Defaults to the max number of returned edges times the number of start
+     * nodes. An end node outside the top edges of every start node might
+     * still make the combined top, so a lower limit trades accuracy for
+     * speed.
+     */
+    MultiSourceTraverser<T> setMaxEdgesPerSource(int maxEdgesPerSource);
+}
@@ -1,20 +1,37 @@
 package recng.graph;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.map.OpenIntObjectHashMap;
+import org.apache.mahout.math.set.OpenIntHashSet;
 
 /**
  * A traverser implementation with multiple start nodes.
  *
+ * The edges traversed from each start node are merged using a heap, keyed on
+ * the (source weighted) weight of the next edge from each start node.
+ * Duplicate end nodes are detected using their primary keys.
+ *
+ * If a {@link ScoreCombiner} is set, the edges from all start nodes are
+ * instead traversed up front, and end nodes are ranked by their combined
+ * scores.
+ *
  * @author jon
  *
  * @param <T>
  */
-class MultiTraverser<T> extends AbstractTraverser<T> implements Traverser<T> {
+class MultiTraverser<T> extends AbstractTraverser<T> implements
+    MultiSourceTraverser<T> {
 
     private final List<GraphNode<T>> startNodes;
+    private SourceWeightFunction<T> weightFunction = null;
+    private ScoreCombiner scoreCombiner = null;
+    // The max number of edges per start node when combining, or -1 if unset
+    private int maxEdgesPerSource = -1;
 
     /**
      * Creates a traverser.
@@ -25,152 +42,471 @@ class MultiTraverser<T> extends AbstractTraverser<T> implements Traverser<T> {
      *            The nodes to start traversing from
      * @param edgeType
      *            The type of edges to follow
-     * @param returnableFilter
-     *            A filter used to decide if a traversed edge should be included
-     *            in the result.
-     * @param maxDepth
-     *            The maximum depth of the traversal
-     * @param maxReturnedEdges
-     *            The maximum number of edges that may be returned
-     * @param maxTraversedEdges
-     *            The maximum number of traversed edges per start node.
      */
     MultiTraverser(Graph<T> graph, List<GraphNode<T>> startNodes, EdgeType edgeType) {
         super(graph, edgeType);
         this.startNodes = startNodes;
     }
 
-    public GraphCursor<T> traverse() {
-        List<GraphCursor<T>> cursors = new ArrayList<GraphCursor<T>>();
-        final long startTime = System.currentTimeMillis();
+    @Override
+    public MultiSourceTraverser<T>
+        setSourceWeightFunction(SourceWeightFunction<T> weightFunction) {
+        this.weightFunction = weightFunction;
+        return this;
+    }
+
+    @Override
+    public MultiSourceTraverser<T> setScoreCombiner(ScoreCombiner scoreCombiner) {
+        this.scoreCombiner = scoreCombiner;
+        return this;
+    }
+
+    @Override
+    public MultiSourceTraverser<T> setMaxEdgesPerSource(int maxEdgesPerSource) {
+        if (maxEdgesPerSource < 1)
+            throw new IllegalArgumentException("Illegal max edges per source: "
+                + maxEdgesPerSource);
+        this.maxEdgesPerSource = maxEdgesPerSource;
+        return this;
+    }
+
+    /**
+     * Gets the max number of edges taken from each start node when combining
+     * scores.
+     */
+    private int getMaxEdgesPerSource() {
+        if (maxEdgesPerSource > 0)
+            return maxEdgesPerSource;
+        long max = (long) getMaxReturnedEdges() * Math.max(1, startNodes.size());
+        return (int) Math.min(Integer.MAX_VALUE, max);
+    }
+
+    @Override
+    GraphCursor<T> traverse(long startTime, TraversalBudget budget) {
+        List<GraphIterator<T>> iterators = new ArrayList<GraphIterator<T>>();
+        // The iterators share the budget, since they're all advanced by the
+        // same thread
         for (GraphNode<T> startNode : startNodes)
-            cursors.add(getCursor(startNode));
-        return new MultiCursor<T>(cursors, getMaxReturnedEdges()) {
-            @Override
-            public void close() {
-                super.close();
-                logTraversalStats(startTime, getReturnedEdgeCount(),
-                                  getTraversedEdgeCount());
-            }
-        };
+            iterators.add(getIterator(startNode, budget));
+        if (scoreCombiner == null)
+            return new MergingCursor(iterators, startTime, budget);
+        return new CombiningCursor(iterators, startTime, budget);
     }
 
-    private GraphCursor<T> getCursor(GraphNode<T> startNode) {
+    private GraphIterator<T> getIterator(GraphNode<T> startNode,
+                                         TraversalBudget budget) {
+        // When combining scores, an end node outside the top edges of each
+        // start node might still make the combined top, so each start node
+        // gets a larger limit of its own
+        int maxReturnedEdges =
+            scoreCombiner == null ? getMaxReturnedEdges()
+                : getMaxEdgesPerSource();
         GraphIterator<T> iterator =
             new GraphIterator<T>(startNode, getEdgeType(),
                                  getReturnableFilter(),
-                                 getMaxDepth(), getMaxReturnedEdges(),
+                                 getMaxDepth(), maxReturnedEdges,
                                  getMaxTraversedEdges());
-        return new GraphCursorImpl<T>(iterator);
+        iterator.setNodePredicate(getNodePredicate());
+        iterator.setBudget(budget);
+        return iterator;
+    }
+
+    /**
+     * Gets the score of an edge reached from one of the start nodes.
+     */
+    private float getScore(int source, float weight) {
+        if (weightFunction == null)
+            return weight;
+        return weightFunction.weigh(startNodes.get(source).getNodeId(), weight);
+    }
 
+    @Override
+    protected Graph<T> getGraph() {
+        if (startNodes.isEmpty())
+            return null;
+        return startNodes.get(0).getGraph();
     }
 
-    private static class MultiCursor<T> implements GraphCursor<T> {
+    /**
+     * Base class for cursors merging the edges traversed from each start node.
+     */
+    private abstract class AbstractMultiCursor implements GraphCursor<T> {
+
+        protected final List<GraphIterator<T>> iterators;
+        private final long startTime;
+        private final TraversalBudget budget;
+        private boolean isClosed = false;
 
-        private final List<GraphCursor<T>> cursors;
-        private final int limit;
-        private final Set<NodeID<T>> returnedNodes;
+        protected AbstractMultiCursor(List<GraphIterator<T>> iterators,
+                                      long startTime, TraversalBudget budget) {
+            this.iterators = iterators;
+            this.startTime = startTime;
+            this.budget = budget;
+        }
 
-        public MultiCursor(List<GraphCursor<T>> cursors, int limit) {
-            this.cursors = cursors;
-            this.limit = limit;
-            this.returnedNodes = new HashSet<NodeID<T>>();
+        protected void checkOpen() {
+            if (isClosed)
+                throw new IllegalStateException("This cursor has been closed");
+        }
+
+        @Override
+        public void close() {
+            if (isClosed)
+                return;
+            isClosed = true;
+            logTraversalStats(startTime, getReturnedEdgeCount(),
+                              getTraversedEdgeCount(), isTruncated());
+        }
+
+        @Override
+        public boolean isTruncated() {
+            return budget != null && budget.isTruncated();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return isClosed;
+        }
+
+        @Override
+        public int getTraversedEdgeCount() {
+            int traversedCount = 0;
+            for (GraphIterator<T> iterator : iterators)
+                traversedCount += iterator.getTraversedEdgeCount();
+            return traversedCount;
+        }
+    }
+
+    /**
+     * Lazily merges the edges from each start node, returning the heaviest
+     * edge for each end node.
+     *
+     * The start nodes are kept in an indexed binary max heap, ordered by the
+     * score of their next edge (ties are broken by start node order). Each
+     * start node is always positioned at an edge leading to a node not yet
+     * returned. The start nodes positioned at each end node are linked
+     * together, so that the ones positioned at a returned node can be
+     * advanced without peeking at all other start nodes.
+     */
+    private class MergingCursor extends AbstractMultiCursor {
+
+        private final OpenIntHashSet returnedNodes = new OpenIntHashSet();
+        // Start node with the first next edge to an end node -> end node
+        private final OpenIntIntHashMap firstSources = new OpenIntIntHashMap();
+        // The heap of start nodes
+        private final int[] heap;
+        private int heapSize = 0;
+        // Per start node, the heap position, or -1 if exhausted
+        private final int[] positions;
+        // Per start node, the score of the next edge
+        private final float[] scores;
+        // Per start node, the end node of the next edge
+        private final int[] endNodes;
+        // Per start node, the next and previous start nodes with the same
+        // next end node, or -1
+        private final int[] nextSources;
+        private final int[] prevSources;
+
+        private MergingCursor(List<GraphIterator<T>> iterators, long startTime,
+                              TraversalBudget budget) {
+            super(iterators, startTime, budget);
+            int sourceCount = iterators.size();
+            this.heap = new int[sourceCount];
+            this.positions = new int[sourceCount];
+            this.scores = new float[sourceCount];
+            this.endNodes = new int[sourceCount];
+            this.nextSources = new int[sourceCount];
+            this.prevSources = new int[sourceCount];
+            for (int source = 0; source < sourceCount; source++) {
+                positions[source] = -1;
+                if (advance(source)) {
+                    heap[heapSize] = source;
+                    positions[source] = heapSize;
+                    siftUp(heapSize++);
+                }
+            }
         }
 
         @Override
         public boolean hasNext() {
-            if (returnedNodes.size() >= limit)
-                return false;
-            GraphCursor<T> cursor = getNextCursor();
-            if (cursor == null)
+            checkOpen();
+            if (returnedNodes.size() >= getMaxReturnedEdges())
                 return false;
-            return cursor.hasNext();
+            return heapSize > 0;
+        }
+
+        /**
+         * Counts the returned end nodes, not the edges to already returned
+         * nodes that the iterators skipped.
+         */
+        @Override
+        public int getReturnedEdgeCount() {
+            return returnedNodes.size();
         }
 
         @Override
         public GraphEdge<T> next() {
-            GraphEdge<T> next = getNextCursor().next();
-            returnedNodes.add(next.getEndNode());
-            return next;
+            checkOpen();
+            int top = top();
+            int endNode = endNodes[top];
+            float score = scores[top];
+            unlink(top);
+            GraphEdge<T> next = iterators.get(top).next();
+            returnedNodes.add(endNode);
+            update(top);
+            // Move all other start nodes past the returned node
+            while (firstSources.containsKey(endNode)) {
+                int source = firstSources.get(endNode);
+                unlink(source);
+                iterators.get(source).next();
+                update(source);
+            }
+            return withScore(next, score);
         }
 
         @Override
         public GraphEdge<T> peekNext() {
-            return getNextCursor().peekNext();
-        }
-
-        private GraphCursor<T> getNextCursor() {
-            // The next cursor is gotten by peeking at each cursors next
-            // returnable edge and selecting the one which has the highest
-            // weight/priority.
-            GraphCursor<T> res = null;
-            float maxWeight = -1f;
-            outer: for (GraphCursor<T> cursor : cursors) {
-                if (!cursor.hasNext())
-                    continue;
-                GraphEdge<T> edge = cursor.peekNext();
-                if (returnedNodes.contains(edge.getEndNode())) {
-                    while (true) {
-                        cursor.next(); // Move past the already returned node
-                        if (!cursor.hasNext())
-                            continue outer; // No more edges, skip this cursor
-                        edge = cursor.peekNext();
-                        if (!returnedNodes.contains(edge.getEndNode()))
-                            break; // We found a valid node
-                    }
+            checkOpen();
+            int top = top();
+            return withScore(iterators.get(top).peekNext(), scores[top]);
+        }
+
+        @Override
+        public int currentDepth() {
+            return iterators.get(top()).currentDepth();
+        }
+
+        private int top() {
+            if (heapSize == 0)
+                throw new IllegalStateException("No more edges");
+            return heap[0];
+        }
+
+        private GraphEdge<T> withScore(GraphEdge<T> edge, float score) {
+            if (weightFunction == null)
+                return edge;
+            return new GraphEdge<T>(edge.getStartNode(), edge.getEndNode(),
+                                    edge.getType(), score);
+        }
+
+        /**
+         * Moves the iterator of a start node to it's next edge leading to a
+         * node not yet returned, and updates the score of the start node.
+         *
+         * @return False if the iterator was exhausted.
+         */
+        private boolean advance(int source) {
+            GraphIterator<T> iterator = iterators.get(source);
+            while (iterator.hasNext()) {
+                TraversableGraphEdge<T> edge = iterator.peekNextEdge();
+                int endNode = edge.getEndNodeIndex();
+                if (!returnedNodes.contains(endNode)) {
+                    scores[source] = getScore(source, edge.getWeight());
+                    link(source, endNode);
+                    return true;
                 }
-                // TODO: Make it possible to apply a function to the weight
-                // TODO: based on the start node?
-                float weight = edge.getWeight();
-                if (weight > maxWeight) {
-                    res = cursor;
-                    maxWeight = weight;
+                iterator.next(); // Move past the already returned node
+            }
+            return false;
+        }
+
+        /**
+         * Advances a start node and restores the heap.
+         */
+        private void update(int source) {
+            int pos = positions[source];
+            if (!advance(source)) {
+                removeAt(pos);
+                return;
+            }
+            siftUp(pos);
+            siftDown(positions[source]);
+        }
+
+        private void link(int source, int endNode) {
+            int first =
+                firstSources.containsKey(endNode) ? firstSources.get(endNode)
+                    : -1;
+            endNodes[source] = endNode;
+            prevSources[source] = -1;
+            nextSources[source] = first;
+            if (first >= 0)
+                prevSources[first] = source;
+            firstSources.put(endNode, source);
+        }
+
+        private void unlink(int source) {
+            int prev = prevSources[source];
+            int next = nextSources[source];
+            if (prev >= 0)
+                nextSources[prev] = next;
+            else if (next >= 0)
+                firstSources.put(endNodes[source], next);
+            else
+                firstSources.removeKey(endNodes[source]);
+            if (next >= 0)
+                prevSources[next] = prev;
+        }
+
+        private void removeAt(int pos) {
+            int removed = heap[pos];
+            positions[removed] = -1;
+            int last = heap[--heapSize];
+            if (pos == heapSize)
+                return;
+            heap[pos] = last;
+            positions[last] = pos;
+            siftUp(pos);
+            siftDown(positions[last]);
+        }
+
+        private boolean before(int source, int other) {
+            if (scores[source] != scores[other])
+                return scores[source] > scores[other];
+            return source < other;
+        }
+
+        private void siftUp(int pos) {
+            int source = heap[pos];
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (!before(source, heap[parent]))
+                    break;
+                heap[pos] = heap[parent];
+                positions[heap[pos]] = pos;
+                pos = parent;
+            }
+            heap[pos] = source;
+            positions[source] = pos;
+        }
+
+        private void siftDown(int pos) {
+            int source = heap[pos];
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && before(heap[child + 1], heap[child]))
+                    child++;
+                if (!before(heap[child], source))
+                    break;
+                heap[pos] = heap[child];
+                positions[heap[pos]] = pos;
+                pos = child;
+            }
+            heap[pos] = source;
+            positions[source] = pos;
+        }
+    }
+
+    /**
+     * Traverses the edges from all start nodes, combines the scores of edges
+     * leading to the same end node and returns the end nodes ordered by
+     * descending combined score.
+     */
+    private class CombiningCursor extends AbstractMultiCursor {
+
+        private final List<Candidate<T>> candidates;
+        private int position = 0;
+
+        private CombiningCursor(List<GraphIterator<T>> iterators,
+                                long startTime, TraversalBudget budget) {
+            super(iterators, startTime, budget);
+            OpenIntObjectHashMap<Candidate<T>> index =
+                new OpenIntObjectHashMap<Candidate<T>>();
+            List<Candidate<T>> all = new ArrayList<Candidate<T>>();
+            for (int source = 0; source < iterators.size(); source++) {
+                GraphIterator<T> iterator = iterators.get(source);
+                while (iterator.hasNext()) {
+                    int depth = iterator.currentDepth();
+                    int endNodeIndex = iterator.peekNextEdge().getEndNodeIndex();
+                    GraphEdge<T> edge = iterator.next();
+                    float score = getScore(source, edge.getWeight());
+                    Candidate<T> candidate = index.get(endNodeIndex);
+                    if (candidate == null) {
+                        candidate = new Candidate<T>(edge, score, depth);
+                        index.put(endNodeIndex, candidate);
+                        all.add(candidate);
+                    } else {
+                        candidate.add(edge, score, depth, scoreCombiner);
+                    }
                 }
             }
-            return res;
+            // Stable, so ties are ordered by discovery
+            Collections.sort(all, new Comparator<Candidate<T>>() {
+                @Override
+                public int compare(Candidate<T> c1, Candidate<T> c2) {
+                    return Float.compare(c2.score, c1.score);
+                }
+            });
+            int limit = Math.min(all.size(), getMaxReturnedEdges());
+            this.candidates = all.subList(0, limit);
         }
 
         @Override
-        public void close() {
-            for (GraphCursor<T> cursor : cursors)
-                cursor.close();
+        public boolean hasNext() {
+            checkOpen();
+            return position < candidates.size();
         }
 
         @Override
-        public boolean isClosed() {
-            for (GraphCursor<T> cursor : cursors) {
-                if (!cursor.isClosed())
-                    return false;
-            }
-            return true;
+        public int getReturnedEdgeCount() {
+            return position;
         }
 
         @Override
-        public int getReturnedEdgeCount() {
-            int returnedCount = 0;
-            for (GraphCursor<T> cursor : cursors)
-                returnedCount += cursor.getReturnedEdgeCount();
-            return returnedCount;
+        public GraphEdge<T> next() {
+            GraphEdge<T> next = peekNext();
+            position++;
+            return next;
         }
 
         @Override
-        public int getTraversedEdgeCount() {
-            int traversedCount = 0;
-            for (GraphCursor<T> cursor : cursors)
-                traversedCount += cursor.getTraversedEdgeCount();
-            return traversedCount;
+        public GraphEdge<T> peekNext() {
+            checkOpen();
+            if (position >= candidates.size())
+                throw new IllegalStateException("No more edges");
+            return candidates.get(position).toEdge();
         }
 
         @Override
         public int currentDepth() {
-            return getNextCursor().currentDepth();
+            if (position >= candidates.size())
+                throw new IllegalStateException("No more edges");
+            return candidates.get(position).depth;
         }
     }
 
-    @Override
-    protected Graph<T> getGraph() {
-        if (startNodes.isEmpty())
-            return null;
-        return startNodes.get(0).getGraph();
+    /**
+     * An end node reached from one or more start nodes.
+     */
+    private static class Candidate<T> {
+        // The heaviest edge leading to the end node
+        private GraphEdge<T> best;
+        private float bestScore;
+        private float score;
+        private int depth;
+
+        private Candidate(GraphEdge<T> edge, float score, int depth) {
+            this.best = edge;
+            this.bestScore = score;
+            this.score = score;
+            this.depth = depth;
+        }
+
+        private void add(GraphEdge<T> edge, float score, int depth,
+                         ScoreCombiner combiner) {
+            this.score = combiner.combine(this.score, score);
+            if (score > bestScore) {
+                best = edge;
+                bestScore = score;
+            }
+            this.depth = Math.min(this.depth, depth);
+        }
+
+        private GraphEdge<T> toEdge() {
+            return new GraphEdge<T>(best.getStartNode(), best.getEndNode(),
+                                    best.getType(), score);
+        }
     }
 }
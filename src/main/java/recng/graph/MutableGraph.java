@@ -41,4 +41,32 @@ public interface MutableGraph<T> extends Graph<T> {
      */
     void setEdges(NodeID<T> startNode, EdgeType edgeType,
                   List<NodeID<T>> endNodes, List<Float> weights);
+
+    /**
+     * Applies a batch of edge mutations. All nodes are resolved, and the
+     * nodes of added edges created, in one pass. The mutations are then
+     * grouped by start node and edge type, and each group is merged into the
+     * out edges of its start node at once.
+     *
+     * The result is the same as applying the mutations one at a time in list
+     * order, except when a node has several edges of the same type to the
+     * same end node, in which case it is unspecified which one an update or
+     * removal applies to. Mutations of different nodes are not applied
+     * atomically.
+     *
+     * @return The number of mutations that modified the graph, i.e. all
+     *         additions plus the updates and removals of existing edges.
+     */
+    int applyBatch(List<GraphMutation<T>> mutations);
+
+    /**
+     * Registers a listener notified after the out edges of a node have been
+     * modified.
+     */
+    void addMutationListener(GraphMutationListener<T> listener);
+
+    /**
+     * Removes a previously registered mutation listener.
+     */
+    void removeMutationListener(GraphMutationListener<T> listener);
 }
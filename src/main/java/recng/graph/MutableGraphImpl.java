@@ -1,50 +1,113 @@
 package recng.graph;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.mahout.math.function.ObjectIntProcedure;
 import org.apache.mahout.math.list.LongArrayList;
 import org.apache.mahout.math.map.AbstractObjectIntMap;
 import org.apache.mahout.math.map.OpenObjectIntHashMap;
 
+import recng.graph.jmx.JMXEdgeEvictions;
 import recng.graph.jmx.JMXGraph;
 import recng.jmx.JMXUtils;
 
 /**
  * A mutable graph implementation.
  *
+ * Reads never block on writers. Node ids are mapped to primary keys using a
+ * concurrent map, and nodes are kept in an append only array that is safely
+ * published through the volatile node count. Creating nodes is serialized on
+ * a lock, while edge mutations only lock the affected start node.
+ *
+ * If a {@link MutationLog} is set, every mutation is appended to the log
+ * before it's applied, and mutations do not return until they are durable
+ * (subject to the sync interval of the log), see {@link GraphJournal}.
+ *
+ * The edges of a type can be set to decay over time, see
+ * {@link #setEdgeDecay(EdgeType, EdgeDecay)}.
+ *
  * @author jon
  *
  */
 public class MutableGraphImpl<T> extends AbstractGraph<T> implements
     MutableGraph<T> {
 
+    private static final int INITIAL_CAPACITY = 16;
+
     /**
      * Maps node id -> internal primary key (index in of node in internal node
-     * list)
+     * array)
+     */
+    private final ConcurrentMap<NodeID<T>, Integer> nodeIndex;
+    /**
+     * All nodes in the graph. Only the first nodeCount slots are in use, and
+     * the array is replaced by a larger copy when full.
+     */
+    private volatile MutableGraphNode<T>[] nodes;
+    /**
+     * The number of nodes in the graph. Written after the node array, thus
+     * publishing all nodes below this index to readers.
      */
-    private final AbstractObjectIntMap<NodeID<T>> nodeIndex;
-    /** All nodes in the graph. */
-    private final List<MutableGraphNode<T>> nodes;
-    /** Used for synchronization. */
+    private volatile int nodeCount = 0;
+    /** Used for synchronization when creating nodes. */
     private final Object lock = new Object();
+    /** Notified after the out edges of a node have been modified. */
+    private final List<GraphMutationListener<T>> mutationListeners =
+        new CopyOnWriteArrayList<GraphMutationListener<T>>();
+    /** If set, all mutations are logged here. */
+    private volatile MutationLog<T> mutationLog = null;
+    /** The checkpoint being captured, if any, see {@link #capture} */
+    private volatile Checkpoint checkpoint = null;
+    /** The decay of each edge type, indexed by ordinal. Copy on write. */
+    private volatile EdgeDecay[] edgeDecays = new EdgeDecay[0];
+    /** The max degree of each edge type, indexed by ordinal. Copy on write. */
+    private volatile int[] maxDegrees = new int[0];
+    /** Edge lists with at least this many edges are indexed by end node */
+    private volatile int minIndexedDegree = IndexedEdgeList.DEFAULT_MIN_SIZE;
+    private final EdgeEvictions evictions;
+    /** Set once the eviction MBean is registered, guarded by lock */
+    private boolean evictionsRegistered = false;
 
     /**
      * Creates an empty mutable graph.
      */
     public MutableGraphImpl(GraphMetadata metadata) {
-        this(metadata, new OpenObjectIntHashMap<NodeID<T>>(),
-             new ArrayList<NodeID<T>>(),
-             new ArrayList<LongArrayList[]>());
+        this(metadata, null, new ArrayList<NodeID<T>>(),
+             new ArrayList<LongArrayList[]>(), null);
     }
 
+    /**
+     * @param evictions
+     *            The edges evicted while building the graph, may be null.
+     */
     private MutableGraphImpl(GraphMetadata metadata,
                              AbstractObjectIntMap<NodeID<T>> nodeIndex,
                              List<NodeID<T>> nodes,
-                             List<LongArrayList[]> edges) {
+                             List<LongArrayList[]> edges,
+                             EdgeEvictions evictions) {
         super(metadata);
-        this.nodeIndex = nodeIndex;
-        this.nodes = new ArrayList<MutableGraphNode<T>>();
+        this.evictions = evictions != null ? evictions : new EdgeEvictions();
+        this.nodeIndex =
+            new ConcurrentHashMap<NodeID<T>, Integer>(Math.max(nodes.size(),
+                                                               INITIAL_CAPACITY));
+        if (nodeIndex != null) {
+            nodeIndex.forEachPair(new ObjectIntProcedure<NodeID<T>>() {
+                @Override
+                public boolean apply(NodeID<T> nodeId, int index) {
+                    MutableGraphImpl.this.nodeIndex.put(nodeId, index);
+                    return true;
+                }
+            });
+        }
+        MutableGraphNode<T>[] nodeArray =
+            newNodeArray(Math.max(nodes.size(), INITIAL_CAPACITY));
         int i = 0;
         for (NodeID<T> nodeId : nodes) {
             LongArrayList[] nodeEdges = edges.get(i);
@@ -54,30 +117,52 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
                 if (el == null) {
                     edgeLists[j] = new LongArrayList(0);
                 } else {
-                    edgeLists[j] = el;
+                    edgeLists[j] = IndexedEdgeList.index(el, minIndexedDegree);
+                    countEdges(nodeId.getNodeType(), j, el.size());
                 }
                 j++;
             }
-            MutableGraphNode<T> node =
+            nodeArray[i] =
                 new MutableGraphNodeImpl<T>(this, nodeId, edgeLists);
-            this.nodes.add(node);
+            indexNode(i, nodeId.getNodeType());
             i++;
         }
+        this.nodes = nodeArray;
+        this.nodeCount = i;
         JMXUtils.registerMBean(new JMXGraph<T>(this));
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static <T> MutableGraphNode<T>[] newNodeArray(int length) {
+        return new MutableGraphNode[length];
+    }
+
+    /**
+     * Returns a view of the nodes present when this method was called. Nodes
+     * added later are not included.
+     */
     @Override
     protected List<GraphNode<T>> getNodes() {
-        synchronized (lock) {
-            return new ArrayList<GraphNode<T>>(nodes);
-        }
+        final int size = nodeCount; // Read the count before the array
+        final MutableGraphNode<T>[] snapshot = nodes;
+        return new AbstractList<GraphNode<T>>() {
+            @Override
+            public GraphNode<T> get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException("Index: " + index);
+                return snapshot[index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     @Override
     public int nodeCount() {
-        synchronized (lock) {
-            return nodes.size();
-        }
+        return nodeCount;
     }
 
     @Override
@@ -87,16 +172,7 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
             throw new IllegalArgumentException("Null nodes not allowed");
         if (edgeType == null)
             throw new IllegalArgumentException("Null edge type not allowed");
-
-        MutableGraphNode<T> startNode;
-        int endNodeIndex;
-        synchronized (lock) { // Create start and end nodes if necessary
-            int startNodeIndex = upsertNode(start);
-            startNode = getNode(startNodeIndex);
-            endNodeIndex = upsertNode(end);
-        }
-        // Create the edge
-        startNode.addEdge(endNodeIndex, edgeType, weight);
+        apply(GraphMutation.add(start, end, edgeType, weight));
     }
 
     @Override
@@ -106,21 +182,7 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
             throw new IllegalArgumentException("Null nodes not allowed");
         if (edgeType == null)
             throw new IllegalArgumentException("Null edge type not allowed");
-
-        MutableGraphNode<T> startNode;
-        int endNodeIndex;
-        synchronized (lock) {
-            // Make sure that both the start and end node exists
-            int startNodeIndex = getPrimaryKey(start);
-            if (startNodeIndex < 0)
-                return false;
-            endNodeIndex = getPrimaryKey(end);
-            if (endNodeIndex < 0)
-                return false;
-            startNode = getNode(startNodeIndex);
-        }
-        // Update the edge
-        return startNode.updateEdge(endNodeIndex, edgeType, weight);
+        return apply(GraphMutation.update(start, end, edgeType, weight));
     }
 
     @Override
@@ -128,21 +190,7 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
                               EdgeType edgeType) {
         if (start == null || end == null)
             throw new IllegalArgumentException("Null nodes not allowed");
-
-        MutableGraphNode<T> startNode;
-        int endNodeIndex;
-        synchronized (lock) {
-            // Make sure that both the start and end node exists
-            int startNodeIndex = getPrimaryKey(start);
-            if (startNodeIndex < 0)
-                return false;
-            endNodeIndex = getPrimaryKey(end);
-            if (endNodeIndex < 0)
-                return false;
-            startNode = getNode(startNodeIndex);
-        }
-        // Remove the edge
-        return startNode.removeEdge(endNodeIndex, edgeType);
+        return apply(GraphMutation.remove(start, end, edgeType));
     }
 
     @Override
@@ -156,27 +204,269 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
         if (edgeType == null)
             throw new IllegalArgumentException("Null edge type not allowed");
 
-        MutableGraphNode<T> startNode;
+        MutationLog<T> log = mutationLog;
+        long sequence = 0;
+        // Create start and end nodes if necessary
+        int startNodeIndex = upsertNode(start);
+        MutableGraphNode<T> startNode = getNode(startNodeIndex);
         List<Integer> endNodeIndexes = new ArrayList<Integer>();
-        synchronized (lock) { // Create start and end nodes if necessary
-            int startNodeIndex = upsertNode(start);
-            startNode = getNode(startNodeIndex);
-            for (NodeID<T> endNode : endNodes) {
-                int index = upsertNode(endNode);
-                endNodeIndexes.add(index);
+        for (NodeID<T> endNode : endNodes)
+            endNodeIndexes.add(upsertNode(endNode));
+        // Set the edges
+        if (log == null) {
+            startNode.setEdges(edgeType, endNodeIndexes, weights);
+        } else {
+            synchronized (startNode) {
+                sequence = log.appendSetEdges(start, edgeType, endNodes,
+                                              weights);
+                beforeApply(startNode, startNodeIndex, sequence);
+                startNode.setEdges(edgeType, endNodeIndexes, weights);
             }
         }
-        // Set the edges
-        startNode.setEdges(edgeType, endNodeIndexes, weights);
+        if (log != null)
+            log.sync(sequence);
+        fireEdgesChanged(start, edgeType);
+    }
+
+    /**
+     * Adds, updates or removes an edge, creating the start and end nodes of
+     * added edges if necessary.
+     *
+     * If there is a log, the mutation is appended while holding the monitor
+     * of the start node, so the mutations of each node are logged in the
+     * order they are applied.
+     *
+     * @return True if the graph was modified.
+     */
+    private boolean apply(GraphMutation<T> mutation) {
+        NodeID<T> start = mutation.getStartNode();
+        NodeID<T> end = mutation.getEndNode();
+        EdgeType edgeType = mutation.getType();
+        MutationLog<T> log = mutationLog;
+        boolean changed;
+        long sequence = 0;
+        int startNodeIndex;
+        int endNodeIndex;
+        if (mutation.getOperation() == GraphMutation.Operation.ADD) {
+            // Create start and end nodes if necessary
+            startNodeIndex = upsertNode(start);
+            endNodeIndex = upsertNode(end);
+        } else {
+            // Make sure that both the start and end node exists
+            startNodeIndex = getPrimaryKey(start);
+            endNodeIndex = getPrimaryKey(end);
+            if (startNodeIndex < 0 || endNodeIndex < 0)
+                return false; // No such edge, nothing to log
+        }
+        MutableGraphNode<T> startNode = getNode(startNodeIndex);
+        if (log == null) {
+            changed = apply(startNode, endNodeIndex, mutation);
+        } else {
+            synchronized (startNode) {
+                sequence = log.append(mutation);
+                beforeApply(startNode, startNodeIndex, sequence);
+                changed = apply(startNode, endNodeIndex, mutation);
+            }
+        }
+        if (log != null)
+            log.sync(sequence);
+        if (changed)
+            fireEdgesChanged(start, edgeType);
+        return changed;
+    }
+
+    private static <T> boolean apply(MutableGraphNode<T> startNode,
+                                     int endNodeIndex,
+                                     GraphMutation<T> mutation) {
+        switch (mutation.getOperation()) {
+        case ADD:
+            startNode.addEdge(endNodeIndex, mutation.getType(),
+                              mutation.getWeight());
+            return true;
+        case UPDATE:
+            return startNode.updateEdge(endNodeIndex, mutation.getType(),
+                                        mutation.getWeight());
+        default:
+            return startNode.removeEdge(endNodeIndex, mutation.getType());
+        }
     }
 
     @Override
-    public int getPrimaryKey(NodeID<T> nodeId) {
-        synchronized (lock) {
-            if (!nodeIndex.containsKey(nodeId))
-                return -1;
-            return nodeIndex.get(nodeId);
+    public int applyBatch(List<GraphMutation<T>> mutations) {
+        if (mutations == null)
+            throw new IllegalArgumentException("Null mutations not allowed");
+        if (!(mutations instanceof RandomAccess))
+            mutations = new ArrayList<GraphMutation<T>>(mutations);
+        for (GraphMutation<T> mutation : mutations) {
+            if (mutation == null)
+                throw new IllegalArgumentException("Null mutation not allowed");
+        }
+
+        MutationLog<T> log = mutationLog;
+        long[] sequence = log != null ? new long[1] : null;
+        int applied = applyBatch(mutations, log, sequence);
+        if (log != null)
+            log.sync(sequence[0]);
+        return applied;
+    }
+
+    /**
+     * Applies a batch of mutations, logging them if there is a log.
+     *
+     * @param sequence
+     *            Set to the sequence number of the last logged mutation.
+     * @return The number of mutations that modified the graph.
+     */
+    private int applyBatch(List<GraphMutation<T>> mutations,
+                           MutationLog<T> log, long[] sequence) {
+        int size = mutations.size();
+        // Resolve all nodes, creating the missing nodes of added edges under a
+        // single lock
+        int[] startNodes = new int[size];
+        int[] endNodes = new int[size];
+        List<NodeID<T>> missing = new ArrayList<NodeID<T>>();
+        for (int i = 0; i < size; i++) {
+            GraphMutation<T> mutation = mutations.get(i);
+            startNodes[i] = getPrimaryKey(mutation.getStartNode());
+            endNodes[i] = getPrimaryKey(mutation.getEndNode());
+            if (mutation.getOperation() != GraphMutation.Operation.ADD)
+                continue;
+            if (startNodes[i] < 0)
+                missing.add(mutation.getStartNode());
+            if (endNodes[i] < 0)
+                missing.add(mutation.getEndNode());
+        }
+        if (!missing.isEmpty()) {
+            upsertNodes(missing);
+            // Updates and removals may refer to nodes created by this batch
+            for (int i = 0; i < size; i++) {
+                GraphMutation<T> mutation = mutations.get(i);
+                if (startNodes[i] < 0)
+                    startNodes[i] = getPrimaryKey(mutation.getStartNode());
+                if (endNodes[i] < 0)
+                    endNodes[i] = getPrimaryKey(mutation.getEndNode());
+            }
+        }
+
+        // Group by start node, keeping the order within groups. Each key is
+        // the start node primary key followed by the mutation index.
+        long[] keys = new long[size];
+        int keyCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (startNodes[i] >= 0 && endNodes[i] >= 0)
+                keys[keyCount++] = ((long) startNodes[i] << 32) | i;
+        }
+        Arrays.sort(keys, 0, keyCount);
+
+        int applied = 0;
+        int from = 0;
+        while (from < keyCount) {
+            int startNode = (int) (keys[from] >>> 32);
+            int to = from + 1;
+            while (to < keyCount && (int) (keys[to] >>> 32) == startNode)
+                to++;
+            applied += applyMutations(getNode(startNode), mutations, keys,
+                                      from, to, endNodes, log, sequence);
+            from = to;
+        }
+        return applied;
+    }
+
+    /**
+     * Applies the mutations of one start node, one edge type at a time.
+     *
+     * @return The number of mutations that modified the graph.
+     */
+    private int applyMutations(MutableGraphNode<T> startNode,
+                               List<GraphMutation<T>> mutations, long[] keys,
+                               int from, int to, int[] endNodes,
+                               MutationLog<T> log, long[] sequence) {
+        int applied = 0;
+        boolean[] done = new boolean[to - from];
+        for (int first = from; first < to; first++) {
+            if (done[first - from])
+                continue;
+            EdgeType edgeType = mutations.get((int) keys[first]).getType();
+            int groupSize = 0;
+            for (int i = first; i < to; i++) {
+                if (!done[i - from]
+                    && mutations.get((int) keys[i]).getType().ordinal() == edgeType
+                        .ordinal())
+                    groupSize++;
+            }
+            GraphMutation.Operation[] operations =
+                new GraphMutation.Operation[groupSize];
+            int[] groupEnds = new int[groupSize];
+            float[] weights = new float[groupSize];
+            List<GraphMutation<T>> group =
+                new ArrayList<GraphMutation<T>>(groupSize);
+            int j = 0;
+            for (int i = first; i < to; i++) {
+                int index = (int) keys[i];
+                GraphMutation<T> mutation = mutations.get(index);
+                if (done[i - from]
+                    || mutation.getType().ordinal() != edgeType.ordinal())
+                    continue;
+                done[i - from] = true;
+                group.add(mutation);
+                operations[j] = mutation.getOperation();
+                groupEnds[j] = endNodes[index];
+                weights[j] = mutation.getWeight();
+                j++;
+            }
+            boolean[] results;
+            if (log == null) {
+                results = startNode.applyMutations(edgeType, operations,
+                                                   groupEnds, weights);
+            } else {
+                synchronized (startNode) {
+                    // Logged at once, so that a roll of the log never splits
+                    // the group
+                    sequence[0] = log.appendAll(group);
+                    beforeApply(startNode, (int) (keys[from] >>> 32),
+                                sequence[0]);
+                    results = startNode.applyMutations(edgeType, operations,
+                                                       groupEnds, weights);
+                }
+            }
+            boolean changed = false;
+            for (boolean result : results) {
+                if (result) {
+                    applied++;
+                    changed = true;
+                }
+            }
+            if (changed)
+                fireEdgesChanged(startNode.getNodeId(), edgeType);
         }
+        return applied;
+    }
+
+    @Override
+    public void addMutationListener(GraphMutationListener<T> listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("Null listener not allowed");
+        mutationListeners.add(listener);
+    }
+
+    @Override
+    public void removeMutationListener(GraphMutationListener<T> listener) {
+        mutationListeners.remove(listener);
+    }
+
+    private void fireEdgesChanged(NodeID<T> startNode, EdgeType edgeType) {
+        for (GraphMutationListener<T> listener : mutationListeners)
+            listener.edgesChanged(startNode, edgeType);
+    }
+
+    @Override
+    public int getPrimaryKey(NodeID<T> nodeId) {
+        if (nodeId == null)
+            return -1;
+        Integer index = nodeIndex.get(nodeId);
+        if (index == null)
+            return -1;
+        return index;
     }
 
     /**
@@ -184,31 +474,376 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
      */
     @Override
     public MutableGraphNode<T> getNode(int primaryKey) {
-        synchronized (lock) {
-            if (primaryKey >= nodes.size() || primaryKey < 0)
-                return null;
-            return nodes.get(primaryKey);
-        }
+        if (primaryKey < 0 || primaryKey >= nodeCount)
+            return null;
+        return nodes[primaryKey];
+    }
+
+    /**
+     * Looks the edge up by end node, which takes constant time for the
+     * indexed edge lists of high degree nodes.
+     */
+    @Override
+    float getEdgeWeight(int startNode, int endNode, EdgeType edgeType) {
+        MutableGraphNode<T> node = getNode(startNode);
+        return node != null ? node.getEdgeWeight(endNode, edgeType) : Float.NaN;
     }
 
     /**
      * Creates a node if it does not already exist.
      *
-     * Not thread safe and needs synchronization.
+     * The node is published in the node array before it's added to the node
+     * index, so any primary key found in the index is valid in the array.
      */
     private int upsertNode(NodeID<T> nodeId) {
         if (nodeId == null)
             return -1;
-        if (nodeIndex.containsKey(nodeId))
-            return nodeIndex.get(nodeId);
+        int index = getPrimaryKey(nodeId);
+        if (index >= 0)
+            return index;
+        synchronized (lock) {
+            return createNode(nodeId);
+        }
+    }
+
+    /**
+     * Creates all nodes that do not already exist, taking the lock once.
+     */
+    private void upsertNodes(List<NodeID<T>> nodeIds) {
+        synchronized (lock) {
+            for (NodeID<T> nodeId : nodeIds)
+                createNode(nodeId);
+        }
+    }
+
+    /**
+     * Creates a node unless it exists. Must be called while holding the lock.
+     */
+    private int createNode(NodeID<T> nodeId) {
+        int index = getPrimaryKey(nodeId); // Double check under the lock
+        if (index >= 0)
+            return index;
         MutableGraphNode<T> node = new MutableGraphNodeImpl<T>(this, nodeId);
-        int index;
-        index = nodes.size();
+        index = nodeCount;
+        MutableGraphNode<T>[] nodeArray = nodes;
+        if (index == nodeArray.length) {
+            nodeArray = Arrays.copyOf(nodeArray, index * 2);
+            nodes = nodeArray;
+        }
+        nodeArray[index] = node;
+        nodeCount = index + 1; // Publishes the node
+        indexNode(index, nodeId.getNodeType());
         nodeIndex.put(nodeId, index);
-        nodes.add(node);
         return index;
     }
 
+    /**
+     * Sets the log that all following mutations are appended to. Must be set
+     * before the graph is shared with writers.
+     */
+    void setMutationLog(MutationLog<T> mutationLog) {
+        this.mutationLog = mutationLog;
+    }
+
+    MutationLog<T> getMutationLog() {
+        return mutationLog;
+    }
+
+    /**
+     * Sets how the edges of a type age. The weights of traversed edges decay
+     * from when each edge was last added or updated, and expired edges are
+     * skipped. Expired edges are dropped, and still counted until then, when
+     * their lists are mutated or swept, see {@link EdgeDecaySweeper}.
+     *
+     * A changed decay applies to each edge list when it's next mutated or
+     * swept. Existing edges are timestamped at that point.
+     *
+     * @param decay
+     *            The decay, or null for edges that do not age.
+     */
+    public MutableGraphImpl<T> setEdgeDecay(EdgeType edgeType, EdgeDecay decay) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        synchronized (lock) {
+            int ordinal = edgeType.ordinal();
+            EdgeDecay[] decays = edgeDecays;
+            decays = Arrays.copyOf(decays, Math.max(decays.length, ordinal + 1));
+            decays[ordinal] = decay;
+            edgeDecays = decays;
+        }
+        return this;
+    }
+
+    /**
+     * Gets how the edges of a type age, or null if they do not.
+     */
+    public EdgeDecay getEdgeDecay(EdgeType edgeType) {
+        return getEdgeDecay(edgeType.ordinal());
+    }
+
+    EdgeDecay getEdgeDecay(int ordinal) {
+        EdgeDecay[] decays = edgeDecays;
+        return ordinal < decays.length ? decays[ordinal] : null;
+    }
+
+    /**
+     * Caps the number of out edges of a type per node. Once a list is full,
+     * adding an edge evicts the edge with the lowest weight. Unweighted edges
+     * of equal weight are evicted oldest first.
+     *
+     * A changed cap applies to each edge list when edges are next added to
+     * it.
+     *
+     * @param maxDegree
+     *            The max number of edges, or 0 for no cap.
+     */
+    public MutableGraphImpl<T> setMaxDegree(EdgeType edgeType, int maxDegree) {
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        if (maxDegree < 0)
+            throw new IllegalArgumentException("Illegal max degree: "
+                + maxDegree);
+        synchronized (lock) {
+            int ordinal = edgeType.ordinal();
+            int[] degrees = maxDegrees;
+            degrees = Arrays.copyOf(degrees, Math.max(degrees.length, ordinal + 1));
+            degrees[ordinal] = maxDegree;
+            maxDegrees = degrees;
+            if (!evictionsRegistered) {
+                JMXUtils.registerMBean(new JMXEdgeEvictions(getClass().getName(),
+                                                            evictions));
+                evictionsRegistered = true;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Gets the max number of out edges of a type per node, or 0 if there is
+     * no cap.
+     */
+    public int getMaxDegree(EdgeType edgeType) {
+        return getMaxDegree(edgeType.ordinal());
+    }
+
+    int getMaxDegree(int ordinal) {
+        int[] degrees = maxDegrees;
+        return ordinal < degrees.length ? degrees[ordinal] : 0;
+    }
+
+    /**
+     * Sets the number of edges from which an edge list is indexed by end node,
+     * so that {@link #getEdgeWeight(NodeID, NodeID, EdgeType)},
+     * {@link #containsEdge(NodeID, NodeID, EdgeType)} and updates and
+     * removals of single edges do not scan it. The index costs memory and
+     * some time per mutation, so small lists are better off scanned.
+     *
+     * A changed degree applies to each edge list when it is next modified.
+     * Lists already indexed stay indexed.
+     *
+     * @param minDegree
+     *            The min number of edges of an indexed list, or
+     *            Integer.MAX_VALUE to not index any lists.
+     */
+    public MutableGraphImpl<T> setMinIndexedDegree(int minDegree) {
+        if (minDegree <= 0)
+            throw new IllegalArgumentException("Illegal min indexed degree: "
+                + minDegree);
+        this.minIndexedDegree = minDegree;
+        return this;
+    }
+
+    /**
+     * Gets the number of edges from which an edge list is indexed by end node.
+     */
+    public int getMinIndexedDegree() {
+        return minIndexedDegree;
+    }
+
+    /**
+     * Gets the edges evicted from lists that reached their max degree.
+     */
+    public EdgeEvictions getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the current time, used to age edges.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Rebases the edge lists of a node that decay to the current time,
+     * dropping expired edges.
+     *
+     * @return The number of dropped edges.
+     */
+    int sweep(int primaryKey) {
+        MutableGraphNode<T> node = getNode(primaryKey);
+        if (!(node instanceof MutableGraphNodeImpl))
+            return 0;
+        int[] expired = ((MutableGraphNodeImpl<T>) node).sweep();
+        int count = 0;
+        for (EdgeType edgeType : getMetadata().getEdgeTypes()) {
+            int ordinal = edgeType.ordinal();
+            if (ordinal < expired.length && expired[ordinal] > 0) {
+                count += expired[ordinal];
+                fireEdgesChanged(node.getNodeId(), edgeType);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Captures an immutable copy of the graph, and rolls the log so that the
+     * copy includes exactly the mutations logged before the new segment.
+     *
+     * Mutations are never blocked. Logged mutations hold the monitor of their
+     * start node while they are appended and applied, and the nodes are
+     * captured one at a time while holding their monitors. A mutation logged
+     * after the roll, to a node that is not captured yet, first saves the
+     * edges of the node as they were before it, and those are captured
+     * instead. The edge lists are copy on write and shared with the copy, so
+     * capturing is proportional to the number of nodes, not the number of
+     * edges.
+     *
+     * @param log
+     *            The log of this graph.
+     * @param segment
+     *            Set to the number of the new segment.
+     */
+    ImmutableGraphImpl<T> capture(final MutationLog<T> log, int[] segment) {
+        final Checkpoint c = new Checkpoint();
+        Capture<T> capture = new Capture<T>();
+        checkpoint = c;
+        try {
+            segment[0] = log.roll(new Runnable() {
+                @Override
+                public void run() {
+                    c.sequence = log.getAppendedSequence();
+                }
+            });
+            // Mutations logged before the roll only refer to nodes created
+            // before it
+            int size = nodeCount; // Read the count before the array
+            MutableGraphNode<T>[] snapshot = nodes;
+            for (int i = 0; i < size; i++) {
+                MutableGraphNode<T> node = snapshot[i];
+                synchronized (node) {
+                    LongArrayList[] saved = c.edges.remove(i);
+                    capture.add(node.getNodeId(),
+                                saved != null ? saved : getOutEdges(node));
+                    c.captured = i + 1;
+                }
+            }
+        } finally {
+            checkpoint = null;
+        }
+        capture.finish(currentTimeMillis());
+        return ImmutableGraphImpl.copyOf(getMetadata(), capture.nodeIndex,
+                                         capture.nodeIds, capture.edges);
+    }
+
+    /**
+     * Saves the edges of a node before a mutation is applied, if the mutation
+     * is logged after the roll of the checkpoint being captured and the node
+     * is not captured yet. Must be called while holding the monitor of the
+     * node, after the mutation has been appended to the log.
+     */
+    private void beforeApply(MutableGraphNode<T> node, int primaryKey,
+                             long sequence) {
+        Checkpoint c = checkpoint;
+        if (c == null || primaryKey < c.captured || sequence <= c.sequence
+            || c.edges.containsKey(primaryKey))
+            return;
+        c.edges.put(primaryKey, getOutEdges(node));
+    }
+
+    /**
+     * Freezes a view of the graph into a compact immutable graph.
+     *
+     * Mutations are never blocked. The copy on write edge lists of each node
+     * are grabbed as they are, so the view includes all mutations completed
+     * before freezing, and possibly some of the ones done while freezing.
+     * Nodes created while freezing are included as well, so that every edge
+     * refers to a node in the view.
+     */
+    CSRGraphImpl<T> freeze() {
+        Capture<T> capture = new Capture<T>();
+        int size = 0;
+        int count;
+        while ((count = nodeCount) > size) {
+            MutableGraphNode<T>[] snapshot = nodes;
+            for (int i = size; i < count; i++)
+                capture.add(snapshot[i].getNodeId(), getOutEdges(snapshot[i]));
+            size = count;
+        }
+        capture.finish(currentTimeMillis());
+        return CSRGraphImpl.copyOf(getMetadata(), capture.nodeIndex,
+                                   capture.nodeIds, capture.edges);
+    }
+
+    private static <T> LongArrayList[] getOutEdges(MutableGraphNode<T> node) {
+        LongArrayList[] outEdges = ((AbstractGraphNode<T>) node).getOutEdges();
+        return outEdges != null ? outEdges : new LongArrayList[0];
+    }
+
+    /**
+     * The state of a checkpoint being captured.
+     */
+    private static class Checkpoint {
+        /**
+         * The sequence number of the last mutation logged before the roll.
+         * Mutations with a larger sequence number are not part of the
+         * checkpoint.
+         */
+        private volatile long sequence = Long.MAX_VALUE;
+        /** Nodes below this primary key have been captured */
+        private volatile int captured = 0;
+        /** The saved edges of nodes mutated after the roll, by primary key */
+        private final ConcurrentMap<Integer, LongArrayList[]> edges =
+            new ConcurrentHashMap<Integer, LongArrayList[]>();
+    }
+
+    /**
+     * The nodes and edge lists of a captured graph.
+     */
+    private static class Capture<T> {
+        private final List<NodeID<T>> nodeIds = new ArrayList<NodeID<T>>();
+        private final List<LongArrayList[]> edges =
+            new ArrayList<LongArrayList[]>();
+        private AbstractObjectIntMap<NodeID<T>> nodeIndex;
+
+        private void add(NodeID<T> nodeId, LongArrayList[] outEdges) {
+            nodeIds.add(nodeId);
+            edges.add(outEdges);
+        }
+
+        /**
+         * Copies the edges that decay with their current weights, and
+         * indexes the nodes.
+         */
+        private void finish(long now) {
+            for (int i = 0; i < edges.size(); i++) {
+                LongArrayList[] outEdges = edges.get(i);
+                for (int j = 0; j < outEdges.length; j++) {
+                    if (!(outEdges[j] instanceof DecayingEdgeList))
+                        continue;
+                    if (outEdges == edges.get(i)) {
+                        outEdges = outEdges.clone();
+                        edges.set(i, outEdges);
+                    }
+                    outEdges[j] = ((DecayingEdgeList) outEdges[j]).current(now);
+                }
+            }
+            nodeIndex = new OpenObjectIntHashMap<NodeID<T>>(nodeIds.size());
+            for (int i = 0; i < nodeIds.size(); i++)
+                nodeIndex.put(nodeIds.get(i), i);
+        }
+    }
+
     /**
      * A class used to build a graph.
      */
@@ -224,8 +859,24 @@ public class MutableGraphImpl<T> extends AbstractGraph<T> implements
                            AbstractObjectIntMap<NodeID<T>> nodeIndex,
                            List<NodeID<T>> nodes,
                            List<LongArrayList[]> nodeEdges) {
-            return new MutableGraphImpl<T>(metadata, nodeIndex, nodes,
-                                           nodeEdges);
+            // The graph keeps counting the evictions of the builder
+            MutableGraphImpl<T> graph =
+                new MutableGraphImpl<T>(metadata, nodeIndex, nodes, nodeEdges,
+                                        getEvictions());
+            for (EdgeType edgeType : metadata.getEdgeTypes()) {
+                int maxDegree = getMaxDegree(edgeType);
+                if (maxDegree > 0)
+                    graph.setMaxDegree(edgeType, maxDegree);
+            }
+            return graph;
+        }
+
+        /**
+         * Does nothing, the graph registers its evictions once capped.
+         */
+        @Override
+        protected void registerEvictions(Graph<T> graph,
+                                         EdgeEvictions evictions) {
         }
     }
 }
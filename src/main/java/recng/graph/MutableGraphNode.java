@@ -61,4 +61,34 @@ public interface MutableGraphNode<T> extends GraphNode<T> {
                   List<Integer> endNodes,
                   List<Float> weights);
 
+    /**
+     * Applies a number of mutations of the edges of a certain type in order,
+     * merging them into the existing edges in a single pass.
+     *
+     * @param edgeType
+     *            The type of the edges to mutate
+     * @param operations
+     *            The mutations to apply
+     * @param endNodes
+     *            The primary keys of the end node of each mutation
+     * @param weights
+     *            The edge weight of each mutation, ignored for removals
+     * @return For each mutation, true if an edge was added, updated or
+     *         removed.
+     */
+    boolean[] applyMutations(EdgeType edgeType,
+                             GraphMutation.Operation[] operations,
+                             int[] endNodes, float[] weights);
+
+    /**
+     * Gets the weight of the edge of a certain type to a neighbor node.
+     *
+     * @param endNodeIndex
+     *            The primary key of the neighbor node
+     * @param edgeType
+     *            The type of the edge
+     * @return The edge weight, or NaN if no matching edge was found.
+     */
+    float getEdgeWeight(int endNodeIndex, EdgeType edgeType);
+
 }
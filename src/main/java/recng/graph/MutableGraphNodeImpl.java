@@ -1,20 +1,40 @@
 package recng.graph;
 
-import java.nio.ByteBuffer;
-
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-import org.apache.mahout.math.function.LongProcedure;
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.list.FloatArrayList;
+import org.apache.mahout.math.list.IntArrayList;
 import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
 
 /**
  * An implementation of a mutable graph node.
  *
+ * The out edges are copy on write. Each published edge list is immutable, so
+ * readers simply grab the current version without copying or locking, while
+ * writers publish new versions.
+ *
+ * To keep writes to hot nodes from copying the edge lists once per write,
+ * mutations are first pushed to a lock free stack of pending mutations. The
+ * writer holding the node monitor then applies all pending mutations in one
+ * batch, copying each affected edge list once and publishing a single new
+ * version. Concurrent writers to the same node thus share the cost of the
+ * copy. Every mutation has been published once the write method returns.
+ *
+ * The edge lists of types with an {@link EdgeDecay} are kept as
+ * {@link DecayingEdgeList}s. Each mutation of such a list rebases it to the
+ * current time, dropping expired edges, and {@link #sweep()} does the same
+ * for lists that are not mutated.
+ *
+ * Other lists are turned into {@link IndexedEdgeList}s once they reach
+ * {@link MutableGraphImpl#setMinIndexedDegree(int)} edges, so that the edges
+ * of high degree nodes are looked up by end node without scanning the list.
+ *
  * @author jon
  *
  * @param <T>
@@ -23,6 +43,14 @@ import org.apache.mahout.math.list.LongArrayList;
 public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
     implements MutableGraphNode<T> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MutableGraphNodeImpl, EdgeMutation> PENDING =
+        AtomicReferenceFieldUpdater.newUpdater(MutableGraphNodeImpl.class,
+                                               EdgeMutation.class, "pending");
+
+    /** The head of the stack of mutations not yet applied */
+    private volatile EdgeMutation pending = null;
+
     /**
      * Each out edge for a node is internally stored as a long, where the first
      * 4 bytes represent the edge weight and the last 4 bytes represents the end
@@ -31,10 +59,8 @@ public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
      * This method creates such an edge representation.
      */
     private static long createOutEdge(int endNode, float weight) {
-        ByteBuffer buffer = ByteBuffer.allocate(8);
-        buffer.putFloat(weight);
-        buffer.putInt(endNode);
-        return buffer.getLong(0);
+        return ((long) Float.floatToRawIntBits(weight) << 32)
+            | (endNode & 0xffffffffL);
     }
 
     /**
@@ -61,28 +87,77 @@ public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
     @Override
     public Iterator<TraversableGraphEdge<T>>
         traverseNeighbors(EdgeType edgeType) {
-        LongArrayList edges;
-        synchronized (this) {
-            edges = getOutEdges(edgeType);
-            if (edges != null)
-                edges = edges.copy();
-        }
+        LongArrayList edges = getOutEdges(edgeType);
+        if (edges instanceof DecayingEdgeList)
+            return new DecayingNeighborIterator(edgeType,
+                                                (DecayingEdgeList) edges,
+                                                currentTimeMillis());
         return traverseEdges(edgeType, edges);
     }
 
     @Override
     public void forEachNeighbor(EdgeType edgeType, final NodeIDProcedure<T> proc) {
-        LongArrayList edges;
-        synchronized (this) {
-            edges = getOutEdges(edgeType);
-            if (edges != null)
-                edges = edges.copy();
+        LongArrayList edges = getOutEdges(edgeType);
+        if (!(edges instanceof DecayingEdgeList)) {
+            forEachEdge(edges, proc);
+            return;
         }
-        forEachEdge(edges, proc);
+        GraphStats stats = getGraph().getStats();
+        stats.incTraversals();
+        NodeIDAdapter adapter = new NodeIDAdapter(proc);
+        ((DecayingEdgeList) edges).traverse(adapter, currentTimeMillis());
+        stats.incTraversedEdges(adapter.traversed);
+    }
+
+    @Override
+    public void traverseNeighbors(EdgeType edgeType, IntFloatProcedure proc) {
+        LongArrayList edges = getOutEdges(edgeType);
+        if (edges instanceof DecayingEdgeList)
+            ((DecayingEdgeList) edges).traverse(proc, currentTimeMillis());
+        else
+            traverseEdges(edges, proc);
+    }
+
+    private MutableGraphImpl<T> getMutableGraph() {
+        Graph<T> graph = getGraph();
+        if (graph instanceof MutableGraphImpl)
+            return (MutableGraphImpl<T>) graph;
+        return null;
+    }
+
+    private long currentTimeMillis() {
+        MutableGraphImpl<T> graph = getMutableGraph();
+        return graph != null ? graph.currentTimeMillis()
+            : System.currentTimeMillis();
+    }
+
+    private EdgeDecay getEdgeDecay(int ordinal) {
+        MutableGraphImpl<T> graph = getMutableGraph();
+        return graph != null ? graph.getEdgeDecay(ordinal) : null;
+    }
+
+    private int getMinIndexedDegree() {
+        MutableGraphImpl<T> graph = getMutableGraph();
+        return graph != null ? graph.getMinIndexedDegree()
+            : IndexedEdgeList.DEFAULT_MIN_SIZE;
+    }
+
+    @Override
+    public float getEdgeWeight(int endNodeIndex, EdgeType edgeType) {
+        LongArrayList edges = getOutEdges(edgeType);
+        if (edges == null)
+            return Float.NaN;
+        if (edges instanceof DecayingEdgeList)
+            return ((DecayingEdgeList) edges).getWeight(endNodeIndex,
+                                                        currentTimeMillis());
+        if (IndexedEdgeList.isIndexed(edges))
+            return ((IndexedEdgeList) edges).getWeight(endNodeIndex);
+        int index = findEdge(edges, edgeType, endNodeIndex);
+        return index < 0 ? Float.NaN : getWeight(edges.getQuick(index));
     }
 
     @Override
-    public synchronized int getEdgeCount() {
+    public int getEdgeCount() {
         LongArrayList[] outEdges = getOutEdges();
         int edgeCount = 0;
         if (outEdges == null)
@@ -95,136 +170,703 @@ public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
     }
 
     @Override
-    public synchronized void addEdge(int endNodeIndex, EdgeType edgeType,
-                                     float weight) {
-        long edge = createOutEdge(endNodeIndex, weight);
-        LongArrayList edges = getOutEdges(edgeType);
-        if (edges == null) { // First edge of this type, set the edge array
-                             // accordingly
-            setEdges(edgeType, Collections.singletonList(endNodeIndex),
-                     Collections.singletonList(weight));
+    public void addEdge(int endNodeIndex, EdgeType edgeType, float weight) {
+        submit(new EdgeMutation(Operation.ADD, edgeType, endNodeIndex, weight,
+                                null));
+    }
+
+    @Override
+    public boolean updateEdge(int endNodeIndex, EdgeType edgeType,
+                              float weight) {
+        return submit(new EdgeMutation(Operation.UPDATE, edgeType,
+                                       endNodeIndex, weight, null));
+    }
+
+    @Override
+    public boolean removeEdge(int endNodeIndex, EdgeType edgeType) {
+        return submit(new EdgeMutation(Operation.REMOVE, edgeType,
+                                       endNodeIndex, 0f, null));
+    }
+
+    @Override
+    public void setEdges(EdgeType edgeType, List<Integer> endNodes,
+                         List<Float> weights) {
+        LongArrayList edges = new LongArrayList(endNodes.size());
+        int i = 0;
+        // Create edge list
+        for (int endNode : endNodes) {
+            float weight = weights.get(i++);
+            long edge = createOutEdge(endNode, weight);
+            edges.add(edge);
+        }
+        if (edgeType.isWeighted()) // Keep weighted edges sorted
+            edges.sort();
+        submit(new EdgeMutation(Operation.SET, edgeType, -1, 0f, edges));
+    }
+
+    @Override
+    public boolean[] applyMutations(EdgeType edgeType,
+                                    GraphMutation.Operation[] operations,
+                                    int[] endNodes, float[] weights) {
+        if (operations.length != endNodes.length
+            || operations.length != weights.length)
+            throw new IllegalArgumentException("Mismatch between operation, "
+                + "end node and weight count");
+        EdgeMutation mutation =
+            new EdgeMutation(Operation.BATCH, edgeType, -1, 0f, null);
+        mutation.operations = operations;
+        mutation.endNodes = endNodes;
+        mutation.weights = weights;
+        mutation.results = new boolean[operations.length];
+        submit(mutation);
+        return mutation.results;
+    }
+
+    /**
+     * Rebases the edge lists of types with an {@link EdgeDecay} to the
+     * current time, dropping expired edges.
+     *
+     * @return The number of dropped edges per edge type ordinal.
+     */
+    int[] sweep() {
+        EdgeMutation mutation =
+            new EdgeMutation(Operation.SWEEP, null, -1, 0f, null);
+        submit(mutation);
+        return mutation.expired;
+    }
+
+    /**
+     * Pushes a mutation to the pending stack, and makes sure it's applied
+     * before returning.
+     *
+     * @return The result of the mutation.
+     */
+    private boolean submit(EdgeMutation mutation) {
+        EdgeMutation head;
+        do {
+            head = pending;
+            mutation.next = head;
+        } while (!PENDING.compareAndSet(this, head, mutation));
+        synchronized (this) {
+            // Another writer might have applied our mutation while we were
+            // waiting for the monitor
+            if (!mutation.applied)
+                applyPending();
+        }
+        return mutation.result;
+    }
+
+    /**
+     * Applies all pending mutations and publishes the new edge lists.
+     *
+     * Must be called while holding the monitor.
+     */
+    private void applyPending() {
+        EdgeMutation head = PENDING.getAndSet(this, null);
+        // The stack is LIFO, reverse it to apply mutations in submission order
+        EdgeMutation batch = null;
+        while (head != null) {
+            EdgeMutation next = head.next;
+            head.next = batch;
+            batch = head;
+            head = next;
+        }
+
+        LongArrayList[] current = getOutEdges();
+        LongArrayList[] outEdges =
+            current == null ? new LongArrayList[0] : current.clone();
+        // Keeps track of which lists have been copied in this batch
+        boolean[] copied = new boolean[outEdges.length];
+        long now = currentTimeMillis();
+        // The end nodes of added and updated edges that decay, per type
+        Updates updates = new Updates();
+        // The types of the lists that edges may have been added to
+        EdgeType[] grown = new EdgeType[outEdges.length];
+        int minIndexedDegree = getMinIndexedDegree();
+        for (EdgeMutation mutation = batch; mutation != null; mutation =
+            mutation.next) {
+            if (mutation.operation == Operation.SWEEP) {
+                sweep(outEdges, copied, mutation, now);
+                continue;
+            }
+            EdgeType edgeType = mutation.edgeType;
+            int ordinal = edgeType.ordinal();
+            if (ordinal >= outEdges.length) {
+                outEdges = Arrays.copyOf(outEdges, ordinal + 1);
+                copied = Arrays.copyOf(copied, ordinal + 1);
+                grown = Arrays.copyOf(grown, ordinal + 1);
+            }
+            if (mutation.operation != Operation.REMOVE
+                && mutation.operation != Operation.UPDATE)
+                grown[ordinal] = edgeType;
+            if (!copied[ordinal] && outEdges[ordinal] instanceof DecayingEdgeList) {
+                // Mutations work on the current weights
+                outEdges[ordinal] =
+                    ((DecayingEdgeList) outEdges[ordinal]).current(now);
+                copied[ordinal] = true;
+            }
+            if (mutation.operation == Operation.SET) {
+                outEdges[ordinal] = mutation.edges;
+                copied[ordinal] = true;
+                mutation.result = true;
+                updates.setAll(ordinal);
+                continue;
+            }
+            if (mutation.operation == Operation.BATCH) {
+                // Merging creates a new list, no need to copy
+                outEdges[ordinal] = merge(outEdges[ordinal], edgeType, mutation);
+                copied[ordinal] = true;
+                mutation.result = true;
+                for (int i = 0; i < mutation.operations.length; i++) {
+                    if (mutation.results[i]
+                        && mutation.operations[i] != GraphMutation.Operation.REMOVE)
+                        updates.add(ordinal, mutation.endNodes[i]);
+                }
+                continue;
+            }
+            LongArrayList edges = outEdges[ordinal];
+            if (mutation.operation != Operation.ADD
+                && (edges == null || edges.isEmpty())) {
+                mutation.result = false; // Non existing edge
+                continue;
+            }
+            if (!copied[ordinal]) {
+                edges = edges == null ? new LongArrayList() : edges.copy();
+                outEdges[ordinal] = edges;
+                copied[ordinal] = true;
+            }
+            switch (mutation.operation) {
+            case ADD:
+                add(edges, edgeType, mutation.endNode, mutation.weight);
+                mutation.result = true;
+                updates.add(ordinal, mutation.endNode);
+                break;
+            case UPDATE:
+                mutation.result =
+                    update(edges, edgeType, mutation.endNode, mutation.weight);
+                if (mutation.result)
+                    updates.add(ordinal, mutation.endNode);
+                break;
+            case REMOVE:
+                mutation.result = remove(edges, edgeType, mutation.endNode);
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation: "
+                    + mutation.operation);
+            }
+        }
+        for (int ordinal = 0; ordinal < outEdges.length; ordinal++) {
+            if (!copied[ordinal] || outEdges[ordinal] == null)
+                continue;
+            if (ordinal < grown.length && grown[ordinal] != null)
+                evict(outEdges[ordinal], grown[ordinal]);
+            EdgeDecay decay = getEdgeDecay(ordinal);
+            if (decay != null)
+                outEdges[ordinal] =
+                    DecayingEdgeList.create(outEdges[ordinal],
+                                            get(current, ordinal),
+                                            updates.get(ordinal), decay, now);
+            else
+                outEdges[ordinal] =
+                    IndexedEdgeList.index(outEdges[ordinal], minIndexedDegree);
+        }
+        setOutEdges(outEdges); // Publish the new version
+        countEdges(current, outEdges, copied);
+        for (EdgeMutation mutation = batch; mutation != null; mutation =
+            mutation.next)
+            mutation.applied = true;
+    }
+
+    /**
+     * Rebases the edge lists that decay to the current time, and records the
+     * number of dropped edges in the mutation.
+     */
+    private void sweep(LongArrayList[] outEdges, boolean[] copied,
+                       EdgeMutation mutation, long now) {
+        mutation.expired = new int[outEdges.length];
+        for (int ordinal = 0; ordinal < outEdges.length; ordinal++) {
+            LongArrayList edges = outEdges[ordinal];
+            if (edges == null)
+                continue;
+            if (edges instanceof DecayingEdgeList) {
+                outEdges[ordinal] = ((DecayingEdgeList) edges).current(now);
+                mutation.expired[ordinal] =
+                    edges.size() - outEdges[ordinal].size();
+                copied[ordinal] = true;
+            } else if (!copied[ordinal] && getEdgeDecay(ordinal) != null) {
+                // Edges from before the decay was set get timestamps
+                outEdges[ordinal] = edges.copy();
+                copied[ordinal] = true;
+            }
+        }
+        mutation.result = true;
+    }
+
+    /**
+     * Evicts the lowest weight edges from a copied list longer than the max
+     * degree of its type. Unweighted edges of equal weight are evicted oldest
+     * first.
+     */
+    private void evict(LongArrayList edges, EdgeType edgeType) {
+        MutableGraphImpl<T> graph = getMutableGraph();
+        if (graph == null)
+            return;
+        int maxDegree = graph.getMaxDegree(edgeType.ordinal());
+        int excess = edges.size() - maxDegree;
+        if (maxDegree <= 0 || excess <= 0)
+            return;
+        IndexedEdgeList indexed =
+            IndexedEdgeList.isIndexed(edges) ? (IndexedEdgeList) edges : null;
+        if (edgeType.isWeighted()) {
+            if (indexed != null) {
+                for (int i = 0; i < excess; i++)
+                    indexed.unindex(getEndNodeIndex(edges.getQuick(i)));
+            }
+            edges.removeFromTo(0, excess - 1); // Sorted by ascending weight
         } else {
-            if (!edgeType.isWeighted()) {
-                // For unweighted edges there is no need to
-                // keep things sorted
-                edges.add(edge);
-            } else {
-                // Finds the appropriate index at which to insert this edge
-                // (based on edge weight)
-                int index = findIndex(edgeType, weight);
-                edges.beforeInsert(index, edge);
+            int size = edges.size();
+            long[] elements = edges.elements();
+            float[] weights = new float[size];
+            for (int i = 0; i < size; i++)
+                weights[i] = getWeight(elements[i]);
+            Arrays.sort(weights);
+            float threshold = weights[excess - 1];
+            // The number of edges with the threshold weight to evict
+            int ties = excess;
+            for (int i = 0; i < excess; i++) {
+                if (weights[i] < threshold)
+                    ties--;
             }
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                float weight = getWeight(elements[i]);
+                if (weight < threshold) {
+                    if (indexed != null)
+                        indexed.unindex(getEndNodeIndex(elements[i]));
+                    continue;
+                }
+                if (weight == threshold && ties > 0) {
+                    ties--;
+                    if (indexed != null)
+                        indexed.unindex(getEndNodeIndex(elements[i]));
+                    continue;
+                }
+                elements[kept++] = elements[i];
+            }
+            edges.removeFromTo(kept, size - 1);
         }
+        graph.getEvictions().evicted(getNodeId(), edgeType, excess);
     }
 
-    @Override
-    public synchronized boolean updateEdge(int endNodeIndex,
-                                           EdgeType edgeType,
-                                           float weight) {
-        int index = findEdge(edgeType, endNodeIndex);
+    private static LongArrayList get(LongArrayList[] outEdges, int ordinal) {
+        if (outEdges == null || ordinal >= outEdges.length)
+            return null;
+        return outEdges[ordinal];
+    }
+
+    /**
+     * Reports the change in the number of edges of each modified edge type to
+     * the graph, which keeps the edge counts.
+     */
+    private void countEdges(LongArrayList[] before, LongArrayList[] after,
+                            boolean[] copied) {
+        Graph<T> graph = getGraph();
+        if (!(graph instanceof AbstractGraph))
+            return;
+        AbstractGraph<T> counted = (AbstractGraph<T>) graph;
+        for (int ordinal = 0; ordinal < after.length; ordinal++) {
+            if (!copied[ordinal])
+                continue;
+            int delta = size(after, ordinal) - size(before, ordinal);
+            counted.countEdges(getNodeId().getNodeType(), ordinal, delta);
+        }
+    }
+
+    private static int size(LongArrayList[] outEdges, int ordinal) {
+        if (outEdges == null || ordinal >= outEdges.length
+            || outEdges[ordinal] == null)
+            return 0;
+        return outEdges[ordinal].size();
+    }
+
+    /**
+     * Applies a batch of mutations to a list of edges, and returns the
+     * resulting list.
+     *
+     * The edges to update or remove are found through chains of the existing
+     * edges to each targeted end node, built in one scan of the list. The
+     * result is then written in one sweep, copying the runs of untouched
+     * edges between the modified positions. Weighted edges that are added or
+     * updated are sorted separately and inserted at their positions in the
+     * sweep.
+     */
+    private static LongArrayList merge(LongArrayList edges, EdgeType edgeType,
+                                       EdgeMutation batch) {
+        GraphMutation.Operation[] operations = batch.operations;
+        int[] endNodes = batch.endNodes;
+        float[] weights = batch.weights;
+        boolean[] results = batch.results;
+        int size = edges == null ? 0 : edges.size();
+        long[] elements = edges == null ? new long[0] : edges.elements();
+        boolean weighted = edgeType.isWeighted();
+
+        // The end nodes that are updated or removed, sorted and distinct
+        int[] targets = getTargets(operations, endNodes);
+        // Chains the existing and added edges to each targeted end node, in
+        // list order and order of addition
+        OpenIntIntHashMap existingHeads = null;
+        int[] nextExisting = null;
+        OpenIntIntHashMap addedHeads = null;
+        OpenIntIntHashMap addedTails = null;
+        IntArrayList nextAdded = null;
+        if (targets.length > 0) {
+            existingHeads = new OpenIntIntHashMap(targets.length * 2);
+            nextExisting = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                int endNode = getEndNodeIndex(elements[i]);
+                if (!contains(targets, endNode))
+                    continue;
+                nextExisting[i] =
+                    existingHeads.containsKey(endNode) ? existingHeads.get(endNode)
+                        : -1;
+                existingHeads.put(endNode, i);
+            }
+            addedHeads = new OpenIntIntHashMap(targets.length * 2);
+            addedTails = new OpenIntIntHashMap(targets.length * 2);
+            nextAdded = new IntArrayList(operations.length);
+        }
+
+        // The positions of modified existing edges, their state and the new
+        // weight of updated ones
+        IntArrayList modified = new IntArrayList();
+        byte[] state = null;
+        float[] updatedWeights = null;
+        // Added edges, removed ones get end node -1
+        IntArrayList addedEnds = new IntArrayList(operations.length);
+        FloatArrayList addedWeights = new FloatArrayList(operations.length);
+        int removedAdded = 0;
+
+        for (int i = 0; i < operations.length; i++) {
+            int endNode = endNodes[i];
+            switch (operations[i]) {
+            case ADD:
+                int added = addedEnds.size();
+                addedEnds.add(endNode);
+                addedWeights.add(weights[i]);
+                if (targets.length > 0) {
+                    nextAdded.add(-1);
+                    if (contains(targets, endNode)) {
+                        if (addedTails.containsKey(endNode))
+                            nextAdded.setQuick(addedTails.get(endNode), added);
+                        else
+                            addedHeads.put(endNode, added);
+                        addedTails.put(endNode, added);
+                    }
+                }
+                results[i] = true;
+                break;
+            case UPDATE:
+                if (existingHeads.containsKey(endNode)) {
+                    if (state == null) {
+                        state = new byte[size];
+                        updatedWeights = new float[size];
+                    }
+                    int index = existingHeads.get(endNode);
+                    if (state[index] == UNCHANGED)
+                        modified.add(index);
+                    state[index] = UPDATED;
+                    updatedWeights[index] = weights[i];
+                    results[i] = true;
+                } else if (addedHeads.containsKey(endNode)) {
+                    addedWeights.setQuick(addedHeads.get(endNode), weights[i]);
+                    results[i] = true;
+                }
+                break;
+            case REMOVE:
+                if (existingHeads.containsKey(endNode)) {
+                    if (state == null) {
+                        state = new byte[size];
+                        updatedWeights = new float[size];
+                    }
+                    int index = existingHeads.get(endNode);
+                    if (state[index] == UNCHANGED)
+                        modified.add(index);
+                    state[index] = REMOVED;
+                    if (nextExisting[index] >= 0)
+                        existingHeads.put(endNode, nextExisting[index]);
+                    else
+                        existingHeads.removeKey(endNode);
+                    results[i] = true;
+                } else if (addedHeads.containsKey(endNode)) {
+                    int index = addedHeads.get(endNode);
+                    addedEnds.setQuick(index, -1);
+                    removedAdded++;
+                    if (nextAdded.getQuick(index) >= 0) {
+                        addedHeads.put(endNode, nextAdded.getQuick(index));
+                    } else {
+                        addedHeads.removeKey(endNode);
+                        addedTails.removeKey(endNode);
+                    }
+                    results[i] = true;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation: "
+                    + operations[i]);
+            }
+        }
+        modified.sort();
+
+        // Weighted edges that are added or updated are moved to their new
+        // positions, sorted on weight
+        long[] moved = new long[0];
+        int movedCount = 0;
+        int removedCount = 0;
+        for (int i = 0; i < modified.size(); i++) {
+            int index = modified.getQuick(i);
+            if (state[index] == REMOVED || weighted)
+                removedCount++;
+        }
+        if (weighted) {
+            moved = new long[modified.size() + addedEnds.size()];
+            for (int i = 0; i < modified.size(); i++) {
+                int index = modified.getQuick(i);
+                if (state[index] == UPDATED)
+                    moved[movedCount++] =
+                        createOutEdge(getEndNodeIndex(elements[index]),
+                                      updatedWeights[index]);
+            }
+            for (int i = 0; i < addedEnds.size(); i++) {
+                if (addedEnds.getQuick(i) >= 0)
+                    moved[movedCount++] =
+                        createOutEdge(addedEnds.getQuick(i),
+                                      addedWeights.getQuick(i));
+            }
+            Arrays.sort(moved, 0, movedCount);
+        }
+
+        int appended = weighted ? 0 : addedEnds.size() - removedAdded;
+        long[] res = new long[size - removedCount + movedCount + appended];
+        int out = 0;
+        int from = 0; // The first existing edge not yet written
+        int m = 0;
+        for (int i = 0; i <= modified.size(); i++) {
+            int next = i < modified.size() ? modified.getQuick(i) : size;
+            // Insert the moved edges positioned before the next modified edge
+            while (m < movedCount) {
+                int position = upperBound(elements, from, next,
+                                          getWeight(moved[m]));
+                if (position >= next)
+                    break;
+                System.arraycopy(elements, from, res, out, position - from);
+                out += position - from;
+                from = position;
+                res[out++] = moved[m++];
+            }
+            System.arraycopy(elements, from, res, out, next - from);
+            out += next - from;
+            from = next;
+            if (next == size)
+                break;
+            if (!weighted && state[next] == UPDATED)
+                res[out++] = createOutEdge(getEndNodeIndex(elements[next]),
+                                           updatedWeights[next]);
+            from = next + 1;
+        }
+        while (m < movedCount) // Heavier than all existing edges
+            res[out++] = moved[m++];
+        if (!weighted) { // Added unweighted edges are appended
+            for (int i = 0; i < addedEnds.size(); i++) {
+                if (addedEnds.getQuick(i) >= 0)
+                    res[out++] = createOutEdge(addedEnds.getQuick(i),
+                                               addedWeights.getQuick(i));
+            }
+        }
+        return new LongArrayList(res);
+    }
+
+    /**
+     * Gets the distinct end nodes of the updates and removals in a batch,
+     * sorted.
+     */
+    private static int[] getTargets(GraphMutation.Operation[] operations,
+                                    int[] endNodes) {
+        int count = 0;
+        int[] targets = new int[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i] != GraphMutation.Operation.ADD)
+                targets[count++] = endNodes[i];
+        }
+        if (count == 0)
+            return new int[0];
+        Arrays.sort(targets, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (targets[i] != targets[distinct - 1])
+                targets[distinct++] = targets[i];
+        }
+        return Arrays.copyOf(targets, distinct);
+    }
+
+    /**
+     * Checks if a sorted array contains a value. Called for every existing
+     * edge, so values outside the range are rejected first, and small arrays
+     * are scanned.
+     */
+    private static boolean contains(int[] sorted, int value) {
+        int last = sorted.length - 1;
+        if (value < sorted[0] || value > sorted[last])
+            return false;
+        if (last >= 8)
+            return Arrays.binarySearch(sorted, value) >= 0;
+        for (int target : sorted) {
+            if (target >= value)
+                return target == value;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first edge in the range [from, to) that is heavier than a
+     * certain weight, or to if there is none.
+     */
+    private static int upperBound(long[] elements, int from, int to,
+                                  float weight) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getWeight(elements[mid]) <= weight)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first edge in the range [from, to) that is at least as heavy
+     * as a certain weight, or to if there is none.
+     */
+    private static int lowerBound(long[] elements, int from, int to,
+                                  float weight) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getWeight(elements[mid]) < weight)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static void add(LongArrayList edges, EdgeType edgeType,
+                            int endNodeIndex, float weight) {
+        long edge = createOutEdge(endNodeIndex, weight);
+        int index;
+        if (!edgeType.isWeighted()) {
+            // For unweighted edges there is no need to
+            // keep things sorted
+            index = edges.size();
+            edges.add(edge);
+        } else {
+            // Finds the appropriate index at which to insert this edge
+            // (based on edge weight)
+            index = findIndex(edges, weight);
+            edges.beforeInsert(index, edge);
+        }
+        if (IndexedEdgeList.isIndexed(edges)) {
+            IndexedEdgeList indexed = (IndexedEdgeList) edges;
+            if (indexed.contains(endNodeIndex))
+                indexed.drop(); // Several edges to the same end node
+            else
+                indexed.index(endNodeIndex, weight);
+        }
+    }
+
+    private static boolean update(LongArrayList edges, EdgeType edgeType,
+                                  int endNodeIndex, float weight) {
+        int index = findEdge(edges, edgeType, endNodeIndex);
         if (index < 0) // Non existing edge
             return false;
-        LongArrayList edges = getOutEdges(edgeType);
         long edge = createOutEdge(endNodeIndex, weight);
-        int newIndex = findIndex(edgeType, weight);
+        if (IndexedEdgeList.isIndexed(edges))
+            ((IndexedEdgeList) edges).index(endNodeIndex, weight);
+        if (!edgeType.isWeighted()) {
+            edges.set(index, edge);
+            return true;
+        }
+        int newIndex = findIndex(edges, weight);
         // We (might) need to move the edge in the array to keep it sorted on
         // edge weight. In doing so, we need to shift other edges either to the
         // left or right in the array.
         if (newIndex > index) {
-            int shiftFrom = index + 1;
-            int shiftTo = newIndex;
+            // The edge itself is removed from the array, so it ends up one
+            // step to the left of the insertion point
+            newIndex--;
             // Shift all edges in the sub array (old index + 1 .. new index) one
             // step to the left to make room for the updated edge
-            shiftLeft(edges, shiftFrom, shiftTo - shiftFrom + 1);
+            shiftLeft(edges, index + 1, newIndex - index);
         } else if (newIndex < index) {
-            int shiftFrom = newIndex;
-            int shiftTo = index - 1;
             // Shift all edges in the sub array (new index .. old index - 1) one
             // step to the right to make room for the updated edge
-            shiftRight(edges, shiftFrom, shiftTo - shiftFrom + 1);
+            shiftRight(edges, newIndex, index - newIndex);
         }
         edges.set(newIndex, edge);
         return true;
     }
 
-    private void shiftLeft(LongArrayList edges, int offset, int length) {
-        for (int i = 0; i < length; i++)
-            edges.set(offset + i - 1, edges.get(offset + i));
-    }
-
-    private void shiftRight(LongArrayList edges, int offset, int length) {
-        for (int i = offset + length - 1; i >= offset; i--) {
-            if (i < edges.size() - 1)
-                edges.set(i + 1, edges.get(i));
-            else
-                edges.add(edges.get(i));
-        }
-    }
-
-    @Override
-    public synchronized boolean removeEdge(int endNodeIndex,
-                                           EdgeType edgeType) {
-        int index = findEdge(edgeType, endNodeIndex);
+    private static boolean remove(LongArrayList edges, EdgeType edgeType,
+                                  int endNodeIndex) {
+        int index = findEdge(edges, edgeType, endNodeIndex);
         if (index < 0)
             return false; // Non existing edge
-        LongArrayList edges = getOutEdges(edgeType);
         edges.remove(index);
+        if (IndexedEdgeList.isIndexed(edges))
+            ((IndexedEdgeList) edges).unindex(endNodeIndex);
         return true;
     }
 
-    @Override
-    public synchronized void setEdges(EdgeType edgeType,
-                                      List<Integer> endNodes,
-                                      List<Float> weights) {
-        int edgeTypeIndex = edgeType.ordinal();
-        LongArrayList edges = new LongArrayList(endNodes.size());
-        int i = 0;
-        // Create edge list
-        for (int endNode : endNodes) {
-            float weight = weights.get(i++);
-            long edge = createOutEdge(endNode, weight);
-            edges.add(edge);
-        }
-        if (edgeType.isWeighted()) // Keep weighted edges sorted
-            edges.sort();
-        // Create/expand array if necessary
-        LongArrayList[] outEdges = getOutEdges();
-        if (outEdges == null) {
-            outEdges = new LongArrayList[edgeTypeIndex + 1];
-            setOutEdges(outEdges);
-        } else if (edgeTypeIndex >= outEdges.length) {
-            outEdges = Arrays.copyOf(outEdges, edgeTypeIndex + 1);
-            setOutEdges(outEdges);
-        }
-        outEdges[edgeTypeIndex] = edges;
+    private static void shiftLeft(LongArrayList edges, int offset, int length) {
+        long[] elements = edges.elements();
+        System.arraycopy(elements, offset, elements, offset - 1, length);
+    }
+
+    private static void shiftRight(LongArrayList edges, int offset, int length) {
+        long[] elements = edges.elements();
+        System.arraycopy(elements, offset, elements, offset + 1, length);
     }
 
     /**
      * Find an edge by the primary key of it's end node.
      *
-     * Performed by a (potentially) full scan of the edge list.
+     * Performed by a (potentially) full scan of the edge list. The index of an
+     * indexed list tells if there is such an edge at all, and for weighted
+     * edges its weight, so only the edges of that weight are scanned.
      */
-    private int findEdge(EdgeType edgeType, final int endNodeIndex) {
-        LongArrayList edges = getOutEdges(edgeType);
-        if (edges == null)
-            return -1;
-        final AtomicInteger index = new AtomicInteger(0);
-        final AtomicBoolean found = new AtomicBoolean(false);
-        edges.forEach(new LongProcedure() {
-
-            @Override
-            public boolean apply(long edge) {
-                int nodeIndex = getEndNodeIndex(edge);
-                if (nodeIndex == endNodeIndex) {
-                    found.set(true);
-                    return false;
+    private static int findEdge(LongArrayList edges, EdgeType edgeType,
+                                int endNodeIndex) {
+        if (IndexedEdgeList.isIndexed(edges)) {
+            IndexedEdgeList indexed = (IndexedEdgeList) edges;
+            if (!indexed.contains(endNodeIndex))
+                return -1;
+            if (edgeType.isWeighted()) {
+                float weight = indexed.getWeight(endNodeIndex);
+                long[] elements = edges.elements();
+                int size = edges.size();
+                for (int i = lowerBound(elements, 0, size, weight); i < size
+                    && getWeight(elements[i]) == weight; i++) {
+                    if (getEndNodeIndex(elements[i]) == endNodeIndex)
+                        return i;
                 }
-                index.incrementAndGet();
-                return true;
             }
-        });
-        if (found.get())
-            return index.get();
+        }
+        for (int i = 0; i < edges.size(); i++) {
+            if (getEndNodeIndex(edges.getQuick(i)) == endNodeIndex)
+                return i;
+        }
         return -1;
     }
 
@@ -232,18 +874,13 @@ public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
      * Finds the appropriate index (offset) for an edge based on it's weight.
      * Since edges are sorted on weight, we use a binary search here.
      */
-    private int findIndex(EdgeType edgeType, float weight) {
-        LongArrayList edges = getOutEdges(edgeType);
-        if (edges == null)
-            return -1;
+    private static int findIndex(LongArrayList edges, float weight) {
         int low = 0;
         int high = edges.size() - 1;
-        int mid = -1;
 
         while (low <= high) {
-            mid = (low + high) / 2;
-            long edge = edges.get(mid);
-            float edgeWeight = getWeight(edge);
+            int mid = (low + high) >>> 1;
+            float edgeWeight = getWeight(edges.getQuick(mid));
             if (edgeWeight < weight)
                 low = mid + 1;
             else if (edgeWeight > weight)
@@ -251,10 +888,170 @@ public class MutableGraphNodeImpl<T> extends AbstractGraphNode<T>
             else
                 return mid;
         }
-        long edge = edges.get(mid);
-        float edgeWeight = getWeight(edge);
-        if (edgeWeight < weight)
-            return mid + 1;
-        return mid;
+        return low;
+    }
+
+    private static enum Operation {
+        ADD, UPDATE, REMOVE, SET, BATCH, SWEEP
+    }
+
+    /**
+     * The end nodes of the edges added or updated by a batch of mutations,
+     * per edge type ordinal. Used to timestamp edges that decay.
+     */
+    /**
+     * Passes the end nodes of traversed edges to a node id procedure, and
+     * counts the edges it accepts.
+     */
+    private class NodeIDAdapter implements IntFloatProcedure {
+
+        private final NodeIDProcedure<T> proc;
+        private int traversed = 0;
+
+        private NodeIDAdapter(NodeIDProcedure<T> proc) {
+            this.proc = proc;
+        }
+
+        @Override
+        public boolean apply(int endNodeIndex, float weight) {
+            if (!proc.apply(getGraph().getNode(endNodeIndex).getNodeId()))
+                return false;
+            traversed++;
+            return true;
+        }
+    }
+
+    /**
+     * Iterates the unexpired edges of a decaying list, scaling the stored
+     * weights as of the time the iterator was created.
+     */
+    private class DecayingNeighborIterator implements
+        Iterator<TraversableGraphEdge<T>> {
+
+        private final int startNodeIndex;
+        private final EdgeType edgeType;
+        private final DecayingEdgeList edges;
+        private final long now;
+        private final float factor;
+        private int currentIndex;
+
+        private DecayingNeighborIterator(EdgeType edgeType,
+                                         DecayingEdgeList edges, long now) {
+            this.startNodeIndex = getGraph().getPrimaryKey(getNodeId());
+            this.edgeType = edgeType;
+            this.edges = edges;
+            this.now = now;
+            this.factor = edges.getFactor(now);
+            this.currentIndex = edges.size() - 1;
+            skipExpired();
+        }
+
+        private void skipExpired() {
+            while (currentIndex >= 0 && edges.isExpired(currentIndex, now))
+                currentIndex--;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return currentIndex >= 0;
+        }
+
+        @Override
+        public TraversableGraphEdge<T> next() {
+            if (currentIndex < 0)
+                throw new NoSuchElementException();
+            long edge = edges.getQuick(currentIndex--);
+            skipExpired();
+            int endNodeIndex = getEndNodeIndex(edge);
+            GraphNode<T> start = getGraph().getNode(startNodeIndex);
+            GraphNode<T> end = getGraph().getNode(endNodeIndex);
+            return new TraversableGraphEdge<T>(start, end, endNodeIndex,
+                                               edgeType, getWeight(edge)
+                                                   * factor);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class Updates {
+        private IntArrayList[] endNodes = new IntArrayList[0];
+        private boolean[] all = new boolean[0];
+
+        private void add(int ordinal, int endNode) {
+            grow(ordinal);
+            if (all[ordinal])
+                return;
+            if (endNodes[ordinal] == null)
+                endNodes[ordinal] = new IntArrayList();
+            endNodes[ordinal].add(endNode);
+        }
+
+        private void setAll(int ordinal) {
+            grow(ordinal);
+            all[ordinal] = true;
+            endNodes[ordinal] = null;
+        }
+
+        /**
+         * @return The sorted end nodes, or null if all edges were updated.
+         */
+        private int[] get(int ordinal) {
+            if (ordinal < all.length && all[ordinal])
+                return null;
+            if (ordinal >= endNodes.length || endNodes[ordinal] == null)
+                return new int[0];
+            int[] res = Arrays.copyOf(endNodes[ordinal].elements(),
+                                      endNodes[ordinal].size());
+            Arrays.sort(res);
+            return res;
+        }
+
+        private void grow(int ordinal) {
+            if (ordinal < all.length)
+                return;
+            endNodes = Arrays.copyOf(endNodes, ordinal + 1);
+            all = Arrays.copyOf(all, ordinal + 1);
+        }
+    }
+
+    /** The states of existing edges when merging a batch */
+    private static final byte UNCHANGED = 0;
+    private static final byte UPDATED = 1;
+    private static final byte REMOVED = 2;
+
+    /**
+     * A pending mutation of the out edges of this node.
+     */
+    private static class EdgeMutation {
+        private final Operation operation;
+        private final EdgeType edgeType;
+        private final int endNode;
+        private final float weight;
+        // The new edges of a SET operation
+        private final LongArrayList edges;
+        // The mutations of a BATCH operation, and their results
+        private GraphMutation.Operation[] operations;
+        private int[] endNodes;
+        private float[] weights;
+        private boolean[] results;
+        // The number of edges dropped by a SWEEP operation, per type
+        private int[] expired;
+        // The next mutation in the pending stack or in the applied batch
+        private EdgeMutation next;
+        // Guarded by the node monitor
+        private boolean applied = false;
+        private boolean result = false;
+
+        private EdgeMutation(Operation operation, EdgeType edgeType,
+                             int endNode, float weight, LongArrayList edges) {
+            this.operation = operation;
+            this.edgeType = edgeType;
+            this.endNode = endNode;
+            this.weight = weight;
+            this.edges = edges;
+        }
     }
 }
@@ -0,0 +1,733 @@
+package recng.graph;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import recng.common.IDParser;
+import recng.common.Procedure;
+import recng.common.io.Closer;
+
+/**
+ * An append only log of the mutations of a {@link MutableGraphImpl}, used to
+ * recover the graph after a crash, see {@link GraphJournal}.
+ *
+ * The log is split into segments, numbered in the order they are written.
+ * Rolling the log closes the current segment and starts a new one, so that
+ * segments covered by a snapshot of the graph can be deleted.
+ *
+ * Records are group committed. Writers append their records to an in memory
+ * batch, and a background thread writes the batch to the current segment and
+ * forces it to disk. With a sync interval of 0 (the default), writers wait in
+ * {@link #sync(long)} until their records are durable, and concurrent writers
+ * share the cost of each fsync. With a positive sync interval writers never
+ * wait, and the batch is forced at least that often, so a crash loses at most
+ * the mutations of the last interval.
+ *
+ * Each record is length prefixed and checksummed, so a record torn by a crash
+ * is detected and ends the replay of its segment.
+ *
+ * The segment layout (big endian) is:
+ *
+ * <pre>
+ * Header:  int magic, int version, int segment number
+ * Records: (int payload length, int crc32 of payload, payload) *
+ * Payload: byte operation, int edge type ordinal, start node,
+ *          then for ADD and UPDATE: end node, float weight
+ *                   REMOVE:         end node
+ *                   SET:            int count, (end node, float weight) * count
+ * Node:    int node type ordinal, UTF node id
+ * </pre>
+ *
+ * @author jon
+ */
+public class MutationLog<T> implements Closeable {
+
+    /** Identifies a mutation log segment. */
+    static final int MAGIC = 0x52474d4c;
+    /** The current version of the log format. */
+    static final int VERSION = 1;
+
+    private static final String PREFIX = "mutations-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte ADD = 0;
+    private static final byte UPDATE = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SET = 3;
+
+    private final File directory;
+    private final IDParser<T> idParser;
+    private final NodeType[] nodeTypes;
+    private final EdgeType[] edgeTypes;
+    private volatile long syncInterval = 0;
+    private volatile int maxBatchSize = 1 << 20;
+
+    /** Guards the batch, the sequence numbers and the state of the log. */
+    private final Object lock = new Object();
+    /**
+     * Held while writing to or switching the current segment. Always taken
+     * before the lock.
+     */
+    private final Object writeLock = new Object();
+
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    /** The sequence number of the last appended record */
+    private long appended = 0;
+    /** The sequence number of the last record forced to disk */
+    private long durable = 0;
+    /** The number of writers waiting for their records to be durable */
+    private int waiting = 0;
+    private long lastSync = System.currentTimeMillis();
+    private boolean open = false;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    // Guarded by the write lock
+    private FileOutputStream out = null;
+    private int segment = -1;
+
+    private Thread flusher = null;
+
+    /**
+     * Creates a log keeping its segments in a directory. Nothing is written
+     * until the log is opened.
+     */
+    public MutationLog(File directory, GraphMetadata metadata,
+                       IDParser<T> idParser) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Can not create directory: "
+                + directory);
+        this.directory = directory;
+        this.idParser = idParser;
+
+        int maxOrdinal = -1;
+        for (EdgeType edgeType : metadata.getEdgeTypes())
+            maxOrdinal = Math.max(maxOrdinal, edgeType.ordinal());
+        this.edgeTypes = new EdgeType[maxOrdinal + 1];
+        for (EdgeType edgeType : metadata.getEdgeTypes())
+            edgeTypes[edgeType.ordinal()] = edgeType;
+
+        maxOrdinal = -1;
+        for (NodeType nodeType : metadata.getNodeTypes())
+            maxOrdinal = Math.max(maxOrdinal, nodeType.ordinal());
+        this.nodeTypes = new NodeType[maxOrdinal + 1];
+        for (NodeType nodeType : metadata.getNodeTypes())
+            nodeTypes[nodeType.ordinal()] = nodeType;
+    }
+
+    /**
+     * Sets the max time in millis between forcing appended records to disk.
+     * With an interval of 0 writers wait for their records to be durable.
+     *
+     * Defaults to 0.
+     */
+    public MutationLog<T> setSyncInterval(long syncInterval) {
+        if (syncInterval < 0)
+            throw new IllegalArgumentException("Negative sync interval");
+        this.syncInterval = syncInterval;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Sets the size in bytes at which a batch is written without waiting for
+     * the sync interval.
+     *
+     * Defaults to 1 MB.
+     */
+    public MutationLog<T> setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        return this;
+    }
+
+    /**
+     * Starts a new segment, numbered after all existing segments, and starts
+     * accepting records.
+     */
+    public void open() {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (open || closed)
+                    throw new IllegalStateException("Log already opened");
+                open = true;
+            }
+            List<Integer> segments = getSegments();
+            int next = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+            try {
+                openSegment(next);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open mutation log", e);
+            }
+        }
+        flusher = new Thread(new Flusher(), "MutationLog flusher " + directory);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends an added, updated or removed edge.
+     *
+     * @return The sequence number of the record.
+     */
+    public long append(GraphMutation<T> mutation) {
+        return append(encode(mutation));
+    }
+
+    /**
+     * Appends several added, updated or removed edges at once. The records
+     * are consecutive, and always end up in the same segment.
+     *
+     * @return The sequence number of the last record.
+     */
+    public long appendAll(List<GraphMutation<T>> mutations) {
+        byte[][] payloads = new byte[mutations.size()][];
+        for (int i = 0; i < payloads.length; i++)
+            payloads[i] = encode(mutations.get(i));
+        return append(payloads);
+    }
+
+    private byte[] encode(GraphMutation<T> mutation) {
+        byte operation;
+        switch (mutation.getOperation()) {
+        case ADD:
+            operation = ADD;
+            break;
+        case UPDATE:
+            operation = UPDATE;
+            break;
+        case REMOVE:
+            operation = REMOVE;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown operation: "
+                + mutation.getOperation());
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream dos = new DataOutputStream(bytes);
+            writeHeader(dos, operation, mutation.getType(),
+                        mutation.getStartNode());
+            writeNode(dos, mutation.getEndNode());
+            if (operation != REMOVE)
+                dos.writeFloat(mutation.getWeight());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Not thrown for byte arrays
+        }
+    }
+
+    /**
+     * Appends the replacement of all edges of a type of a node.
+     *
+     * @return The sequence number of the record.
+     */
+    public long appendSetEdges(NodeID<T> startNode, EdgeType edgeType,
+                               List<NodeID<T>> endNodes, List<Float> weights) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bytes);
+            writeHeader(dos, SET, edgeType, startNode);
+            dos.writeInt(endNodes.size());
+            for (int i = 0; i < endNodes.size(); i++) {
+                writeNode(dos, endNodes.get(i));
+                dos.writeFloat(weights.get(i));
+            }
+            return append(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Not thrown for byte arrays
+        }
+    }
+
+    private void writeHeader(DataOutputStream dos, byte operation,
+                             EdgeType edgeType, NodeID<T> startNode)
+        throws IOException {
+        dos.writeByte(operation);
+        dos.writeInt(edgeType.ordinal());
+        writeNode(dos, startNode);
+    }
+
+    private void writeNode(DataOutputStream dos, NodeID<T> node)
+        throws IOException {
+        dos.writeInt(node.getNodeType().ordinal());
+        dos.writeUTF(idParser.serialize(node.getID()));
+    }
+
+    private long append(byte[]... payloads) {
+        int[] crcs = new int[payloads.length];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < payloads.length; i++) {
+            crc.reset();
+            crc.update(payloads[i]);
+            crcs[i] = (int) crc.getValue();
+        }
+        synchronized (lock) {
+            checkState();
+            for (int i = 0; i < payloads.length; i++) {
+                writeInt(batch, payloads[i].length);
+                writeInt(batch, crcs[i]);
+                batch.write(payloads[i], 0, payloads[i].length);
+            }
+            appended += payloads.length;
+            if (batch.size() >= maxBatchSize)
+                lock.notifyAll();
+            return appended;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream bytes, int value) {
+        bytes.write(value >>> 24);
+        bytes.write(value >>> 16);
+        bytes.write(value >>> 8);
+        bytes.write(value);
+    }
+
+    /**
+     * Waits until a record, and all records before it, are durable. Returns
+     * immediately if the log has a positive sync interval.
+     */
+    public void sync(long sequence) {
+        synchronized (lock) {
+            if (syncInterval > 0) {
+                checkState();
+                return;
+            }
+            waiting++;
+            lock.notifyAll();
+            try {
+                while (durable < sequence && failure == null)
+                    lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting "
+                    + "for the mutation log", e);
+            } finally {
+                waiting--;
+            }
+            if (failure != null)
+                throw new IllegalStateException("Mutation log failed", failure);
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last record forced to disk.
+     */
+    public long getDurableSequence() {
+        synchronized (lock) {
+            return durable;
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last appended record.
+     */
+    long getAppendedSequence() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    /**
+     * Forces all appended records to disk, closes the current segment and
+     * starts a new one.
+     *
+     * An action is run while no records can be appended, after the last
+     * record of the closed segment and before the first record of the new
+     * one.
+     *
+     * @param boundary
+     *            Run at the segment boundary, may be null.
+     * @return The number of the new segment.
+     */
+    int roll(Runnable boundary) {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                checkState();
+            }
+            try {
+                writeBatch(boundary);
+                closeSegment();
+                openSegment(segment + 1);
+                return segment;
+            } catch (IOException e) {
+                fail(e);
+                throw new IllegalStateException("Mutation log failed", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes all segments numbered below a certain segment.
+     */
+    void deleteSegmentsBefore(int segment) {
+        for (int existing : getSegments()) {
+            if (existing >= segment)
+                break;
+            File file = getSegmentFile(existing);
+            if (!file.delete())
+                throw new IllegalStateException("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Gets the numbers of all segments in the directory, in ascending order.
+     */
+    List<Integer> getSegments() {
+        List<Integer> res = new ArrayList<Integer>();
+        String[] names = directory.list();
+        if (names == null)
+            return res;
+        for (String name : names) {
+            if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+                continue;
+            try {
+                res.add(Integer.parseInt(name.substring(PREFIX.length(),
+                                                        name.length()
+                                                            - SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(directory, String.format("%s%010d%s", PREFIX, segment,
+                                                 SUFFIX));
+    }
+
+    /**
+     * Passes the records of a segment to a procedure in the order they were
+     * appended, until the procedure returns false or a torn or corrupt record
+     * is found.
+     *
+     * @return False if a torn or corrupt record ended the segment.
+     */
+    boolean read(int segment, Procedure<Record<T>> proc) {
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getSegmentFile(segment)), 1 << 16));
+            try {
+                if (dis.readInt() != MAGIC)
+                    throw new IllegalArgumentException("Not a mutation log: "
+                        + getSegmentFile(segment));
+                int version = dis.readInt();
+                if (version != VERSION)
+                    throw new IllegalArgumentException("Unsupported log "
+                        + "version: " + version);
+                if (dis.readInt() != segment)
+                    throw new IllegalArgumentException("Segment mismatch: "
+                        + getSegmentFile(segment));
+            } catch (EOFException e) {
+                return false; // Crashed while creating the segment
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = dis.readInt();
+                } catch (EOFException e) {
+                    return true; // End of segment
+                }
+                byte[] payload;
+                try {
+                    int checksum = dis.readInt();
+                    if (length < 0 || length > (1 << 30))
+                        return false;
+                    payload = new byte[length];
+                    dis.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum)
+                        return false;
+                } catch (EOFException e) {
+                    return false;
+                }
+                if (!proc.apply(parseRecord(payload)))
+                    return true;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read mutation log", e);
+        } finally {
+            Closer.close(dis);
+        }
+    }
+
+    private Record<T> parseRecord(byte[] payload) throws IOException {
+        DataInputStream dis =
+            new DataInputStream(new ByteArrayInputStream(payload));
+        byte operation = dis.readByte();
+        int type = dis.readInt();
+        if (type < 0 || type >= edgeTypes.length || edgeTypes[type] == null)
+            throw new IllegalArgumentException("Illegal edge type: " + type);
+        EdgeType edgeType = edgeTypes[type];
+        NodeID<T> startNode = readNode(dis);
+        switch (operation) {
+        case ADD:
+        case UPDATE:
+            NodeID<T> endNode = readNode(dis);
+            float weight = dis.readFloat();
+            return new Record<T>(new GraphMutation<T>(
+                operation == ADD ? GraphMutation.Operation.ADD
+                    : GraphMutation.Operation.UPDATE,
+                startNode, endNode, edgeType, weight));
+        case REMOVE:
+            return new Record<T>(GraphMutation.remove(startNode, readNode(dis),
+                                                      edgeType));
+        case SET:
+            int count = dis.readInt();
+            List<NodeID<T>> endNodes = new ArrayList<NodeID<T>>(count);
+            List<Float> weights = new ArrayList<Float>(count);
+            for (int i = 0; i < count; i++) {
+                endNodes.add(readNode(dis));
+                weights.add(dis.readFloat());
+            }
+            return new Record<T>(startNode, edgeType, endNodes, weights);
+        default:
+            throw new IllegalArgumentException("Illegal operation: "
+                + operation);
+        }
+    }
+
+    private NodeID<T> readNode(DataInputStream dis) throws IOException {
+        int type = dis.readInt();
+        if (type < 0 || type >= nodeTypes.length || nodeTypes[type] == null)
+            throw new IllegalArgumentException("Illegal node type: " + type);
+        return new NodeID<T>(idParser.parse(dis.readUTF()), nodeTypes[type]);
+    }
+
+    /**
+     * Writes the batch to the current segment and forces it to disk. Must be
+     * called while holding the write lock.
+     */
+    private void writeBatch() throws IOException {
+        writeBatch(null);
+    }
+
+    /**
+     * Writes the batch to the current segment and forces it to disk. Must be
+     * called while holding the write lock.
+     *
+     * @param boundary
+     *            Run after the last record of the batch has been appended,
+     *            and before any later record is, may be null.
+     */
+    private void writeBatch(Runnable boundary) throws IOException {
+        byte[] bytes;
+        long sequence;
+        synchronized (lock) {
+            if (boundary != null)
+                boundary.run();
+            if (batch.size() == 0)
+                return;
+            bytes = batch.toByteArray();
+            batch.reset();
+            sequence = appended;
+        }
+        FileChannel channel = out.getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        channel.force(false);
+        synchronized (lock) {
+            durable = sequence;
+            lastSync = System.currentTimeMillis();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Creates a segment and makes it the current one. Must be called while
+     * holding the write lock.
+     */
+    private void openSegment(int segment) throws IOException {
+        File file = getSegmentFile(segment);
+        if (file.exists())
+            throw new IllegalStateException("Segment already exists: " + file);
+        out = new FileOutputStream(file);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(segment).flip();
+        FileChannel channel = out.getChannel();
+        while (header.hasRemaining())
+            channel.write(header);
+        channel.force(true);
+        this.segment = segment;
+    }
+
+    /**
+     * Closes the current segment. Must be called while holding the write
+     * lock.
+     */
+    private void closeSegment() throws IOException {
+        if (out != null)
+            out.close();
+        out = null;
+    }
+
+    private void checkState() {
+        if (failure != null)
+            throw new IllegalStateException("Mutation log failed", failure);
+        if (!open || closed)
+            throw new IllegalStateException("Mutation log not open");
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            if (failure == null)
+                failure = e;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Forces all appended records to disk, and closes the log.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (lock) {
+            if (!open || closed)
+                return;
+            closed = true;
+            lock.notifyAll();
+            thread = flusher;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            try {
+                if (failure == null)
+                    writeBatch();
+                closeSegment();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close mutation log", e);
+            }
+        }
+    }
+
+    /**
+     * Writes batches when they are due, i.e. when a writer is waiting, the
+     * batch is full, the sync interval has passed or the log is closed.
+     */
+    private class Flusher implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (awaitBatch()) {
+                    synchronized (writeLock) {
+                        writeBatch();
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits for a batch to be due.
+         *
+         * @return False once the log is closed and there is nothing left to
+         *         write.
+         */
+        private boolean awaitBatch() throws InterruptedException {
+            synchronized (lock) {
+                while (true) {
+                    if (failure != null)
+                        return false;
+                    if (batch.size() > 0) {
+                        long interval = syncInterval;
+                        long remaining =
+                            interval - (System.currentTimeMillis() - lastSync);
+                        if (closed || waiting > 0
+                            || batch.size() >= maxBatchSize
+                            || (interval > 0 && remaining <= 0))
+                            return true;
+                        lock.wait(interval > 0 ? remaining : 0);
+                    } else if (closed) {
+                        return false;
+                    } else {
+                        lock.wait();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A logged mutation, either an added, updated or removed edge, or the
+     * replacement of all edges of a type of a node.
+     */
+    static class Record<T> {
+        private final GraphMutation<T> mutation;
+        private final NodeID<T> startNode;
+        private final EdgeType edgeType;
+        private final List<NodeID<T>> endNodes;
+        private final List<Float> weights;
+
+        private Record(GraphMutation<T> mutation) {
+            this.mutation = mutation;
+            this.startNode = mutation.getStartNode();
+            this.edgeType = mutation.getType();
+            this.endNodes = null;
+            this.weights = null;
+        }
+
+        private Record(NodeID<T> startNode, EdgeType edgeType,
+                       List<NodeID<T>> endNodes, List<Float> weights) {
+            this.mutation = null;
+            this.startNode = startNode;
+            this.edgeType = edgeType;
+            this.endNodes = endNodes;
+            this.weights = weights;
+        }
+
+        /**
+         * Gets the logged edge mutation, or null if this record sets the
+         * edges of a node.
+         */
+        GraphMutation<T> getMutation() {
+            return mutation;
+        }
+
+        NodeID<T> getStartNode() {
+            return startNode;
+        }
+
+        EdgeType getEdgeType() {
+            return edgeType;
+        }
+
+        List<NodeID<T>> getEndNodes() {
+            return endNodes;
+        }
+
+        List<Float> getWeights() {
+            return weights;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package recng.graph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.core.convert.converter.Converter;
+
+import recng.common.FieldMetadata;
+import recng.common.Marshaller;
+import recng.common.TableMetadata;
+import recng.common.io.CSVCursor;
+import recng.common.io.CSVDescriptor;
+import recng.common.io.CSVUtils;
+import recng.common.io.InvalidCSVRowException;
+
+/**
+ * Imports node attributes from csv files, described by a {@link TableMetadata}
+ * set on the {@link CSVDescriptor}, into the primitive columns of a graph.
+ *
+ * Each row holds the attributes of one node, identified by the value in the id
+ * column. Numeric fields are imported into columns named after the field:
+ * byte, short and int fields into int columns, long and date (millis) fields
+ * into long columns, and float and double fields into float columns. Boolean
+ * fields are imported into node sets. Other fields are ignored.
+ *
+ * Nodes without a value get the default value of the field, or 0 if it has
+ * none. Rows for nodes not in the graph are skipped.
+ *
+ * @author jon
+ */
+public class NodeAttributeImporter<T> {
+
+    private final Graph<T> graph;
+    private final NodeType nodeType;
+    private final Converter<String, T> idConverter;
+
+    /**
+     * Creates an importer.
+     *
+     * @param graph
+     *            The graph to import attributes to.
+     * @param nodeType
+     *            The type of the nodes in the imported files.
+     * @param idConverter
+     *            Used to parse the node ids.
+     */
+    public NodeAttributeImporter(Graph<T> graph, NodeType nodeType,
+                                 Converter<String, T> idConverter) {
+        if (graph == null)
+            throw new IllegalArgumentException("Null graph not allowed");
+        if (nodeType == null)
+            throw new IllegalArgumentException("Null node type not allowed");
+        this.graph = graph;
+        this.nodeType = nodeType;
+        this.idConverter = idConverter;
+    }
+
+    /**
+     * Imports the attributes in a csv file.
+     *
+     * @param file
+     *            The csv file.
+     * @param descriptor
+     *            Describes the file, the metadata must be set.
+     * @param idColumn
+     *            The name of the column holding the node ids.
+     * @return The number of nodes given attributes.
+     */
+    public int importCSV(String file, CSVDescriptor descriptor, String idColumn)
+        throws IOException {
+        TableMetadata metadata = descriptor.getMetadata();
+        if (metadata == null)
+            throw new IllegalArgumentException("Metadata must be set");
+        CSVCursor<String[]> cursor = CSVUtils.read(file, descriptor);
+        try {
+            // The columns are set by the cursor if the file has a header
+            List<String> columns = descriptor.getColumns();
+            if (columns == null || columns.isEmpty())
+                columns = metadata.getFields();
+            int idIndex = columns.indexOf(idColumn);
+            if (idIndex < 0)
+                throw new IllegalArgumentException("No such column: "
+                    + idColumn);
+            List<ColumnSetter> setters = new ArrayList<ColumnSetter>();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i == idIndex || !metadata.contains(columns.get(i)))
+                    continue;
+                ColumnSetter setter =
+                    createSetter(i, metadata.getFieldMetadata(columns.get(i)));
+                if (setter != null)
+                    setters.add(setter);
+            }
+            return importRows(cursor, columns.size(), idIndex, setters);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int importRows(CSVCursor<String[]> cursor, int columnCount,
+                           int idIndex, List<ColumnSetter> setters)
+        throws IOException {
+        int imported = 0;
+        String[] row;
+        while ((row = cursor.nextRow()) != null) {
+            if (row.length == 0 || row[0].startsWith("#"))
+                continue;
+            if (row.length > columnCount)
+                throw new InvalidCSVRowException("Too many columns for line number: "
+                    + cursor.currentRow());
+            if (row.length <= idIndex)
+                throw new InvalidCSVRowException("Missing id for line number: "
+                    + cursor.currentRow());
+            int node =
+                graph.getPrimaryKey(new NodeID<T>(idConverter.convert(row[idIndex]),
+                                                  nodeType));
+            if (node < 0)
+                continue;
+            for (ColumnSetter setter : setters) {
+                if (setter.index < row.length)
+                    setter.parseAndSet(node, row[setter.index]);
+            }
+            imported++;
+        }
+        return imported;
+    }
+
+    private ColumnSetter createSetter(int index, FieldMetadata field) {
+        if (field.isRepeated())
+            return null;
+        NodeAttributes attributes = graph.getNodeAttributes();
+        String name = field.getFieldName();
+        Object defaultValue = field.getDefaultValue();
+        switch (field.getType()) {
+        case BYTE:
+        case SHORT:
+        case INT:
+            final IntColumn intColumn =
+                attributes.createIntColumn(name,
+                                           defaultValue != null
+                                               ? ((Number) defaultValue).intValue() : 0);
+            return new ColumnSetter(index, field.getMarshaller()) {
+                @Override
+                protected void set(int node, Object value) {
+                    intColumn.set(node, ((Number) value).intValue());
+                }
+            };
+        case LONG:
+            final LongColumn longColumn =
+                attributes.createLongColumn(name,
+                                            defaultValue != null
+                                                ? ((Number) defaultValue).longValue() : 0L);
+            return new ColumnSetter(index, field.getMarshaller()) {
+                @Override
+                protected void set(int node, Object value) {
+                    longColumn.set(node, ((Number) value).longValue());
+                }
+            };
+        case DATE:
+            final LongColumn dateColumn =
+                attributes.createLongColumn(name,
+                                            defaultValue != null
+                                                ? ((Date) defaultValue).getTime() : 0L);
+            return new ColumnSetter(index, field.getMarshaller()) {
+                @Override
+                protected void set(int node, Object value) {
+                    dateColumn.set(node, ((Date) value).getTime());
+                }
+            };
+        case FLOAT:
+        case DOUBLE:
+            final FloatColumn floatColumn =
+                attributes.createFloatColumn(name,
+                                             defaultValue != null
+                                                 ? ((Number) defaultValue).floatValue() : 0f);
+            return new ColumnSetter(index, field.getMarshaller()) {
+                @Override
+                protected void set(int node, Object value) {
+                    floatColumn.set(node, ((Number) value).floatValue());
+                }
+            };
+        case BOOLEAN:
+            final NodeBitSet bitSet = attributes.getBitSet(name);
+            return new ColumnSetter(index, field.getMarshaller()) {
+                @Override
+                protected void set(int node, Object value) {
+                    bitSet.set(node, ((Boolean) value).booleanValue());
+                }
+            };
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Parses a cell and sets the value in a column.
+     */
+    private abstract static class ColumnSetter {
+        private final int index;
+        private final Marshaller marshaller;
+
+        private ColumnSetter(int index, Marshaller marshaller) {
+            this.index = index;
+            this.marshaller = marshaller;
+        }
+
+        private void parseAndSet(int node, String cell) {
+            Object value = marshaller.parse(cell);
+            if (value != null)
+                set(node, value);
+        }
+
+        protected abstract void set(int node, Object value);
+    }
+}
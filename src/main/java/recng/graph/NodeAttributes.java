@@ -0,0 +1,177 @@
+package recng.graph;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Primitive node attributes of a graph, indexed by node primary key: named
+ * node sets (bitsets) and int, long and float columns.
+ *
+ * Attributes are meant to be evaluated during traversal through a
+ * {@link NodePredicate}, e.g. by rejecting products not in stock with a
+ * single bit test, rather than by looking up each end node elsewhere.
+ *
+ * Attributes may be updated at any time, and updates are visible to
+ * traversals started afterwards.
+ *
+ * This class is thread safe.
+ *
+ * @author jon
+ *
+ */
+public class NodeAttributes {
+
+    private final ConcurrentMap<String, NodeBitSet> bitSets =
+        new ConcurrentHashMap<String, NodeBitSet>();
+    private final ConcurrentMap<String, IntColumn> intColumns =
+        new ConcurrentHashMap<String, IntColumn>();
+    private final ConcurrentMap<String, LongColumn> longColumns =
+        new ConcurrentHashMap<String, LongColumn>();
+    private final ConcurrentMap<String, FloatColumn> floatColumns =
+        new ConcurrentHashMap<String, FloatColumn>();
+
+    /**
+     * Gets a node set, creating an empty one if it does not already exist.
+     */
+    public NodeBitSet getBitSet(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name not allowed");
+        NodeBitSet bitSet = bitSets.get(name);
+        if (bitSet != null)
+            return bitSet;
+        bitSet = new NodeBitSet(name);
+        NodeBitSet prev = bitSets.putIfAbsent(name, bitSet);
+        return prev != null ? prev : bitSet;
+    }
+
+    /**
+     * Creates an int column, or returns the existing one if a column with
+     * this name already exists.
+     *
+     * @param name
+     *            The name of the column.
+     * @param defaultValue
+     *            The value of nodes not given any other value.
+     */
+    public IntColumn createIntColumn(String name, int defaultValue) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name not allowed");
+        IntColumn column = intColumns.get(name);
+        if (column != null)
+            return column;
+        column = new IntColumn(name, defaultValue);
+        IntColumn prev = intColumns.putIfAbsent(name, column);
+        return prev != null ? prev : column;
+    }
+
+    /**
+     * Gets an int column, or null if no such column exists.
+     */
+    public IntColumn getIntColumn(String name) {
+        return intColumns.get(name);
+    }
+
+    /**
+     * Creates a long column, or returns the existing one if a column with
+     * this name already exists.
+     *
+     * @param name
+     *            The name of the column.
+     * @param defaultValue
+     *            The value of nodes not given any other value.
+     */
+    public LongColumn createLongColumn(String name, long defaultValue) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name not allowed");
+        LongColumn column = longColumns.get(name);
+        if (column != null)
+            return column;
+        column = new LongColumn(name, defaultValue);
+        LongColumn prev = longColumns.putIfAbsent(name, column);
+        return prev != null ? prev : column;
+    }
+
+    /**
+     * Gets a long column, or null if no such column exists.
+     */
+    public LongColumn getLongColumn(String name) {
+        return longColumns.get(name);
+    }
+
+    /**
+     * Creates a float column, or returns the existing one if a column with
+     * this name already exists.
+     *
+     * @param name
+     *            The name of the column.
+     * @param defaultValue
+     *            The value of nodes not given any other value.
+     */
+    public FloatColumn createFloatColumn(String name, float defaultValue) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name not allowed");
+        FloatColumn column = floatColumns.get(name);
+        if (column != null)
+            return column;
+        column = new FloatColumn(name, defaultValue);
+        FloatColumn prev = floatColumns.putIfAbsent(name, column);
+        return prev != null ? prev : column;
+    }
+
+    /**
+     * Gets a float column, or null if no such column exists.
+     */
+    public FloatColumn getFloatColumn(String name) {
+        return floatColumns.get(name);
+    }
+
+    /**
+     * Removes a node set. Predicates already created for the set are not
+     * affected.
+     */
+    public void removeBitSet(String name) {
+        bitSets.remove(name);
+    }
+
+    /**
+     * Removes an int column. Predicates already created for the column are
+     * not affected.
+     */
+    public void removeIntColumn(String name) {
+        intColumns.remove(name);
+    }
+
+    /**
+     * Removes a long column. Predicates already created for the column are
+     * not affected.
+     */
+    public void removeLongColumn(String name) {
+        longColumns.remove(name);
+    }
+
+    /**
+     * Removes a float column. Predicates already created for the column are
+     * not affected.
+     */
+    public void removeFloatColumn(String name) {
+        floatColumns.remove(name);
+    }
+
+    public Set<String> getBitSetNames() {
+        return new HashSet<String>(bitSets.keySet());
+    }
+
+    public Set<String> getIntColumnNames() {
+        return new HashSet<String>(intColumns.keySet());
+    }
+
+    public Set<String> getLongColumnNames() {
+        return new HashSet<String>(longColumns.keySet());
+    }
+
+    public Set<String> getFloatColumnNames() {
+        return new HashSet<String>(floatColumns.keySet());
+    }
+}
@@ -0,0 +1,110 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A named set of nodes, stored as a bitset indexed by node primary key. Used
+ * for boolean node attributes, e.g. whether a product is in stock.
+ *
+ * Reads never block. Writes are serialized, and grow the bitset as needed.
+ *
+ * This class is thread safe.
+ *
+ * @author jon
+ *
+ */
+public class NodeBitSet {
+
+    private final String name;
+    private final Object lock = new Object();
+    private volatile AtomicLongArray words = new AtomicLongArray(0);
+
+    NodeBitSet(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks if a node is in this set.
+     */
+    public boolean get(int node) {
+        if (node < 0)
+            return false;
+        AtomicLongArray current = words;
+        int index = node >>> 6;
+        if (index >= current.length())
+            return false;
+        return (current.get(index) & (1L << node)) != 0;
+    }
+
+    /**
+     * Adds a node to, or removes a node from, this set.
+     */
+    public void set(int node, boolean value) {
+        if (node < 0)
+            throw new IllegalArgumentException("Illegal node: " + node);
+        int index = node >>> 6;
+        long mask = 1L << node;
+        synchronized (lock) {
+            AtomicLongArray current = words;
+            if (index >= current.length()) {
+                if (!value)
+                    return;
+                current = grow(current, index + 1);
+            }
+            long word = current.get(index);
+            current.set(index, value ? word | mask : word & ~mask);
+        }
+    }
+
+    /**
+     * Adds a node to this set.
+     */
+    public void set(int node) {
+        set(node, true);
+    }
+
+    /**
+     * Removes a node from this set.
+     */
+    public void clear(int node) {
+        set(node, false);
+    }
+
+    /**
+     * Removes all nodes from this set.
+     */
+    public void clear() {
+        synchronized (lock) {
+            words = new AtomicLongArray(0);
+        }
+    }
+
+    /**
+     * Gets the number of nodes in this set.
+     */
+    public int cardinality() {
+        AtomicLongArray current = words;
+        int cardinality = 0;
+        for (int i = 0; i < current.length(); i++)
+            cardinality += Long.bitCount(current.get(i));
+        return cardinality;
+    }
+
+    private AtomicLongArray grow(AtomicLongArray current, int minLength) {
+        int length = Math.max(minLength, current.length() * 3 / 2 + 1);
+        AtomicLongArray grown = new AtomicLongArray(length);
+        for (int i = 0; i < current.length(); i++)
+            grown.set(i, current.get(i));
+        words = grown;
+        return grown;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + cardinality() + " nodes)";
+    }
+}
@@ -29,6 +29,14 @@ public class NodeID<T> {
         this.hc = computeHashCode();
     }
 
+    /**
+     * Creates an array of node ids.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static <T> NodeID<T>[] newArray(int length) {
+        return new NodeID[length];
+    }
+
     public T getID() {
         return id;
     }
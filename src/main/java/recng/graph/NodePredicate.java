@@ -0,0 +1,21 @@
+package recng.graph;
+
+/**
+ * A predicate over nodes identified by their primary keys, typically
+ * evaluated against {@link NodeAttributes} during traversal.
+ *
+ * @see NodePredicates
+ *
+ * @author jon
+ *
+ */
+public interface NodePredicate {
+
+    /**
+     * Decides whether or not to accept a node.
+     *
+     * @param node
+     *            The primary key of the node.
+     */
+    boolean accepts(int node);
+}
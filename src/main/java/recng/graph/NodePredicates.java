@@ -0,0 +1,264 @@
+package recng.graph;
+
+import recng.filter.DoubleIntervals;
+import recng.filter.IntIntervals;
+import recng.filter.Intervals;
+import recng.filter.LongIntervals;
+
+/**
+ * Factory methods for common node predicates.
+ *
+ * @author jon
+ *
+ */
+public class NodePredicates {
+
+    private NodePredicates() {
+    }
+
+    /**
+     * Accepts nodes in a node set.
+     */
+    public static NodePredicate in(final NodeBitSet bitSet) {
+        if (bitSet == null)
+            throw new IllegalArgumentException("Null bitset not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return bitSet.get(node);
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes not in a node set.
+     */
+    public static NodePredicate notIn(final NodeBitSet bitSet) {
+        if (bitSet == null)
+            throw new IllegalArgumentException("Null bitset not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return !bitSet.get(node);
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a certain value in an int column.
+     */
+    public static NodePredicate equalTo(final IntColumn column, final int value) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return column.get(node) == value;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in an int column within an inclusive range.
+     */
+    public static NodePredicate between(final IntColumn column, final int min,
+                                        final int max) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                int value = column.get(node);
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in a float column within an inclusive range.
+     */
+    public static NodePredicate between(final FloatColumn column,
+                                        final float min, final float max) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                float value = column.get(node);
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in a long column within an inclusive range.
+     */
+    public static NodePredicate between(final LongColumn column,
+                                        final long min, final long max) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                long value = column.get(node);
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in an int column contained in any of the
+     * intervals.
+     *
+     * The intervals are converted to {@link IntIntervals} once, so evaluating
+     * the predicate never boxes the node values.
+     */
+    public static NodePredicate within(IntColumn column,
+                                       Intervals<Integer> intervals) {
+        checkIntervals(intervals);
+        return within(column, IntIntervals.valueOf(intervals));
+    }
+
+    /**
+     * Accepts nodes with a value in an int column contained in any of the
+     * intervals.
+     */
+    public static NodePredicate within(final IntColumn column,
+                                       final IntIntervals intervals) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        checkIntervals(intervals);
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return intervals.contains(column.get(node));
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in a long column contained in any of the
+     * intervals.
+     *
+     * The intervals are converted to {@link LongIntervals} once, so evaluating
+     * the predicate never boxes the node values.
+     */
+    public static NodePredicate within(LongColumn column,
+                                       Intervals<Long> intervals) {
+        checkIntervals(intervals);
+        return within(column, LongIntervals.valueOf(intervals));
+    }
+
+    /**
+     * Accepts nodes with a value in a long column contained in any of the
+     * intervals.
+     */
+    public static NodePredicate within(final LongColumn column,
+                                       final LongIntervals intervals) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        checkIntervals(intervals);
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return intervals.contains(column.get(node));
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes with a value in a float column contained in any of the
+     * intervals. NaN values are never accepted.
+     *
+     * The intervals are converted to {@link DoubleIntervals} once, so
+     * evaluating the predicate never boxes the node values.
+     */
+    public static NodePredicate within(FloatColumn column,
+                                       Intervals<Float> intervals) {
+        checkIntervals(intervals);
+        return within(column, DoubleIntervals.valueOf(intervals));
+    }
+
+    /**
+     * Accepts nodes with a value in a float column contained in any of the
+     * intervals. NaN values are never accepted.
+     */
+    public static NodePredicate within(final FloatColumn column,
+                                       final DoubleIntervals intervals) {
+        if (column == null)
+            throw new IllegalArgumentException("Null column not allowed");
+        checkIntervals(intervals);
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return intervals.contains(column.get(node));
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes accepted by all of the predicates.
+     */
+    public static NodePredicate and(final NodePredicate... predicates) {
+        checkPredicates(predicates);
+        if (predicates.length == 1)
+            return predicates[0];
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                for (NodePredicate predicate : predicates) {
+                    if (!predicate.accepts(node))
+                        return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes accepted by any of the predicates.
+     */
+    public static NodePredicate or(final NodePredicate... predicates) {
+        checkPredicates(predicates);
+        if (predicates.length == 1)
+            return predicates[0];
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                for (NodePredicate predicate : predicates) {
+                    if (predicate.accepts(node))
+                        return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Accepts nodes not accepted by the predicate.
+     */
+    public static NodePredicate not(final NodePredicate predicate) {
+        if (predicate == null)
+            throw new IllegalArgumentException("Null predicate not allowed");
+        return new NodePredicate() {
+            @Override
+            public boolean accepts(int node) {
+                return !predicate.accepts(node);
+            }
+        };
+    }
+
+    private static void checkIntervals(Object intervals) {
+        if (intervals == null)
+            throw new IllegalArgumentException("Null intervals not allowed");
+    }
+
+    private static void checkPredicates(NodePredicate[] predicates) {
+        if (predicates == null || predicates.length == 0)
+            throw new IllegalArgumentException("No predicates given");
+        for (NodePredicate predicate : predicates) {
+            if (predicate == null)
+                throw new IllegalArgumentException("Null predicate not allowed");
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package recng.graph;
+
+/**
+ * A node and a score, e.g. a recommended node.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class NodeScore<T> {
+
+    private final NodeID<T> nodeId;
+    private final float score;
+
+    public NodeScore(NodeID<T> nodeId, float score) {
+        this.nodeId = nodeId;
+        this.score = score;
+    }
+
+    public NodeID<T> getNodeId() {
+        return nodeId;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((nodeId == null) ? 0 : nodeId.hashCode());
+        result = prime * result + Float.floatToIntBits(score);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        NodeScore<?> other = (NodeScore<?>) obj;
+        if (nodeId == null) {
+            if (other.nodeId != null)
+                return false;
+        } else if (!nodeId.equals(other.nodeId))
+            return false;
+        return Float.floatToIntBits(score) == Float.floatToIntBits(other.score);
+    }
+
+    @Override
+    public String toString() {
+        return nodeId + " (" + score + ")";
+    }
+}
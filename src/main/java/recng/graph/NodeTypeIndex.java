@@ -0,0 +1,123 @@
+package recng.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.math.function.IntProcedure;
+import org.apache.mahout.math.set.OpenIntHashSet;
+
+/**
+ * Keeps the primary keys of the nodes of each node type, in the order the
+ * nodes were added, so that nodes of one type can be iterated, counted and
+ * sampled without looking at nodes of other types.
+ *
+ * Writes must be serialized by the caller, readers never block. Each list is
+ * published the same way as the nodes of a {@link MutableGraphImpl}: the
+ * primary key is written before the volatile size, and readers read the size
+ * before the array.
+ *
+ * @author jon
+ *
+ */
+class NodeTypeIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile PrimaryKeys[] primaryKeys = new PrimaryKeys[0];
+
+    /**
+     * Adds a node. Must not be called concurrently.
+     */
+    void add(NodeType nodeType, int primaryKey) {
+        int ordinal = nodeType.ordinal();
+        PrimaryKeys[] current = primaryKeys;
+        if (ordinal >= current.length) {
+            current = Arrays.copyOf(current, ordinal + 1);
+            primaryKeys = current;
+        }
+        PrimaryKeys keys = current[ordinal];
+        if (keys == null) {
+            keys = new PrimaryKeys();
+            current[ordinal] = keys;
+            primaryKeys = current; // Publishes the new list
+        }
+        keys.add(primaryKey);
+    }
+
+    /**
+     * Gets the number of nodes of a type.
+     */
+    int size(NodeType nodeType) {
+        PrimaryKeys keys = getPrimaryKeys(nodeType);
+        return keys == null ? 0 : keys.size;
+    }
+
+    /**
+     * Passes the primary key of each node of a type to the procedure, until it
+     * returns false. Nodes added during the iteration are not included.
+     */
+    void forEach(NodeType nodeType, IntProcedure proc) {
+        PrimaryKeys keys = getPrimaryKeys(nodeType);
+        if (keys == null)
+            return;
+        int size = keys.size; // Read the size before the array
+        int[] current = keys.keys;
+        for (int i = 0; i < size; i++) {
+            if (!proc.apply(current[i]))
+                break;
+        }
+    }
+
+    /**
+     * Picks the primary keys of up to count distinct nodes of a type,
+     * uniformly at random. Takes time proportional to count, not to the
+     * number of nodes.
+     */
+    int[] sample(NodeType nodeType, int count, Random random) {
+        PrimaryKeys keys = getPrimaryKeys(nodeType);
+        if (keys == null || count <= 0)
+            return new int[0];
+        int size = keys.size; // Read the size before the array
+        int[] current = keys.keys;
+        if (count >= size)
+            return Arrays.copyOf(current, size);
+        // Floyd's algorithm, picks count distinct indexes in [0, size)
+        OpenIntHashSet picked = new OpenIntHashSet(count * 2);
+        int[] res = new int[count];
+        int i = 0;
+        for (int j = size - count; j < size; j++) {
+            int index = random.nextInt(j + 1);
+            if (picked.contains(index))
+                index = j;
+            picked.add(index);
+            res[i++] = current[index];
+        }
+        return res;
+    }
+
+    private PrimaryKeys getPrimaryKeys(NodeType nodeType) {
+        int ordinal = nodeType.ordinal();
+        PrimaryKeys[] current = primaryKeys;
+        if (ordinal < 0 || ordinal >= current.length)
+            return null;
+        return current[ordinal];
+    }
+
+    /**
+     * An append only list of primary keys.
+     */
+    private static class PrimaryKeys {
+        private volatile int[] keys = new int[INITIAL_CAPACITY];
+        private volatile int size = 0;
+
+        private void add(int primaryKey) {
+            int[] current = keys;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                keys = current;
+            }
+            current[size] = primaryKey;
+            size++; // Publishes the key
+        }
+    }
+}
@@ -0,0 +1,1140 @@
+package recng.graph;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.AbstractObjectIntMap;
+import org.apache.mahout.math.map.OpenObjectIntHashMap;
+
+import recng.graph.jmx.JMXGraph;
+import recng.jmx.JMXUtils;
+
+/**
+ * A mutable graph layering a small delta over a read only base graph, in the
+ * spirit of a log structured merge tree.
+ *
+ * The delta holds, per node and edge type, the added and updated edges and
+ * the end nodes whose base edges are removed or replaced. Reads merge the
+ * delta with the base edges lazily, in weight order. The delta of a node is
+ * copy on write, so reads never block.
+ *
+ * Folding writes the base and the delta into a new compact base graph and
+ * clears the folded part of the delta. The delta of a node defines the final
+ * state of every edge it touches, so it gives the same result on top of the
+ * old and the new base. Writers are thus never blocked while folding, and
+ * mutations done while folding are simply kept in the delta. Folding can be
+ * done in a background thread when the delta grows past a threshold, see
+ * {@link #startFolding()}.
+ *
+ * Unlike {@link MutableGraphImpl}, there is at most one edge of each type
+ * between two nodes, unless added by
+ * {@link #setEdges(NodeID, EdgeType, List, List)}. Adding an existing edge
+ * updates its weight, and removing an edge removes all edges of that type
+ * between the nodes.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class OverlayGraphImpl<T> extends AbstractGraph<T> implements
+    MutableGraph<T>, Closeable {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int LOCK_STRIPES = 256;
+    private static final int DEFAULT_FOLD_THRESHOLD = 1 << 20;
+    private static final long[] NO_EDGES = new long[0];
+
+    /** The current base graph, replaced when the delta is folded */
+    private volatile AbstractGraph<T> base;
+    /**
+     * Incremented after the base is replaced. Read before the base, a
+     * generation is never newer than the base read after it.
+     */
+    private volatile int baseGeneration = 0;
+    /** The primary key of the first node not in the initial base */
+    private final int firstNewNode;
+    /** Maps the ids of nodes not in the initial base -> primary key */
+    private final ConcurrentMap<NodeID<T>, Integer> newNodeIndex =
+        new ConcurrentHashMap<NodeID<T>, Integer>();
+    /** The ids of nodes not in the initial base, grown when full */
+    private volatile NodeID<T>[] newNodeIds;
+    /**
+     * The number of nodes in the graph. Written last when creating a node,
+     * thus publishing it.
+     */
+    private volatile int nodeCount;
+    /**
+     * The deltas per node, indexed by edge type ordinal, in chunks of
+     * CHUNK_SIZE nodes. Growing only copies the chunk directory, so no
+     * concurrent update is lost.
+     */
+    private volatile AtomicReferenceArray<EdgeDelta[]>[] deltas;
+    /** Serializes the mutations of each node */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    /** Used for synchronization when creating nodes */
+    private final Object lock = new Object();
+    /** The number of end nodes with a delta, summed over nodes and types */
+    private final AtomicLong deltaSize = new AtomicLong(0);
+    private final AtomicLong folds = new AtomicLong(0);
+    private final AtomicLong failedFolds = new AtomicLong(0);
+    private final List<GraphMutationListener<T>> mutationListeners =
+        new CopyOnWriteArrayList<GraphMutationListener<T>>();
+
+    /** Serializes folds */
+    private final Object folding = new Object();
+    /** Guards the background folding state */
+    private final Object foldLock = new Object();
+    private volatile int foldThreshold = DEFAULT_FOLD_THRESHOLD;
+    private volatile boolean foldRequested = false;
+    private Thread folder = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a graph with an empty delta over a base graph.
+     */
+    public OverlayGraphImpl(ImmutableGraph<T> base) {
+        super(base.getMetadata());
+        if (!(base instanceof AbstractGraph))
+            throw new IllegalArgumentException("Unsupported base graph: "
+                + base.getClass().getName());
+        this.base = (AbstractGraph<T>) base;
+        this.firstNewNode = base.nodeCount();
+        this.nodeCount = firstNewNode;
+        this.newNodeIds = NodeID.newArray(CHUNK_SIZE);
+        this.deltas = newChunkArray(0);
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+        for (int node = 0; node < firstNewNode; node += CHUNK_SIZE)
+            ensureChunk(node);
+        for (int node = 0; node < firstNewNode; node++) {
+            NodeType nodeType = getNodeId(node).getNodeType();
+            indexNode(node, nodeType);
+            for (EdgeType edgeType : getMetadata().getEdgeTypes())
+                countEdges(nodeType, edgeType.ordinal(),
+                           countBaseEdges(this.base, node, edgeType, null));
+        }
+        JMXUtils.registerMBean(new JMXGraph<T>(this));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<EdgeDelta[]>[] newChunkArray(int length) {
+        return new AtomicReferenceArray[length];
+    }
+
+    /**
+     * Gets the current base graph.
+     */
+    public ImmutableGraph<T> getBase() {
+        return (ImmutableGraph<T>) base;
+    }
+
+    /**
+     * Gets the number of end nodes with a delta, summed over all nodes and
+     * edge types.
+     */
+    public long getDeltaSize() {
+        return deltaSize.get();
+    }
+
+    /**
+     * Gets the number of times the delta has been folded into the base.
+     */
+    public long getFoldCount() {
+        return folds.get();
+    }
+
+    /**
+     * Gets the number of background folds that failed.
+     */
+    public long getFailedFolds() {
+        return failedFolds.get();
+    }
+
+    /**
+     * Sets the delta size at which the background thread folds the delta
+     * into the base.
+     *
+     * Defaults to 1M.
+     */
+    public OverlayGraphImpl<T> setFoldThreshold(int foldThreshold) {
+        if (foldThreshold < 1)
+            throw new IllegalArgumentException("Illegal fold threshold: "
+                + foldThreshold);
+        this.foldThreshold = foldThreshold;
+        return this;
+    }
+
+    @Override
+    protected List<GraphNode<T>> getNodes() {
+        final int size = nodeCount;
+        return new AbstractList<GraphNode<T>>() {
+            @Override
+            public GraphNode<T> get(int index) {
+                if (index < 0 || index >= size)
+                    throw new IndexOutOfBoundsException("Index: " + index);
+                return new OverlayGraphNode(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public GraphNode<T> getNode(int primaryKey) {
+        if (primaryKey < 0 || primaryKey >= nodeCount)
+            return null;
+        return new OverlayGraphNode(primaryKey);
+    }
+
+    @Override
+    public int getPrimaryKey(NodeID<T> nodeId) {
+        if (nodeId == null)
+            return -1;
+        int primaryKey = base.getPrimaryKey(nodeId);
+        if (primaryKey >= 0)
+            return primaryKey;
+        Integer index = newNodeIndex.get(nodeId);
+        return index != null ? index : -1;
+    }
+
+    private NodeID<T> getNodeId(int node) {
+        AbstractGraph<T> current = base;
+        if (node < current.nodeCount())
+            return current.getNode(node).getNodeId();
+        return newNodeIds[node - firstNewNode];
+    }
+
+    /**
+     * Merges the delta and the base edges of a node, without creating a node
+     * view.
+     */
+    @Override
+    void traverseNeighbors(int node, EdgeType edgeType, IntFloatProcedure proc) {
+        if (node < 0 || node >= nodeCount)
+            return;
+        // The delta must be read before the base, see fold()
+        EdgeDelta delta = getDelta(getDeltas(node), edgeType.ordinal());
+        traverse(base, node, edgeType, delta, proc);
+    }
+
+    private static <T> void traverse(AbstractGraph<T> base, int node,
+                                     EdgeType edgeType, EdgeDelta delta,
+                                     IntFloatProcedure proc) {
+        if (delta == null)
+            base.traverseNeighbors(node, edgeType, proc);
+        else
+            new Merge(delta, edgeType.isWeighted(), proc).run(base, node,
+                                                              edgeType);
+    }
+
+    @Override
+    public void addEdge(NodeID<T> start, NodeID<T> end, EdgeType edgeType,
+                        float weight) {
+        if (start == null || end == null)
+            throw new IllegalArgumentException("Null nodes not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        apply(GraphMutation.add(start, end, edgeType, weight));
+    }
+
+    @Override
+    public boolean updateEdge(NodeID<T> start, NodeID<T> end,
+                              EdgeType edgeType, float weight) {
+        if (start == null || end == null)
+            throw new IllegalArgumentException("Null nodes not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        return apply(GraphMutation.update(start, end, edgeType, weight));
+    }
+
+    @Override
+    public boolean removeEdge(NodeID<T> start, NodeID<T> end,
+                              EdgeType edgeType) {
+        if (start == null || end == null)
+            throw new IllegalArgumentException("Null nodes not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        return apply(GraphMutation.remove(start, end, edgeType));
+    }
+
+    @Override
+    public void setEdges(NodeID<T> start, EdgeType edgeType,
+                         List<NodeID<T>> endNodes, List<Float> weights) {
+        if (endNodes == null || weights == null)
+            throw new IllegalArgumentException("Null edge lists not allowed");
+        if (endNodes.size() != weights.size())
+            throw new IllegalArgumentException("Mismatch between end node " +
+                "and weight count");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+
+        int node = upsertNode(start);
+        long[] edges = new long[endNodes.size()];
+        int[] touched = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            touched[i] = upsertNode(endNodes.get(i));
+            edges[i] = createOutEdge(touched[i], weights.get(i));
+        }
+        if (edgeType.isWeighted())
+            Arrays.sort(edges);
+        touched = distinct(touched);
+        EdgeDelta replacement = new EdgeDelta(true, touched, edges, null);
+        int ordinal = edgeType.ordinal();
+        synchronized (getLock(node)) {
+            while (true) {
+                EdgeDelta[] nodeDeltas = getDeltas(node);
+                int generation = baseGeneration; // Before the base
+                AbstractGraph<T> current = base; // After the delta
+                EdgeDelta delta = getDelta(nodeDeltas, ordinal);
+                int before =
+                    countEdges(current, generation, node, edgeType, delta);
+                if (store(node, nodeDeltas, ordinal, replacement)) {
+                    countEdges(getNodeId(node).getNodeType(), ordinal,
+                               edges.length - before);
+                    break;
+                }
+            }
+        }
+        fireEdgesChanged(start, edgeType);
+        checkFoldThreshold();
+    }
+
+    /**
+     * Applies the mutations one at a time. Listeners are notified once per
+     * modified start node and edge type, after all mutations are applied.
+     */
+    @Override
+    public int applyBatch(List<GraphMutation<T>> mutations) {
+        if (mutations == null)
+            throw new IllegalArgumentException("Null mutations not allowed");
+        for (GraphMutation<T> mutation : mutations) {
+            if (mutation == null)
+                throw new IllegalArgumentException("Null mutation not allowed");
+        }
+        int applied = 0;
+        Map<NodeID<T>, Set<EdgeType>> changed =
+            new LinkedHashMap<NodeID<T>, Set<EdgeType>>();
+        for (GraphMutation<T> mutation : mutations) {
+            if (!applyMutation(mutation))
+                continue;
+            applied++;
+            Set<EdgeType> edgeTypes = changed.get(mutation.getStartNode());
+            if (edgeTypes == null) {
+                edgeTypes = new LinkedHashSet<EdgeType>();
+                changed.put(mutation.getStartNode(), edgeTypes);
+            }
+            edgeTypes.add(mutation.getType());
+        }
+        for (Map.Entry<NodeID<T>, Set<EdgeType>> entry : changed.entrySet()) {
+            for (EdgeType edgeType : entry.getValue())
+                fireEdgesChanged(entry.getKey(), edgeType);
+        }
+        checkFoldThreshold();
+        return applied;
+    }
+
+    private boolean apply(GraphMutation<T> mutation) {
+        if (!applyMutation(mutation))
+            return false;
+        fireEdgesChanged(mutation.getStartNode(), mutation.getType());
+        checkFoldThreshold();
+        return true;
+    }
+
+    /**
+     * Applies a mutation, creating the nodes of added edges.
+     *
+     * @return False if an updated or removed edge does not exist.
+     */
+    private boolean applyMutation(GraphMutation<T> mutation) {
+        if (mutation.getOperation() == GraphMutation.Operation.ADD) {
+            int startNode = upsertNode(mutation.getStartNode());
+            return mutate(startNode, mutation.getType(),
+                          GraphMutation.Operation.ADD,
+                          upsertNode(mutation.getEndNode()),
+                          mutation.getWeight());
+        }
+        int startNode = getPrimaryKey(mutation.getStartNode());
+        if (startNode < 0)
+            return false;
+        int endNode = getPrimaryKey(mutation.getEndNode());
+        if (endNode < 0)
+            return false;
+        return mutate(startNode, mutation.getType(), mutation.getOperation(),
+                      endNode, mutation.getWeight());
+    }
+
+    /**
+     * Adds, updates or removes the edge between two nodes in the delta.
+     *
+     * @return False if an updated or removed edge does not exist.
+     */
+    private boolean mutate(int node, EdgeType edgeType,
+                           GraphMutation.Operation operation, int endNode,
+                           float weight) {
+        int ordinal = edgeType.ordinal();
+        synchronized (getLock(node)) {
+            while (true) {
+                EdgeDelta[] nodeDeltas = getDeltas(node);
+                int generation = baseGeneration; // Before the base
+                AbstractGraph<T> current = base; // After the delta
+                EdgeDelta delta = getDelta(nodeDeltas, ordinal);
+                BaseEnds baseEnds =
+                    getBaseEnds(current, generation, node, edgeType, delta);
+                int before = countEdges(baseEnds, delta, endNode);
+                if (operation != GraphMutation.Operation.ADD && before == 0)
+                    return false;
+                EdgeDelta updated;
+                int after;
+                if (operation == GraphMutation.Operation.REMOVE) {
+                    updated = remove(delta, baseEnds, endNode);
+                    after = 0;
+                } else {
+                    updated = upsert(delta, baseEnds, edgeType, endNode,
+                                     weight);
+                    after = 1;
+                }
+                // Fails if the delta was folded meanwhile, retry on top of
+                // the new base
+                if (store(node, nodeDeltas, ordinal, updated)) {
+                    countEdges(getNodeId(node).getNodeType(), ordinal,
+                               after - before);
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the delta of an edge type of a node, unless the deltas of the
+     * node have changed since they were read. Must be called while holding
+     * the lock of the node.
+     */
+    private boolean store(int node, EdgeDelta[] nodeDeltas, int ordinal,
+                          EdgeDelta delta) {
+        EdgeDelta[] updated =
+            nodeDeltas == null ? new EdgeDelta[ordinal + 1]
+                : Arrays.copyOf(nodeDeltas, Math.max(nodeDeltas.length,
+                                                     ordinal + 1));
+        EdgeDelta previous = updated[ordinal];
+        updated[ordinal] = delta;
+        AtomicReferenceArray<EdgeDelta[]> chunk = deltas[node >>> CHUNK_BITS];
+        if (!chunk.compareAndSet(node & (CHUNK_SIZE - 1), nodeDeltas, updated))
+            return false;
+        deltaSize.addAndGet(size(delta) - size(previous));
+        return true;
+    }
+
+    private EdgeDelta[] getDeltas(int node) {
+        AtomicReferenceArray<EdgeDelta[]>[] chunks = deltas;
+        int chunk = node >>> CHUNK_BITS;
+        if (chunk >= chunks.length || chunks[chunk] == null)
+            return null;
+        return chunks[chunk].get(node & (CHUNK_SIZE - 1));
+    }
+
+    private static EdgeDelta getDelta(EdgeDelta[] nodeDeltas, int ordinal) {
+        if (nodeDeltas == null || ordinal >= nodeDeltas.length)
+            return null;
+        return nodeDeltas[ordinal];
+    }
+
+    private Object getLock(int node) {
+        return locks[node & (LOCK_STRIPES - 1)];
+    }
+
+    private static int size(EdgeDelta delta) {
+        return delta == null ? 0 : delta.touched.length;
+    }
+
+    private static int size(EdgeDelta[] nodeDeltas) {
+        int size = 0;
+        if (nodeDeltas != null) {
+            for (EdgeDelta delta : nodeDeltas)
+                size += size(delta);
+        }
+        return size;
+    }
+
+    /**
+     * Counts the visible edges of a type from a node to an end node.
+     *
+     * @param baseEnds
+     *            The base end nodes, not used if the delta hides the edges.
+     */
+    private static int countEdges(BaseEnds baseEnds, EdgeDelta delta,
+                                  int endNode) {
+        if (delta != null && (delta.replaced || delta.isTouched(endNode)))
+            return delta.count(endNode);
+        return baseEnds.count(endNode);
+    }
+
+    /**
+     * Counts the visible edges of a type from a node.
+     */
+    private static <T> int countEdges(AbstractGraph<T> base, int generation,
+                                      int node, EdgeType edgeType,
+                                      EdgeDelta delta) {
+        if (delta == null)
+            return countBaseEdges(base, node, edgeType, null);
+        if (delta.replaced)
+            return delta.edges.length;
+        BaseEnds baseEnds = delta.baseEnds;
+        if (baseEnds == null || baseEnds.generation != generation)
+            return countBaseEdges(base, node, edgeType, delta)
+                + delta.edges.length;
+        int count = baseEnds.ends.length;
+        for (int endNode : delta.touched)
+            count -= baseEnds.count(endNode);
+        return count + delta.edges.length;
+    }
+
+    /**
+     * Gets the sorted base end nodes of a node, cached in its delta until the
+     * base is replaced, so that only the first mutation of a node scans its
+     * base edges.
+     *
+     * @return The base end nodes, or null if the delta hides all base edges.
+     */
+    private static <T> BaseEnds getBaseEnds(AbstractGraph<T> base,
+                                            int generation, int node,
+                                            EdgeType edgeType, EdgeDelta delta) {
+        if (delta != null) {
+            if (delta.replaced)
+                return null;
+            if (delta.baseEnds != null
+                && delta.baseEnds.generation == generation)
+                return delta.baseEnds;
+        }
+        final IntArrayList ends = new IntArrayList();
+        base.traverseNeighbors(node, edgeType, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int end, float weight) {
+                ends.add(end);
+                return true;
+            }
+        });
+        ends.sort();
+        return new BaseEnds(generation, Arrays.copyOf(ends.elements(),
+                                                      ends.size()));
+    }
+
+    /**
+     * Counts the base edges of a type from a node not hidden by a delta.
+     */
+    private static <T> int countBaseEdges(AbstractGraph<T> base, int node,
+                                          EdgeType edgeType,
+                                          final EdgeDelta delta) {
+        final int[] count = new int[1];
+        base.traverseNeighbors(node, edgeType, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int end, float weight) {
+                if (delta == null || !delta.isTouched(end))
+                    count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Creates a delta where an edge is added or has it's weight updated.
+     */
+    private static EdgeDelta upsert(EdgeDelta delta, BaseEnds baseEnds,
+                                    EdgeType edgeType, int endNode,
+                                    float weight) {
+        long[] previous = delta == null ? NO_EDGES : delta.edges;
+        long[] edges = new long[previous.length + 1 - count(previous, endNode)];
+        long edge = createOutEdge(endNode, weight);
+        int j = 0;
+        boolean inserted = !edgeType.isWeighted();
+        for (long existing : previous) {
+            if (AbstractGraphNode.getEndNodeIndex(existing) == endNode)
+                continue;
+            if (!inserted && existing > edge) {
+                edges[j++] = edge;
+                inserted = true;
+            }
+            edges[j++] = existing;
+        }
+        // Weighted edges are kept sorted, unweighted edges are appended
+        if (j < edges.length)
+            edges[j] = edge;
+        return new EdgeDelta(delta != null && delta.replaced,
+                             touch(delta, endNode), edges, baseEnds);
+    }
+
+    /**
+     * Creates a delta where all edges to an end node are removed.
+     */
+    private static EdgeDelta remove(EdgeDelta delta, BaseEnds baseEnds,
+                                    int endNode) {
+        long[] previous = delta == null ? NO_EDGES : delta.edges;
+        long[] edges = new long[previous.length - count(previous, endNode)];
+        int j = 0;
+        for (long existing : previous) {
+            if (AbstractGraphNode.getEndNodeIndex(existing) != endNode)
+                edges[j++] = existing;
+        }
+        return new EdgeDelta(delta != null && delta.replaced,
+                             touch(delta, endNode), edges, baseEnds);
+    }
+
+    private static int[] touch(EdgeDelta delta, int endNode) {
+        if (delta == null)
+            return new int[] {endNode};
+        int index = Arrays.binarySearch(delta.touched, endNode);
+        if (index >= 0)
+            return delta.touched;
+        index = -index - 1;
+        int[] touched = new int[delta.touched.length + 1];
+        System.arraycopy(delta.touched, 0, touched, 0, index);
+        touched[index] = endNode;
+        System.arraycopy(delta.touched, index, touched, index + 1,
+                         delta.touched.length - index);
+        return touched;
+    }
+
+    private static int count(long[] edges, int endNode) {
+        int count = 0;
+        for (long edge : edges) {
+            if (AbstractGraphNode.getEndNodeIndex(edge) == endNode)
+                count++;
+        }
+        return count;
+    }
+
+    private static int[] distinct(int[] values) {
+        if (values.length == 0)
+            return values;
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int size = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[size - 1])
+                sorted[size++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    private static long createOutEdge(int endNode, float weight) {
+        return ((long) Float.floatToRawIntBits(weight) << 32)
+            | (endNode & 0xffffffffL);
+    }
+
+    /**
+     * Creates a node if it does not already exist.
+     */
+    private int upsertNode(NodeID<T> nodeId) {
+        int index = getPrimaryKey(nodeId);
+        if (index >= 0)
+            return index;
+        synchronized (lock) {
+            index = getPrimaryKey(nodeId); // Double check under the lock
+            if (index >= 0)
+                return index;
+            index = nodeCount;
+            NodeID<T>[] ids = newNodeIds;
+            if (index - firstNewNode == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                newNodeIds = ids;
+            }
+            ids[index - firstNewNode] = nodeId;
+            ensureChunk(index);
+            nodeCount = index + 1; // Publishes the node
+            indexNode(index, nodeId.getNodeType());
+            newNodeIndex.put(nodeId, index);
+            return index;
+        }
+    }
+
+    /**
+     * Makes sure there is a delta chunk for a node. Must be called while
+     * holding the lock, or from the constructor.
+     */
+    private void ensureChunk(int node) {
+        int chunk = node >>> CHUNK_BITS;
+        AtomicReferenceArray<EdgeDelta[]>[] chunks = deltas;
+        if (chunk < chunks.length)
+            return;
+        chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] == null)
+                chunks[i] = new AtomicReferenceArray<EdgeDelta[]>(CHUNK_SIZE);
+        }
+        deltas = chunks;
+    }
+
+    /**
+     * Writes the base and the delta into a new compact base graph, and clears
+     * the folded part of the delta.
+     *
+     * Readers read the delta of a node before the base. A reader that sees a
+     * cleared delta thus sees the new base, while a delta that has not been
+     * cleared gives the same result on top of either base. Mutations done
+     * while folding are kept in the delta, and mutations racing with the
+     * clearing of a delta are retried on top of the new base.
+     */
+    public void fold() {
+        synchronized (folding) {
+            foldDelta();
+        }
+    }
+
+    private void foldDelta() {
+        AbstractGraph<T> current = base;
+        int count = nodeCount;
+        EdgeDelta[][] folded = new EdgeDelta[count][];
+        for (int node = 0; node < count; node++)
+            folded[node] = getDeltas(node);
+
+        List<NodeID<T>> nodeIds = new ArrayList<NodeID<T>>(count);
+        AbstractObjectIntMap<NodeID<T>> nodeIndex =
+            new OpenObjectIntHashMap<NodeID<T>>(count);
+        List<LongArrayList[]> edges = new ArrayList<LongArrayList[]>(count);
+        int edgeTypeCount = 0;
+        for (EdgeType edgeType : getMetadata().getEdgeTypes())
+            edgeTypeCount = Math.max(edgeTypeCount, edgeType.ordinal() + 1);
+        for (int node = 0; node < count; node++) {
+            NodeID<T> nodeId = getNodeId(node);
+            nodeIds.add(nodeId);
+            nodeIndex.put(nodeId, node);
+            LongArrayList[] nodeEdges = new LongArrayList[edgeTypeCount];
+            for (EdgeType edgeType : getMetadata().getEdgeTypes()) {
+                final LongArrayList list = new LongArrayList();
+                traverse(current, node, edgeType,
+                         getDelta(folded[node], edgeType.ordinal()),
+                         new IntFloatProcedure() {
+                             @Override
+                             public boolean apply(int endNode, float weight) {
+                                 list.add(createOutEdge(endNode, weight));
+                                 return true;
+                             }
+                         });
+                if (list.isEmpty())
+                    continue;
+                // Traversed by descending weight, stored ascending
+                list.reverse();
+                nodeEdges[edgeType.ordinal()] = list;
+            }
+            edges.add(nodeEdges);
+        }
+        base = CSRGraphImpl.copyOf(getMetadata(), nodeIndex, nodeIds, edges);
+        baseGeneration++; // Only written while folding
+
+        for (int node = 0; node < count; node++) {
+            EdgeDelta[] nodeDeltas = folded[node];
+            if (nodeDeltas == null)
+                continue;
+            AtomicReferenceArray<EdgeDelta[]> chunk =
+                deltas[node >>> CHUNK_BITS];
+            // Deltas modified since they were read are kept
+            if (chunk.compareAndSet(node & (CHUNK_SIZE - 1), nodeDeltas, null))
+                deltaSize.addAndGet(-size(nodeDeltas));
+        }
+        folds.incrementAndGet();
+    }
+
+    /**
+     * Starts a background thread that folds the delta whenever it grows
+     * past the fold threshold.
+     */
+    public void startFolding() {
+        synchronized (foldLock) {
+            if (folder != null || closed)
+                throw new IllegalStateException("Folding already started");
+            folder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (awaitFoldRequest()) {
+                        try {
+                            fold();
+                        } catch (RuntimeException e) {
+                            failedFolds.incrementAndGet();
+                        }
+                        foldRequested = false;
+                    }
+                }
+            }, "OverlayGraphImpl folder");
+            folder.setDaemon(true);
+            folder.start();
+        }
+    }
+
+    private void checkFoldThreshold() {
+        if (foldRequested || deltaSize.get() < foldThreshold)
+            return;
+        synchronized (foldLock) {
+            if (folder == null || foldRequested)
+                return;
+            foldRequested = true;
+            foldLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return False if the graph was closed while waiting.
+     */
+    private boolean awaitFoldRequest() {
+        synchronized (foldLock) {
+            try {
+                while (!closed && !foldRequested)
+                    foldLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !closed;
+        }
+    }
+
+    /**
+     * Stops the background folding, if started.
+     */
+    @Override
+    public void close() {
+        Thread running;
+        synchronized (foldLock) {
+            closed = true;
+            foldLock.notifyAll();
+            running = folder;
+        }
+        if (running != null && running != Thread.currentThread()) {
+            try {
+                running.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void addMutationListener(GraphMutationListener<T> listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("Null listener not allowed");
+        mutationListeners.add(listener);
+    }
+
+    @Override
+    public void removeMutationListener(GraphMutationListener<T> listener) {
+        mutationListeners.remove(listener);
+    }
+
+    private void fireEdgesChanged(NodeID<T> startNode, EdgeType edgeType) {
+        for (GraphMutationListener<T> listener : mutationListeners)
+            listener.edgesChanged(startNode, edgeType);
+    }
+
+    /**
+     * The delta of the edges of one type from a node. Immutable.
+     */
+    private static final class EdgeDelta {
+        /** If true, all base edges are hidden */
+        private final boolean replaced;
+        /** The sorted end nodes whose base edges are hidden */
+        private final int[] touched;
+        /**
+         * The added and updated edges, sorted by ascending weight for
+         * weighted edge types, otherwise in insertion order.
+         */
+        private final long[] edges;
+        /** The cached base end nodes, may be null or stale */
+        private final BaseEnds baseEnds;
+
+        private EdgeDelta(boolean replaced, int[] touched, long[] edges,
+                          BaseEnds baseEnds) {
+            this.replaced = replaced;
+            this.touched = touched;
+            this.edges = edges;
+            this.baseEnds = baseEnds;
+        }
+
+        private boolean isTouched(int endNode) {
+            if (touched.length <= 8) {
+                for (int value : touched) {
+                    if (value == endNode)
+                        return true;
+                }
+                return false;
+            }
+            return Arrays.binarySearch(touched, endNode) >= 0;
+        }
+
+        private int count(int endNode) {
+            return OverlayGraphImpl.count(edges, endNode);
+        }
+    }
+
+    /**
+     * The sorted end nodes of the base edges of one type from a node, in a
+     * certain base generation. Immutable.
+     */
+    private static final class BaseEnds {
+        private final int generation;
+        private final int[] ends;
+
+        private BaseEnds(int generation, int[] ends) {
+            this.generation = generation;
+            this.ends = ends;
+        }
+
+        private int count(int endNode) {
+            int index = Arrays.binarySearch(ends, endNode);
+            if (index < 0)
+                return 0;
+            int from = index;
+            while (from > 0 && ends[from - 1] == endNode)
+                from--;
+            int to = index + 1;
+            while (to < ends.length && ends[to] == endNode)
+                to++;
+            return to - from;
+        }
+    }
+
+    /**
+     * Merges the edges of a delta with the base edges it does not hide.
+     * Weighted edges are merged by descending weight, while the delta edges
+     * of unweighted types come first, most recently added first.
+     */
+    private static final class Merge implements IntFloatProcedure {
+        private final EdgeDelta delta;
+        private final boolean weighted;
+        private final IntFloatProcedure proc;
+        /** The next delta edge, iterating backwards */
+        private int next;
+        private boolean stopped = false;
+
+        private Merge(EdgeDelta delta, boolean weighted, IntFloatProcedure proc) {
+            this.delta = delta;
+            this.weighted = weighted;
+            this.proc = proc;
+            this.next = delta.edges.length - 1;
+        }
+
+        private <T> void run(AbstractGraph<T> base, int node, EdgeType edgeType) {
+            if (!weighted && !emitAll())
+                return;
+            if (!delta.replaced) {
+                base.traverseNeighbors(node, edgeType, this);
+                if (stopped)
+                    return;
+            }
+            emitAll();
+        }
+
+        @Override
+        public boolean apply(int endNode, float weight) {
+            if (weighted) {
+                long edge = createOutEdge(endNode, weight);
+                while (next >= 0 && delta.edges[next] > edge) {
+                    if (!emit(delta.edges[next--]))
+                        return false;
+                }
+            }
+            if (delta.isTouched(endNode))
+                return true; // Hidden by the delta
+            if (!proc.apply(endNode, weight)) {
+                stopped = true;
+                return false;
+            }
+            return true;
+        }
+
+        private boolean emitAll() {
+            while (next >= 0) {
+                if (!emit(delta.edges[next--]))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean emit(long edge) {
+            if (!proc.apply(AbstractGraphNode.getEndNodeIndex(edge),
+                            AbstractGraphNode.getWeight(edge))) {
+                stopped = true;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Lazily merges the edges of a delta with the base edges it does not
+     * hide, in the same order as {@link Merge}. Pulls the base edges one at a
+     * time, and returns edges between views of nodes in this graph.
+     */
+    private class MergeIterator implements Iterator<TraversableGraphEdge<T>> {
+        private final GraphNode<T> startNode;
+        private final EdgeType edgeType;
+        private final EdgeDelta delta;
+        private final Iterator<TraversableGraphEdge<T>> baseEdges;
+        /** The next delta edge, iterating backwards */
+        private int nextDelta;
+        /** The next visible base edge, or null if not read yet */
+        private TraversableGraphEdge<T> nextBase = null;
+
+        private MergeIterator(GraphNode<T> startNode, EdgeType edgeType,
+                              EdgeDelta delta,
+                              Iterator<TraversableGraphEdge<T>> baseEdges) {
+            this.startNode = startNode;
+            this.edgeType = edgeType;
+            this.delta = delta;
+            this.baseEdges = baseEdges;
+            this.nextDelta = delta == null ? -1 : delta.edges.length - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextDelta >= 0 || peekBase() != null;
+        }
+
+        @Override
+        public TraversableGraphEdge<T> next() {
+            TraversableGraphEdge<T> baseEdge = peekBase();
+            if (nextDelta >= 0) {
+                // Unweighted delta edges come first
+                long edge = delta.edges[nextDelta];
+                if (baseEdge == null || !edgeType.isWeighted()
+                    || edge > createOutEdge(baseEdge.getEndNodeIndex(),
+                                            baseEdge.getWeight())) {
+                    nextDelta--;
+                    return createEdge(AbstractGraphNode.getEndNodeIndex(edge),
+                                      AbstractGraphNode.getWeight(edge));
+                }
+            }
+            if (baseEdge == null)
+                throw new NoSuchElementException();
+            nextBase = null;
+            return createEdge(baseEdge.getEndNodeIndex(), baseEdge.getWeight());
+        }
+
+        /**
+         * Gets the next base edge not hidden by the delta, or null if there
+         * is none.
+         */
+        private TraversableGraphEdge<T> peekBase() {
+            while (nextBase == null && baseEdges.hasNext()) {
+                TraversableGraphEdge<T> edge = baseEdges.next();
+                if (delta == null || !delta.isTouched(edge.getEndNodeIndex()))
+                    nextBase = edge;
+            }
+            return nextBase;
+        }
+
+        private TraversableGraphEdge<T> createEdge(int endNode, float weight) {
+            return new TraversableGraphEdge<T>(startNode, getNode(endNode),
+                                               endNode, edgeType, weight);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A light weight view of a node in the graph.
+     */
+    private class OverlayGraphNode implements GraphNode<T> {
+
+        private final int index;
+
+        private OverlayGraphNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Iterator<TraversableGraphEdge<T>>
+            traverseNeighbors(EdgeType edgeType) {
+            // The delta must be read before the base, see fold()
+            EdgeDelta delta = getDelta(getDeltas(index), edgeType.ordinal());
+            AbstractGraph<T> current = base;
+            Iterator<TraversableGraphEdge<T>> baseEdges;
+            if ((delta != null && delta.replaced)
+                || index >= current.nodeCount())
+                baseEdges = new EmptyIterator<TraversableGraphEdge<T>>();
+            else
+                baseEdges = current.getNode(index).traverseNeighbors(edgeType);
+            return new MergeIterator(this, edgeType, delta, baseEdges);
+        }
+
+        @Override
+        public void forEachNeighbor(EdgeType edgeType,
+                                    final NodeIDProcedure<T> proc) {
+            final GraphStats status = getStats();
+            status.incTraversals();
+            final int[] traversed = new int[1];
+            OverlayGraphImpl.this.traverseNeighbors(index, edgeType,
+                                                    new IntFloatProcedure() {
+                @Override
+                public boolean apply(int endNode, float weight) {
+                    if (!proc.apply(OverlayGraphImpl.this.getNodeId(endNode)))
+                        return false;
+                    traversed[0]++;
+                    return true;
+                }
+            });
+            status.incTraversedEdges(traversed[0]);
+        }
+
+        @Override
+        public void traverseNeighbors(EdgeType edgeType, IntFloatProcedure proc) {
+            OverlayGraphImpl.this.traverseNeighbors(index, edgeType, proc);
+        }
+
+        @Override
+        public NodeID<T> getNodeId() {
+            return OverlayGraphImpl.this.getNodeId(index);
+        }
+
+        @Override
+        public int getEdgeCount() {
+            EdgeDelta[] nodeDeltas = getDeltas(index);
+            int generation = baseGeneration;
+            AbstractGraph<T> current = base;
+            int count = 0;
+            for (EdgeType edgeType : getMetadata().getEdgeTypes())
+                count += countEdges(current, generation, index, edgeType,
+                                    getDelta(nodeDeltas, edgeType.ordinal()));
+            return count;
+        }
+
+        @Override
+        public Graph<T> getGraph() {
+            return OverlayGraphImpl.this;
+        }
+
+        @Override
+        public String toString() {
+            return getNodeId().toString();
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package recng.graph;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.core.convert.converter.Converter;
+
+import recng.common.io.Closer;
+import recng.graph.jmx.JMXGraphImport;
+import recng.jmx.JMXUtils;
+
+/**
+ * Imports graphs from csv files, in the format written by
+ * {@link GraphExporterImpl}, using multiple threads.
+ *
+ * Plain files are split into byte ranges, each range owning the lines that
+ * start within it. Gzipped files (ending with .gz) can not be split and are
+ * instead imported as one range each, which makes it possible to import a
+ * graph from several gzipped shards in parallel.
+ *
+ * The import is done in two passes. The first pass parses the node rows, which
+ * precede the edge rows, and adds the nodes to the builder in file order. The
+ * second pass parses the edge rows and feeds them to the builder in batches.
+ * An {@link AbstractGraphBuilder} is fed concurrently, with a lock per stripe
+ * of start nodes. Other builders are fed one batch at a time.
+ *
+ * Rows that can not be parsed are skipped and counted, see
+ * {@link #getStats()}. Progress is also exposed through JMX.
+ *
+ * @author jon
+ */
+public class ParallelGraphImporter<T> implements GraphImporter<T> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_MIN_RANGE_SIZE = 1 << 20;
+    private static final int RANGES_PER_THREAD = 4;
+    private static final int BATCH_SIZE = 4096;
+    private static final int STRIPES = 64;
+
+    private final GraphBuilder<T> builder;
+    private final EdgeType[] edgeTypes;
+    private final NodeType[] nodeTypes;
+    private final Converter<String, T> idConverter;
+    private final int threadCount;
+    private final ImportStatsImpl stats = new ImportStatsImpl();
+    /** Guards the edges of each stripe of start nodes, or null */
+    private final Object[] stripeLocks;
+    private long minRangeSize = DEFAULT_MIN_RANGE_SIZE;
+
+    /**
+     * Creates an importer using one thread per available processor.
+     */
+    public ParallelGraphImporter(GraphBuilder<T> builder,
+                                 GraphMetadata metadata,
+                                 Converter<String, T> idConverter) {
+        this(builder, metadata, idConverter,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelGraphImporter(GraphBuilder<T> builder,
+                                 GraphMetadata metadata,
+                                 Converter<String, T> idConverter,
+                                 int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("Thread count must be positive");
+        this.builder = builder;
+        this.idConverter = idConverter;
+        this.threadCount = threadCount;
+        if (builder instanceof AbstractGraphBuilder) {
+            this.stripeLocks = new Object[STRIPES];
+            for (int i = 0; i < STRIPES; i++)
+                stripeLocks[i] = new Object();
+        } else {
+            this.stripeLocks = null;
+        }
+
+        int maxOrdinal = -1;
+        for (EdgeType edgeType : metadata.getEdgeTypes())
+            maxOrdinal = Math.max(maxOrdinal, edgeType.ordinal());
+        this.edgeTypes = new EdgeType[maxOrdinal + 1];
+        for (EdgeType edgeType : metadata.getEdgeTypes())
+            edgeTypes[edgeType.ordinal()] = edgeType;
+
+        maxOrdinal = -1;
+        for (NodeType nodeType : metadata.getNodeTypes())
+            maxOrdinal = Math.max(maxOrdinal, nodeType.ordinal());
+        this.nodeTypes = new NodeType[maxOrdinal + 1];
+        for (NodeType nodeType : metadata.getNodeTypes())
+            nodeTypes[nodeType.ordinal()] = nodeType;
+
+        JMXUtils.registerMBean(new JMXGraphImport(getClass().getName(), stats));
+    }
+
+    /**
+     * Specifies the minimum size in bytes of the ranges that plain files are
+     * split into.
+     *
+     * Defaults to 1 MB.
+     */
+    public void setMinRangeSize(long minRangeSize) {
+        this.minRangeSize = Math.max(1, minRangeSize);
+    }
+
+    /**
+     * Gets the stats for the latest (or currently running) import.
+     */
+    public ImportStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public Graph<T> importGraph(String file) {
+        return importGraph(Collections.singletonList(file));
+    }
+
+    /**
+     * Imports a graph from a list of files, or shards, where all node rows of
+     * a file are preceded by the node rows of the files before it.
+     */
+    public Graph<T> importGraph(List<String> files) {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        stats.start();
+        try {
+            List<Range> ranges = split(files);
+
+            List<Future<NodeRows>> nodeRows = new ArrayList<Future<NodeRows>>();
+            for (Range range : ranges)
+                nodeRows.add(executor.submit(new NodeParser(range)));
+            List<Long> edgePositions = new ArrayList<Long>();
+            for (Future<NodeRows> future : nodeRows) {
+                NodeRows rows = getResult(future);
+                addNodes(rows);
+                edgePositions.add(rows.edgePosition);
+            }
+
+            List<Future<Void>> edgeRows = new ArrayList<Future<Void>>();
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                long edgePosition = edgePositions.get(i);
+                if (edgePosition < range.end)
+                    edgeRows.add(executor.submit(new EdgeParser(range,
+                                                                edgePosition)));
+            }
+            for (Future<Void> future : edgeRows)
+                getResult(future);
+        } catch (IOException e) {
+            throw new RuntimeException("Import failed", e);
+        } finally {
+            executor.shutdownNow();
+            stats.stop();
+        }
+        return builder.build();
+    }
+
+    private static <V> V getResult(Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Import failed", e.getCause());
+        }
+    }
+
+    /**
+     * Adds parsed nodes to the builder. Since the primary keys are assigned by
+     * the builder in insertion order, this is done by a single thread.
+     */
+    private void addNodes(NodeRows rows) {
+        for (int i = 0; i < rows.nodes.size(); i++) {
+            int index = rows.indexes[i];
+            int nodeIndex = builder.addOrGetNode(rows.nodes.get(i));
+            if (nodeIndex != index)
+                throw new IllegalStateException("Invalid node index: " + index);
+        }
+    }
+
+    /**
+     * Splits the files into ranges.
+     */
+    private List<Range> split(List<String> files) throws IOException {
+        List<Range> ranges = new ArrayList<Range>();
+        for (String file : files) {
+            if (file.endsWith(".gz")) {
+                ranges.add(new Range(file, true, 0, Long.MAX_VALUE));
+                continue;
+            }
+            File f = new File(file);
+            if (!f.isFile())
+                throw new FileNotFoundException(file);
+            long length = f.length();
+            long rangeCount = Math.max(1, Math.min(threadCount * RANGES_PER_THREAD,
+                                                   length / minRangeSize));
+            long rangeSize = (length + rangeCount - 1) / rangeCount;
+            for (long start = 0; start < length; start += rangeSize)
+                ranges.add(new Range(file, false, start,
+                                     Math.min(length, start + rangeSize)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Parses the node rows of a range.
+     */
+    private class NodeParser implements Callable<NodeRows> {
+
+        private final Range range;
+        // The index of the last parsed node
+        private int index;
+
+        private NodeParser(Range range) {
+            this.range = range;
+        }
+
+        @Override
+        public NodeRows call() throws IOException {
+            List<NodeID<T>> nodes = new ArrayList<NodeID<T>>();
+            int[] indexes = new int[16];
+            int errors = 0;
+            long edgePosition = range.end;
+            LineReader reader = range.open(range.start, range.start > 0);
+            try {
+                while (reader.nextLine(range.end)) {
+                    int fields = reader.countFields();
+                    if (fields == 0)
+                        continue; // Empty line or comment
+                    if (fields == 4) {
+                        // All node rows precede the edge rows
+                        edgePosition = reader.getLineStart();
+                        break;
+                    }
+                    NodeID<T> node = fields == 3 ? parseNode(reader) : null;
+                    if (node == null) {
+                        errors++;
+                        continue;
+                    }
+                    if (nodes.size() == indexes.length) {
+                        int[] tmp = new int[indexes.length * 2];
+                        System.arraycopy(indexes, 0, tmp, 0, indexes.length);
+                        indexes = tmp;
+                    }
+                    indexes[nodes.size()] = index;
+                    nodes.add(node);
+                }
+            } finally {
+                Closer.close(reader);
+            }
+            stats.incNodeRows(nodes.size());
+            stats.incParseErrors(errors);
+            return new NodeRows(nodes, indexes, edgePosition);
+        }
+
+        /**
+         * Parses a node row, setting the index of the node. Returns null if
+         * the row is invalid.
+         */
+        private NodeID<T> parseNode(LineReader reader) {
+            try {
+                index = reader.parseInt(0);
+                int type = reader.parseInt(2);
+                if (type < 0 || type >= nodeTypes.length || nodeTypes[type] == null)
+                    return null;
+                return new NodeID<T>(idConverter.convert(reader.getString(1)),
+                                     nodeTypes[type]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Parses the edge rows of a range and adds them to the builder.
+     */
+    private class EdgeParser implements Callable<Void> {
+
+        private final Range range;
+        private final long edgePosition;
+        private final int[] startNodes = new int[BATCH_SIZE];
+        private final int[] endNodes = new int[BATCH_SIZE];
+        private final EdgeType[] types = new EdgeType[BATCH_SIZE];
+        private final float[] weights = new float[BATCH_SIZE];
+        // The batch ordered by stripe, and the start of each stripe in it
+        private final int[] order = new int[BATCH_SIZE];
+        private final int[] stripeStarts = new int[STRIPES + 1];
+        private int batchSize = 0;
+        private int errors = 0;
+
+        private EdgeParser(Range range, long edgePosition) {
+            this.range = range;
+            this.edgePosition = edgePosition;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            LineReader reader = range.open(edgePosition, false);
+            try {
+                while (reader.nextLine(range.end)) {
+                    int fields = reader.countFields();
+                    if (fields == 0)
+                        continue; // Empty line or comment
+                    if (fields != 4 || !parseEdge(reader)) {
+                        errors++;
+                        continue;
+                    }
+                    if (batchSize == BATCH_SIZE)
+                        flush();
+                }
+                flush();
+            } finally {
+                Closer.close(reader);
+            }
+            return null;
+        }
+
+        private boolean parseEdge(LineReader reader) {
+            try {
+                int edgeType = reader.parseInt(2);
+                if (edgeType < 0 || edgeType >= edgeTypes.length
+                    || edgeTypes[edgeType] == null)
+                    return false;
+                startNodes[batchSize] = reader.parseInt(0);
+                endNodes[batchSize] = reader.parseInt(1);
+                types[batchSize] = edgeTypes[edgeType];
+                weights[batchSize] = reader.parseFloat(3);
+                batchSize++;
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private void flush() {
+            if (stripeLocks != null) {
+                addStriped();
+            } else {
+                // The builder is not thread safe, so batches are added while
+                // holding it's monitor.
+                synchronized (builder) {
+                    for (int i = 0; i < batchSize; i++)
+                        builder.addEdge(startNodes[i], endNodes[i], types[i],
+                                        weights[i]);
+                }
+            }
+            stats.incEdgeRows(batchSize);
+            stats.incParseErrors(errors);
+            batchSize = 0;
+            errors = 0;
+        }
+
+        /**
+         * Adds the batch one stripe of start nodes at a time, holding the lock
+         * of the stripe. The batch is first ordered by stripe with a counting
+         * sort, so each lock is taken at most once per batch.
+         */
+        private void addStriped() {
+            Arrays.fill(stripeStarts, 0);
+            for (int i = 0; i < batchSize; i++)
+                stripeStarts[(startNodes[i] & (STRIPES - 1)) + 1]++;
+            for (int s = 0; s < STRIPES; s++)
+                stripeStarts[s + 1] += stripeStarts[s];
+            for (int i = 0; i < batchSize; i++)
+                order[stripeStarts[startNodes[i] & (STRIPES - 1)]++] = i;
+            // The starts were shifted to the ends while filling in the order
+            int from = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                int to = stripeStarts[s];
+                if (from == to)
+                    continue;
+                synchronized (stripeLocks[s]) {
+                    for (int j = from; j < to; j++) {
+                        int i = order[j];
+                        builder.addEdge(startNodes[i], endNodes[i], types[i],
+                                        weights[i]);
+                    }
+                }
+                from = to;
+            }
+        }
+    }
+
+    /**
+     * The parsed node rows of a range.
+     */
+    private class NodeRows {
+        private final List<NodeID<T>> nodes;
+        private final int[] indexes;
+        private final long edgePosition;
+
+        private NodeRows(List<NodeID<T>> nodes, int[] indexes, long edgePosition) {
+            this.nodes = nodes;
+            this.indexes = indexes;
+            this.edgePosition = edgePosition;
+        }
+    }
+
+    /**
+     * A byte range of a file, owning all lines starting within it.
+     */
+    private static class Range {
+        private final String file;
+        private final boolean gzipped;
+        private final long start;
+        private final long end;
+
+        private Range(String file, boolean gzipped, long start, long end) {
+            this.file = file;
+            this.gzipped = gzipped;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Opens a reader at a position in the (uncompressed) file.
+         *
+         * @param skipPartialLine
+         *            True if the line containing the position belongs to the
+         *            previous range and should be skipped.
+         */
+        private LineReader open(long position, boolean skipPartialLine)
+            throws IOException {
+            long from = skipPartialLine ? position - 1 : position;
+            FileInputStream fis = new FileInputStream(file);
+            InputStream in = fis;
+            try {
+                if (gzipped) {
+                    in = new GZIPInputStream(fis, 1 << 16);
+                    skipFully(in, from);
+                } else {
+                    fis.getChannel().position(from);
+                }
+                LineReader reader = new LineReader(in, from);
+                if (skipPartialLine)
+                    reader.skipLine();
+                return reader;
+            } catch (IOException e) {
+                Closer.close(in);
+                throw e;
+            }
+        }
+
+        private static void skipFully(InputStream in, long n) throws IOException {
+            while (n > 0) {
+                long skipped = in.skip(n);
+                if (skipped <= 0)
+                    throw new IOException("Unexpected end of file");
+                n -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Reads lines as bytes and tokenizes them on ';', without creating any
+     * intermediate strings.
+     */
+    private static class LineReader implements Closeable {
+
+        private static final int MAX_FIELDS = 4;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+        // The position in the file of buffer[bufferPos]
+        private long position;
+
+        private byte[] line = new byte[256];
+        private int lineLength = 0;
+        private long lineStart;
+        // Start and end (exclusive) of each field in the current line
+        private final int[] fieldStarts = new int[MAX_FIELDS];
+        private final int[] fieldEnds = new int[MAX_FIELDS];
+
+        private LineReader(InputStream in, long position) {
+            this.in = in;
+            this.position = position;
+        }
+
+        private boolean fill() throws IOException {
+            bufferLength = in.read(buffer);
+            bufferPos = 0;
+            return bufferLength > 0;
+        }
+
+        private void skipLine() throws IOException {
+            while (true) {
+                if (bufferPos == bufferLength && !fill())
+                    return;
+                position++;
+                if (buffer[bufferPos++] == '\n')
+                    return;
+            }
+        }
+
+        /**
+         * Reads the next line, if it starts before the end position.
+         */
+        private boolean nextLine(long end) throws IOException {
+            if (position >= end)
+                return false;
+            lineStart = position;
+            lineLength = 0;
+            while (true) {
+                if (bufferPos == bufferLength && !fill())
+                    return lineLength > 0;
+                byte b = buffer[bufferPos++];
+                position++;
+                if (b == '\n')
+                    break;
+                if (lineLength == line.length) {
+                    byte[] tmp = new byte[line.length * 2];
+                    System.arraycopy(line, 0, tmp, 0, line.length);
+                    line = tmp;
+                }
+                line[lineLength++] = b;
+            }
+            if (lineLength > 0 && line[lineLength - 1] == '\r')
+                lineLength--;
+            return true;
+        }
+
+        private long getLineStart() {
+            return lineStart;
+        }
+
+        /**
+         * Tokenizes the current line and returns the number of fields, or 0
+         * for empty lines and comments. Returns -1 for lines with too many
+         * fields.
+         */
+        private int countFields() {
+            if (lineLength == 0 || line[0] == '#')
+                return 0;
+            int fields = 0;
+            fieldStarts[0] = 0;
+            for (int i = 0; i < lineLength; i++) {
+                if (line[i] == ';') {
+                    if (fields + 1 == MAX_FIELDS)
+                        return -1;
+                    fieldEnds[fields++] = i;
+                    fieldStarts[fields] = i + 1;
+                }
+            }
+            fieldEnds[fields++] = lineLength;
+            return fields;
+        }
+
+        private String getString(int field) {
+            return new String(line, fieldStarts[field],
+                              fieldEnds[field] - fieldStarts[field], UTF8);
+        }
+
+        private int parseInt(int field) {
+            int from = fieldStarts[field];
+            int to = fieldEnds[field];
+            if (from == to)
+                throw new NumberFormatException("Empty field");
+            boolean negative = line[from] == '-';
+            if (negative && ++from == to)
+                throw new NumberFormatException("Invalid int");
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = line[i] - '0';
+                if (digit < 0 || digit > 9)
+                    throw new NumberFormatException("Invalid int");
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE + 1L)
+                    throw new NumberFormatException("Int overflow");
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE)
+                throw new NumberFormatException("Int overflow");
+            return (int) value;
+        }
+
+        /**
+         * Parses plain decimal numbers directly from the bytes, falling back
+         * to Float.parseFloat for other formats (exponents, NaN etc).
+         */
+        private float parseFloat(int field) {
+            int from = fieldStarts[field];
+            int to = fieldEnds[field];
+            int i = from;
+            boolean negative = i < to && line[i] == '-';
+            if (negative)
+                i++;
+            long mantissa = 0;
+            int digits = 0;
+            int decimals = -1;
+            for (; i < to; i++) {
+                byte b = line[i];
+                if (b == '.' && decimals < 0) {
+                    decimals = 0;
+                    continue;
+                }
+                int digit = b - '0';
+                if (digit < 0 || digit > 9 || digits == 15)
+                    return Float.parseFloat(getString(field));
+                mantissa = mantissa * 10 + digit;
+                digits++;
+                if (decimals >= 0)
+                    decimals++;
+            }
+            if (digits == 0)
+                return Float.parseFloat(getString(field));
+            double value = mantissa;
+            if (decimals > 0)
+                value /= Math.pow(10, decimals);
+            return (float) (negative ? -value : value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package recng.graph;
+
+import java.util.List;
+
+/**
+ * A procedure accepting the traversed path from a source node as input.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public interface PathProcedure<T> {
+
+    /**
+     * Applies the procedure to a traversed path.
+     *
+     * @param source
+     *            The source node of the traversal.
+     * @param path
+     *            The traversed edges, in the order they were traversed.
+     * @return False to cancel any remaining traversals, true otherwise.
+     */
+    boolean apply(NodeID<T> source, List<GraphEdge<T>> path);
+}
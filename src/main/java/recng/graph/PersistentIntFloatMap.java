@@ -0,0 +1,335 @@
+package recng.graph;
+
+import java.util.Arrays;
+
+/**
+ * An immutable map from int to float, where a put or remove returns a new map
+ * that shares all but the changed path with the old one.
+ *
+ * Implemented as a hash array mapped trie. Each trie node holds a bitmap of
+ * the 5 bit hash fragments that have an entry inline, and one of those that
+ * have a sub node, so lookups visit at most 7 nodes, and an update copies at
+ * most 7 small nodes, no matter the size of the map. Keys are hashed by a
+ * bijective function, so distinct keys never collide.
+ *
+ * @author jon
+ */
+final class PersistentIntFloatMap {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final PersistentIntFloatMap EMPTY =
+        new PersistentIntFloatMap(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentIntFloatMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Creates a map with the given entries.
+     *
+     * @return The map, or null if a key occurs more than once.
+     */
+    static PersistentIntFloatMap of(int[] keys, float[] values, int size) {
+        if (size == 0)
+            return EMPTY;
+        // Sorts the entries in trie order, i.e. on the hash fragments from the
+        // root down, and then builds the trie bottom up
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            int path = path(hash(keys[i]));
+            order[i] = ((long) (path ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] sortedKeys = new int[size];
+        float[] sortedValues = new float[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) order[i];
+            sortedKeys[i] = keys[index];
+            sortedValues[i] = values[index];
+            if (i > 0 && sortedKeys[i] == sortedKeys[i - 1])
+                return null;
+        }
+        return new PersistentIntFloatMap(build(sortedKeys, sortedValues, 0,
+                                               size, 0), size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(int key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0;; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.dataMap & bit) != 0)
+                return node.keys[index(node.dataMap, bit)] == key;
+            if ((node.nodeMap & bit) == 0)
+                return false;
+            node = node.nodes[index(node.nodeMap, bit)];
+        }
+    }
+
+    /**
+     * Gets the value of a key, or NaN if there is none.
+     */
+    float get(int key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0;; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.dataMap & bit) != 0) {
+                int index = index(node.dataMap, bit);
+                return node.keys[index] == key ? node.values[index] : Float.NaN;
+            }
+            if ((node.nodeMap & bit) == 0)
+                return Float.NaN;
+            node = node.nodes[index(node.nodeMap, bit)];
+        }
+    }
+
+    /**
+     * Gets a map where a key has a certain value.
+     */
+    PersistentIntFloatMap put(int key, float value) {
+        boolean contained = containsKey(key);
+        int bits = Float.floatToRawIntBits(value);
+        if (contained && Float.floatToRawIntBits(get(key)) == bits)
+            return this;
+        return new PersistentIntFloatMap(root.put(key, hash(key), value, 0),
+                                         contained ? size : size + 1);
+    }
+
+    /**
+     * Gets a map without a key.
+     */
+    PersistentIntFloatMap remove(int key) {
+        if (!containsKey(key))
+            return this;
+        return new PersistentIntFloatMap(root.remove(key, hash(key), 0),
+                                         size - 1);
+    }
+
+    /**
+     * Spreads the key bits over all fragments. Multiplying by an odd constant
+     * and xoring with a shift are both reversible, so distinct keys get
+     * distinct hashes.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Reorders the hash fragments so that the fragment of the root is the most
+     * significant, i.e. unsigned order of the paths is trie order.
+     */
+    private static int path(int hash) {
+        int path = 0;
+        for (int shift = 0; shift < 32; shift += BITS)
+            path = (path << Math.min(BITS, 32 - shift))
+                | ((hash >>> shift) & MASK);
+        return path;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * Builds the node for a range of entries sorted in trie order, which share
+     * the hash fragments above a shift.
+     */
+    private static Node build(int[] keys, float[] values, int from, int to,
+                              int shift) {
+        int dataMap = 0;
+        int nodeMap = 0;
+        int dataCount = 0;
+        int nodeCount = 0;
+        for (int i = from; i < to;) {
+            int bit = bit(hash(keys[i]), shift);
+            int end = i + 1;
+            while (end < to && bit(hash(keys[end]), shift) == bit)
+                end++;
+            if (end - i == 1) {
+                dataMap |= bit;
+                dataCount++;
+            } else {
+                nodeMap |= bit;
+                nodeCount++;
+            }
+            i = end;
+        }
+        int[] nodeKeys = new int[dataCount];
+        float[] nodeValues = new float[dataCount];
+        Node[] nodes = new Node[nodeCount];
+        int data = 0;
+        int node = 0;
+        for (int i = from; i < to;) {
+            int bit = bit(hash(keys[i]), shift);
+            int end = i + 1;
+            while (end < to && bit(hash(keys[end]), shift) == bit)
+                end++;
+            if (end - i == 1) {
+                nodeKeys[data] = keys[i];
+                nodeValues[data++] = values[i];
+            } else {
+                nodes[node++] = build(keys, values, i, end, shift + BITS);
+            }
+            i = end;
+        }
+        return new Node(dataMap, nodeMap, nodeKeys, nodeValues, nodes);
+    }
+
+    /**
+     * A trie node. Entries and sub nodes are stored in order of their hash
+     * fragments.
+     */
+    private static final class Node {
+
+        private static final Node EMPTY =
+            new Node(0, 0, new int[0], new float[0], new Node[0]);
+
+        private final int dataMap;
+        private final int nodeMap;
+        private final int[] keys;
+        private final float[] values;
+        private final Node[] nodes;
+
+        private Node(int dataMap, int nodeMap, int[] keys, float[] values,
+                     Node[] nodes) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.values = values;
+            this.nodes = nodes;
+        }
+
+        private Node put(int key, int hash, float value, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int index = index(dataMap, bit);
+                if (keys[index] == key) {
+                    float[] copy = values.clone();
+                    copy[index] = value;
+                    return new Node(dataMap, nodeMap, keys, copy, nodes);
+                }
+                // Pushes the existing entry down, along with the new one
+                Node sub = merge(keys[index], hash(keys[index]), values[index],
+                                 key, hash, value, shift + BITS);
+                int nodeIndex = index(nodeMap, bit);
+                return new Node(dataMap ^ bit, nodeMap | bit,
+                                removeInt(keys, index),
+                                removeFloat(values, index),
+                                insertNode(nodes, nodeIndex, sub));
+            }
+            if ((nodeMap & bit) != 0) {
+                int index = index(nodeMap, bit);
+                Node[] copy = nodes.clone();
+                copy[index] = nodes[index].put(key, hash, value, shift + BITS);
+                return new Node(dataMap, nodeMap, keys, values, copy);
+            }
+            int index = index(dataMap, bit);
+            return new Node(dataMap | bit, nodeMap,
+                            insertInt(keys, index, key),
+                            insertFloat(values, index, value), nodes);
+        }
+
+        /**
+         * Removes a key that is known to be in this node or below it.
+         */
+        private Node remove(int key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int index = index(dataMap, bit);
+                return new Node(dataMap ^ bit, nodeMap, removeInt(keys, index),
+                                removeFloat(values, index), nodes);
+            }
+            int index = index(nodeMap, bit);
+            Node sub = nodes[index].remove(key, hash, shift + BITS);
+            if (sub.nodeMap == 0 && sub.keys.length == 1) {
+                // Pulls a single remaining entry up into this node
+                int dataIndex = index(dataMap, bit);
+                return new Node(dataMap | bit, nodeMap ^ bit,
+                                insertInt(keys, dataIndex, sub.keys[0]),
+                                insertFloat(values, dataIndex, sub.values[0]),
+                                removeNode(nodes, index));
+            }
+            Node[] copy = nodes.clone();
+            copy[index] = sub;
+            return new Node(dataMap, nodeMap, keys, values, copy);
+        }
+
+        private static Node merge(int key1, int hash1, float value1, int key2,
+                                  int hash2, float value2, int shift) {
+            int bit1 = bit(hash1, shift);
+            int bit2 = bit(hash2, shift);
+            if (bit1 == bit2) {
+                Node sub = merge(key1, hash1, value1, key2, hash2, value2,
+                                 shift + BITS);
+                return new Node(0, bit1, new int[0], new float[0],
+                                new Node[] { sub });
+            }
+            if (Integer.bitCount(bit1 - 1) > Integer.bitCount(bit2 - 1))
+                return new Node(bit1 | bit2, 0, new int[] { key2, key1 },
+                                new float[] { value2, value1 }, new Node[0]);
+            return new Node(bit1 | bit2, 0, new int[] { key1, key2 },
+                            new float[] { value1, value2 }, new Node[0]);
+        }
+    }
+
+    private static int[] insertInt(int[] array, int index, int value) {
+        int[] res = new int[array.length + 1];
+        System.arraycopy(array, 0, res, 0, index);
+        res[index] = value;
+        System.arraycopy(array, index, res, index + 1, array.length - index);
+        return res;
+    }
+
+    private static int[] removeInt(int[] array, int index) {
+        int[] res = new int[array.length - 1];
+        System.arraycopy(array, 0, res, 0, index);
+        System.arraycopy(array, index + 1, res, index, res.length - index);
+        return res;
+    }
+
+    private static float[] insertFloat(float[] array, int index, float value) {
+        float[] res = new float[array.length + 1];
+        System.arraycopy(array, 0, res, 0, index);
+        res[index] = value;
+        System.arraycopy(array, index, res, index + 1, array.length - index);
+        return res;
+    }
+
+    private static float[] removeFloat(float[] array, int index) {
+        float[] res = new float[array.length - 1];
+        System.arraycopy(array, 0, res, 0, index);
+        System.arraycopy(array, index + 1, res, index, res.length - index);
+        return res;
+    }
+
+    private static Node[] insertNode(Node[] array, int index, Node node) {
+        Node[] res = new Node[array.length + 1];
+        System.arraycopy(array, 0, res, 0, index);
+        res[index] = node;
+        System.arraycopy(array, index, res, index + 1, array.length - index);
+        return res;
+    }
+
+    private static Node[] removeNode(Node[] array, int index) {
+        Node[] res = new Node[array.length - 1];
+        System.arraycopy(array, 0, res, 0, index);
+        System.arraycopy(array, index + 1, res, index, res.length - index);
+        return res;
+    }
+}
@@ -0,0 +1,350 @@
+package recng.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.apache.mahout.math.function.IntIntProcedure;
+import org.apache.mahout.math.list.FloatArrayList;
+import org.apache.mahout.math.list.IntArrayList;
+import org.apache.mahout.math.map.OpenIntIntHashMap;
+import org.apache.mahout.math.set.OpenIntHashSet;
+
+/**
+ * Recommends nodes using random walks with restart, i.e. an approximation of
+ * personalized PageRank, from one or more seed nodes.
+ *
+ * Each walk starts at one of the seeds and follows out edges of a certain
+ * type, sampled proportionally to their weights, restarting (ending the walk)
+ * with a fixed probability after every step. The nodes visited most often are
+ * recommended, scored by their share of all visits.
+ *
+ * Out edges are sampled using alias tables, built lazily per node and cached.
+ * Since the cached tables are not updated when a mutable graph is modified,
+ * call {@link #clearAliasTables()} to pick up changes.
+ *
+ * Walks are run in parallel if an executor is supplied, each task keeping
+ * it's own visit counters. The number of walks and the time spent walking are
+ * both limited, so the latency of a recommendation is bounded.
+ *
+ * NOTE: The setters are not thread safe, but once configured an instance may
+ * be used from multiple threads.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class RandomWalkRecommender<T> {
+
+    /** The number of walks a task claims at a time */
+    private static final int WALK_CHUNK_SIZE = 64;
+
+    private final Graph<T> graph;
+    private final EdgeType edgeType;
+    private final ExecutorService executor;
+    private volatile AtomicReferenceArray<AliasTable> aliasTables;
+    private final AtomicInteger seedCounter = new AtomicInteger();
+
+    private float restartProbability = 0.15f;
+    private int maxWalks = 10000;
+    private int maxWalkLength = 20;
+    private long timeBudget = Long.MAX_VALUE;
+    private int parallelism = 1;
+
+    /**
+     * Creates a recommender running all walks in the calling thread.
+     */
+    public RandomWalkRecommender(Graph<T> graph, EdgeType edgeType) {
+        this(graph, edgeType, null);
+    }
+
+    /**
+     * Creates a recommender.
+     *
+     * @param graph
+     *            The graph to walk.
+     * @param edgeType
+     *            The type of edges to follow.
+     * @param executor
+     *            Used to run walks in parallel, may be null.
+     */
+    public RandomWalkRecommender(Graph<T> graph, EdgeType edgeType,
+                                 ExecutorService executor) {
+        if (graph == null)
+            throw new IllegalArgumentException("Null graph not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        this.graph = graph;
+        this.edgeType = edgeType;
+        this.executor = executor;
+        this.aliasTables =
+            new AtomicReferenceArray<AliasTable>(graph.nodeCount());
+    }
+
+    /**
+     * Specifies the probability of restarting after each step, in the range
+     * (0, 1]. Defaults to 0.15.
+     */
+    public RandomWalkRecommender<T> setRestartProbability(float restartProbability) {
+        if (!(restartProbability > 0f && restartProbability <= 1f))
+            throw new IllegalArgumentException("Illegal restart probability: "
+                + restartProbability);
+        this.restartProbability = restartProbability;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of walks per recommendation. Defaults to
+     * 10000.
+     */
+    public RandomWalkRecommender<T> setMaxWalks(int maxWalks) {
+        this.maxWalks = maxWalks;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of steps in a single walk. Defaults to 20.
+     */
+    public RandomWalkRecommender<T> setMaxWalkLength(int maxWalkLength) {
+        this.maxWalkLength = maxWalkLength;
+        return this;
+    }
+
+    /**
+     * Specifies the maximum time, in milliseconds, to spend walking per
+     * recommendation. Unlimited by default.
+     */
+    public RandomWalkRecommender<T> setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+        return this;
+    }
+
+    /**
+     * Specifies the number of tasks to split the walks of a recommendation
+     * into. Only used if an executor was supplied. Defaults to 1.
+     */
+    public RandomWalkRecommender<T> setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Drops all cached alias tables, e.g. after the graph has been modified.
+     */
+    public void clearAliasTables() {
+        aliasTables = new AtomicReferenceArray<AliasTable>(graph.nodeCount());
+    }
+
+    /**
+     * Gets the top nodes visited by walks starting at a seed node.
+     */
+    public List<NodeScore<T>> recommend(NodeID<T> seed, int maxResults) {
+        return recommend(Collections.singletonList(seed), maxResults);
+    }
+
+    /**
+     * Gets the top nodes visited by walks starting at any of the seed nodes.
+     * Walks are evenly distributed among the seeds, and the seeds themselves
+     * are never recommended.
+     *
+     * @return The recommended nodes, ordered by descending score.
+     */
+    public List<NodeScore<T>> recommend(List<NodeID<T>> seeds, int maxResults) {
+        if (seeds == null)
+            throw new IllegalArgumentException("Null seeds not allowed");
+        IntArrayList seedKeys = new IntArrayList(seeds.size());
+        for (NodeID<T> seed : seeds) {
+            int index = graph.getPrimaryKey(seed);
+            if (index >= 0)
+                seedKeys.add(index);
+        }
+        if (seedKeys.isEmpty() || maxResults <= 0)
+            return new ArrayList<NodeScore<T>>();
+
+        long deadline = System.currentTimeMillis() + timeBudget;
+        if (deadline < 0) // Overflow
+            deadline = Long.MAX_VALUE;
+        AtomicInteger walkCounter = new AtomicInteger();
+        List<WalkTask> tasks = new ArrayList<WalkTask>();
+        int taskCount = executor == null ? 1 : parallelism;
+        int seed = seedCounter.incrementAndGet();
+        for (int i = 0; i < taskCount; i++)
+            tasks.add(new WalkTask(seedKeys, walkCounter, deadline,
+                                   new Random(31L * seed + i)));
+        runTasks(tasks);
+
+        // Merge the visit counters
+        OpenIntIntHashMap visits = tasks.get(0).visits;
+        long steps = tasks.get(0).steps;
+        for (int i = 1; i < tasks.size(); i++) {
+            final OpenIntIntHashMap merged = visits;
+            tasks.get(i).visits.forEachPair(new IntIntProcedure() {
+                @Override
+                public boolean apply(int node, int count) {
+                    merged.adjustOrPutValue(node, count, count);
+                    return true;
+                }
+            });
+            steps += tasks.get(i).steps;
+        }
+        GraphStats stats = graph.getStats();
+        stats.incTraversals();
+        stats.incTraversedEdges((int) Math.min(steps, Integer.MAX_VALUE));
+        return getTopNodes(visits, seedKeys, steps, maxResults);
+    }
+
+    private void runTasks(List<WalkTask> tasks) {
+        if (executor == null || tasks.size() == 1) {
+            for (WalkTask task : tasks)
+                task.call();
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (WalkTask task : tasks)
+            futures.add(executor.submit(task));
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures)
+                future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while walking", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Random walk failed", e.getCause());
+        }
+    }
+
+    private List<NodeScore<T>> getTopNodes(OpenIntIntHashMap visits,
+                                           IntArrayList seedKeys,
+                                           final long steps,
+                                           final int maxResults) {
+        final OpenIntHashSet seeds = new OpenIntHashSet();
+        for (int i = 0; i < seedKeys.size(); i++)
+            seeds.add(seedKeys.getQuick(i));
+        // Min heap of the top nodes so far, ties broken by primary key
+        final PriorityQueue<long[]> top =
+            new PriorityQueue<long[]>(maxResults + 1, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] n1, long[] n2) {
+                    if (n1[1] != n2[1])
+                        return n1[1] < n2[1] ? -1 : 1;
+                    return n1[0] > n2[0] ? -1 : (n1[0] == n2[0] ? 0 : 1);
+                }
+            });
+        visits.forEachPair(new IntIntProcedure() {
+            @Override
+            public boolean apply(int node, int count) {
+                if (seeds.contains(node))
+                    return true;
+                top.add(new long[] { node, count });
+                if (top.size() > maxResults)
+                    top.poll();
+                return true;
+            }
+        });
+        List<NodeScore<T>> res = new ArrayList<NodeScore<T>>(top.size());
+        while (!top.isEmpty()) {
+            long[] entry = top.poll();
+            GraphNode<T> node = graph.getNode((int) entry[0]);
+            res.add(new NodeScore<T>(node.getNodeId(), entry[1] / (float) steps));
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    /**
+     * Gets the alias table for a node, or null if it has no out edges.
+     */
+    private AliasTable getAliasTable(int node) {
+        AtomicReferenceArray<AliasTable> tables = aliasTables;
+        AliasTable table = node < tables.length() ? tables.get(node) : null;
+        if (table == null) {
+            table = createAliasTable(node);
+            // Nodes added after the cache was created are not cached
+            if (node < tables.length())
+                tables.lazySet(node, table);
+        }
+        return table.size() == 0 ? null : table;
+    }
+
+    private AliasTable createAliasTable(int node) {
+        final IntArrayList targets = new IntArrayList();
+        final FloatArrayList weights = new FloatArrayList();
+        graph.forEachNeighbor(node, edgeType, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int endNode, float weight) {
+                targets.add(endNode);
+                weights.add(weight);
+                return true;
+            }
+        });
+        targets.trimToSize();
+        weights.trimToSize();
+        return new AliasTable(targets.elements(), weights.elements());
+    }
+
+    /**
+     * Runs walks until the walk or time budget is exhausted, counting the
+     * visits in it's own counter.
+     */
+    private class WalkTask implements Callable<Void> {
+
+        private final IntArrayList seeds;
+        private final AtomicInteger walkCounter;
+        private final long deadline;
+        private final Random random;
+        private final OpenIntIntHashMap visits = new OpenIntIntHashMap();
+        private long steps = 0;
+
+        private WalkTask(IntArrayList seeds, AtomicInteger walkCounter,
+                         long deadline, Random random) {
+            this.seeds = seeds;
+            this.walkCounter = walkCounter;
+            this.deadline = deadline;
+            this.random = random;
+        }
+
+        @Override
+        public Void call() {
+            while (System.currentTimeMillis() < deadline) {
+                int first = walkCounter.getAndAdd(WALK_CHUNK_SIZE);
+                if (first >= maxWalks || first < 0)
+                    break;
+                int last = Math.min(first + WALK_CHUNK_SIZE, maxWalks);
+                for (int walk = first; walk < last; walk++) {
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
+                    walk(seeds.getQuick(walk % seeds.size()));
+                }
+            }
+            return null;
+        }
+
+        private void walk(int node) {
+            for (int step = 0; step < maxWalkLength; step++) {
+                AliasTable table = getAliasTable(node);
+                if (table == null)
+                    return; // Dead end
+                node = table.sample(random);
+                visits.adjustOrPutValue(node, 1, 1);
+                steps++;
+                if (random.nextFloat() < restartProbability)
+                    return;
+            }
+        }
+    }
+}
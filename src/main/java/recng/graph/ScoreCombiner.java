@@ -0,0 +1,17 @@
+package recng.graph;
+
+/**
+ * Combines the scores of edges reaching the same end node from different
+ * start nodes in a multi source traversal.
+ *
+ * @author jon
+ *
+ */
+public interface ScoreCombiner {
+
+    /**
+     * Combines the score accumulated so far for an end node with the score of
+     * yet another edge reaching that node.
+     */
+    float combine(float accumulated, float score);
+}
@@ -0,0 +1,34 @@
+package recng.graph;
+
+/**
+ * Commonly used {@link ScoreCombiner}s.
+ *
+ * @author jon
+ *
+ */
+public final class ScoreCombiners {
+
+    private ScoreCombiners() {
+    }
+
+    /**
+     * Sums the scores, i.e. nodes reachable from many start nodes are ranked
+     * higher.
+     */
+    public static final ScoreCombiner SUM = new ScoreCombiner() {
+        @Override
+        public float combine(float accumulated, float score) {
+            return accumulated + score;
+        }
+    };
+
+    /**
+     * Keeps the highest score.
+     */
+    public static final ScoreCombiner MAX = new ScoreCombiner() {
+        @Override
+        public float combine(float accumulated, float score) {
+            return Math.max(accumulated, score);
+        }
+    };
+}
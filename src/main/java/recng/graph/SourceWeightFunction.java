@@ -0,0 +1,24 @@
+package recng.graph;
+
+/**
+ * Adjusts the weight of edges depending on which start node a multi source
+ * traversal originated from, e.g. to give the items most recently added to a
+ * basket a higher impact.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public interface SourceWeightFunction<T> {
+
+    /**
+     * Gets the score of an edge reached from a source node.
+     *
+     * @param source
+     *            The start node of the traversal.
+     * @param weight
+     *            The weight of the traversed edge.
+     */
+    float weigh(NodeID<T> source, float weight);
+}
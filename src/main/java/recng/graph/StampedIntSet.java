@@ -0,0 +1,109 @@
+package recng.graph;
+
+import java.util.Arrays;
+
+/**
+ * A set of non negative ints, using open addressing, that can be cleared in
+ * constant time without releasing it's memory. Used to keep track of visited
+ * nodes in traversals that are reused many times.
+ *
+ * Each slot is tagged with the generation (stamp) it was written in, and
+ * clearing the set simply starts a new generation.
+ *
+ * This class is not thread safe.
+ *
+ * @author jon
+ *
+ */
+class StampedIntSet {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] keys;
+    private int[] stamps;
+    private int stamp = 1;
+    private int size = 0;
+
+    public StampedIntSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StampedIntSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.stamps = new int[capacity];
+    }
+
+    /**
+     * Adds a key to the set.
+     *
+     * @return True if the key was added, false if it was already present.
+     */
+    public boolean add(int key) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (stamps[slot] == stamp) {
+            if (keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        stamps[slot] = stamp;
+        size++;
+        return true;
+    }
+
+    /**
+     * Checks if the set contains a key.
+     */
+    public boolean contains(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (stamps[slot] == stamp) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of keys in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys from the set.
+     */
+    public void clear() {
+        size = 0;
+        stamp++;
+        if (stamp == 0) { // Wrapped around, reset all stamps
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldStamps = stamps;
+        int oldStamp = stamp;
+        keys = new int[oldKeys.length * 2];
+        stamps = new int[oldKeys.length * 2];
+        stamp = 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] == oldStamp)
+                add(oldKeys[i]);
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
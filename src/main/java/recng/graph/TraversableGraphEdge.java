@@ -8,9 +8,30 @@ package recng.graph;
 public class TraversableGraphEdge<T>
     extends WeightedEdgeImpl<GraphNode<T>> {
 
+    // The primary key of the end node, or -1 if unknown
+    private final int endNodeIndex;
+
+    public TraversableGraphEdge(GraphNode<T> startNode,
+                                GraphNode<T> endNode,
+                                EdgeType type, float weight) {
+        this(startNode, endNode, -1, type, weight);
+    }
+
     public TraversableGraphEdge(GraphNode<T> startNode,
                                 GraphNode<T> endNode,
+                                int endNodeIndex,
                                 EdgeType type, float weight) {
         super(startNode, endNode, type, weight);
+        this.endNodeIndex = endNodeIndex;
+    }
+
+    /**
+     * Gets the primary key of the end node.
+     */
+    public int getEndNodeIndex() {
+        if (endNodeIndex >= 0)
+            return endNodeIndex;
+        GraphNode<T> endNode = getEndNode();
+        return endNode.getGraph().getPrimaryKey(endNode.getNodeId());
     }
-}
\ No newline at end of file
+}
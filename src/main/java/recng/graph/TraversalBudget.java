@@ -0,0 +1,66 @@
+package recng.graph;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the time spent in a single traversal, and allows it to be cancelled
+ * from another thread.
+ *
+ * Traversals call {@link #isExhausted()} before each traversed edge. The clock
+ * and the cancellation flag are only checked every few calls, so a traversal
+ * may traverse a few more edges after the deadline has passed.
+ *
+ * @author jon
+ *
+ */
+class TraversalBudget {
+
+    /** The number of traversed edges between each check */
+    private static final int CHECK_INTERVAL = 64;
+
+    private final long deadline;
+    private final AtomicBoolean cancelled;
+    private int countdown = CHECK_INTERVAL;
+    private boolean truncated = false;
+
+    /**
+     * Creates a budget.
+     *
+     * @param deadline
+     *            The time, in milliseconds since the epoch, at which to stop
+     *            traversing.
+     * @param cancelled
+     *            Set to cancel the traversal, may be null. If not null, the
+     *            traversal is also cancelled if the traversing thread is
+     *            interrupted.
+     */
+    TraversalBudget(long deadline, AtomicBoolean cancelled) {
+        this.deadline = deadline;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Checks whether the traversal should stop. Once this method has returned
+     * true, it will keep returning true.
+     */
+    boolean isExhausted() {
+        if (truncated)
+            return true;
+        if (--countdown > 0)
+            return false;
+        countdown = CHECK_INTERVAL;
+        if (cancelled != null
+            && (cancelled.get() || Thread.currentThread().isInterrupted()))
+            truncated = true;
+        else if (System.currentTimeMillis() >= deadline)
+            truncated = true;
+        return truncated;
+    }
+
+    /**
+     * Checks whether the traversal was cut short by this budget.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,411 @@
+package recng.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import recng.cache.Cache;
+import recng.cache.CacheBuilder;
+import recng.cache.EvictionListener;
+import recng.cache.Weigher;
+
+/**
+ * Caches the paths of breadth first traversals, keyed by source node, edge
+ * type and traversal limits. A cached path is the same as the one returned by
+ * {@link Traverser#getPath()} for a traverser set up with the same limits.
+ *
+ * The cache is bounded by the estimated size in bytes of the cached paths,
+ * evicting the least recently used paths first.
+ *
+ * If the graph is a {@link MutableGraph}, cached paths are invalidated when
+ * the out edges of any node expanded by the traversal are modified. Only
+ * those nodes are able to affect the path, so other modifications leave the
+ * cache intact.
+ *
+ * Paths of edge types with an {@link EdgeDecay} are not cached, since their
+ * weights change and their edges expire without any modification. They are
+ * computed on every request.
+ *
+ * Concurrent requests for the same uncached path are collapsed, i.e. the path
+ * is computed once while the other requesting threads wait for the result.
+ *
+ * This class is thread safe.
+ *
+ * @author jon
+ *
+ * @param <T>
+ *            The generic type of the node ids.
+ */
+public class TraversalCache<T> implements GraphMutationListener<T> {
+
+    /** Approximate size in bytes of a cached edge */
+    private static final int EDGE_WEIGHT = 64;
+    /** Approximate size in bytes of a dependency */
+    private static final int DEPENDENCY_WEIGHT = 32;
+    /** The number of stripes used to track the latest modifications */
+    private static final int MODIFICATION_STRIPES = 4096;
+
+    private final Graph<T> graph;
+    private final Cache<TraversalKey<T>, CachedPath<T>> cache;
+    /** Maps edge type -> expanded node -> the keys of the paths depending on it */
+    private final Map<EdgeType, Map<NodeID<T>, Set<TraversalKey<T>>>> dependents =
+        new HashMap<EdgeType, Map<NodeID<T>, Set<TraversalKey<T>>>>();
+    /** Guards the cache writes and the dependents */
+    private final Object lock = new Object();
+    /** Paths currently being computed */
+    private final ConcurrentMap<TraversalKey<T>, FutureTask<CachedPath<T>>> inFlight =
+        new ConcurrentHashMap<TraversalKey<T>, FutureTask<CachedPath<T>>>();
+
+    /** Incremented for each modification */
+    private final AtomicLong modificationCount = new AtomicLong();
+    /** The latest modification count per (striped) modified node */
+    private final AtomicLongArray modifications =
+        new AtomicLongArray(MODIFICATION_STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param graph
+     *            The graph to traverse. If mutable, the cache registers itself
+     *            as a mutation listener.
+     * @param maxWeight
+     *            The maximum approximate size in bytes of the cached paths.
+     */
+    public TraversalCache(Graph<T> graph, long maxWeight) {
+        if (graph == null)
+            throw new IllegalArgumentException("Null graph not allowed");
+        this.graph = graph;
+        this.cache =
+            new CacheBuilder<TraversalKey<T>, CachedPath<T>>()
+                .maxWeight(maxWeight)
+                .weigher(new Weigher<TraversalKey<T>, CachedPath<T>>() {
+                    @Override
+                    public int weigh(int overhead, TraversalKey<T> key,
+                                     CachedPath<T> value) {
+                        return overhead + value.getWeight();
+                    }
+                })
+                .evictionListener(new EvictionListener<TraversalKey<T>, CachedPath<T>>() {
+                    @Override
+                    public void evicted(TraversalKey<T> key,
+                                        CachedPath<T> value) {
+                        // Called from within cache() while holding the lock
+                        removeDependents(key, value);
+                    }
+                }).build();
+        if (graph instanceof MutableGraph)
+            ((MutableGraph<T>) graph).addMutationListener(this);
+    }
+
+    /**
+     * Gets the path of a traversal with no limit on the number of traversed
+     * edges.
+     *
+     * @see #getPath(NodeID, EdgeType, int, int, int)
+     */
+    public List<GraphEdge<T>> getPath(NodeID<T> source, EdgeType edgeType,
+                                      int maxDepth, int maxReturnedEdges) {
+        return getPath(source, edgeType, maxDepth, maxReturnedEdges,
+                       Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the path of a traversal, from the cache if possible.
+     *
+     * @return The traversed path, which may not be modified, or an empty list
+     *         if the source node does not exist.
+     */
+    public List<GraphEdge<T>> getPath(NodeID<T> source, EdgeType edgeType,
+                                      int maxDepth, int maxReturnedEdges,
+                                      int maxTraversedEdges) {
+        if (source == null)
+            throw new IllegalArgumentException("Null source node not allowed");
+        if (edgeType == null)
+            throw new IllegalArgumentException("Null edge type not allowed");
+        final TraversalKey<T> key =
+            new TraversalKey<T>(source, edgeType, maxDepth, maxReturnedEdges,
+                                maxTraversedEdges);
+        CachedPath<T> cached = decays(edgeType) ? null : cache.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.path;
+        }
+
+        FutureTask<CachedPath<T>> task =
+            new FutureTask<CachedPath<T>>(new Callable<CachedPath<T>>() {
+                @Override
+                public CachedPath<T> call() {
+                    return computePath(key);
+                }
+            });
+        FutureTask<CachedPath<T>> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            misses.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            hits.incrementAndGet(); // Shares the result of another thread
+            task = existing;
+        }
+        try {
+            return task.get().path;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for path", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException("Traversal failed", cause);
+        }
+    }
+
+    private CachedPath<T> computePath(TraversalKey<T> key) {
+        long startModification = modificationCount.get();
+        GraphNode<T> sourceNode = graph.getNode(graph.getPrimaryKey(key.source));
+        if (sourceNode == null)
+            return new CachedPath<T>(Collections.<GraphEdge<T>> emptyList(),
+                                     Collections.<NodeID<T>> emptyList());
+
+        GraphIterator<T> iterator =
+            new GraphIterator<T>(sourceNode, key.edgeType,
+                                 new EdgeFilter<T>() {
+                                     public boolean accepts(NodeID<T> start,
+                                                            NodeID<T> end) {
+                                         return true;
+                                     }
+                                 },
+                                 key.maxDepth, key.maxReturnedEdges,
+                                 key.maxTraversedEdges);
+        iterator.trackExpandedNodes();
+        List<GraphEdge<T>> path = new ArrayList<GraphEdge<T>>();
+        while (iterator.hasNext())
+            path.add(iterator.next());
+        GraphStats stats = graph.getStats();
+        stats.incTraversals();
+        stats.incTraversedEdges(iterator.getTraversedEdgeCount());
+
+        CachedPath<T> res =
+            new CachedPath<T>(Collections.unmodifiableList(path),
+                              iterator.getExpandedNodes());
+        if (decays(key.edgeType))
+            return res; // Changes over time, don't cache it
+        synchronized (lock) {
+            // Modifications made after this point invalidate the cached path,
+            // so we only need to check for modifications made before it
+            for (NodeID<T> node : res.dependencies) {
+                if (modifications.get(getStripe(node)) > startModification)
+                    return res; // Possibly stale, don't cache it
+            }
+            CachedPath<T> prev = cache.cache(key, res);
+            if (prev != null)
+                removeDependents(key, prev);
+            if (cache.contains(key))
+                addDependents(key, res);
+        }
+        return res;
+    }
+
+    @Override
+    public void edgesChanged(NodeID<T> startNode, EdgeType edgeType) {
+        modifications.set(getStripe(startNode),
+                          modificationCount.incrementAndGet());
+        synchronized (lock) {
+            Map<NodeID<T>, Set<TraversalKey<T>>> nodeDependents =
+                dependents.get(edgeType);
+            if (nodeDependents == null)
+                return;
+            Set<TraversalKey<T>> keys = nodeDependents.get(startNode);
+            if (keys == null)
+                return;
+            for (TraversalKey<T> key : new ArrayList<TraversalKey<T>>(keys)) {
+                CachedPath<T> evicted = cache.evict(key);
+                if (evicted != null) {
+                    removeDependents(key, evicted);
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void addDependents(TraversalKey<T> key, CachedPath<T> path) {
+        Map<NodeID<T>, Set<TraversalKey<T>>> nodeDependents =
+            dependents.get(key.edgeType);
+        if (nodeDependents == null) {
+            nodeDependents = new HashMap<NodeID<T>, Set<TraversalKey<T>>>();
+            dependents.put(key.edgeType, nodeDependents);
+        }
+        for (NodeID<T> node : path.dependencies) {
+            Set<TraversalKey<T>> keys = nodeDependents.get(node);
+            if (keys == null) {
+                keys = new HashSet<TraversalKey<T>>(4);
+                nodeDependents.put(node, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private void removeDependents(TraversalKey<T> key, CachedPath<T> path) {
+        Map<NodeID<T>, Set<TraversalKey<T>>> nodeDependents =
+            dependents.get(key.edgeType);
+        if (nodeDependents == null)
+            return;
+        for (NodeID<T> node : path.dependencies) {
+            Set<TraversalKey<T>> keys = nodeDependents.get(node);
+            if (keys != null && keys.remove(key) && keys.isEmpty())
+                nodeDependents.remove(node);
+        }
+    }
+
+    /**
+     * Checks if the edges of a type decay, in which case their paths are not
+     * cached.
+     */
+    private boolean decays(EdgeType edgeType) {
+        return graph instanceof MutableGraphImpl
+            && ((MutableGraphImpl<?>) graph).getEdgeDecay(edgeType) != null;
+    }
+
+    private static int getStripe(NodeID<?> node) {
+        return node.hashCode() & (MODIFICATION_STRIPES - 1);
+    }
+
+    /**
+     * Removes all cached paths.
+     */
+    public void clear() {
+        synchronized (lock) {
+            cache.clear();
+            dependents.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached paths.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Gets the approximate size in bytes of the cached paths.
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    /**
+     * Gets the number of requests served without computing a path, including
+     * requests waiting for a concurrent computation of the same path.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of computed paths.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of cached paths invalidated by graph modifications.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{size: %s, weight: %s, hits: %s, misses: %s, " +
+            "invalidations: %s}", size(), getWeight(), getHits(), getMisses(),
+                             getInvalidations());
+    }
+
+    /**
+     * Identifies a traversal.
+     */
+    private static class TraversalKey<T> {
+        private final NodeID<T> source;
+        private final EdgeType edgeType;
+        private final int maxDepth;
+        private final int maxReturnedEdges;
+        private final int maxTraversedEdges;
+
+        private TraversalKey(NodeID<T> source, EdgeType edgeType, int maxDepth,
+                             int maxReturnedEdges, int maxTraversedEdges) {
+            this.source = source;
+            this.edgeType = edgeType;
+            this.maxDepth = maxDepth;
+            this.maxReturnedEdges = maxReturnedEdges;
+            this.maxTraversedEdges = maxTraversedEdges;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + source.hashCode();
+            result = prime * result + edgeType.hashCode();
+            result = prime * result + maxDepth;
+            result = prime * result + maxReturnedEdges;
+            result = prime * result + maxTraversedEdges;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            @SuppressWarnings("unchecked")
+            TraversalKey<T> other = (TraversalKey<T>) obj;
+            return maxDepth == other.maxDepth
+                && maxReturnedEdges == other.maxReturnedEdges
+                && maxTraversedEdges == other.maxTraversedEdges
+                && edgeType.equals(other.edgeType)
+                && source.equals(other.source);
+        }
+    }
+
+    /**
+     * A traversed path, and the nodes it depends on.
+     */
+    private static class CachedPath<T> {
+        private final List<GraphEdge<T>> path;
+        private final List<NodeID<T>> dependencies;
+
+        private CachedPath(List<GraphEdge<T>> path,
+                           List<NodeID<T>> dependencies) {
+            this.path = path;
+            this.dependencies = dependencies;
+        }
+
+        private int getWeight() {
+            return path.size() * EDGE_WEIGHT
+                + dependencies.size() * DEPENDENCY_WEIGHT;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package recng.graph;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A traverser used to traverse edges between product nodes in a graph.
@@ -33,12 +35,28 @@ public interface Traverser<T> {
      */
     List<GraphEdge<T>> getPath();
 
+    /**
+     * Gets the entire traversal path in a separate thread. Cancelling the
+     * returned future stops the traversal at the next check point.
+     *
+     * Any time budget is counted from when this method is called, i.e. time
+     * spent waiting in the executor queue counts against the budget.
+     */
+    Future<List<GraphEdge<T>>> getPathAsync(ExecutorService executor);
+
     /**
      * Specifies a filter used to decide if a traversed edge should be included
      * in the result.
      */
     Traverser<T> setReturnableFilter(EdgeFilter<T> returnableFilter);
 
+    /**
+     * Specifies a predicate, typically over {@link NodeAttributes}, that the
+     * end node of a traversed edge must satisfy for the edge to be included in
+     * the result. Evaluated on primary keys before the returnable filter.
+     */
+    Traverser<T> setNodePredicate(NodePredicate nodePredicate);
+
     /**
      * Specifies the maximum depth of the traversal.
      */
@@ -53,4 +71,18 @@ public interface Traverser<T> {
      * Specifies the maximum number of edges that may be traversed.
      */
     Traverser<T> setMaxTraversedEdges(int maxTraversedEdges);
+
+    /**
+     * Specifies the maximum time, in milliseconds, a traversal may take. Once
+     * the time is up, the traversal stops and the edges found so far are
+     * returned.
+     */
+    Traverser<T> setTimeBudget(long timeBudget);
+
+    /**
+     * Specifies the time, in milliseconds since the epoch, at which a
+     * traversal should stop. Once the deadline has passed, the traversal
+     * stops and the edges found so far are returned.
+     */
+    Traverser<T> setDeadline(long deadline);
 }
@@ -26,19 +26,21 @@ class TraverserImpl<T> extends AbstractTraverser<T> implements Traverser<T> {
         this.startNode = startNode;
     }
 
-    public GraphCursor<T> traverse() {
-        final long startTime = System.currentTimeMillis();
+    @Override
+    GraphCursor<T> traverse(final long startTime, TraversalBudget budget) {
         GraphIterator<T> iterator =
             new GraphIterator<T>(startNode, getEdgeType(),
                                  getReturnableFilter(),
                                  getMaxDepth(), getMaxReturnedEdges(),
                                  getMaxTraversedEdges());
+        iterator.setNodePredicate(getNodePredicate());
+        iterator.setBudget(budget);
         return new GraphCursorImpl<T>(iterator) {
             @Override
             public void close() {
                 super.close();
                 logTraversalStats(startTime, getReturnedEdgeCount(),
-                                  getTraversedEdgeCount());
+                                  getTraversedEdgeCount(), isTruncated());
             }
         };
     }
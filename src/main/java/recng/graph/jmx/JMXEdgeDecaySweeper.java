@@ -0,0 +1,35 @@
+package recng.graph.jmx;
+
+import recng.graph.EdgeDecaySweeper;
+import recng.jmx.AbstractMBean;
+
+public class JMXEdgeDecaySweeper extends AbstractMBean implements
+    JMXEdgeDecaySweeperMBean {
+
+    private final EdgeDecaySweeper<?> sweeper;
+
+    public JMXEdgeDecaySweeper(String sweeperName, EdgeDecaySweeper<?> sweeper) {
+        this.sweeper = sweeper;
+        setBeanName(sweeperName);
+    }
+
+    @Override
+    public long getSweptNodes() {
+        return sweeper.getSweptNodes();
+    }
+
+    @Override
+    public long getExpiredEdges() {
+        return sweeper.getExpiredEdges();
+    }
+
+    @Override
+    public long getPasses() {
+        return sweeper.getPasses();
+    }
+
+    @Override
+    public long getFailedSweeps() {
+        return sweeper.getFailedSweeps();
+    }
+}
@@ -0,0 +1,24 @@
+package recng.graph.jmx;
+
+public interface JMXEdgeDecaySweeperMBean {
+
+    /**
+     * Gets the total number of swept nodes.
+     */
+    long getSweptNodes();
+
+    /**
+     * Gets the total number of dropped expired edges.
+     */
+    long getExpiredEdges();
+
+    /**
+     * Gets the number of completed passes over all nodes.
+     */
+    long getPasses();
+
+    /**
+     * Gets the number of failed background sweeps.
+     */
+    long getFailedSweeps();
+}
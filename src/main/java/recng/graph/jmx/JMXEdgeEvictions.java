@@ -0,0 +1,39 @@
+package recng.graph.jmx;
+
+import java.util.Map;
+
+import recng.graph.EdgeEvictions;
+import recng.jmx.AbstractMBean;
+
+public class JMXEdgeEvictions extends AbstractMBean implements
+    JMXEdgeEvictionsMBean {
+
+    private static final int TOP_NODES = 20;
+
+    private final EdgeEvictions evictions;
+
+    public JMXEdgeEvictions(String graphName, EdgeEvictions evictions) {
+        this.evictions = evictions;
+        setBeanName(graphName + ".evictions");
+    }
+
+    @Override
+    public long getEvictedEdges() {
+        return evictions.getEvictedEdges();
+    }
+
+    @Override
+    public Map<String, Long> getEvictedEdgesByType() {
+        return evictions.getEvictedEdgesByType();
+    }
+
+    @Override
+    public int getEvictingNodeCount() {
+        return evictions.getEvictingNodeCount();
+    }
+
+    @Override
+    public Map<String, Long> getTopEvictingNodes() {
+        return evictions.getTopEvictingNodes(TOP_NODES);
+    }
+}
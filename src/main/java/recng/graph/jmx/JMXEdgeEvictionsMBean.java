@@ -0,0 +1,26 @@
+package recng.graph.jmx;
+
+import java.util.Map;
+
+public interface JMXEdgeEvictionsMBean {
+
+    /**
+     * Gets the total number of edges evicted from full edge lists.
+     */
+    long getEvictedEdges();
+
+    /**
+     * Gets the number of evicted edges per edge type.
+     */
+    Map<String, Long> getEvictedEdgesByType();
+
+    /**
+     * Gets the number of start nodes that edges have been evicted from.
+     */
+    int getEvictingNodeCount();
+
+    /**
+     * Gets the 20 start nodes that most edges have been evicted from.
+     */
+    Map<String, Long> getTopEvictingNodes();
+}
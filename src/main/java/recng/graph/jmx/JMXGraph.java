@@ -2,7 +2,9 @@ package recng.graph.jmx;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import recng.graph.EdgeType;
 import recng.graph.Graph;
@@ -29,6 +31,30 @@ public class JMXGraph<T> extends AbstractMBean implements JMXGraphMBean {
         return graph.edgeCount();
     }
 
+    @Override
+    public Map<String, Integer> getEdgeCountsByType() {
+        Map<String, Integer> res = new HashMap<String, Integer>();
+        for (EdgeType edgeType : graph.getMetadata().getEdgeTypes())
+            res.put(edgeType.name(), graph.edgeCount(edgeType));
+        return res;
+    }
+
+    @Override
+    public Map<String, Integer> getEdgeCountsByNodeType() {
+        Map<String, Integer> res = new HashMap<String, Integer>();
+        for (NodeType nodeType : graph.getMetadata().getNodeTypes())
+            res.put(nodeType.name(), graph.edgeCount(nodeType));
+        return res;
+    }
+
+    @Override
+    public Map<String, Integer> getNodeCountsByType() {
+        Map<String, Integer> res = new HashMap<String, Integer>();
+        for (NodeType nodeType : graph.getMetadata().getNodeTypes())
+            res.put(nodeType.name(), graph.nodeCount(nodeType));
+        return res;
+    }
+
     @Override
     public List<String> getNodeTypes() {
         List<String> res = new ArrayList<String>();
@@ -78,4 +104,10 @@ public class JMXGraph<T> extends AbstractMBean implements JMXGraphMBean {
             return 0;
         return (int) Math.round(1d * traversed / traversals);
     }
+
+    @Override
+    public int getTruncatedTraversals() {
+        GraphStats stats = graph.getStats();
+        return stats.getTruncatedTraversals();
+    }
 }
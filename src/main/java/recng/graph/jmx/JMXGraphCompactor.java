@@ -0,0 +1,35 @@
+package recng.graph.jmx;
+
+import recng.graph.GraphCompactor;
+import recng.jmx.AbstractMBean;
+
+public class JMXGraphCompactor extends AbstractMBean implements
+    JMXGraphCompactorMBean {
+
+    private final GraphCompactor<?> compactor;
+
+    public JMXGraphCompactor(String compactorName, GraphCompactor<?> compactor) {
+        this.compactor = compactor;
+        setBeanName(compactorName);
+    }
+
+    @Override
+    public long getGeneration() {
+        return compactor.getGeneration();
+    }
+
+    @Override
+    public long getLastFreezeMillis() {
+        return compactor.getLastFreezeMillis();
+    }
+
+    @Override
+    public int getRetainedGenerations() {
+        return compactor.getRetainedGenerations();
+    }
+
+    @Override
+    public long getFailedCompactions() {
+        return compactor.getFailedCompactions();
+    }
+}
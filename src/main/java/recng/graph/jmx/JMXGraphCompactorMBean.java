@@ -0,0 +1,24 @@
+package recng.graph.jmx;
+
+public interface JMXGraphCompactorMBean {
+
+    /**
+     * Gets the number of the generation currently served.
+     */
+    long getGeneration();
+
+    /**
+     * Gets the time in millis it took to freeze the current generation.
+     */
+    long getLastFreezeMillis();
+
+    /**
+     * Gets the number of replaced generations still in use by readers.
+     */
+    int getRetainedGenerations();
+
+    /**
+     * Gets the number of failed compactions.
+     */
+    long getFailedCompactions();
+}
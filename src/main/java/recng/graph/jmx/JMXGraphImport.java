@@ -0,0 +1,46 @@
+package recng.graph.jmx;
+
+import java.util.Date;
+
+import recng.graph.ImportStats;
+import recng.jmx.AbstractMBean;
+
+public class JMXGraphImport extends AbstractMBean implements JMXGraphImportMBean {
+
+    private final ImportStats stats;
+
+    public JMXGraphImport(String importerName, ImportStats stats) {
+        this.stats = stats;
+        setBeanName(importerName);
+    }
+
+    @Override
+    public Date getStartTime() {
+        return stats.getStartTime();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return stats.isRunning();
+    }
+
+    @Override
+    public long getNodeRows() {
+        return stats.getNodeRows();
+    }
+
+    @Override
+    public long getEdgeRows() {
+        return stats.getEdgeRows();
+    }
+
+    @Override
+    public long getParseErrors() {
+        return stats.getParseErrors();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return stats.getRowsPerSecond();
+    }
+}
@@ -0,0 +1,36 @@
+package recng.graph.jmx;
+
+import java.util.Date;
+
+public interface JMXGraphImportMBean {
+
+    /**
+     * Gets the time the import was started.
+     */
+    Date getStartTime();
+
+    /**
+     * Checks if the import is currently running.
+     */
+    boolean isRunning();
+
+    /**
+     * Gets the number of imported node rows.
+     */
+    long getNodeRows();
+
+    /**
+     * Gets the number of imported edge rows.
+     */
+    long getEdgeRows();
+
+    /**
+     * Gets the number of rows that could not be parsed.
+     */
+    long getParseErrors();
+
+    /**
+     * Gets the average number of imported rows per second.
+     */
+    double getRowsPerSecond();
+}
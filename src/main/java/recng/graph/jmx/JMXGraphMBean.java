@@ -2,6 +2,7 @@ package recng.graph.jmx;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public interface JMXGraphMBean {
 
@@ -11,10 +12,25 @@ public interface JMXGraphMBean {
     int getNodeCount();
 
     /**
-     * Gets the number of nodes in this graph.
+     * Gets the number of edges in this graph.
      */
     int getEdgeCount();
 
+    /**
+     * Gets the number of edges of each edge type.
+     */
+    Map<String, Integer> getEdgeCountsByType();
+
+    /**
+     * Gets the number of edges starting in nodes of each node type.
+     */
+    Map<String, Integer> getEdgeCountsByNodeType();
+
+    /**
+     * Gets the number of nodes of each node type.
+     */
+    Map<String, Integer> getNodeCountsByType();
+
     /**
      * Gets the valid node types for this graph.
      */
@@ -50,4 +66,10 @@ public interface JMXGraphMBean {
      */
     int getAverageTraversedEdges();
 
+    /**
+     * Gets the number of traversals cut short by their deadline or by being
+     * cancelled.
+     */
+    int getTruncatedTraversals();
+
 }
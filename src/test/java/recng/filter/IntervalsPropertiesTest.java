@@ -0,0 +1,146 @@
+package recng.filter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Checks properties of {@link Intervals} for randomly generated interval
+ * sets, by comparing with what each value should be contained in.
+ */
+public class IntervalsPropertiesTest {
+
+    private static final int RUNS = 2000;
+    private static final int MIN_BOUND = 0;
+    private static final int MAX_BOUND = 20;
+
+    private final Random random = new Random(42);
+
+    private Integer randomBound() {
+        if (random.nextInt(8) == 0) {
+            return null; // Unbounded
+        }
+        return MIN_BOUND + random.nextInt(MAX_BOUND - MIN_BOUND + 1);
+    }
+
+    private Interval<Integer> randomInterval() {
+        Integer lower = randomBound();
+        Integer upper = randomBound();
+        LowerIntervalBound<Integer> lowerBound = new LowerIntervalBound<Integer>(lower);
+        if (lower != null) {
+            lowerBound.setInclusive(random.nextBoolean());
+        }
+        UpperIntervalBound<Integer> upperBound = new UpperIntervalBound<Integer>(upper);
+        if (upper != null) {
+            upperBound.setInclusive(random.nextBoolean());
+        }
+        return new Interval<Integer>(lowerBound, upperBound);
+    }
+
+    private List<Interval<Integer>> randomIntervalList() {
+        int size = random.nextInt(8);
+        List<Interval<Integer>> res = new ArrayList<Interval<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            res.add(randomInterval());
+        }
+        return res;
+    }
+
+    private static boolean anyContains(List<Interval<Integer>> intervals, int value) {
+        for (Interval<Integer> interval : intervals) {
+            if (interval.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertCanonical(Intervals<Integer> intervals) {
+        List<Interval<Integer>> list = intervals.getIntervals();
+        for (int i = 0; i < list.size(); i++) {
+            Interval<Integer> interval = list.get(i);
+            assertThat(interval.isEmpty(), Matchers.is(false));
+            if (i == 0) {
+                continue;
+            }
+            UpperIntervalBound<Integer> prevUpper = list.get(i - 1).getUpperBound();
+            LowerIntervalBound<Integer> lower = interval.getLowerBound();
+            assertThat(prevUpper.getBound(), Matchers.notNullValue());
+            assertThat(lower.getBound(), Matchers.notNullValue());
+            int comp = prevUpper.getBound().compareTo(lower.getBound());
+            // A gap is required between consecutive intervals
+            assertThat(comp < 0
+                || (comp == 0 && !prevUpper.isInclusive() && !lower.isInclusive()),
+                       Matchers.is(true));
+        }
+        // The canonical form is unique
+        assertThat(new Intervals<Integer>(list), Matchers.is(intervals));
+    }
+
+    @Test
+    public void testCanonicalForm() {
+        for (int run = 0; run < RUNS; run++) {
+            List<Interval<Integer>> list = randomIntervalList();
+            Intervals<Integer> intervals = new Intervals<Integer>(list);
+            assertCanonical(intervals);
+            for (int value = MIN_BOUND - 2; value <= MAX_BOUND + 2; value++) {
+                assertThat(intervals.contains(value), Matchers.is(anyContains(list, value)));
+            }
+            assertThat(intervals.isEmpty(),
+                       Matchers.is(intervals.getIntervals().isEmpty()));
+        }
+    }
+
+    @Test
+    public void testAddInterval() {
+        for (int run = 0; run < RUNS; run++) {
+            List<Interval<Integer>> list = randomIntervalList();
+            Intervals<Integer> intervals = new Intervals<Integer>();
+            for (Interval<Integer> interval : list) {
+                intervals.addInterval(interval);
+                assertCanonical(intervals);
+            }
+            assertThat(intervals, Matchers.is(new Intervals<Integer>(list)));
+        }
+    }
+
+    @Test
+    public void testSetAlgebra() {
+        for (int run = 0; run < RUNS; run++) {
+            List<Interval<Integer>> list0 = randomIntervalList();
+            List<Interval<Integer>> list1 = randomIntervalList();
+            Intervals<Integer> intervals0 = new Intervals<Integer>(list0);
+            Intervals<Integer> intervals1 = new Intervals<Integer>(list1);
+            Intervals<Integer> union = intervals0.unionWith(intervals1);
+            Intervals<Integer> intersection = intervals0.intersectWith(intervals1);
+            Intervals<Integer> complement = intervals0.complement();
+            assertCanonical(union);
+            assertCanonical(intersection);
+            assertCanonical(complement);
+            for (int value = MIN_BOUND - 2; value <= MAX_BOUND + 2; value++) {
+                boolean in0 = anyContains(list0, value);
+                boolean in1 = anyContains(list1, value);
+                assertThat(union.contains(value), Matchers.is(in0 || in1));
+                assertThat(intersection.contains(value), Matchers.is(in0 && in1));
+                assertThat(complement.contains(value), Matchers.is(!in0));
+            }
+            assertThat(complement.complement(), Matchers.is(intervals0));
+            assertThat(union, Matchers.is(intervals1.unionWith(intervals0)));
+            assertThat(intersection, Matchers.is(intervals1.intersectWith(intervals0)));
+        }
+    }
+
+    @Test
+    public void testUnbounded() {
+        Intervals<Integer> all = new Intervals<Integer>().complement();
+        assertThat(all.getIntervals().size(), Matchers.is(1));
+        assertThat(all.contains(Integer.MIN_VALUE), Matchers.is(true));
+        assertThat(all.contains(Integer.MAX_VALUE), Matchers.is(true));
+        assertThat(all.complement().isEmpty(), Matchers.is(true));
+    }
+}
@@ -0,0 +1,177 @@
+package recng.filter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class PrimitiveIntervalsTest {
+
+    private static final int RUNS = 1000;
+
+    private final Random random = new Random(7);
+
+    private static <T extends Comparable<T>> Interval<T> interval(T lower, boolean lowerInclusive,
+                                                                  T upper, boolean upperInclusive) {
+        LowerIntervalBound<T> lowerBound = new LowerIntervalBound<T>(lower);
+        lowerBound.setInclusive(lowerInclusive);
+        UpperIntervalBound<T> upperBound = new UpperIntervalBound<T>(upper);
+        upperBound.setInclusive(upperInclusive);
+        return new Interval<T>(lowerBound, upperBound);
+    }
+
+    private Integer randomBound() {
+        return random.nextInt(8) == 0 ? null : random.nextInt(21);
+    }
+
+    private Intervals<Integer> randomIntervals() {
+        List<Interval<Integer>> res = new ArrayList<Interval<Integer>>();
+        int size = random.nextInt(6);
+        for (int i = 0; i < size; i++) {
+            res.add(interval(randomBound(), random.nextBoolean(), randomBound(),
+                             random.nextBoolean()));
+        }
+        return new Intervals<Integer>(res);
+    }
+
+    @Test
+    public void testSameAsGeneric() {
+        for (int run = 0; run < RUNS; run++) {
+            Intervals<Integer> intervals = randomIntervals();
+            IntIntervals ints = IntIntervals.valueOf(intervals);
+            List<Interval<Long>> longList = new ArrayList<Interval<Long>>();
+            for (Interval<Integer> interval : intervals.getIntervals()) {
+                longList.add(interval(toLong(interval.getLowerBound().getBound()),
+                                      interval.getLowerBound().isInclusive(),
+                                      toLong(interval.getUpperBound().getBound()),
+                                      interval.getUpperBound().isInclusive()));
+            }
+            LongIntervals longs = LongIntervals.valueOf(new Intervals<Long>(longList));
+            DoubleIntervals doubles = DoubleIntervals.valueOf(intervals);
+            for (int value = -2; value <= 22; value++) {
+                boolean expected = intervals.contains(value);
+                assertThat(ints.contains(value), Matchers.is(expected));
+                assertThat(longs.contains(value), Matchers.is(expected));
+                assertThat(doubles.contains(value), Matchers.is(expected));
+            }
+            // Values between the integers
+            List<Interval<Double>> doubleList = new ArrayList<Interval<Double>>();
+            for (Interval<Integer> interval : intervals.getIntervals()) {
+                doubleList.add(interval(toDouble(interval.getLowerBound().getBound()),
+                                        interval.getLowerBound().isInclusive(),
+                                        toDouble(interval.getUpperBound().getBound()),
+                                        interval.getUpperBound().isInclusive()));
+            }
+            Intervals<Double> genericDoubles = new Intervals<Double>(doubleList);
+            for (int value = -2; value <= 22; value++) {
+                double between = value + 0.5;
+                assertThat(doubles.contains(between),
+                           Matchers.is(genericDoubles.contains(between)));
+            }
+            // Adjacent integer intervals are merged
+            assertThat(ints.size() <= intervals.getIntervals().size(), Matchers.is(true));
+            for (int i = 1; i < ints.size(); i++) {
+                assertThat((long) ints.getInterval(i).getMin(),
+                           Matchers.greaterThan(ints.getInterval(i - 1).getMax() + 1L));
+            }
+        }
+    }
+
+    private static Double toDouble(Integer value) {
+        return value != null ? Double.valueOf(value) : null;
+    }
+
+    private static Long toLong(Integer value) {
+        return value != null ? Long.valueOf(value) : null;
+    }
+
+    @Test
+    public void testIntBounds() {
+        assertThat(IntInterval.valueOf(interval(Integer.MAX_VALUE, false, (Integer) null, true))
+            .isEmpty(), Matchers.is(true));
+        assertThat(IntInterval.valueOf(interval((Integer) null, true, Integer.MIN_VALUE, false))
+            .isEmpty(), Matchers.is(true));
+        assertThat(IntInterval.valueOf(interval((Integer) null, true, (Integer) null, true)),
+                   Matchers.is(IntInterval.ALL));
+        IntInterval interval = IntInterval.valueOf(interval(1, false, 3, false));
+        assertThat(interval, Matchers.is(new IntInterval(2, 2)));
+        assertThat(interval.contains(1), Matchers.is(false));
+        assertThat(interval.contains(2), Matchers.is(true));
+        assertThat(interval.contains(3), Matchers.is(false));
+
+        IntIntervals merged =
+            new IntIntervals(Arrays.asList(new IntInterval(5, Integer.MAX_VALUE),
+                                           new IntInterval(1, 2), new IntInterval(3, 4),
+                                           IntInterval.EMPTY));
+        assertThat(merged.size(), Matchers.is(1));
+        assertThat(merged.getInterval(0), Matchers.is(new IntInterval(1, Integer.MAX_VALUE)));
+        assertThat(merged.contains(Integer.MAX_VALUE), Matchers.is(true));
+        assertThat(merged.contains(0), Matchers.is(false));
+        assertThat(new IntIntervals(new ArrayList<IntInterval>()).contains(0),
+                   Matchers.is(false));
+    }
+
+    @Test
+    public void testLongBounds() {
+        LongIntervals longs =
+            new LongIntervals(Arrays.asList(new LongInterval(Long.MIN_VALUE, -1),
+                                            new LongInterval(Long.MAX_VALUE, Long.MAX_VALUE),
+                                            new LongInterval(Long.MAX_VALUE - 1,
+                                                             Long.MAX_VALUE - 1)));
+        assertThat(longs.size(), Matchers.is(2));
+        assertThat(longs.contains(Long.MIN_VALUE), Matchers.is(true));
+        assertThat(longs.contains(0), Matchers.is(false));
+        assertThat(longs.contains(Long.MAX_VALUE), Matchers.is(true));
+        assertThat(LongInterval.valueOf(interval(Long.MAX_VALUE, false, (Long) null, true))
+            .isEmpty(), Matchers.is(true));
+    }
+
+    @Test
+    public void testDates() {
+        Date start = new Date(1000000L);
+        Date end = new Date(2000000L);
+        List<Interval<Date>> list = new ArrayList<Interval<Date>>();
+        list.add(interval(start, true, end, false));
+        LongIntervals millis = LongIntervals.valueOfDates(new Intervals<Date>(list));
+        assertThat(millis.contains(start.getTime() - 1), Matchers.is(false));
+        assertThat(millis.contains(start.getTime()), Matchers.is(true));
+        assertThat(millis.contains(end.getTime() - 1), Matchers.is(true));
+        assertThat(millis.contains(end.getTime()), Matchers.is(false));
+        assertThat(LongInterval.valueOfDates(interval((Date) null, true, end, true)).getMin(),
+                   Matchers.is(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testDoubleBounds() {
+        DoubleInterval interval = DoubleInterval.valueOf(interval(1.0, false, 2.0, false));
+        assertThat(interval.contains(1.0), Matchers.is(false));
+        assertThat(interval.contains(Math.nextUp(1.0)), Matchers.is(true));
+        assertThat(interval.contains(2.0), Matchers.is(false));
+        assertThat(interval.contains(Double.NaN), Matchers.is(false));
+        assertThat(DoubleInterval.valueOf(interval(1.0, true, 1.0, false)).isEmpty(),
+                   Matchers.is(true));
+        assertThat(DoubleInterval.EMPTY.isEmpty(), Matchers.is(true));
+        assertThat(DoubleInterval.ALL.contains(Double.POSITIVE_INFINITY), Matchers.is(true));
+
+        List<Interval<Float>> floats = new ArrayList<Interval<Float>>();
+        floats.add(interval(10f, false, (Float) null, true));
+        DoubleIntervals doubles = DoubleIntervals.valueOf(new Intervals<Float>(floats));
+        assertThat(doubles.contains(10f), Matchers.is(false));
+        assertThat(doubles.contains(Math.nextUp(10f)), Matchers.is(true));
+        assertThat(doubles.contains(Double.NaN), Matchers.is(false));
+        assertThat(doubles.contains(Double.POSITIVE_INFINITY), Matchers.is(true));
+
+        // Touching intervals are merged
+        DoubleIntervals merged =
+            new DoubleIntervals(Arrays.asList(new DoubleInterval(Math.nextUp(1.0), 2.0),
+                                              new DoubleInterval(0.0, 1.0)));
+        assertThat(merged.size(), Matchers.is(1));
+        assertThat(merged.getInterval(0), Matchers.is(new DoubleInterval(0.0, 2.0)));
+    }
+}
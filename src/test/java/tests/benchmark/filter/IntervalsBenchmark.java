@@ -0,0 +1,127 @@
+package tests.benchmark.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import recng.filter.Interval;
+import recng.filter.Intervals;
+import recng.filter.LowerIntervalBound;
+import recng.filter.UpperIntervalBound;
+
+/**
+ * Compares {@link Intervals} lookups and intersections with the previous
+ * implementation, which scanned every interval and intersected all pairs of
+ * intervals.
+ *
+ * Usage: IntervalsBenchmark [intervals] [probes]
+ *
+ * @author jon
+ *
+ */
+public class IntervalsBenchmark {
+
+    public static void main(String[] args) {
+        int intervalCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int probeCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        Random random = new Random(1);
+        List<Interval<Integer>> list0 = createIntervals(random, intervalCount);
+        List<Interval<Integer>> list1 = createIntervals(random, intervalCount);
+        Intervals<Integer> intervals0 = new Intervals<Integer>(list0);
+        Intervals<Integer> intervals1 = new Intervals<Integer>(list1);
+        Integer[] probes = new Integer[probeCount];
+        for (int i = 0; i < probeCount; i++)
+            probes[i] = random.nextInt(intervalCount * 100);
+
+        for (int i = 0; i < 3; i++) { // Warm up
+            scanContains(list0, probes);
+            searchContains(intervals0, probes);
+            pairwiseIntersect(list0, list1);
+            intervals0.intersectWith(intervals1);
+        }
+
+        System.out.println(String.format("%s intervals, %s canonical, %s probes",
+                                         intervalCount,
+                                         intervals0.getIntervals().size(),
+                                         probeCount));
+        long start = System.nanoTime();
+        int hits = scanContains(list0, probes);
+        report("contains, scan", start, probeCount, hits);
+        start = System.nanoTime();
+        hits = searchContains(intervals0, probes);
+        report("contains, binary search", start, probeCount, hits);
+
+        int rounds = 100;
+        start = System.nanoTime();
+        int size = 0;
+        for (int i = 0; i < rounds; i++)
+            size = pairwiseIntersect(list0, list1).size();
+        report("intersect, pairwise", start, rounds, size);
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            size = intervals0.intersectWith(intervals1).getIntervals().size();
+        report("intersect, merge", start, rounds, size);
+    }
+
+    /**
+     * Creates overlapping intervals spread over [0, count * 100).
+     */
+    private static List<Interval<Integer>> createIntervals(Random random,
+                                                           int count) {
+        List<Interval<Integer>> res = new ArrayList<Interval<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            int lower = random.nextInt(count * 100);
+            int upper = lower + random.nextInt(150);
+            res.add(new Interval<Integer>(new LowerIntervalBound<Integer>(lower),
+                                          new UpperIntervalBound<Integer>(upper)));
+        }
+        return res;
+    }
+
+    private static int scanContains(List<Interval<Integer>> intervals,
+                                    Integer[] probes) {
+        int hits = 0;
+        for (Integer probe : probes) {
+            for (Interval<Integer> interval : intervals) {
+                if (interval.contains(probe)) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static int searchContains(Intervals<Integer> intervals,
+                                      Integer[] probes) {
+        int hits = 0;
+        for (Integer probe : probes) {
+            if (intervals.contains(probe))
+                hits++;
+        }
+        return hits;
+    }
+
+    private static List<Interval<Integer>>
+        pairwiseIntersect(List<Interval<Integer>> list0,
+                          List<Interval<Integer>> list1) {
+        List<Interval<Integer>> res = new ArrayList<Interval<Integer>>();
+        for (Interval<Integer> interval0 : list0) {
+            for (Interval<Integer> interval1 : list1) {
+                Interval<Integer> intersection = interval0.intersectWith(interval1);
+                if (!intersection.isEmpty())
+                    res.add(intersection);
+            }
+        }
+        return res;
+    }
+
+    private static void report(String name, long start, int operations,
+                               int result) {
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("%-25s %10.1f ns/op (result: %s)",
+                                         name, (double) nanos / operations,
+                                         result));
+    }
+}
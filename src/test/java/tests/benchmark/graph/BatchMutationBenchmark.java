@@ -0,0 +1,125 @@
+package tests.benchmark.graph;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import recng.graph.*;
+import tests.junit.graph.TestNodeType;
+
+/**
+ * Compares feeding edges to a {@link MutableGraphImpl} one at a time with
+ * feeding them in batches through {@link MutableGraph#applyBatch(List)}.
+ *
+ * Usage: BatchMutationBenchmark [nodes] [edges] [batch size]
+ *
+ * @author jon
+ *
+ */
+public class BatchMutationBenchmark {
+
+    private static enum WeightedEdgeType implements EdgeType {
+        WEIGHTED;
+
+        @Override
+        public boolean isWeighted() {
+            return true;
+        }
+    }
+
+    private static final GraphMetadata METADATA =
+        new GraphMetadataImpl(new HashSet<NodeType>(EnumSet.allOf(TestNodeType.class)),
+                              new HashSet<EdgeType>(EnumSet.allOf(WeightedEdgeType.class)));
+    private static final EdgeType EDGE_TYPE = WeightedEdgeType.WEIGHTED;
+
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int edgeCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        List<GraphMutation<Integer>> mutations =
+            createMutations(new Random(0), nodeCount, edgeCount);
+        for (int i = 0; i < 2; i++) { // Warm up
+            runSingle(mutations.subList(0, edgeCount / 10));
+            runBatch(mutations.subList(0, edgeCount / 10), batchSize);
+        }
+        System.out.println(String.format("%s nodes, %s mutations, batch size %s",
+                                         nodeCount, edgeCount, batchSize));
+        for (int i = 0; i < 3; i++) { // Alternate to even out GC effects
+            System.gc();
+            long start = System.nanoTime();
+            int edges = runSingle(mutations);
+            report("One at a time", start, edgeCount, edges);
+            System.gc();
+            start = System.nanoTime();
+            edges = runBatch(mutations, batchSize);
+            report("Batched", start, edgeCount, edges);
+        }
+    }
+
+    private static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    /**
+     * Mostly additions, some updates and removals.
+     */
+    private static List<GraphMutation<Integer>> createMutations(Random random,
+                                                                int nodeCount,
+                                                                int count) {
+        List<GraphMutation<Integer>> res =
+            new ArrayList<GraphMutation<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            NodeID<Integer> start = createNodeID(random.nextInt(nodeCount));
+            NodeID<Integer> end = createNodeID(random.nextInt(nodeCount));
+            int operation = random.nextInt(10);
+            if (operation < 8)
+                res.add(GraphMutation.add(start, end, EDGE_TYPE, random.nextFloat()));
+            else if (operation < 9)
+                res.add(GraphMutation.update(start, end, EDGE_TYPE,
+                                             random.nextFloat()));
+            else
+                res.add(GraphMutation.remove(start, end, EDGE_TYPE));
+        }
+        return res;
+    }
+
+    private static int runSingle(List<GraphMutation<Integer>> mutations) {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        for (GraphMutation<Integer> mutation : mutations) {
+            switch (mutation.getOperation()) {
+            case ADD:
+                graph.addEdge(mutation.getStartNode(), mutation.getEndNode(),
+                              mutation.getType(), mutation.getWeight());
+                break;
+            case UPDATE:
+                graph.updateEdge(mutation.getStartNode(), mutation.getEndNode(),
+                                 mutation.getType(), mutation.getWeight());
+                break;
+            default:
+                graph.removeEdge(mutation.getStartNode(), mutation.getEndNode(),
+                                 mutation.getType());
+            }
+        }
+        return graph.edgeCount();
+    }
+
+    private static int runBatch(List<GraphMutation<Integer>> mutations,
+                                int batchSize) {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        for (int from = 0; from < mutations.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, mutations.size());
+            graph.applyBatch(mutations.subList(from, to));
+        }
+        return graph.edgeCount();
+    }
+
+    private static void report(String name, long start, int operations,
+                               int edges) {
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("%-15s %10.0f mutations/s (edges: %s)",
+                                         name, operations * 1e9 / nanos, edges));
+    }
+}
@@ -0,0 +1,114 @@
+package tests.benchmark.graph;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import recng.graph.*;
+import tests.junit.graph.TestEdgeType;
+import tests.junit.graph.TestNodeType;
+
+/**
+ * Measures the throughput of a {@link BatchTraverser} for an increasing number
+ * of worker threads, compared to one traverser per source.
+ *
+ * Usage: BatchTraversalBenchmark [max threads] [sources]
+ *
+ * @author jon
+ *
+ */
+public class BatchTraversalBenchmark {
+
+    private static final GraphMetadata METADATA =
+        new GraphMetadataImpl(new HashSet<NodeType>(EnumSet.allOf(TestNodeType.class)),
+                              new HashSet<EdgeType>(EnumSet.allOf(TestEdgeType.class)));
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+    private static final int NODE_COUNT = 100000;
+    private static final int EDGES_PER_NODE = 20;
+
+    public static void main(String[] args) {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        int sourceCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        Graph<Integer> graph = buildGraph();
+        Random random = new Random(1);
+        List<NodeID<Integer>> sources = new ArrayList<NodeID<Integer>>();
+        for (int i = 0; i < sourceCount; i++)
+            sources.add(createNodeID(random.nextInt(NODE_COUNT)));
+
+        // Warm up
+        runTraversers(graph, sources);
+        runBatch(graph, sources, null, 1);
+
+        report("Traverser per source", runTraversers(graph, sources),
+               sourceCount);
+        report("Batch, calling thread", runBatch(graph, sources, null, 1),
+               sourceCount);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                report("Batch, " + threads + " threads",
+                       runBatch(graph, sources, executor, threads),
+                       sourceCount);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder =
+            ImmutableGraphImpl.Builder.<Integer> create(METADATA);
+        Random random = new Random(0);
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < NODE_COUNT; i++) {
+            for (int j = 0; j < EDGES_PER_NODE; j++) {
+                int end = random.nextInt(NODE_COUNT);
+                if (end != i)
+                    builder.addEdge(i, end, EDGE_TYPE, random.nextFloat());
+            }
+        }
+        return builder.build();
+    }
+
+    private static long runTraversers(Graph<Integer> graph,
+                                      List<NodeID<Integer>> sources) {
+        long start = System.nanoTime();
+        for (NodeID<Integer> source : sources)
+            graph.getTraverser(source, EDGE_TYPE).setMaxDepth(2)
+                .setMaxReturnedEdges(20).getPath();
+        return System.nanoTime() - start;
+    }
+
+    private static long runBatch(Graph<Integer> graph,
+                                 List<NodeID<Integer>> sources,
+                                 ExecutorService executor, int threads) {
+        long start = System.nanoTime();
+        graph.getBatchTraverser(EDGE_TYPE).setMaxDepth(2)
+            .setMaxReturnedEdges(20).setExecutor(executor)
+            .setParallelism(threads)
+            .traverse(sources, new PathProcedure<Integer>() {
+                @Override
+                public boolean apply(NodeID<Integer> source,
+                                     List<GraphEdge<Integer>> path) {
+                    return true;
+                }
+            });
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos, int traversals) {
+        System.out.println(String.format("%s: %.0f traversals/s", name,
+                                         traversals * 1e9 / nanos));
+    }
+}
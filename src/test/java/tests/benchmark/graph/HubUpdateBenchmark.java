@@ -0,0 +1,105 @@
+package tests.benchmark.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import recng.graph.*;
+import tests.junit.graph.AbstractTestGraph;
+import tests.junit.graph.TestEdgeType;
+import tests.junit.graph.TestNodeType;
+
+/**
+ * Measures single edge updates, removals and lookups on the edge list of a
+ * hub node in a {@link MutableGraphImpl}, with the list indexed by end node
+ * and with it scanned, see {@link MutableGraphImpl#setMinIndexedDegree(int)}.
+ *
+ * Usage: HubUpdateBenchmark [degree] [mutations]
+ *
+ * @author jon
+ *
+ */
+public class HubUpdateBenchmark {
+
+    private static final GraphMetadata METADATA = AbstractTestGraph.METADATA;
+    /** Not indexing any lists */
+    private static final int SCANNED = Integer.MAX_VALUE;
+    private static final int INDEXED =
+        new MutableGraphImpl<Integer>(METADATA).getMinIndexedDegree();
+
+    public static void main(String[] args) {
+        int degree = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int mutations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        for (int i = 0; i < 2; i++) { // Warm up
+            run(degree / 10, mutations, TestEdgeType.WEIGHTED_EDGE_TYPE,
+                SCANNED, false);
+            run(degree / 10, mutations, TestEdgeType.WEIGHTED_EDGE_TYPE,
+                INDEXED, false);
+        }
+        System.out.println(String.format("Hub of %s edges, %s mutations",
+                                         degree, mutations));
+        for (EdgeType edgeType : Arrays.asList(TestEdgeType.WEIGHTED_EDGE_TYPE,
+                                               TestEdgeType.DEFAULT_EDGE_TYPE)) {
+            for (int i = 0; i < 3; i++) {
+                run(degree, mutations, edgeType, SCANNED, true);
+                run(degree, mutations, edgeType, INDEXED, true);
+            }
+        }
+    }
+
+    private static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    private static void run(int degree, int mutations, EdgeType edgeType,
+                            int minIndexedDegree, boolean print) {
+        MutableGraphImpl<Integer> graph =
+            new MutableGraphImpl<Integer>(METADATA);
+        graph.setMinIndexedDegree(minIndexedDegree);
+        NodeID<Integer> hub = createNodeID(0);
+        Random random = new Random(0);
+        NodeID<Integer>[] ends = newArray(degree);
+        Float[] weights = new Float[degree];
+        for (int i = 0; i < degree; i++) {
+            ends[i] = createNodeID(i + 1);
+            weights[i] = (float) random.nextInt(1000);
+        }
+        graph.setEdges(hub, edgeType, Arrays.asList(ends),
+                       Arrays.asList(weights));
+        System.gc();
+        long start = System.nanoTime();
+        for (int i = 0; i < mutations; i++)
+            graph.updateEdge(hub, ends[random.nextInt(degree)], edgeType,
+                             random.nextInt(1000));
+        long updates = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < mutations; i++) {
+            NodeID<Integer> end = ends[random.nextInt(degree)];
+            if (graph.removeEdge(hub, end, edgeType))
+                graph.addEdge(hub, end, edgeType, random.nextInt(1000));
+        }
+        long replacements = System.nanoTime() - start;
+
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < mutations; i++) {
+            if (graph.containsEdge(hub, ends[random.nextInt(degree)], edgeType))
+                found++;
+        }
+        long lookups = System.nanoTime() - start;
+        if (!print)
+            return;
+        String name = (edgeType.isWeighted() ? "Weighted, " : "Unweighted, ")
+            + (minIndexedDegree == SCANNED ? "scanned" : "indexed");
+        System.out.println(String.format("%-20s %8.1f us/update %8.1f us/remove+add "
+            + "%8.2f us/lookup (found: %s)", name, updates / 1e3 / mutations,
+                                         replacements / 1e3 / mutations,
+                                         lookups / 1e3 / mutations, found));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static NodeID<Integer>[] newArray(int size) {
+        return new NodeID[size];
+    }
+}
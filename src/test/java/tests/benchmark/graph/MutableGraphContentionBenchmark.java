@@ -0,0 +1,170 @@
+package tests.benchmark.graph;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import recng.graph.*;
+import tests.junit.graph.TestEdgeType;
+import tests.junit.graph.TestNodeType;
+
+/**
+ * Measures traversal throughput for a {@link MutableGraphImpl} while a write
+ * feed is running.
+ *
+ * Compares the current implementation with one emulating the previous
+ * behavior, where node lookups were serialized on a graph wide lock, and
+ * with one where a {@link GraphCompactor} keeps freezing the graph.
+ *
+ * Usage: MutableGraphContentionBenchmark [readers] [writers] [seconds]
+ *
+ * @author jon
+ *
+ */
+public class MutableGraphContentionBenchmark {
+
+    private static final GraphMetadata METADATA =
+        new GraphMetadataImpl(new HashSet<NodeType>(EnumSet.allOf(TestNodeType.class)),
+                              new HashSet<EdgeType>(EnumSet.allOf(TestEdgeType.class)));
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+    private static final int NODE_COUNT = 100000;
+    private static final int EDGES_PER_NODE = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int writers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        System.out.println("Readers: " + readers + ", writers: " + writers
+            + ", seconds: " + seconds);
+        run("Global lock", populate(new GlobalLockGraph<Integer>(METADATA)),
+            readers, writers, seconds);
+        run("Lock free reads", populate(new MutableGraphImpl<Integer>(METADATA)),
+            readers, writers, seconds);
+        MutableGraphImpl<Integer> graph =
+            (MutableGraphImpl<Integer>) populate(new MutableGraphImpl<Integer>(METADATA));
+        GraphCompactor<Integer> compactor = new GraphCompactor<Integer>(graph);
+        compactor.start(10);
+        try {
+            run("Lock free reads, compacting", graph, readers, writers, seconds);
+            System.out.println("Generations: " + compactor.getGeneration()
+                + ", last freeze: " + compactor.getLastFreezeMillis() + " ms");
+        } finally {
+            compactor.close();
+        }
+    }
+
+    private static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    private static MutableGraph<Integer> populate(MutableGraph<Integer> graph) {
+        Random random = new Random(0);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            for (int j = 0; j < EDGES_PER_NODE; j++) {
+                int end = random.nextInt(NODE_COUNT);
+                if (end != i)
+                    graph.addEdge(createNodeID(i), createNodeID(end),
+                                  EDGE_TYPE, random.nextFloat());
+            }
+        }
+        return graph;
+    }
+
+    private static void run(String name, final MutableGraph<Integer> graph,
+                            int readerCount, int writerCount, int seconds)
+        throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong traversals = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < readerCount; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        NodeID<Integer> source =
+                            createNodeID(random.nextInt(NODE_COUNT));
+                        Traverser<Integer> traverser =
+                            graph.getTraverser(source, EDGE_TYPE);
+                        if (traverser != null)
+                            traverser.setMaxDepth(2).setMaxReturnedEdges(20)
+                                .getPath();
+                        count++;
+                    }
+                    traversals.addAndGet(count);
+                }
+            });
+        }
+        for (int i = 0; i < writerCount; i++) {
+            final Random random = new Random(-i - 1);
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        // Mostly existing nodes, some new ones
+                        int start = random.nextInt(NODE_COUNT + NODE_COUNT / 10);
+                        int end = random.nextInt(NODE_COUNT);
+                        if (start == end)
+                            continue;
+                        graph.addEdge(createNodeID(start), createNodeID(end),
+                                      EDGE_TYPE, random.nextFloat());
+                        count++;
+                    }
+                    writes.addAndGet(count);
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads)
+            thread.join();
+        System.out.println(String.format("%s: %.0f traversals/s, %.0f writes/s",
+                                         name,
+                                         traversals.get() / (double) seconds,
+                                         writes.get() / (double) seconds));
+    }
+
+    /**
+     * Emulates the previous locking strategy, where all node lookups were
+     * serialized on a graph wide lock.
+     */
+    private static class GlobalLockGraph<T> extends MutableGraphImpl<T> {
+
+        private final Object lock = new Object();
+
+        public GlobalLockGraph(GraphMetadata metadata) {
+            super(metadata);
+        }
+
+        @Override
+        public int getPrimaryKey(NodeID<T> nodeId) {
+            synchronized (lock) {
+                return super.getPrimaryKey(nodeId);
+            }
+        }
+
+        @Override
+        public MutableGraphNode<T> getNode(int primaryKey) {
+            synchronized (lock) {
+                return super.getNode(primaryKey);
+            }
+        }
+
+        @Override
+        public int nodeCount() {
+            synchronized (lock) {
+                return super.nodeCount();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package tests.benchmark.graph;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import recng.graph.*;
+import tests.junit.graph.TestEdgeType;
+import tests.junit.graph.TestNodeType;
+
+/**
+ * Compares the latency of recommendations made by a
+ * {@link RandomWalkRecommender} with breadth first traversals of depth 2.
+ *
+ * Usage: RandomWalkBenchmark [walks] [threads] [iterations]
+ *
+ * @author jon
+ *
+ */
+public class RandomWalkBenchmark {
+
+    private static final GraphMetadata METADATA =
+        new GraphMetadataImpl(new HashSet<NodeType>(EnumSet.allOf(TestNodeType.class)),
+                              new HashSet<EdgeType>(EnumSet.allOf(TestEdgeType.class)));
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+    private static final int NODE_COUNT = 100000;
+    private static final int EDGES_PER_NODE = 20;
+    private static final int MAX_RESULTS = 20;
+
+    public static void main(String[] args) {
+        int walks = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        Graph<Integer> graph = buildGraph();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            RandomWalkRecommender<Integer> sequential =
+                new RandomWalkRecommender<Integer>(graph, EDGE_TYPE)
+                    .setMaxWalks(walks);
+            RandomWalkRecommender<Integer> parallel =
+                new RandomWalkRecommender<Integer>(graph, EDGE_TYPE, executor)
+                    .setMaxWalks(walks).setParallelism(threads);
+            // Warm up
+            for (int i = 0; i < 2; i++) {
+                runTraversals(graph, iterations / 2);
+                runWalks(sequential, iterations / 2);
+                runWalks(parallel, iterations / 2);
+            }
+            report("BFS, depth 2", runTraversals(graph, iterations), iterations);
+            report("Random walks, 1 thread", runWalks(sequential, iterations),
+                   iterations);
+            report("Random walks, " + threads + " threads",
+                   runWalks(parallel, iterations), iterations);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(0);
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < NODE_COUNT; i++) {
+            for (int j = 0; j < EDGES_PER_NODE; j++) {
+                int end = random.nextInt(NODE_COUNT);
+                if (end != i)
+                    builder.addEdge(i, end, EDGE_TYPE, random.nextFloat());
+            }
+        }
+        return builder.build();
+    }
+
+    private static long runTraversals(Graph<Integer> graph, int iterations) {
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            NodeID<Integer> source = createNodeID(random.nextInt(NODE_COUNT));
+            graph.getTraverser(source, EDGE_TYPE).setMaxDepth(2)
+                .setMaxReturnedEdges(MAX_RESULTS).getPath();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runWalks(RandomWalkRecommender<Integer> recommender,
+                                 int iterations) {
+        Random random = new Random(1);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            recommender.recommend(createNodeID(random.nextInt(NODE_COUNT)),
+                                  MAX_RESULTS);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos, int iterations) {
+        System.out.println(String.format("%s: %.1f us/op", name,
+                                         nanos / 1000.0 / iterations));
+    }
+}
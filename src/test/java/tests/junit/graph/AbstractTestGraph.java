@@ -3,11 +3,14 @@ package tests.junit.graph;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 
 import junit.framework.Assert;
 
 import static org.junit.Assert.assertEquals;
+import org.apache.mahout.math.function.IntFloatProcedure;
 import org.junit.Test;
 
 import recng.graph.*;
@@ -39,9 +42,123 @@ public abstract class AbstractTestGraph {
     private static final Float N3_N1 = 1.0f;
     private static final Float N4_N2 = 1.0f;
 
+    /** Metadata with all test node and edge types */
+    public static final GraphMetadata METADATA =
+        new GraphMetadataImpl(new HashSet<NodeType>(EnumSet.allOf(TestNodeType.class)),
+                              new HashSet<EdgeType>(EnumSet.allOf(TestEdgeType.class)));
+
+    public static final EdgeType WEIGHTED = TestEdgeType.WEIGHTED_EDGE_TYPE;
+    public static final EdgeType UNWEIGHTED = TestEdgeType.DEFAULT_EDGE_TYPE;
+
     protected GraphMetadata getMetadata() {
-        // TODO: Implement
-        throw new UnsupportedOperationException();
+        return METADATA;
+    }
+
+    public static NodeID<Integer> createNodeID(int id) {
+        return new NodeID<Integer>(id, TestNodeType.DEFAULT_NODE_TYPE);
+    }
+
+    /**
+     * Creates a node id, where every tenth node is a secondary node.
+     */
+    public static NodeID<Integer> createMixedNodeID(int id) {
+        NodeType nodeType = id % 10 == 0 ? TestNodeType.SECONDARY_NODE_TYPE
+            : TestNodeType.DEFAULT_NODE_TYPE;
+        return new NodeID<Integer>(id, nodeType);
+    }
+
+    /**
+     * Builds a graph of nodes created by {@link #createMixedNodeID(int)}, where
+     * each node has a default edge to the next node, and every
+     * other node has a secondary edge to the node after that.
+     */
+    public static Graph<Integer> buildMixedGraph(GraphBuilder<Integer> builder,
+                                                 int nodeCount) {
+        for (int i = 0; i < nodeCount; i++)
+            builder.addOrGetNode(createMixedNodeID(i));
+        for (int i = 0; i < nodeCount - 1; i++)
+            builder.addEdge(i, i + 1, DEFAULT_EDGE_TYPE, 1f);
+        for (int i = 0; i < nodeCount - 2; i += 2)
+            builder.addEdge(i, i + 2, SECONDARY_EDGE_TYPE, 1f);
+        return builder.build();
+    }
+
+    /**
+     * Builds the mixed graph with each kind of graph builder.
+     */
+    public static List<Graph<Integer>> createMixedGraphs(int nodeCount) {
+        List<Graph<Integer>> graphs = new ArrayList<Graph<Integer>>();
+        graphs.add(buildMixedGraph(CSRGraphImpl.Builder.<Integer> create(METADATA),
+                                   nodeCount));
+        graphs.add(buildMixedGraph(ImmutableGraphImpl.Builder.<Integer> create(METADATA),
+                                   nodeCount));
+        graphs.add(buildMixedGraph(new MutableGraphImpl.Builder<Integer>(METADATA),
+                                   nodeCount));
+        return graphs;
+    }
+
+    /**
+     * Gets the edges from a node as end node:weight, in traversal order.
+     */
+    public static List<String> getEdges(Graph<Integer> graph, int node,
+                                        EdgeType edgeType) {
+        final List<String> edges = new ArrayList<String>();
+        graph.forEachNeighbor(node, edgeType, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int endNode, float weight) {
+                edges.add(endNode + ":" + weight);
+                return true;
+            }
+        });
+        return edges;
+    }
+
+    /**
+     * Gets the edges from a node as end node:weight, sorted.
+     */
+    public static List<String> getSortedEdges(Graph<Integer> graph, int node,
+                                              EdgeType edgeType) {
+        List<String> edges = getEdges(graph, node, edgeType);
+        Collections.sort(edges);
+        return edges;
+    }
+
+    /**
+     * Gets all edges in a graph as start;end;type;weight, sorted.
+     */
+    public static List<String> getEdges(Graph<Integer> graph) {
+        final List<String> edges = new ArrayList<String>();
+        graph.forEachEdge(new GraphEdgeProcedure<Integer>() {
+            @Override
+            public boolean apply(GraphEdge<Integer> edge) {
+                edges.add(edge.getStartNode() + ";" + edge.getEndNode() + ";"
+                    + edge.getType() + ";" + edge.getWeight());
+                return true;
+            }
+        });
+        Collections.sort(edges);
+        return edges;
+    }
+
+    /**
+     * A mutable graph with a clock that is moved manually, for testing edge
+     * decay.
+     */
+    public static class ClockedGraph extends MutableGraphImpl<Integer> {
+        private long now = 1000 * 60 * 1000L;
+
+        public ClockedGraph() {
+            super(METADATA);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        public void advance(long millis) {
+            now += millis;
+        }
     }
 
     /**
@@ -0,0 +1,176 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link MutableGraph#applyBatch(List)}.
+ *
+ * @author jon
+ *
+ */
+public class TestBatchMutations {
+
+    private static void assertSameGraph(MutableGraph<Integer> expected,
+                                        MutableGraph<Integer> actual,
+                                        int maxId) {
+        assertEquals(expected.nodeCount(), actual.nodeCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (int id = 0; id < maxId; id++) {
+            int primaryKey = expected.getPrimaryKey(createNodeID(id));
+            assertEquals(primaryKey, actual.getPrimaryKey(createNodeID(id)));
+            if (primaryKey < 0)
+                continue;
+            for (EdgeType edgeType : TestEdgeType.values())
+                assertEquals(getEdges(expected, primaryKey, edgeType),
+                             getEdges(actual, primaryKey, edgeType));
+        }
+    }
+
+    /**
+     * Creates random mutations that never add a second edge between the same
+     * pair of nodes, and applies them one at a time to the expected graph.
+     *
+     * @return The number of mutations that modified the expected graph.
+     */
+    private static int createMutations(Random random,
+                                       MutableGraph<Integer> expected,
+                                       Set<String> existing, int nodes,
+                                       List<GraphMutation<Integer>> mutations) {
+        int applied = 0;
+        for (int i = 0; i < 1000; i++) {
+            NodeID<Integer> start = createNodeID(random.nextInt(nodes / 10));
+            NodeID<Integer> end = createNodeID(random.nextInt(nodes));
+            EdgeType edgeType =
+                random.nextBoolean() ? WEIGHTED
+                    : UNWEIGHTED;
+            String key = start + "->" + end + ":" + edgeType;
+            float weight = random.nextFloat();
+            switch (random.nextInt(3)) {
+            case 0:
+                if (existing.add(key)) {
+                    mutations.add(GraphMutation.add(start, end, edgeType, weight));
+                    expected.addEdge(start, end, edgeType, weight);
+                    applied++;
+                }
+                break;
+            case 1:
+                mutations.add(GraphMutation.update(start, end, edgeType, weight));
+                if (expected.updateEdge(start, end, edgeType, weight))
+                    applied++;
+                break;
+            default:
+                existing.remove(key);
+                mutations.add(GraphMutation.remove(start, end, edgeType));
+                if (expected.removeEdge(start, end, edgeType))
+                    applied++;
+                break;
+            }
+        }
+        return applied;
+    }
+
+    @Test
+    public void testSameAsSingleMutations() {
+        Random random = new Random(11);
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        MutableGraph<Integer> actual = new MutableGraphImpl<Integer>(METADATA);
+        Set<String> existing = new HashSet<String>();
+        int nodes = 200;
+        for (int round = 0; round < 20; round++) {
+            List<GraphMutation<Integer>> mutations =
+                new ArrayList<GraphMutation<Integer>>();
+            int applied =
+                createMutations(random, expected, existing, nodes, mutations);
+            assertEquals(applied, actual.applyBatch(mutations));
+            assertSameGraph(expected, actual, nodes);
+        }
+    }
+
+    @Test
+    public void testMutationsOfAddedEdges() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        EdgeType edgeType = WEIGHTED;
+        NodeID<Integer> start = createNodeID(0);
+        graph.addEdge(start, createNodeID(1), edgeType, 0.5f);
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.update(start, createNodeID(2), edgeType, 0.1f),
+                          GraphMutation.add(start, createNodeID(2), edgeType, 0.2f),
+                          GraphMutation.update(start, createNodeID(2), edgeType, 0.9f),
+                          GraphMutation.add(start, createNodeID(3), edgeType, 0.3f),
+                          GraphMutation.remove(start, createNodeID(3), edgeType),
+                          GraphMutation.remove(start, createNodeID(3), edgeType),
+                          GraphMutation.update(start, createNodeID(1), edgeType, 0.1f),
+                          GraphMutation.remove(createNodeID(4), start, edgeType));
+        assertEquals(5, graph.applyBatch(mutations));
+        // Descending weight
+        assertEquals(Arrays.asList(graph.getPrimaryKey(createNodeID(2)) + ":0.9",
+                                   graph.getPrimaryKey(createNodeID(1)) + ":0.1"),
+                     getEdges(graph, graph.getPrimaryKey(start), edgeType));
+        // Updates and removals do not create nodes
+        assertEquals(-1, graph.getPrimaryKey(createNodeID(4)));
+        assertEquals(4, graph.nodeCount());
+        assertEquals(2, graph.edgeCount());
+    }
+
+    @Test
+    public void testDuplicateEdges() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        EdgeType edgeType = UNWEIGHTED;
+        NodeID<Integer> start = createNodeID(0);
+        NodeID<Integer> end = createNodeID(1);
+        graph.addEdge(start, end, edgeType, 1f);
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.add(start, end, edgeType, 2f),
+                          GraphMutation.remove(start, end, edgeType),
+                          GraphMutation.remove(start, end, edgeType),
+                          GraphMutation.remove(start, end, edgeType));
+        assertEquals(3, graph.applyBatch(mutations));
+        assertEquals(0, graph.edgeCount());
+    }
+
+    @Test
+    public void testListenersNotifiedOncePerGroup() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        final List<String> changes = new ArrayList<String>();
+        graph.addMutationListener(new GraphMutationListener<Integer>() {
+            @Override
+            public void edgesChanged(NodeID<Integer> startNode,
+                                     EdgeType edgeType) {
+                changes.add(startNode.getID() + ":" + edgeType);
+            }
+        });
+        List<GraphMutation<Integer>> mutations =
+            new ArrayList<GraphMutation<Integer>>();
+        for (int i = 1; i <= 10; i++) {
+            mutations.add(GraphMutation.add(createNodeID(0), createNodeID(i),
+                                            WEIGHTED, i));
+            mutations.add(GraphMutation.add(createNodeID(1), createNodeID(i),
+                                            UNWEIGHTED, i));
+        }
+        // Not applied, no notification
+        mutations.add(GraphMutation.remove(createNodeID(2), createNodeID(0),
+                                           WEIGHTED));
+        assertEquals(20, graph.applyBatch(mutations));
+        assertEquals(Arrays.asList("0:" + WEIGHTED, "1:" + UNWEIGHTED), changes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMutation() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        List<GraphMutation<Integer>> mutations =
+            new ArrayList<GraphMutation<Integer>>();
+        mutations.add(null);
+        graph.applyBatch(mutations);
+    }
+}
@@ -0,0 +1,148 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link BatchTraverser}.
+ *
+ * @author jon
+ *
+ */
+public class TestBatchTraverser {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 300;
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder =
+            ImmutableGraphImpl.Builder.<Integer> create(METADATA);
+        Random random = new Random(7);
+        // Add the nodes in order, so that primary key == id
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 3000; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    private static List<NodeID<Integer>> getSources() {
+        List<NodeID<Integer>> sources = new ArrayList<NodeID<Integer>>();
+        for (int i = 0; i < NODE_COUNT; i++)
+            sources.add(createNodeID(i));
+        sources.add(createNodeID(NODE_COUNT)); // Unknown node
+        return sources;
+    }
+
+    private static void assertSamePaths(Graph<Integer> graph,
+                                        ExecutorService executor) {
+        final Map<NodeID<Integer>, List<GraphEdge<Integer>>> paths =
+            new ConcurrentHashMap<NodeID<Integer>, List<GraphEdge<Integer>>>();
+        List<NodeID<Integer>> sources = getSources();
+        int count =
+            graph.getBatchTraverser(EDGE_TYPE).setMaxDepth(2)
+                .setMaxReturnedEdges(15).setMaxTraversedEdges(100)
+                .setExecutor(executor).setParallelism(4)
+                .traverse(sources, new PathProcedure<Integer>() {
+                    @Override
+                    public boolean apply(NodeID<Integer> source,
+                                         List<GraphEdge<Integer>> path) {
+                        assertNull(paths.put(source, path));
+                        return true;
+                    }
+                });
+        assertEquals(sources.size(), count);
+        assertEquals(sources.size(), paths.size());
+        for (int i = 0; i < NODE_COUNT; i++) {
+            NodeID<Integer> source = createNodeID(i);
+            List<GraphEdge<Integer>> expected =
+                graph.getTraverser(source, EDGE_TYPE).setMaxDepth(2)
+                    .setMaxReturnedEdges(15).setMaxTraversedEdges(100)
+                    .getPath();
+            assertEquals(expected, paths.get(source));
+        }
+        assertTrue(paths.get(createNodeID(NODE_COUNT)).isEmpty());
+    }
+
+    @Test
+    public void testSequential() {
+        assertSamePaths(buildGraph(), null);
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertSamePaths(buildGraph(), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexPaths() {
+        Graph<Integer> graph = buildGraph();
+        int[] sources = new int[NODE_COUNT];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = i;
+        int expectedEdgeCount = 0;
+        for (int i = 0; i < NODE_COUNT; i++)
+            expectedEdgeCount +=
+                graph.getTraverser(createNodeID(i), EDGE_TYPE).getPath().size();
+        final AtomicInteger edgeCount = new AtomicInteger();
+        int traversals = graph.getStats().getTraversals();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            graph.getBatchTraverser(EDGE_TYPE).setExecutor(executor)
+                .traverse(sources, new IndexPathProcedure() {
+                    @Override
+                    public boolean apply(int source, IndexCursor path) {
+                        while (path.next()) {
+                            assertEquals(source, path.getStartNode());
+                            edgeCount.incrementAndGet();
+                        }
+                        return true;
+                    }
+                });
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expectedEdgeCount, edgeCount.get());
+        // All traversals are recorded
+        assertEquals(traversals + NODE_COUNT, graph.getStats().getTraversals());
+    }
+
+    @Test
+    public void testCancel() {
+        Graph<Integer> graph = buildGraph();
+        final AtomicInteger calls = new AtomicInteger();
+        int count =
+            graph.getBatchTraverser(EDGE_TYPE)
+                .traverse(getSources(), new PathProcedure<Integer>() {
+                    @Override
+                    public boolean apply(NodeID<Integer> source,
+                                         List<GraphEdge<Integer>> path) {
+                        return calls.incrementAndGet() < 10;
+                    }
+                });
+        assertEquals(10, count);
+        assertEquals(10, calls.get());
+    }
+}
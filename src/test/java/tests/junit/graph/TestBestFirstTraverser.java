@@ -0,0 +1,238 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link BestFirstTraverser}.
+ *
+ * @author jon
+ *
+ */
+public class TestBestFirstTraverser {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 150;
+
+    private static final EdgeFilter<Integer> FILTER = new EdgeFilter<Integer>() {
+        @Override
+        public boolean accepts(NodeID<Integer> start, NodeID<Integer> end) {
+            return end.getID() % 3 != 0;
+        }
+    };
+
+    /**
+     * Builds a random graph, and returns the edge weights as a matrix.
+     */
+    private static Graph<Integer> buildGraph(float[][] weights) {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(23);
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 600; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start == end || weights[start][end] > 0)
+                continue;
+            // Not normalized, like raw co-occurrence counts
+            float weight = 0.05f + 2.95f * random.nextFloat();
+            weights[start][end] = weight;
+            builder.addEdge(start, end, EDGE_TYPE, weight);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Computes the best path score for all nodes reachable within maxDepth
+     * steps, without passing the source. Below the first level, edge weights
+     * are divided by the highest out edge weight of their start node.
+     */
+    private static float[] bestScores(float[][] weights, int source,
+                                      int maxDepth, float decay) {
+        float[] best = new float[NODE_COUNT];
+        float[] current = new float[NODE_COUNT];
+        Arrays.fill(current, -1f);
+        for (int end = 0; end < NODE_COUNT; end++) {
+            if (weights[source][end] > 0)
+                current[end] = weights[source][end];
+        }
+        Arrays.fill(best, -1f);
+        float[] maxWeights = new float[NODE_COUNT];
+        for (int node = 0; node < NODE_COUNT; node++) {
+            for (int end = 0; end < NODE_COUNT; end++)
+                maxWeights[node] = Math.max(maxWeights[node], weights[node][end]);
+        }
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            float[] next = new float[NODE_COUNT];
+            Arrays.fill(next, -1f);
+            for (int node = 0; node < NODE_COUNT; node++) {
+                if (current[node] < 0)
+                    continue;
+                best[node] = Math.max(best[node], current[node]);
+                for (int end = 0; end < NODE_COUNT; end++) {
+                    if (end != source && weights[node][end] > 0)
+                        next[end] = Math.max(next[end], current[node]
+                            * decay * (weights[node][end] / maxWeights[node]));
+                }
+            }
+            current = next;
+        }
+        return best;
+    }
+
+    @Test
+    public void testTopScores() {
+        float[][] weights = new float[NODE_COUNT][NODE_COUNT];
+        Graph<Integer> graph = buildGraph(weights);
+        for (int source = 0; source < NODE_COUNT; source += 5) {
+            for (int maxDepth = 1; maxDepth <= 4; maxDepth++) {
+                for (float decay : new float[] { 1f, 0.5f }) {
+                    for (boolean filter : new boolean[] { false, true }) {
+                        final float[] best =
+                            bestScores(weights, source, maxDepth, decay);
+                        List<Integer> expected = new ArrayList<Integer>();
+                        for (int node = 0; node < NODE_COUNT; node++) {
+                            if (best[node] >= 0
+                                && (!filter || node % 3 != 0))
+                                expected.add(node);
+                        }
+                        Collections.sort(expected, new Comparator<Integer>() {
+                            @Override
+                            public int compare(Integer n1, Integer n2) {
+                                return Float.compare(best[n2], best[n1]);
+                            }
+                        });
+                        int limit = 10;
+                        if (expected.size() > limit)
+                            expected = expected.subList(0, limit);
+
+                        BestFirstTraverser<Integer> traverser =
+                            graph.getBestFirstTraverser(createNodeID(source),
+                                                        EDGE_TYPE);
+                        traverser.setDepthDecay(decay).setMaxDepth(maxDepth)
+                            .setMaxReturnedEdges(limit);
+                        if (filter)
+                            traverser.setReturnableFilter(FILTER);
+                        List<GraphEdge<Integer>> path = traverser.getPath();
+                        assertEquals(expected.size(), path.size());
+                        for (int i = 0; i < path.size(); i++) {
+                            GraphEdge<Integer> edge = path.get(i);
+                            int end = edge.getEndNode().getID();
+                            assertEquals(best[expected.get(i)],
+                                         edge.getWeight(), 1e-5);
+                            assertEquals(best[end], edge.getWeight(), 1e-5);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFirstLevelMatchesTraverser() {
+        Graph<Integer> graph = buildGraph(new float[NODE_COUNT][NODE_COUNT]);
+        for (int source = 0; source < NODE_COUNT; source++) {
+            NodeID<Integer> id = createNodeID(source);
+            assertEquals(graph.getTraverser(id, EDGE_TYPE).getPath(),
+                         graph.getBestFirstTraverser(id, EDGE_TYPE).getPath());
+        }
+    }
+
+    @Test
+    public void testEarlyTermination() {
+        Graph<Integer> graph = buildGraph(new float[NODE_COUNT][NODE_COUNT]);
+        NodeID<Integer> source = createNodeID(0);
+        GraphCursor<Integer> all =
+            graph.getBestFirstTraverser(source, EDGE_TYPE).setMaxDepth(4)
+                .traverse();
+        GraphCursor<Integer> top =
+            graph.getBestFirstTraverser(source, EDGE_TYPE).setMaxDepth(4)
+                .setMaxReturnedEdges(3).traverse();
+        try {
+            List<GraphEdge<Integer>> allEdges = new ArrayList<GraphEdge<Integer>>();
+            while (all.hasNext())
+                allEdges.add(all.next());
+            List<GraphEdge<Integer>> topEdges = new ArrayList<GraphEdge<Integer>>();
+            while (top.hasNext())
+                topEdges.add(top.next());
+            assertEquals(allEdges.subList(0, 3), topEdges);
+            assertTrue(top.getTraversedEdgeCount() < all.getTraversedEdgeCount());
+        } finally {
+            all.close();
+            top.close();
+        }
+
+        GraphCursor<Integer> limited =
+            graph.getBestFirstTraverser(source, EDGE_TYPE).setMaxDepth(4)
+                .setMaxTraversedEdges(20).traverse();
+        try {
+            while (limited.hasNext())
+                limited.next();
+            assertTrue(limited.getTraversedEdgeCount() <= 21);
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalDecay() {
+        Graph<Integer> graph = buildGraph(new float[NODE_COUNT][NODE_COUNT]);
+        graph.getBestFirstTraverser(createNodeID(0), EDGE_TYPE)
+            .setDepthDecay(1.5f);
+    }
+
+    @Test
+    public void testUnnormalizedWeights() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        for (int i = 0; i < 5; i++)
+            builder.addOrGetNode(createNodeID(i));
+        builder.addEdge(0, 1, EDGE_TYPE, 2f);
+        builder.addEdge(0, 2, EDGE_TYPE, 1f);
+        builder.addEdge(1, 3, EDGE_TYPE, 3f);
+        builder.addEdge(1, 4, EDGE_TYPE, 1.5f);
+        Graph<Integer> graph = builder.build();
+        List<GraphEdge<Integer>> path =
+            graph.getBestFirstTraverser(createNodeID(0), EDGE_TYPE)
+                .setMaxDepth(2).getPath();
+        // 1 -> 3 and 1 -> 4 are scaled by 3, so 3 scores 2 * 1 and 4 scores
+        // 2 * 0.5, never more than the path to 1
+        assertEquals(4, path.size());
+        int[] ends = { 1, 3, 2, 4 };
+        float[] scores = { 2f, 2f, 1f, 1f };
+        for (int i = 0; i < ends.length; i++) {
+            assertEquals(ends[i], path.get(i).getEndNode().getID().intValue());
+            assertEquals(scores[i], path.get(i).getWeight(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testIllegalWeights() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        for (int i = 0; i < 3; i++)
+            builder.addOrGetNode(createNodeID(i));
+        builder.addEdge(0, 1, EDGE_TYPE, 2f);
+        builder.addEdge(1, 2, EDGE_TYPE, -1f);
+        Graph<Integer> graph = builder.build();
+        // The edges below the first level are not traversed
+        assertEquals(1, graph.getBestFirstTraverser(createNodeID(0), EDGE_TYPE)
+            .setMaxDepth(1).getPath().size());
+        try {
+            graph.getBestFirstTraverser(createNodeID(0), EDGE_TYPE)
+                .setMaxDepth(2).getPath();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected, a negative weight could increase the path score
+        }
+    }
+}
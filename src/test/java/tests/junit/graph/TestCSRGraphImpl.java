@@ -0,0 +1,18 @@
+package tests.junit.graph;
+
+import recng.graph.*;
+
+/**
+ * Tests {@link CSRGraphImpl}.
+ *
+ * @author jon
+ *
+ */
+public class TestCSRGraphImpl extends AbstractTestGraph {
+
+    @Override
+    protected <K> GraphBuilder<K> getGraphBuilder() {
+        return CSRGraphImpl.Builder.create(getMetadata());
+    }
+
+}
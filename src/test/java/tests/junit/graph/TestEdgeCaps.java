@@ -0,0 +1,185 @@
+package tests.junit.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests capping the number of out edges per node and edge type.
+ *
+ * @author jon
+ *
+ */
+public class TestEdgeCaps {
+
+    @Test
+    public void testWeightedCap() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.setMaxDegree(WEIGHTED, 2);
+        assertEquals(2, graph.getMaxDegree(WEIGHTED));
+        assertEquals(0, graph.getMaxDegree(UNWEIGHTED));
+        graph.addEdge(createNodeID(0), createNodeID(1), WEIGHTED, 1f);
+        graph.addEdge(createNodeID(0), createNodeID(2), WEIGHTED, 3f);
+        graph.addEdge(createNodeID(0), createNodeID(3), WEIGHTED, 2f);
+        assertEquals(Arrays.asList("2:3.0", "3:2.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        // A new edge with the lowest weight is evicted right away
+        graph.addEdge(createNodeID(0), createNodeID(4), WEIGHTED, 0.5f);
+        assertEquals(Arrays.asList("2:3.0", "3:2.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        assertEquals(2, graph.edgeCount(WEIGHTED));
+        assertEquals(2, graph.getEvictions().getEvictedEdges());
+
+        // Other edge types are not capped
+        for (int i = 1; i <= 3; i++)
+            graph.addEdge(createNodeID(0), createNodeID(i), UNWEIGHTED, 1f);
+        assertEquals(3, graph.edgeCount(UNWEIGHTED));
+    }
+
+    @Test
+    public void testUnweightedCap() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.setMaxDegree(UNWEIGHTED, 2);
+        for (int i = 1; i <= 3; i++)
+            graph.addEdge(createNodeID(0), createNodeID(i), UNWEIGHTED, 1f);
+        // Equal weights, the oldest edge is evicted
+        assertEquals(Arrays.asList("2:1.0", "3:1.0"),
+                     getSortedEdges(graph, 0, UNWEIGHTED));
+        graph.addEdge(createNodeID(0), createNodeID(4), UNWEIGHTED, 2f);
+        assertEquals(Arrays.asList("3:1.0", "4:2.0"),
+                     getSortedEdges(graph, 0, UNWEIGHTED));
+        assertEquals(2, graph.edgeCount());
+    }
+
+    @Test
+    public void testSetEdgesAndBatches() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.setMaxDegree(WEIGHTED, 2);
+        NodeID<Integer> start = createNodeID(0);
+        graph.setEdges(start, WEIGHTED,
+                       Arrays.asList(createNodeID(1), createNodeID(2),
+                                     createNodeID(3), createNodeID(4)),
+                       Arrays.asList(4f, 1f, 3f, 2f));
+        assertEquals(Arrays.asList("1:4.0", "3:3.0"),
+                     getEdges(graph, 0, WEIGHTED));
+
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.add(start, createNodeID(5),
+                                            WEIGHTED, 5f),
+                          GraphMutation.add(start, createNodeID(6),
+                                            WEIGHTED, 3.5f));
+        assertEquals(2, graph.applyBatch(mutations));
+        assertEquals(Arrays.asList("5:5.0", "1:4.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        assertEquals(2, graph.edgeCount());
+        assertEquals(4, graph.getEvictions().getEvictedEdges());
+    }
+
+    @Test
+    public void testLoweredCap() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        for (int i = 1; i <= 4; i++)
+            graph.addEdge(createNodeID(0), createNodeID(i), WEIGHTED, i);
+        graph.setMaxDegree(WEIGHTED, 2);
+        // Trimmed when edges are next added
+        assertEquals(4, graph.edgeCount());
+        graph.addEdge(createNodeID(0), createNodeID(5), WEIGHTED, 5f);
+        assertEquals(Arrays.asList("5:5.0", "4:4.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        assertEquals(2, graph.edgeCount());
+
+        // No cap
+        graph.setMaxDegree(WEIGHTED, 0);
+        graph.addEdge(createNodeID(0), createNodeID(6), WEIGHTED, 6f);
+        assertEquals(3, graph.edgeCount());
+    }
+
+    @Test
+    public void testEvictions() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.setMaxDegree(WEIGHTED, 1);
+        graph.setMaxDegree(UNWEIGHTED, 1);
+        for (int i = 1; i <= 4; i++)
+            graph.addEdge(createNodeID(0), createNodeID(i), WEIGHTED, i);
+        graph.addEdge(createNodeID(1), createNodeID(0), UNWEIGHTED, 1f);
+        graph.addEdge(createNodeID(1), createNodeID(2), UNWEIGHTED, 1f);
+
+        EdgeEvictions evictions = graph.getEvictions();
+        assertEquals(4, evictions.getEvictedEdges());
+        Map<String, Long> byType = evictions.getEvictedEdgesByType();
+        assertEquals(Long.valueOf(3), byType.get(WEIGHTED.name()));
+        assertEquals(Long.valueOf(1), byType.get(UNWEIGHTED.name()));
+        assertEquals(2, evictions.getEvictingNodeCount());
+        Map<String, Long> top = evictions.getTopEvictingNodes(1);
+        assertEquals(1, top.size());
+        assertEquals(Long.valueOf(3), top.get(createNodeID(0).toString()));
+    }
+
+    @Test
+    public void testBuilder() {
+        CSRGraphImpl.Builder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        builder.setMaxDegree(WEIGHTED, 2);
+        int start = builder.addOrGetNode(createNodeID(0));
+        for (int i = 1; i <= 5; i++)
+            builder.addEdge(start, builder.addOrGetNode(createNodeID(i)),
+                            WEIGHTED, i);
+        builder.addEdge(builder.getNodeIndex(createNodeID(1)), start,
+                        WEIGHTED, 1f);
+        Graph<Integer> graph = builder.build();
+        assertEquals(Arrays.asList("5:5.0", "4:4.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        assertEquals(Arrays.asList("0:1.0"), getEdges(graph, 1, WEIGHTED));
+        assertEquals(3, graph.edgeCount());
+        assertEquals(3, builder.getEvictions().getEvictedEdges());
+    }
+
+    @Test
+    public void testBuilderTies() {
+        CSRGraphImpl.Builder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        builder.setMaxDegree(UNWEIGHTED, 2);
+        for (int i = 0; i <= 5; i++)
+            builder.addOrGetNode(createNodeID(i));
+        // Equal weights, the oldest edges are evicted, whatever their end
+        // nodes. Also trimmed while adding, after four edges.
+        for (int i = 5; i >= 1; i--)
+            builder.addEdge(0, i, UNWEIGHTED, 1f);
+        Graph<Integer> graph = builder.build();
+        assertEquals(Arrays.asList("1:1.0", "2:1.0"),
+                     getSortedEdges(graph, 0, UNWEIGHTED));
+    }
+
+    @Test
+    public void testMutableGraphBuilder() {
+        MutableGraphImpl.Builder<Integer> builder =
+            new MutableGraphImpl.Builder<Integer>(METADATA);
+        builder.setMaxDegree(UNWEIGHTED, 1);
+        int start = builder.addOrGetNode(createNodeID(0));
+        builder.addEdge(start, builder.addOrGetNode(createNodeID(1)),
+                        UNWEIGHTED, 2f);
+        builder.addEdge(start, builder.addOrGetNode(createNodeID(2)),
+                        UNWEIGHTED, 1f);
+        MutableGraphImpl<Integer> graph =
+            (MutableGraphImpl<Integer>) builder.build();
+        assertEquals(Arrays.asList("1:2.0"), getEdges(graph, 0, UNWEIGHTED));
+        // The built graph keeps the cap
+        assertEquals(1, graph.getMaxDegree(UNWEIGHTED));
+        graph.addEdge(createNodeID(0), createNodeID(2), UNWEIGHTED, 3f);
+        assertEquals(Arrays.asList("2:3.0"), getEdges(graph, 0, UNWEIGHTED));
+        assertEquals(1, graph.edgeCount());
+        // Evictions while building are counted by the graph
+        assertSame(builder.getEvictions(), graph.getEvictions());
+        assertEquals(2, graph.getEvictions().getEvictedEdges());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMaxDegree() {
+        new MutableGraphImpl<Integer>(METADATA).setMaxDegree(WEIGHTED,
+                                                             -1);
+    }
+}
@@ -0,0 +1,138 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests the edge counts kept per edge type and node type.
+ *
+ * @author jon
+ *
+ */
+public class TestEdgeCounts {
+
+    private static final NodeType DEFAULT = TestNodeType.DEFAULT_NODE_TYPE;
+    private static final NodeType SECONDARY = TestNodeType.SECONDARY_NODE_TYPE;
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+    private static final EdgeType SECONDARY_EDGE_TYPE =
+        TestEdgeType.SECONDARY_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 100;
+
+    @Test
+    public void testBuiltGraphs() {
+        for (Graph<Integer> graph : createMixedGraphs(NODE_COUNT)) {
+            assertEquals(NODE_COUNT - 1 + NODE_COUNT / 2 - 1, graph.edgeCount());
+            assertEquals(NODE_COUNT - 1, graph.edgeCount(EDGE_TYPE));
+            assertEquals(NODE_COUNT / 2 - 1, graph.edgeCount(SECONDARY_EDGE_TYPE));
+            // Secondary nodes have one default and one secondary edge each
+            assertEquals(2 * NODE_COUNT / 10, graph.edgeCount(SECONDARY));
+            assertEquals(graph.edgeCount() - 2 * NODE_COUNT / 10,
+                         graph.edgeCount(DEFAULT));
+            assertEquals(0, graph.edgeCount(new NodeTypeImpl("UNKNOWN", 17)));
+        }
+    }
+
+    @Test
+    public void testMutations() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        assertEquals(0, graph.edgeCount());
+        graph.addEdge(createMixedNodeID(1), createMixedNodeID(2), EDGE_TYPE, 1f);
+        graph.addEdge(createMixedNodeID(1), createMixedNodeID(3), EDGE_TYPE, 1f);
+        graph.addEdge(createMixedNodeID(10), createMixedNodeID(1), SECONDARY_EDGE_TYPE, 1f);
+        assertEquals(3, graph.edgeCount());
+        assertEquals(2, graph.edgeCount(EDGE_TYPE));
+        assertEquals(1, graph.edgeCount(SECONDARY_EDGE_TYPE));
+        assertEquals(2, graph.edgeCount(DEFAULT));
+        assertEquals(1, graph.edgeCount(SECONDARY));
+
+        assertTrue(graph.updateEdge(createMixedNodeID(1), createMixedNodeID(2), EDGE_TYPE, 2f));
+        assertEquals(3, graph.edgeCount());
+
+        assertTrue(graph.removeEdge(createMixedNodeID(1), createMixedNodeID(2), EDGE_TYPE));
+        assertFalse(graph.removeEdge(createMixedNodeID(1), createMixedNodeID(2), EDGE_TYPE));
+        assertEquals(2, graph.edgeCount());
+        assertEquals(1, graph.edgeCount(EDGE_TYPE));
+
+        graph.setEdges(createMixedNodeID(1), EDGE_TYPE,
+                       Arrays.asList(createMixedNodeID(4), createMixedNodeID(5),
+                                     createMixedNodeID(6)),
+                       Arrays.asList(1f, 2f, 3f));
+        assertEquals(4, graph.edgeCount());
+        assertEquals(3, graph.edgeCount(EDGE_TYPE));
+        assertEquals(3, graph.edgeCount(DEFAULT));
+
+        graph.setEdges(createMixedNodeID(10), SECONDARY_EDGE_TYPE,
+                       new ArrayList<NodeID<Integer>>(), new ArrayList<Float>());
+        assertEquals(3, graph.edgeCount());
+        assertEquals(0, graph.edgeCount(SECONDARY_EDGE_TYPE));
+        assertEquals(0, graph.edgeCount(SECONDARY));
+    }
+
+    @Test
+    public void testBuiltMutableGraph() {
+        MutableGraph<Integer> graph = (MutableGraph<Integer>)
+            buildMixedGraph(new MutableGraphImpl.Builder<Integer>(METADATA),
+                            NODE_COUNT);
+        graph.addEdge(createMixedNodeID(0), createMixedNodeID(5), EDGE_TYPE, 1f);
+        assertTrue(graph.removeEdge(createMixedNodeID(10), createMixedNodeID(11), EDGE_TYPE));
+        assertEquals(NODE_COUNT - 1, graph.edgeCount(EDGE_TYPE));
+        assertEquals(2 * NODE_COUNT / 10, graph.edgeCount(SECONDARY));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        final int writerCount = 4;
+        final int edgesPerWriter = 2000;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < writerCount; w++) {
+            final int writer = w;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < edgesPerWriter; i++) {
+                            // All writers share a few hot start nodes
+                            NodeID<Integer> start = createMixedNodeID(i % 20);
+                            NodeID<Integer> end =
+                                createMixedNodeID(1000 + writer * edgesPerWriter + i);
+                            graph.addEdge(start, end, EDGE_TYPE, 1f);
+                            if (i % 2 == 0)
+                                graph.removeEdge(start, end, EDGE_TYPE);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers)
+            writer.join();
+        assertNull(error.get());
+        int expected = writerCount * edgesPerWriter / 2;
+        assertEquals(expected, graph.edgeCount());
+        assertEquals(expected, graph.edgeCount(EDGE_TYPE));
+        assertEquals(expected, graph.edgeCount(DEFAULT) + graph.edgeCount(SECONDARY));
+        final int[] scanned = new int[1];
+        graph.forEachEdge(new GraphEdgeProcedure<Integer>() {
+            @Override
+            public boolean apply(GraphEdge<Integer> edge) {
+                scanned[0]++;
+                return true;
+            }
+        });
+        assertEquals(expected, scanned[0]);
+    }
+}
@@ -0,0 +1,219 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link EdgeDecay} and {@link EdgeDecaySweeper}.
+ *
+ * @author jon
+ *
+ */
+public class TestEdgeDecay {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void testHalfLife() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(WEIGHTED, EdgeDecay.halfLife(MINUTE));
+        graph.addEdge(createNodeID(0), createNodeID(1), WEIGHTED, 8f);
+        graph.addEdge(createNodeID(0), createNodeID(2), WEIGHTED, 4f);
+        graph.addEdge(createNodeID(0), createNodeID(3), UNWEIGHTED, 4f);
+        assertEquals(Arrays.asList("1:8.0", "2:4.0"),
+                     getEdges(graph, 0, WEIGHTED));
+
+        graph.advance(MINUTE);
+        assertEquals(Arrays.asList("1:4.0", "2:2.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        // Other edge types do not decay
+        assertEquals(Arrays.asList("3:4.0"), getEdges(graph, 0, UNWEIGHTED));
+
+        // A new edge is placed among the decayed ones
+        graph.addEdge(createNodeID(0), createNodeID(4), WEIGHTED, 3f);
+        assertEquals(Arrays.asList("1:4.0", "4:3.0", "2:2.0"),
+                     getEdges(graph, 0, WEIGHTED));
+        graph.advance(MINUTE);
+        assertEquals(Arrays.asList("1:2.0", "4:1.5", "2:1.0"),
+                     getEdges(graph, 0, WEIGHTED));
+
+        // An updated edge starts over
+        assertTrue(graph.updateEdge(createNodeID(0), createNodeID(2),
+                                    WEIGHTED, 5f));
+        assertEquals(Arrays.asList("2:5.0", "1:2.0", "4:1.5"),
+                     getEdges(graph, 0, WEIGHTED));
+        assertEquals(3, graph.edgeCount(WEIGHTED));
+    }
+
+    @Test
+    public void testTtl() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(UNWEIGHTED, EdgeDecay.ttl(10 * MINUTE));
+        EdgeDecaySweeper<Integer> sweeper = new EdgeDecaySweeper<Integer>(graph);
+        graph.addEdge(createNodeID(0), createNodeID(1), UNWEIGHTED, 1f);
+        graph.advance(6 * MINUTE);
+        // Mutating the list keeps the timestamp of the first edge
+        graph.addEdge(createNodeID(0), createNodeID(2), UNWEIGHTED, 1f);
+        graph.advance(5 * MINUTE);
+        assertEquals(Arrays.asList("2:1.0"), getEdges(graph, 0, UNWEIGHTED));
+        // Counted until swept
+        assertEquals(2, graph.edgeCount());
+        assertEquals(1, sweeper.sweepAll());
+        assertEquals(1, graph.edgeCount());
+        assertEquals(1, sweeper.getExpiredEdges());
+        assertEquals(1, sweeper.getPasses());
+
+        // Updating an edge refreshes it
+        assertTrue(graph.updateEdge(createNodeID(0), createNodeID(2),
+                                    UNWEIGHTED, 2f));
+        graph.advance(9 * MINUTE);
+        assertEquals(Arrays.asList("2:2.0"), getEdges(graph, 0, UNWEIGHTED));
+        graph.advance(2 * MINUTE);
+        assertEquals(0, getEdges(graph, 0, UNWEIGHTED).size());
+        assertFalse(graph.updateEdge(createNodeID(0), createNodeID(2),
+                                     UNWEIGHTED, 2f));
+        assertEquals(0, graph.edgeCount());
+        assertEquals(0, sweeper.sweepAll());
+    }
+
+    @Test
+    public void testFrequentMutations() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(UNWEIGHTED, EdgeDecay.ttl(10 * 1000L));
+        // Not aligned to whole seconds
+        graph.advance(300);
+        graph.addEdge(createNodeID(0), createNodeID(1), UNWEIGHTED, 1f);
+        // The list is rebased on every mutation, twice a second
+        for (int i = 2; i <= 21; i++) {
+            graph.advance(500);
+            graph.addEdge(createNodeID(0), createNodeID(i), UNWEIGHTED, 1f);
+        }
+        graph.advance(200);
+        List<String> edges = getEdges(graph, 0, UNWEIGHTED);
+        assertFalse(edges.contains("1:1.0"));
+        assertTrue(edges.contains("3:1.0"));
+        assertEquals(20, edges.size());
+    }
+
+    @Test
+    public void testBatchesAndSetEdges() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(WEIGHTED,
+                           new EdgeDecay(MINUTE, 10 * MINUTE));
+        NodeID<Integer> start = createNodeID(0);
+        graph.setEdges(start, WEIGHTED,
+                       Arrays.asList(createNodeID(1), createNodeID(2)),
+                       Arrays.asList(2f, 4f));
+        graph.advance(5 * MINUTE);
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.add(start, createNodeID(3),
+                                            WEIGHTED, 1f),
+                          GraphMutation.update(start, createNodeID(1),
+                                               WEIGHTED, 2f));
+        assertEquals(2, graph.applyBatch(mutations));
+        graph.advance(6 * MINUTE);
+        // The edge to 2 has expired, the others decayed for six minutes
+        assertEquals(Arrays.asList("1:0.03125", "3:0.015625"),
+                     getEdges(graph, 0, WEIGHTED));
+    }
+
+    @Test
+    public void testExistingEdges() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.addEdge(createNodeID(0), createNodeID(1), WEIGHTED, 1f);
+        graph.addEdge(createNodeID(1), createNodeID(0), WEIGHTED, 1f);
+        graph.advance(MINUTE);
+        graph.setEdgeDecay(WEIGHTED, EdgeDecay.ttl(MINUTE));
+        EdgeDecaySweeper<Integer> sweeper = new EdgeDecaySweeper<Integer>(graph);
+        // Timestamped by the sweep, one node at a time
+        assertEquals(0, sweeper.sweep(1));
+        graph.advance(MINUTE / 2);
+        assertEquals(0, sweeper.sweep(1));
+        assertEquals(1, sweeper.getPasses());
+        graph.advance(MINUTE);
+        assertEquals(0, getEdges(graph, 0, WEIGHTED).size());
+        assertEquals(1, getEdges(graph, 1, WEIGHTED).size());
+        assertEquals(1, sweeper.sweepAll());
+        assertEquals(2, sweeper.getPasses());
+        assertEquals(1, graph.edgeCount());
+
+        // No more decay, once swept
+        graph.setEdgeDecay(WEIGHTED, null);
+        sweeper.sweepAll();
+        graph.advance(10 * MINUTE);
+        assertEquals(1, graph.edgeCount());
+        assertEquals(1, getEdges(graph, 1, WEIGHTED).size());
+    }
+
+    @Test
+    public void testFrozenGraph() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(WEIGHTED,
+                           new EdgeDecay(MINUTE, 10 * MINUTE));
+        graph.addEdge(createNodeID(0), createNodeID(1), WEIGHTED, 4f);
+        graph.advance(10 * MINUTE);
+        graph.addEdge(createNodeID(0), createNodeID(2), WEIGHTED, 4f);
+        graph.advance(MINUTE);
+        GraphCompactor<Integer> compactor = new GraphCompactor<Integer>(graph);
+        GraphGeneration<Integer> generation = compactor.getHandle().acquire();
+        try {
+            Graph<Integer> frozen = generation.getGraph();
+            assertEquals(1, frozen.edgeCount());
+            assertEquals(Arrays.asList("2:2.0"), getEdges(frozen, 0, WEIGHTED));
+        } finally {
+            generation.release();
+        }
+    }
+
+    @Test
+    public void testNeighborReads() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(WEIGHTED, new EdgeDecay(MINUTE, 10 * MINUTE));
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 50; i++)
+            graph.addEdge(start, createNodeID(i), WEIGHTED, i);
+        graph.advance(5 * MINUTE);
+        for (int i = 51; i <= 100; i++)
+            graph.addEdge(start, createNodeID(i), WEIGHTED, 64f * i);
+        graph.advance(6 * MINUTE);
+        // The first 50 edges have expired, the others decayed for six minutes
+        assertTrue(Float.isNaN(graph.getEdgeWeight(start, createNodeID(10),
+                                                   WEIGHTED)));
+        assertEquals(70f, graph.getEdgeWeight(start, createNodeID(70),
+                                              WEIGHTED), 0f);
+        assertTrue(Float.isNaN(graph.getEdgeWeight(start, createNodeID(101),
+                                                   WEIGHTED)));
+
+        final List<Integer> neighbors = new ArrayList<Integer>();
+        graph.forEachNeighbor(start, WEIGHTED, new NodeIDProcedure<Integer>() {
+            @Override
+            public boolean apply(NodeID<Integer> id) {
+                neighbors.add(id.getID());
+                return true;
+            }
+        });
+        List<GraphEdge<Integer>> path =
+            graph.getTraverser(start, WEIGHTED).setMaxDepth(1)
+                .setMaxReturnedEdges(100).getPath();
+        assertEquals(50, neighbors.size());
+        assertEquals(50, path.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(100 - i, neighbors.get(i).intValue());
+            GraphEdge<Integer> edge = path.get(i);
+            assertEquals(100 - i, edge.getEndNode().getID().intValue());
+            assertEquals(100f - i, edge.getWeight(), 0f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalDecay() {
+        new EdgeDecay(0, 0);
+    }
+}
@@ -0,0 +1,221 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests looking up edges by start and end node.
+ *
+ * @author jon
+ *
+ */
+public class TestEdgeLookup {
+
+    @Test
+    public void testSmallLists() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.addEdge(createNodeID(0), createNodeID(1), WEIGHTED, 2f);
+        graph.addEdge(createNodeID(0), createNodeID(2), UNWEIGHTED, 3f);
+        assertTrue(graph.containsEdge(createNodeID(0), createNodeID(1),
+                                      WEIGHTED));
+        assertEquals(2f, graph.getEdgeWeight(createNodeID(0), createNodeID(1),
+                                             WEIGHTED), 0f);
+        assertEquals(3f, graph.getEdgeWeight(createNodeID(0), createNodeID(2),
+                                             UNWEIGHTED), 0f);
+        // Wrong type, direction or missing node
+        assertFalse(graph.containsEdge(createNodeID(0), createNodeID(1),
+                                       UNWEIGHTED));
+        assertFalse(graph.containsEdge(createNodeID(1), createNodeID(0),
+                                       WEIGHTED));
+        assertTrue(Float.isNaN(graph.getEdgeWeight(createNodeID(0),
+                                                   createNodeID(7), WEIGHTED)));
+    }
+
+    /**
+     * Mutates the edges of a high degree node at random, and checks the
+     * lookups and the edges against a map of the expected weights.
+     */
+    private void testHighDegree(MutableGraphImpl<Integer> graph,
+                                EdgeType edgeType) {
+        Map<Integer, Float> expected = new HashMap<Integer, Float>();
+        NodeID<Integer> start = createNodeID(0);
+        Random random = new Random(17);
+        int nodeCount = 500;
+        for (int i = 1; i < nodeCount; i++) {
+            float weight = random.nextInt(100);
+            graph.addEdge(start, createNodeID(i), edgeType, weight);
+            expected.put(i, weight);
+        }
+        for (int i = 0; i < 5000; i++) {
+            int endNode = 1 + random.nextInt(nodeCount - 1);
+            float weight = random.nextInt(100);
+            switch (random.nextInt(3)) {
+            case 0:
+                if (!expected.containsKey(endNode)) {
+                    graph.addEdge(start, createNodeID(endNode), edgeType, weight);
+                    expected.put(endNode, weight);
+                }
+                break;
+            case 1:
+                assertEquals(expected.containsKey(endNode),
+                             graph.updateEdge(start, createNodeID(endNode),
+                                              edgeType, weight));
+                if (expected.containsKey(endNode))
+                    expected.put(endNode, weight);
+                break;
+            default:
+                assertEquals(expected.remove(endNode) != null,
+                             graph.removeEdge(start, createNodeID(endNode),
+                                              edgeType));
+            }
+            assertEquals(expected.containsKey(endNode),
+                         graph.containsEdge(start, createNodeID(endNode),
+                                            edgeType));
+        }
+        for (int i = 1; i < nodeCount; i++) {
+            NodeID<Integer> endNode = createNodeID(i);
+            assertEquals(expected.containsKey(i),
+                         graph.containsEdge(start, endNode, edgeType));
+            if (expected.containsKey(i))
+                assertEquals(expected.get(i).floatValue(),
+                             graph.getEdgeWeight(start, endNode, edgeType), 0f);
+        }
+        assertEquals(expected.size(), graph.edgeCount());
+        List<String> edges = new ArrayList<String>();
+        for (Map.Entry<Integer, Float> edge : expected.entrySet())
+            edges.add(edge.getKey() + ":" + edge.getValue());
+        Collections.sort(edges);
+        assertEquals(edges, getSortedEdges(graph, 0, edgeType));
+        if (edgeType.isWeighted()) {
+            List<String> traversed = getEdges(graph, 0, edgeType);
+            for (int i = 1; i < traversed.size(); i++)
+                assertTrue(weight(traversed.get(i - 1))
+                    >= weight(traversed.get(i)));
+        }
+    }
+
+    private static float weight(String edge) {
+        return Float.parseFloat(edge.substring(edge.indexOf(':') + 1));
+    }
+
+    @Test
+    public void testHighDegreeWeighted() {
+        testHighDegree(new MutableGraphImpl<Integer>(METADATA), WEIGHTED);
+    }
+
+    @Test
+    public void testHighDegreeUnweighted() {
+        testHighDegree(new MutableGraphImpl<Integer>(METADATA), UNWEIGHTED);
+    }
+
+    @Test
+    public void testMinIndexedDegree() {
+        for (EdgeType edgeType : Arrays.asList(WEIGHTED, UNWEIGHTED)) {
+            // All lists indexed, and none
+            MutableGraphImpl<Integer> graph =
+                new MutableGraphImpl<Integer>(METADATA);
+            testHighDegree(graph.setMinIndexedDegree(1), edgeType);
+            graph = new MutableGraphImpl<Integer>(METADATA);
+            testHighDegree(graph.setMinIndexedDegree(Integer.MAX_VALUE),
+                           edgeType);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalMinIndexedDegree() {
+        new MutableGraphImpl<Integer>(METADATA).setMinIndexedDegree(0);
+    }
+
+    @Test
+    public void testEvictionsFromIndexedList() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.setMinIndexedDegree(1);
+        NodeID<Integer> start = createNodeID(0);
+        for (EdgeType edgeType : Arrays.asList(WEIGHTED, UNWEIGHTED)) {
+            graph.setMaxDegree(edgeType, 100);
+            for (int i = 1; i <= 200; i++)
+                graph.addEdge(start, createNodeID(i), edgeType, i % 50);
+            // The 100 heaviest edges are kept, and only they are indexed
+            for (int i = 1; i <= 200; i++)
+                assertEquals(i % 50 >= 25,
+                             graph.containsEdge(start, createNodeID(i),
+                                                edgeType));
+        }
+    }
+
+    @Test
+    public void testDuplicateEdges() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 100; i++)
+            graph.addEdge(start, createNodeID(i), WEIGHTED, i);
+        graph.addEdge(start, createNodeID(1), WEIGHTED, 200f);
+        assertTrue(graph.removeEdge(start, createNodeID(1), WEIGHTED));
+        assertTrue(graph.containsEdge(start, createNodeID(1), WEIGHTED));
+        assertTrue(graph.removeEdge(start, createNodeID(1), WEIGHTED));
+        assertFalse(graph.containsEdge(start, createNodeID(1), WEIGHTED));
+        assertEquals(50f, graph.getEdgeWeight(start, createNodeID(50),
+                                              WEIGHTED), 0f);
+    }
+
+    @Test
+    public void testBatchesAndSetEdges() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 100; i++)
+            graph.addEdge(start, createNodeID(i), WEIGHTED, i);
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.update(start, createNodeID(10),
+                                               WEIGHTED, 1000f),
+                          GraphMutation.remove(start, createNodeID(20),
+                                               WEIGHTED),
+                          GraphMutation.add(start, createNodeID(101),
+                                            WEIGHTED, 0.5f));
+        assertEquals(3, graph.applyBatch(mutations));
+        assertEquals(1000f, graph.getEdgeWeight(start, createNodeID(10),
+                                                WEIGHTED), 0f);
+        assertFalse(graph.containsEdge(start, createNodeID(20), WEIGHTED));
+        // Updates after a batch find the moved edges
+        assertTrue(graph.updateEdge(start, createNodeID(101), WEIGHTED, 2000f));
+        assertEquals(2000f, graph.getEdgeWeight(start, createNodeID(101),
+                                                WEIGHTED), 0f);
+
+        graph.setEdges(start, WEIGHTED,
+                       Arrays.asList(createNodeID(1), createNodeID(2)),
+                       Arrays.asList(1f, 2f));
+        assertFalse(graph.containsEdge(start, createNodeID(10), WEIGHTED));
+        assertEquals(2f, graph.getEdgeWeight(start, createNodeID(2),
+                                             WEIGHTED), 0f);
+    }
+
+    @Test
+    public void testBuiltGraphs() {
+        GraphBuilder<Integer> csrBuilder = CSRGraphImpl.Builder.create(METADATA);
+        GraphBuilder<Integer> mutableBuilder =
+            new MutableGraphImpl.Builder<Integer>(METADATA);
+        for (GraphBuilder<Integer> builder : Arrays.asList(csrBuilder,
+                                                           mutableBuilder)) {
+            int start = builder.addOrGetNode(createNodeID(0));
+            for (int i = 1; i <= 100; i++)
+                builder.addEdge(start, builder.addOrGetNode(createNodeID(i)),
+                                WEIGHTED, i);
+            Graph<Integer> graph = builder.build();
+            assertEquals(42f, graph.getEdgeWeight(createNodeID(0),
+                                                  createNodeID(42),
+                                                  WEIGHTED), 0f);
+            assertFalse(graph.containsEdge(createNodeID(42), createNodeID(0),
+                                           WEIGHTED));
+        }
+    }
+}
@@ -4,7 +4,12 @@ import recng.graph.EdgeType;
 
 public enum TestEdgeType implements EdgeType {
 
-    DEFAULT_EDGE_TYPE, SECONDARY_EDGE_TYPE;
+    DEFAULT_EDGE_TYPE, SECONDARY_EDGE_TYPE, WEIGHTED_EDGE_TYPE {
+        @Override
+        public boolean isWeighted() {
+            return true;
+        }
+    };
 
     @Override
     public boolean isWeighted() {
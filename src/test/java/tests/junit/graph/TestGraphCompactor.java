@@ -0,0 +1,150 @@
+package tests.junit.graph;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link GraphCompactor} and {@link GraphHandle}.
+ *
+ * @author jon
+ *
+ */
+public class TestGraphCompactor {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    @Test
+    public void testFreeze() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        for (int i = 0; i < 100; i++) {
+            graph.addEdge(createNodeID(i % 10), createNodeID(i), EDGE_TYPE, i);
+            graph.addEdge(createNodeID(i), createNodeID(i % 7),
+                          TestEdgeType.SECONDARY_EDGE_TYPE, i);
+        }
+        GraphCompactor<Integer> compactor = new GraphCompactor<Integer>(graph);
+        GraphGeneration<Integer> generation = compactor.getHandle().acquire();
+        try {
+            Graph<Integer> frozen = generation.getGraph();
+            assertEquals(0, generation.getNumber());
+            assertEquals(graph.nodeCount(), frozen.nodeCount());
+            assertEquals(graph.edgeCount(), frozen.edgeCount());
+            assertEquals(graph.edgeCount(EDGE_TYPE), frozen.edgeCount(EDGE_TYPE));
+            assertEquals(getEdges(graph), getEdges(frozen));
+        } finally {
+            generation.release();
+        }
+    }
+
+    @Test
+    public void testGenerations() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        graph.addEdge(createNodeID(0), createNodeID(1), EDGE_TYPE, 1f);
+        GraphCompactor<Integer> compactor = new GraphCompactor<Integer>(graph);
+        GraphHandle<Integer> handle = compactor.getHandle();
+        // Unchanged since the first generation
+        assertFalse(compactor.compact());
+
+        GraphGeneration<Integer> first = handle.acquire();
+        graph.addEdge(createNodeID(0), createNodeID(2), EDGE_TYPE, 1f);
+        assertTrue(compactor.compact());
+        assertEquals(1, handle.getGeneration());
+
+        // The reader of the first generation still sees it
+        assertFalse(first.isReleased());
+        assertEquals(1, first.getGraph().edgeCount());
+        assertEquals(1, handle.getRetainedGenerations());
+
+        GraphGeneration<Integer> second = handle.acquire();
+        assertEquals(2, second.getGraph().edgeCount());
+        second.release();
+        assertFalse(second.isReleased()); // Still current
+
+        first.release();
+        assertTrue(first.isReleased());
+        assertEquals(0, handle.getRetainedGenerations());
+        try {
+            first.getGraph();
+            fail("Released generation");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() {
+        MutableGraphImpl<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        GraphHandle<Integer> handle = new GraphCompactor<Integer>(graph).getHandle();
+        GraphGeneration<Integer> generation = handle.acquire();
+        generation.release();
+        generation.release();
+        generation.release();
+    }
+
+    @Test
+    public void testConcurrentCompaction() throws InterruptedException {
+        final MutableGraphImpl<Integer> graph =
+            new MutableGraphImpl<Integer>(METADATA);
+        final GraphCompactor<Integer> compactor =
+            new GraphCompactor<Integer>(graph);
+        final GraphHandle<Integer> handle = compactor.getHandle();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final int edges = 5000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < edges; i++)
+                        graph.addEdge(createNodeID(i % 50), createNodeID(i),
+                                      EDGE_TYPE, 1f);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int previous = 0;
+                    while (!done.get()) {
+                        GraphGeneration<Integer> generation = handle.acquire();
+                        try {
+                            // Each generation is a consistent, growing view
+                            Graph<Integer> frozen = generation.getGraph();
+                            int count = frozen.edgeCount();
+                            assertTrue(count >= previous);
+                            assertEquals(count, getEdges(frozen).size());
+                            previous = count;
+                        } finally {
+                            generation.release();
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        compactor.start(1);
+        writer.join();
+        compactor.close();
+        done.set(true);
+        reader.join();
+        assertNull(error.get());
+
+        compactor.compact();
+        GraphGeneration<Integer> generation = handle.acquire();
+        assertEquals(edges, generation.getGraph().edgeCount());
+        generation.release();
+        assertEquals(0, handle.getRetainedGenerations());
+        assertEquals(0, compactor.getFailedCompactions());
+    }
+}
@@ -0,0 +1,274 @@
+package tests.junit.graph;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import recng.common.IDParser;
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link GraphJournal} and {@link MutationLog}.
+ *
+ * @author jon
+ *
+ */
+public class TestGraphJournal {
+
+    private static final IDParser<Integer> ID_PARSER = new IDParser<Integer>() {
+        @Override
+        public Integer parse(String id) {
+            return Integer.valueOf(id);
+        }
+
+        @Override
+        public String serialize(Integer id) {
+            return id.toString();
+        }
+    };
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+    }
+
+    private GraphJournal<Integer> createJournal() {
+        return new GraphJournal<Integer>(directory, METADATA, ID_PARSER)
+            .setReplayThreads(3);
+    }
+
+    private static void assertSameGraph(Graph<Integer> expected,
+                                        Graph<Integer> actual) {
+        assertEquals(expected.nodeCount(), actual.nodeCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        assertEquals(getEdges(expected), getEdges(actual));
+    }
+
+    /**
+     * Applies random mutations of all kinds to both graphs.
+     */
+    private static void mutate(Random random, MutableGraph<Integer> expected,
+                               MutableGraph<Integer> actual, int count) {
+        for (int i = 0; i < count; i++) {
+            NodeID<Integer> start = createMixedNodeID(random.nextInt(50));
+            NodeID<Integer> end = createMixedNodeID(random.nextInt(200));
+            EdgeType edgeType = random.nextBoolean() ? WEIGHTED
+                : UNWEIGHTED;
+            float weight = random.nextInt(100);
+            switch (random.nextInt(10)) {
+            case 0:
+                assertEquals(expected.removeEdge(start, end, edgeType),
+                             actual.removeEdge(start, end, edgeType));
+                break;
+            case 1:
+                assertEquals(expected.updateEdge(start, end, edgeType, weight),
+                             actual.updateEdge(start, end, edgeType, weight));
+                break;
+            case 2:
+                List<NodeID<Integer>> endNodes = new ArrayList<NodeID<Integer>>();
+                List<Float> weights = new ArrayList<Float>();
+                for (int j = random.nextInt(5); j > 0; j--) {
+                    endNodes.add(createMixedNodeID(random.nextInt(200)));
+                    weights.add((float) random.nextInt(100));
+                }
+                expected.setEdges(start, edgeType, endNodes, weights);
+                actual.setEdges(start, edgeType, endNodes, weights);
+                break;
+            case 3:
+                List<GraphMutation<Integer>> mutations =
+                    new ArrayList<GraphMutation<Integer>>();
+                for (int j = 0; j < 20; j++) {
+                    NodeID<Integer> batchStart = createMixedNodeID(random.nextInt(50));
+                    NodeID<Integer> batchEnd = createMixedNodeID(random.nextInt(200));
+                    if (random.nextBoolean())
+                        mutations.add(GraphMutation.add(batchStart, batchEnd,
+                                                        edgeType, j));
+                    else
+                        mutations.add(GraphMutation.remove(batchStart,
+                                                           batchEnd, edgeType));
+                }
+                assertEquals(expected.applyBatch(mutations),
+                             actual.applyBatch(mutations));
+                break;
+            default:
+                expected.addEdge(start, end, edgeType, weight);
+                actual.addEdge(start, end, edgeType, weight);
+            }
+        }
+    }
+
+    private List<String> getFiles(String prefix) {
+        List<String> res = new ArrayList<String>();
+        for (String name : directory.list()) {
+            if (name.startsWith(prefix))
+                res.add(name);
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    @Test
+    public void testRecoverFromLog() {
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        GraphJournal<Integer> journal = createJournal();
+        MutableGraph<Integer> graph = journal.open();
+        mutate(new Random(3), expected, graph, 2000);
+        journal.close();
+
+        journal = createJournal();
+        MutableGraph<Integer> recovered = journal.open();
+        assertSameGraph(expected, recovered);
+
+        // The recovered graph keeps logging
+        mutate(new Random(4), expected, recovered, 500);
+        journal.close();
+        journal = createJournal();
+        assertSameGraph(expected, journal.open());
+        journal.close();
+    }
+
+    @Test
+    public void testCheckpoint() {
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        GraphJournal<Integer> journal = createJournal();
+        MutableGraph<Integer> graph = journal.open();
+        mutate(new Random(5), expected, graph, 1000);
+        journal.checkpoint();
+        mutate(new Random(6), expected, graph, 1000);
+        journal.checkpoint();
+        // Only the latest snapshot and the segments after it are kept
+        assertEquals(Arrays.asList("snapshot-0000000002.bin"),
+                     getFiles("snapshot-"));
+        assertEquals(Arrays.asList("mutations-0000000002.log"),
+                     getFiles("mutations-"));
+        mutate(new Random(7), expected, graph, 100);
+        journal.close();
+
+        journal = createJournal();
+        assertSameGraph(expected, journal.open());
+        journal.close();
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        GraphJournal<Integer> journal = createJournal();
+        mutate(new Random(8), expected, journal.open(), 500);
+        journal.close();
+
+        // A record cut short by a crash
+        List<String> segments = getFiles("mutations-");
+        FileOutputStream out =
+            new FileOutputStream(new File(directory,
+                                          segments.get(segments.size() - 1)),
+                                 true);
+        try {
+            out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        } finally {
+            out.close();
+        }
+
+        journal = createJournal();
+        MutableGraph<Integer> recovered = journal.open();
+        assertSameGraph(expected, recovered);
+        mutate(new Random(9), expected, recovered, 100);
+        journal.close();
+
+        // Records after the torn one are in a later segment
+        journal = createJournal();
+        assertSameGraph(expected, journal.open());
+        journal.close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        runConcurrentWriters(0, false);
+    }
+
+    @Test
+    public void testSyncInterval() throws InterruptedException {
+        runConcurrentWriters(5, false);
+    }
+
+    @Test
+    public void testCheckpointWhileWriting() throws InterruptedException {
+        runConcurrentWriters(1, true);
+    }
+
+    /**
+     * Runs concurrent writers, optionally checkpointing until they are done,
+     * and checks that the graph is recovered.
+     */
+    private void runConcurrentWriters(long syncInterval, boolean checkpoint)
+        throws InterruptedException {
+        GraphJournal<Integer> journal = createJournal();
+        journal.getMutationLog().setSyncInterval(syncInterval);
+        final MutableGraph<Integer> graph = journal.open();
+        final int writerCount = 4;
+        final int edgesPerWriter = 500;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < writerCount; w++) {
+            final int writer = w;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < edgesPerWriter; i++) {
+                            NodeID<Integer> start = createMixedNodeID(i % 10);
+                            NodeID<Integer> end =
+                                createMixedNodeID(1000 + writer * edgesPerWriter + i);
+                            graph.addEdge(start, end, WEIGHTED, i);
+                            if (i % 2 == 0)
+                                graph.removeEdge(start, end, WEIGHTED);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers) {
+            while (checkpoint && writer.isAlive())
+                journal.checkpoint();
+            writer.join();
+        }
+        assertNull(error.get());
+        journal.close();
+
+        journal = createJournal();
+        assertSameGraph(graph, journal.open());
+        assertEquals(writerCount * edgesPerWriter / 2, graph.edgeCount());
+        journal.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckpointBeforeOpen() {
+        createJournal().checkpoint();
+    }
+}
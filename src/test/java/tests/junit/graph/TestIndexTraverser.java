@@ -0,0 +1,189 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link IndexTraverser}.
+ *
+ * @author jon
+ *
+ */
+public class TestIndexTraverser {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 200;
+
+    private static Graph<Integer> buildGraph(GraphBuilder<Integer> builder) {
+        Random random = new Random(42);
+        // Add the nodes in order, so that primary key == id
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    private static List<String> getPath(Graph<Integer> graph, int source,
+                                        int maxDepth, int maxReturned,
+                                        int maxTraversed, boolean filter) {
+        Traverser<Integer> traverser =
+            graph.getTraverser(createNodeID(source), EDGE_TYPE)
+                .setMaxDepth(maxDepth).setMaxReturnedEdges(maxReturned)
+                .setMaxTraversedEdges(maxTraversed);
+        if (filter) {
+            traverser.setReturnableFilter(new EdgeFilter<Integer>() {
+                @Override
+                public boolean accepts(NodeID<Integer> start,
+                                       NodeID<Integer> end) {
+                    return end.getID() % 3 != 0;
+                }
+            });
+        }
+        List<String> path = new ArrayList<String>();
+        for (GraphEdge<Integer> edge : traverser.getPath())
+            path.add(edge.getStartNode().getID() + " -> "
+                + edge.getEndNode().getID() + " (" + edge.getWeight() + ")");
+        return path;
+    }
+
+    private static IndexTraverser getIndexTraverser(Graph<Integer> graph,
+                                                    int maxDepth,
+                                                    int maxReturned,
+                                                    int maxTraversed,
+                                                    boolean filter) {
+        IndexTraverser traverser =
+            graph.getIndexTraverser(EDGE_TYPE).setMaxDepth(maxDepth)
+                .setMaxReturnedEdges(maxReturned)
+                .setMaxTraversedEdges(maxTraversed);
+        if (filter) {
+            traverser.setReturnableFilter(new IndexEdgeFilter() {
+                @Override
+                public boolean accepts(int start, int end) {
+                    return end % 3 != 0;
+                }
+            });
+        }
+        return traverser;
+    }
+
+    private static void assertSameTraversals(Graph<Integer> graph) {
+        int[] depths = { 1, 2, 3 };
+        int[] maxReturned = { 0, 1, 5, 30, Integer.MAX_VALUE };
+        int[] maxTraversed = { 3, 50, Integer.MAX_VALUE };
+        for (int source = 0; source < NODE_COUNT; source += 7) {
+            for (int depth : depths) {
+                for (int returned : maxReturned) {
+                    for (int traversed : maxTraversed) {
+                        for (boolean filter : new boolean[] { false, true }) {
+                            List<String> expected =
+                                getPath(graph, source, depth, returned,
+                                        traversed, filter);
+                            IndexTraverser traverser =
+                                getIndexTraverser(graph, depth, returned,
+                                                  traversed, filter);
+                            List<String> actual = new ArrayList<String>();
+                            IndexCursor cursor = traverser.traverse(source);
+                            while (cursor.next())
+                                actual.add(cursor.getStartNode() + " -> "
+                                    + cursor.getEndNode() + " ("
+                                    + cursor.getWeight() + ")");
+                            assertEquals(expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testImmutableGraph() {
+        assertSameTraversals(buildGraph(ImmutableGraphImpl.Builder
+            .<Integer> create(METADATA)));
+    }
+
+    @Test
+    public void testCSRGraph() {
+        assertSameTraversals(buildGraph(CSRGraphImpl.Builder
+            .<Integer> create(METADATA)));
+    }
+
+    @Test
+    public void testMutableGraph() {
+        assertSameTraversals(buildGraph(new MutableGraphImpl.Builder<Integer>(METADATA)));
+    }
+
+    @Test
+    public void testProcedure() {
+        Graph<Integer> graph =
+            buildGraph(CSRGraphImpl.Builder.<Integer> create(METADATA));
+        IndexTraverser traverser = graph.getIndexTraverser(EDGE_TYPE)
+            .setMaxDepth(2);
+        IndexCursor cursor = traverser.traverse(0);
+        final List<Integer> endNodes = new ArrayList<Integer>();
+        final List<Float> weights = new ArrayList<Float>();
+        int returned = traverser.traverse(0, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int endNode, float weight) {
+                endNodes.add(endNode);
+                weights.add(weight);
+                return endNodes.size() < 10;
+            }
+        });
+        assertEquals(10, returned);
+        assertEquals(10, endNodes.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(cursor.next());
+            assertEquals(cursor.getEndNode(), endNodes.get(i).intValue());
+            assertEquals(cursor.getWeight(), weights.get(i).floatValue(), 0f);
+        }
+    }
+
+    @Test
+    public void testForEachNeighbor() {
+        Graph<Integer> graph =
+            buildGraph(ImmutableGraphImpl.Builder.<Integer> create(METADATA));
+        for (int source = 0; source < NODE_COUNT; source++) {
+            final List<Integer> expected = new ArrayList<Integer>();
+            graph.forEachNeighbor(createNodeID(source), EDGE_TYPE,
+                                  new NodeIDProcedure<Integer>() {
+                                      @Override
+                                      public boolean apply(NodeID<Integer> id) {
+                                          expected.add(id.getID());
+                                          return true;
+                                      }
+                                  });
+            final List<Integer> actual = new ArrayList<Integer>();
+            graph.forEachNeighbor(source, EDGE_TYPE, new IntFloatProcedure() {
+                @Override
+                public boolean apply(int endNode, float weight) {
+                    actual.add(endNode);
+                    return true;
+                }
+            });
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testUnknownSource() {
+        Graph<Integer> graph =
+            buildGraph(CSRGraphImpl.Builder.<Integer> create(METADATA));
+        IndexTraverser traverser = graph.getIndexTraverser(EDGE_TYPE);
+        assertEquals(0, traverser.traverse(-1).size());
+        assertEquals(0, traverser.traverse(NODE_COUNT).size());
+    }
+}
@@ -0,0 +1,75 @@
+package tests.junit.graph;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.springframework.core.convert.converter.Converter;
+
+import recng.graph.*;
+
+/**
+ * Tests {@link MappedGraphImpl} by exporting graphs built in memory to a
+ * snapshot file and opening them again.
+ *
+ * @author jon
+ *
+ */
+public class TestMappedGraphImpl extends AbstractTestGraph {
+
+    @Override
+    protected <K> GraphBuilder<K> getGraphBuilder() {
+        return new SnapshotBuilder<K>(CSRGraphImpl.Builder.<K> create(getMetadata()));
+    }
+
+    private class SnapshotBuilder<K> implements GraphBuilder<K> {
+
+        private final GraphBuilder<K> builder;
+
+        private SnapshotBuilder(GraphBuilder<K> builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public int addOrGetNode(NodeID<K> node) {
+            return builder.addOrGetNode(node);
+        }
+
+        @Override
+        public int getNodeIndex(NodeID<K> node) {
+            return builder.getNodeIndex(node);
+        }
+
+        @Override
+        public void addEdge(int startNodeIndex, int endNodeIndex,
+                            EdgeType edgeType, float weight) {
+            builder.addEdge(startNodeIndex, endNodeIndex, edgeType, weight);
+        }
+
+        @Override
+        public Graph<K> build() {
+            Graph<K> graph = builder.build();
+            File file;
+            try {
+                file = File.createTempFile("graph", ".snapshot");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            file.deleteOnExit();
+            new GraphSnapshotExporter<K>() {
+                @Override
+                protected String serializeNodeID(K nodeID) {
+                    return nodeID.toString();
+                }
+            }.exportGraph(graph, file.getAbsolutePath());
+            Converter<String, K> converter = new Converter<String, K>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public K convert(String id) {
+                    return (K) Integer.valueOf(id);
+                }
+            };
+            return new GraphSnapshotImporter<K>(getMetadata(), converter)
+                .importGraph(file.getAbsolutePath());
+        }
+    }
+}
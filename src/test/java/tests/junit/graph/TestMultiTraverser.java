@@ -0,0 +1,219 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests multi source traversals.
+ *
+ * @author jon
+ *
+ */
+public class TestMultiTraverser {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static Graph<Integer> buildRandomGraph(int nodeCount, int edgeCount) {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(11);
+        for (int i = 0; i < nodeCount; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < edgeCount; i++) {
+            int start = random.nextInt(nodeCount);
+            int end = random.nextInt(nodeCount);
+            // Few distinct weights, to get plenty of ties
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextInt(20) / 20f);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The original merge, peeking all cursors for every edge.
+     */
+    private static List<GraphEdge<Integer>>
+        linearMerge(Graph<Integer> graph, List<NodeID<Integer>> sources,
+                    int maxDepth, int limit) {
+        List<GraphCursor<Integer>> cursors =
+            new ArrayList<GraphCursor<Integer>>();
+        for (NodeID<Integer> source : sources)
+            cursors.add(graph.getTraverser(source, EDGE_TYPE)
+                .setMaxDepth(maxDepth).setMaxReturnedEdges(limit).traverse());
+        Set<NodeID<Integer>> returned = new HashSet<NodeID<Integer>>();
+        List<GraphEdge<Integer>> res = new ArrayList<GraphEdge<Integer>>();
+        while (returned.size() < limit) {
+            GraphCursor<Integer> best = null;
+            float maxWeight = -1f;
+            for (GraphCursor<Integer> cursor : cursors) {
+                while (cursor.hasNext()
+                    && returned.contains(cursor.peekNext().getEndNode()))
+                    cursor.next();
+                if (!cursor.hasNext())
+                    continue;
+                float weight = cursor.peekNext().getWeight();
+                if (weight > maxWeight) {
+                    best = cursor;
+                    maxWeight = weight;
+                }
+            }
+            if (best == null)
+                break;
+            GraphEdge<Integer> next = best.next();
+            returned.add(next.getEndNode());
+            res.add(next);
+        }
+        for (GraphCursor<Integer> cursor : cursors)
+            cursor.close();
+        return res;
+    }
+
+    @Test
+    public void testMergeMatchesLinearMerge() {
+        Graph<Integer> graph = buildRandomGraph(300, 3000);
+        Random random = new Random(5);
+        for (int i = 0; i < 100; i++) {
+            List<NodeID<Integer>> sources = new ArrayList<NodeID<Integer>>();
+            int sourceCount = 1 + random.nextInt(40);
+            for (int j = 0; j < sourceCount; j++)
+                sources.add(createNodeID(random.nextInt(300)));
+            int maxDepth = 1 + random.nextInt(2);
+            int limit = random.nextBoolean() ? 10 + random.nextInt(50)
+                : Integer.MAX_VALUE;
+            List<GraphEdge<Integer>> expected =
+                linearMerge(graph, sources, maxDepth, limit);
+            List<GraphEdge<Integer>> actual =
+                graph.getMultiTraverser(sources, EDGE_TYPE).setMaxDepth(maxDepth)
+                    .setMaxReturnedEdges(limit).getPath();
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * 0 -> 3 (0.5), 0 -> 4 (0.6), 1 -> 3 (0.5), 1 -> 5 (0.2), 2 -> 3 (0.1)
+     */
+    private static Graph<Integer> buildBasketGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        for (int i = 0; i < 6; i++)
+            builder.addOrGetNode(createNodeID(i));
+        builder.addEdge(0, 3, EDGE_TYPE, 0.5f);
+        builder.addEdge(0, 4, EDGE_TYPE, 0.6f);
+        builder.addEdge(1, 3, EDGE_TYPE, 0.5f);
+        builder.addEdge(1, 5, EDGE_TYPE, 0.2f);
+        builder.addEdge(2, 3, EDGE_TYPE, 0.1f);
+        return builder.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final List<NodeID<Integer>> BASKET =
+        Arrays.asList(createNodeID(0), createNodeID(1), createNodeID(2));
+
+    @Test
+    public void testSumCombiner() {
+        Graph<Integer> graph = buildBasketGraph();
+        List<GraphEdge<Integer>> path =
+            graph.getMultiTraverser(BASKET, EDGE_TYPE)
+                .setScoreCombiner(ScoreCombiners.SUM).getPath();
+        assertEquals(3, path.size());
+        assertEquals(createNodeID(3), path.get(0).getEndNode());
+        assertEquals(createNodeID(0), path.get(0).getStartNode());
+        assertEquals(1.1f, path.get(0).getWeight(), 1e-6);
+        assertEquals(createNodeID(4), path.get(1).getEndNode());
+        assertEquals(0.6f, path.get(1).getWeight(), 1e-6);
+        assertEquals(createNodeID(5), path.get(2).getEndNode());
+
+        // Limits apply to the combined result
+        path = graph.getMultiTraverser(BASKET, EDGE_TYPE)
+            .setScoreCombiner(ScoreCombiners.SUM).setMaxReturnedEdges(1)
+            .getPath();
+        assertEquals(1, path.size());
+        assertEquals(createNodeID(3), path.get(0).getEndNode());
+    }
+
+    @Test
+    public void testMaxEdgesPerSource() {
+        Graph<Integer> graph = buildBasketGraph();
+        // Only the heaviest edge of each start node is combined
+        List<GraphEdge<Integer>> path =
+            graph.getMultiTraverser(BASKET, EDGE_TYPE)
+                .setScoreCombiner(ScoreCombiners.SUM).setMaxEdgesPerSource(1)
+                .getPath();
+        assertEquals(2, path.size());
+        Set<NodeID<Integer>> endNodes = new HashSet<NodeID<Integer>>();
+        for (GraphEdge<Integer> edge : path)
+            endNodes.add(edge.getEndNode());
+        assertEquals(new HashSet<NodeID<Integer>>(Arrays.asList(createNodeID(3),
+                                                                createNodeID(4))),
+                     endNodes);
+    }
+
+    @Test
+    public void testReturnedEdgeCount() {
+        Graph<Integer> graph = buildBasketGraph();
+        GraphCursor<Integer> cursor =
+            graph.getMultiTraverser(BASKET, EDGE_TYPE).traverse();
+        while (cursor.hasNext())
+            cursor.next();
+        // The edges to 3 from the second and third start node are skipped
+        assertEquals(3, cursor.getReturnedEdgeCount());
+        assertEquals(5, cursor.getTraversedEdgeCount());
+        cursor.close();
+
+        cursor = graph.getMultiTraverser(BASKET, EDGE_TYPE)
+            .setScoreCombiner(ScoreCombiners.SUM).traverse();
+        cursor.next();
+        assertEquals(1, cursor.getReturnedEdgeCount());
+        cursor.close();
+    }
+
+    @Test
+    public void testMaxCombiner() {
+        Graph<Integer> graph = buildBasketGraph();
+        List<GraphEdge<Integer>> path =
+            graph.getMultiTraverser(BASKET, EDGE_TYPE)
+                .setScoreCombiner(ScoreCombiners.MAX).getPath();
+        assertEquals(3, path.size());
+        assertEquals(createNodeID(4), path.get(0).getEndNode());
+        assertEquals(createNodeID(3), path.get(1).getEndNode());
+        assertEquals(0.5f, path.get(1).getWeight(), 1e-6);
+        assertEquals(createNodeID(5), path.get(2).getEndNode());
+    }
+
+    @Test
+    public void testSourceWeightFunction() {
+        Graph<Integer> graph = buildBasketGraph();
+        SourceWeightFunction<Integer> boostSecond =
+            new SourceWeightFunction<Integer>() {
+                @Override
+                public float weigh(NodeID<Integer> source, float weight) {
+                    return source.getID() == 1 ? 4 * weight : weight;
+                }
+            };
+        List<GraphEdge<Integer>> path =
+            graph.getMultiTraverser(BASKET, EDGE_TYPE)
+                .setSourceWeightFunction(boostSecond).getPath();
+        assertEquals(3, path.size());
+        assertEquals(createNodeID(3), path.get(0).getEndNode());
+        assertEquals(createNodeID(1), path.get(0).getStartNode());
+        assertEquals(2f, path.get(0).getWeight(), 1e-6);
+        assertEquals(createNodeID(5), path.get(1).getEndNode());
+        assertEquals(0.8f, path.get(1).getWeight(), 1e-6);
+        assertEquals(createNodeID(4), path.get(2).getEndNode());
+
+        path = graph.getMultiTraverser(BASKET, EDGE_TYPE)
+            .setSourceWeightFunction(boostSecond)
+            .setScoreCombiner(ScoreCombiners.SUM).getPath();
+        assertEquals(createNodeID(3), path.get(0).getEndNode());
+        assertEquals(createNodeID(1), path.get(0).getStartNode());
+        assertEquals(2.6f, path.get(0).getWeight(), 1e-6);
+    }
+}
@@ -3,6 +3,8 @@ package tests.junit.graph;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -406,6 +408,65 @@ public class TestMutableGraphImpl {
         assertTrue(exception);
     }
 
+    @Test
+    public void testConcurrentReadsAndWrites() throws InterruptedException {
+        final MutableGraph<Integer> graph =
+            new MutableGraphImpl<Integer>(GRAPH_METADATA);
+        final int nodeCount = 20000;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch writerDone = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; i < nodeCount; i++)
+                        graph.addEdge(createProductID(i - 1),
+                                      createProductID(i), EDGE_TYPE, 1f);
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    writerDone.countDown();
+                }
+            }
+        };
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (writerDone.getCount() > 0) {
+                            int count = graph.nodeCount();
+                            // Every node below the count must be visible
+                            for (int i = Math.max(0, count - 100); i < count; i++) {
+                                if (graph.getNode(i) == null)
+                                    throw new AssertionError("Missing node: " + i);
+                            }
+                            // Every indexed node must be visible
+                            NodeID<Integer> id = createProductID(count);
+                            int index = graph.getPrimaryKey(id);
+                            if (index >= 0 && graph.getNode(index) == null)
+                                throw new AssertionError("Missing node: " + id);
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            });
+        }
+        for (Thread reader : readers)
+            reader.start();
+        writer.start();
+        writer.join();
+        for (Thread reader : readers)
+            reader.join();
+        assertNull(error.get());
+        assertEquals(nodeCount, graph.nodeCount());
+        assertEquals(nodeCount - 1, graph.edgeCount());
+        for (int i = 0; i < nodeCount; i++)
+            assertEquals(i, graph.getPrimaryKey(createProductID(i)));
+    }
+
     private static GraphEdge<Integer> newEdge(NodeID<Integer> n1,
                                               NodeID<Integer> n2,
                                               float weight) {
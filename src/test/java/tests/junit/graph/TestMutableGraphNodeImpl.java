@@ -0,0 +1,165 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link MutableGraphNodeImpl}.
+ *
+ * @author jon
+ *
+ */
+public class TestMutableGraphNodeImpl {
+
+    private static final EdgeType EDGE_TYPE = WEIGHTED;
+
+    private static List<Integer> getNeighbors(Graph<Integer> graph, int node,
+                                              final List<Float> weights) {
+        final List<Integer> neighbors = new ArrayList<Integer>();
+        graph.forEachNeighbor(node, EDGE_TYPE, new IntFloatProcedure() {
+            @Override
+            public boolean apply(int endNode, float weight) {
+                neighbors.add(endNode);
+                weights.add(weight);
+                return true;
+            }
+        });
+        return neighbors;
+    }
+
+    private static void assertDescending(List<Float> weights) {
+        for (int i = 1; i < weights.size(); i++)
+            assertTrue(weights.get(i - 1) >= weights.get(i));
+    }
+
+    @Test
+    public void testRandomMutations() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        Map<Integer, Float> expected = new HashMap<Integer, Float>();
+        NodeID<Integer> start = createNodeID(0);
+        Random random = new Random(3);
+        for (int i = 1; i <= 100; i++)
+            graph.addEdge(createNodeID(i), start, EDGE_TYPE, 1f);
+        for (int i = 0; i < 5000; i++) {
+            int end = 1 + random.nextInt(100);
+            NodeID<Integer> endNode = createNodeID(end);
+            int endIndex = graph.getPrimaryKey(endNode);
+            float weight = random.nextFloat();
+            switch (random.nextInt(3)) {
+            case 0:
+                if (!expected.containsKey(endIndex)) {
+                    graph.addEdge(start, endNode, EDGE_TYPE, weight);
+                    expected.put(endIndex, weight);
+                }
+                break;
+            case 1:
+                assertEquals(expected.containsKey(endIndex),
+                             graph.updateEdge(start, endNode, EDGE_TYPE, weight));
+                if (expected.containsKey(endIndex))
+                    expected.put(endIndex, weight);
+                break;
+            default:
+                assertEquals(expected.remove(endIndex) != null,
+                             graph.removeEdge(start, endNode, EDGE_TYPE));
+            }
+            List<Float> weights = new ArrayList<Float>();
+            List<Integer> neighbors =
+                getNeighbors(graph, graph.getPrimaryKey(start), weights);
+            assertEquals(expected.size(), neighbors.size());
+            assertDescending(weights);
+            for (int j = 0; j < neighbors.size(); j++)
+                assertEquals(expected.get(neighbors.get(j)), weights.get(j));
+        }
+    }
+
+    @Test
+    public void testSnapshotReads() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 10; i++)
+            graph.addEdge(start, createNodeID(i), EDGE_TYPE, i / 10f);
+        GraphCursor<Integer> cursor =
+            graph.getTraverser(start, EDGE_TYPE).traverse();
+        List<Integer> iterated = new ArrayList<Integer>();
+        try {
+            assertTrue(cursor.hasNext());
+            iterated.add(cursor.next().getEndNode().getID());
+            // Mutations are not visible to an ongoing traversal
+            graph.removeEdge(start, createNodeID(9), EDGE_TYPE);
+            graph.addEdge(start, createNodeID(11), EDGE_TYPE, 2f);
+            graph.updateEdge(start, createNodeID(1), EDGE_TYPE, 3f);
+            while (cursor.hasNext())
+                iterated.add(cursor.next().getEndNode().getID());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(10, iterated.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals(10 - i, iterated.get(i).intValue());
+
+        // But to any subsequent one
+        List<Float> weights = new ArrayList<Float>();
+        List<Integer> neighbors =
+            getNeighbors(graph, graph.getPrimaryKey(start), weights);
+        assertEquals(10, neighbors.size());
+        assertEquals(graph.getPrimaryKey(createNodeID(1)),
+                     neighbors.get(0).intValue());
+        assertEquals(graph.getPrimaryKey(createNodeID(11)),
+                     neighbors.get(1).intValue());
+        assertDescending(weights);
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+        final MutableGraph<Integer> graph =
+            new MutableGraphImpl<Integer>(METADATA);
+        final NodeID<Integer> start = createNodeID(0);
+        final int writerCount = 8;
+        final int edgesPerWriter = 1000;
+        final AtomicReference<Throwable> error =
+            new AtomicReference<Throwable>();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int w = 0; w < writerCount; w++) {
+            final int writer = w;
+            writers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(writer);
+                        for (int i = 0; i < edgesPerWriter; i++) {
+                            int end = 1 + writer * edgesPerWriter + i;
+                            graph.addEdge(start, createNodeID(end),
+                                          EDGE_TYPE, random.nextFloat());
+                        }
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            });
+        }
+        for (Thread writer : writers)
+            writer.start();
+        for (Thread writer : writers)
+            writer.join();
+        assertNull(error.get());
+        List<Float> weights = new ArrayList<Float>();
+        List<Integer> neighbors =
+            getNeighbors(graph, graph.getPrimaryKey(start), weights);
+        assertEquals(writerCount * edgesPerWriter, neighbors.size());
+        assertEquals(writerCount * edgesPerWriter,
+                     new HashSet<Integer>(neighbors).size());
+        assertDescending(weights);
+    }
+}
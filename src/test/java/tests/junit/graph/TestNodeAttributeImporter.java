@@ -0,0 +1,269 @@
+package tests.junit.graph;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.convert.converter.Converter;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+import recng.common.FieldMetadata;
+import recng.common.FieldMetadataImpl;
+import recng.common.FieldType;
+import recng.common.TableMetadataImpl;
+import recng.common.io.CSVDescriptor;
+import recng.common.io.CSVDialect;
+import recng.filter.Interval;
+import recng.filter.Intervals;
+import recng.filter.LowerIntervalBound;
+import recng.filter.UpperIntervalBound;
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link NodeAttributeImporter} and interval node predicates.
+ *
+ * @author jon
+ *
+ */
+public class TestNodeAttributeImporter {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 100;
+
+    private static final Converter<String, Integer> ID_CONVERTER =
+        new Converter<String, Integer>() {
+            @Override
+            public Integer convert(String id) {
+                return Integer.valueOf(id);
+            }
+        };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(23);
+        // Add the nodes in order, so that primary key == id
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    private static CSVDescriptor getDescriptor() {
+        List<FieldMetadata> fields = new ArrayList<FieldMetadata>();
+        fields.add(FieldMetadataImpl.create("id", FieldType.STRING));
+        fields.add(FieldMetadataImpl.create("name", FieldType.STRING));
+        fields.add(FieldMetadataImpl.create("price", FieldType.DOUBLE));
+        fields.add(new FieldMetadataImpl.Builder("stock", FieldType.INT)
+            .setDefaultValue(-1).build());
+        fields.add(FieldMetadataImpl.create("popularity", FieldType.LONG));
+        fields.add(FieldMetadataImpl.create("released", FieldType.DATE));
+        fields.add(FieldMetadataImpl.create("on_sale", FieldType.BOOLEAN));
+        return new CSVDescriptor().setHasHeader(true)
+            .setMetadata(new TableMetadataImpl(fields));
+    }
+
+    private String createCSV(List<String[]> rows) throws IOException {
+        String file = tempFolder.newFile("attributes.csv").getAbsolutePath();
+        CSVDialect dialect = new CSVDialect();
+        CSVWriter csvWriter =
+            new CSVWriter(new FileWriter(file), dialect.getSeparator(),
+                          dialect.getQuoteChar(), dialect.getEscapeChar());
+        try {
+            csvWriter.writeAll(rows);
+        } finally {
+            csvWriter.close();
+        }
+        return file;
+    }
+
+    private static <C extends Comparable<C>> Interval<C>
+        interval(C lower, boolean lowerInclusive, C upper,
+                 boolean upperInclusive) {
+        LowerIntervalBound<C> lowerBound = new LowerIntervalBound<C>(lower);
+        lowerBound.setInclusive(lowerInclusive);
+        UpperIntervalBound<C> upperBound = new UpperIntervalBound<C>(upper);
+        upperBound.setInclusive(upperInclusive);
+        return new Interval<C>(lowerBound, upperBound);
+    }
+
+    private static <C extends Comparable<C>> Intervals<C>
+        intervals(Interval<C> interval) {
+        Intervals<C> res = new Intervals<C>();
+        res.addInterval(interval);
+        return res;
+    }
+
+    private static <C extends Comparable<C>> Intervals<C>
+        intervals(Interval<C> first, Interval<C> second) {
+        Intervals<C> res = intervals(first);
+        res.addInterval(second);
+        return res;
+    }
+
+    @Test
+    public void testImport() throws IOException, ParseException {
+        Graph<Integer> graph = buildGraph();
+        List<String[]> rows = new ArrayList<String[]>();
+        // The columns are not in metadata order
+        rows.add(new String[] { "name", "price", "id", "stock", "popularity",
+                               "released", "on_sale" });
+        rows.add(new String[] { "a", "9.5", "1", "3", "10000000000",
+                               "2012-01-13", "true" });
+        rows.add(new String[] { "b", "", "2", "", "", "", "false" });
+        rows.add(new String[] { "unknown", "1.0", "1000", "1", "1",
+                               "2012-01-13", "true" });
+        rows.add(new String[] { "c", "20" , "3" });
+        NodeAttributeImporter<Integer> importer =
+            new NodeAttributeImporter<Integer>(graph,
+                                               TestNodeType.DEFAULT_NODE_TYPE,
+                                               ID_CONVERTER);
+        assertEquals(3, importer.importCSV(createCSV(rows), getDescriptor(),
+                                           "id"));
+
+        NodeAttributes attributes = graph.getNodeAttributes();
+        FloatColumn price = attributes.getFloatColumn("price");
+        assertEquals(9.5f, price.get(1), 0f);
+        assertEquals(0f, price.get(2), 0f);
+        assertEquals(20f, price.get(3), 0f);
+        IntColumn stock = attributes.getIntColumn("stock");
+        assertEquals(3, stock.get(1));
+        assertEquals(-1, stock.get(2));
+        assertEquals(-1, stock.get(3));
+        assertEquals(10000000000L,
+                     attributes.getLongColumn("popularity").get(1));
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2012-01-13")
+            .getTime(), attributes.getLongColumn("released").get(1));
+        NodeBitSet onSale = attributes.getBitSet("on_sale");
+        assertTrue(onSale.get(1));
+        assertFalse(onSale.get(2));
+        assertEquals(1, onSale.cardinality());
+        // Strings are not imported
+        assertEquals(new HashSet<String>(Arrays.asList("stock")),
+                     attributes.getIntColumnNames());
+    }
+
+    @Test
+    public void testIntIntervals() {
+        IntColumn column = new NodeAttributes().createIntColumn("stock", 0);
+        for (int i = 0; i < 100; i++)
+            column.set(i, i - 50);
+        Intervals<Integer> stock =
+            intervals(interval(-10, false, 0, true),
+                      interval(20, true, 30, false));
+        stock.addInterval(interval(40, true, (Integer) null, true));
+        stock.addInterval(interval(5, true, 5, false));
+        NodePredicate predicate = NodePredicates.within(column, stock);
+        for (int i = 0; i < 100; i++) {
+            int value = i - 50;
+            boolean expected =
+                (value > -10 && value <= 0) || (value >= 20 && value < 30)
+                    || value >= 40;
+            assertEquals(expected, predicate.accepts(i));
+        }
+        assertFalse(NodePredicates.within(column, new Intervals<Integer>())
+            .accepts(0));
+        assertTrue(NodePredicates.within(column,
+                                         intervals(interval((Integer) null,
+                                                            true,
+                                                            Integer.MAX_VALUE,
+                                                            true)))
+            .accepts(0));
+    }
+
+    @Test
+    public void testLongIntervals() {
+        LongColumn column = new NodeAttributes().createLongColumn("time", 0);
+        column.set(0, Long.MIN_VALUE);
+        column.set(1, Long.MAX_VALUE);
+        column.set(2, 1L << 40);
+        NodePredicate predicate =
+            NodePredicates.within(column,
+                                  intervals(interval(1L << 40, false,
+                                                     (Long) null, true),
+                                            interval((Long) null, true,
+                                                     Long.MIN_VALUE, true)));
+        assertTrue(predicate.accepts(0));
+        assertTrue(predicate.accepts(1));
+        assertFalse(predicate.accepts(2));
+        assertFalse(predicate.accepts(3));
+        predicate =
+            NodePredicates.within(column,
+                                  intervals(interval(Long.MAX_VALUE, false,
+                                                     (Long) null, true)));
+        assertFalse(predicate.accepts(1));
+    }
+
+    @Test
+    public void testFloatIntervals() {
+        FloatColumn column = new NodeAttributes().createFloatColumn("price", 0f);
+        column.set(0, 10f);
+        column.set(1, Math.nextUp(10f));
+        column.set(2, 20f);
+        column.set(3, Float.NaN);
+        NodePredicate predicate =
+            NodePredicates.within(column,
+                                  intervals(interval(10f, false, 20f, false)));
+        assertFalse(predicate.accepts(0));
+        assertTrue(predicate.accepts(1));
+        assertFalse(predicate.accepts(2));
+        assertFalse(predicate.accepts(3));
+        predicate =
+            NodePredicates.within(column,
+                                  intervals(interval(10f, true, 20f, true)));
+        assertTrue(predicate.accepts(0));
+        assertTrue(predicate.accepts(2));
+        assertFalse(predicate.accepts(3));
+    }
+
+    @Test
+    public void testTraversal() {
+        Graph<Integer> graph = buildGraph();
+        final FloatColumn price =
+            graph.getNodeAttributes().createFloatColumn("price", 0f);
+        Random random = new Random(1);
+        for (int i = 0; i < NODE_COUNT; i++)
+            price.set(i, random.nextFloat() * 100);
+        final Intervals<Float> range =
+            intervals(interval(10f, true, 30f, false),
+                      interval(70f, false, (Float) null, true));
+        EdgeFilter<Integer> filter = new EdgeFilter<Integer>() {
+            @Override
+            public boolean accepts(NodeID<Integer> startNode,
+                                   NodeID<Integer> endNode) {
+                return range.contains(price.get(endNode.getID()));
+            }
+        };
+        NodePredicate predicate = NodePredicates.within(price, range);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            List<GraphEdge<Integer>> expected =
+                graph.getTraverser(createNodeID(i), EDGE_TYPE).setMaxDepth(2)
+                    .setMaxReturnedEdges(10).setReturnableFilter(filter)
+                    .getPath();
+            assertEquals(expected,
+                         graph.getTraverser(createNodeID(i), EDGE_TYPE)
+                             .setMaxDepth(2).setMaxReturnedEdges(10)
+                             .setNodePredicate(predicate).getPath());
+        }
+    }
+}
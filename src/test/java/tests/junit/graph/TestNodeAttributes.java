@@ -0,0 +1,218 @@
+package tests.junit.graph;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link NodeAttributes} and node predicates used during traversals.
+ *
+ * @author jon
+ *
+ */
+public class TestNodeAttributes {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 200;
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(17);
+        // Add the nodes in order, so that primary key == id
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    /**
+     * An edge filter equivalent to a node predicate, given that primary key ==
+     * id.
+     */
+    private static EdgeFilter<Integer> asEdgeFilter(final NodePredicate predicate) {
+        return new EdgeFilter<Integer>() {
+            @Override
+            public boolean accepts(NodeID<Integer> startNode,
+                                   NodeID<Integer> endNode) {
+                return predicate.accepts(endNode.getID());
+            }
+        };
+    }
+
+    @Test
+    public void testBitSet() {
+        NodeBitSet bitSet = new NodeAttributes().getBitSet("in_stock");
+        assertEquals("in_stock", bitSet.getName());
+        assertFalse(bitSet.get(0));
+        assertFalse(bitSet.get(100000));
+        bitSet.set(3);
+        bitSet.set(64);
+        bitSet.set(100000);
+        assertTrue(bitSet.get(3));
+        assertTrue(bitSet.get(64));
+        assertTrue(bitSet.get(100000));
+        assertFalse(bitSet.get(4));
+        assertEquals(3, bitSet.cardinality());
+        bitSet.set(64, false);
+        assertFalse(bitSet.get(64));
+        bitSet.clear(3);
+        assertEquals(1, bitSet.cardinality());
+        bitSet.clear();
+        assertEquals(0, bitSet.cardinality());
+        assertFalse(bitSet.get(100000));
+    }
+
+    @Test
+    public void testColumns() {
+        NodeAttributes attributes = new NodeAttributes();
+        IntColumn stock = attributes.createIntColumn("stock", -1);
+        assertSame(stock, attributes.getIntColumn("stock"));
+        assertSame(stock, attributes.createIntColumn("stock", 0));
+        assertEquals(-1, stock.get(5000));
+        stock.set(5000, 7);
+        assertEquals(7, stock.get(5000));
+        assertEquals(-1, stock.get(4999));
+        stock.clear();
+        assertEquals(-1, stock.get(5000));
+
+        FloatColumn price = attributes.createFloatColumn("price", 0f);
+        price.set(10, 9.5f);
+        assertEquals(9.5f, price.get(10), 0f);
+        assertEquals(0f, price.get(11), 0f);
+
+        assertEquals(new HashSet<String>(Arrays.asList("stock")),
+                     attributes.getIntColumnNames());
+        attributes.removeIntColumn("stock");
+        assertNull(attributes.getIntColumn("stock"));
+        assertNotNull(attributes.getFloatColumn("price"));
+    }
+
+    @Test
+    public void testPredicates() {
+        NodeAttributes attributes = new NodeAttributes();
+        NodeBitSet even = attributes.getBitSet("even");
+        IntColumn value = attributes.createIntColumn("value", 0);
+        FloatColumn half = attributes.createFloatColumn("half", 0f);
+        for (int i = 0; i < 100; i++) {
+            even.set(i, i % 2 == 0);
+            value.set(i, i);
+            half.set(i, i / 2f);
+        }
+        NodePredicate isEven = NodePredicates.in(even);
+        NodePredicate small = NodePredicates.between(value, 10, 19);
+        NodePredicate cheap = NodePredicates.between(half, 0f, 5f);
+        NodePredicate and = NodePredicates.and(isEven, small);
+        NodePredicate or = NodePredicates.or(NodePredicates.notIn(even), cheap);
+        NodePredicate not = NodePredicates.not(NodePredicates.equalTo(value, 42));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0, isEven.accepts(i));
+            assertEquals(i >= 10 && i <= 19, small.accepts(i));
+            assertEquals(i <= 10, cheap.accepts(i));
+            assertEquals(i % 2 == 0 && i >= 10 && i <= 19, and.accepts(i));
+            assertEquals(i % 2 != 0 || i <= 10, or.accepts(i));
+            assertEquals(i != 42, not.accepts(i));
+        }
+    }
+
+    @Test
+    public void testTraversals() {
+        Graph<Integer> graph = buildGraph();
+        NodeBitSet inStock = graph.getNodeAttributes().getBitSet("in_stock");
+        Random random = new Random(3);
+        for (int i = 0; i < NODE_COUNT; i++)
+            inStock.set(i, random.nextInt(3) > 0);
+        NodePredicate predicate = NodePredicates.in(inStock);
+        EdgeFilter<Integer> filter = asEdgeFilter(predicate);
+
+        for (int i = 0; i < 20; i++) {
+            NodeID<Integer> source = createNodeID(i);
+            List<GraphEdge<Integer>> expected =
+                graph.getTraverser(source, EDGE_TYPE).setMaxDepth(2)
+                    .setMaxReturnedEdges(20).setReturnableFilter(filter)
+                    .getPath();
+            List<GraphEdge<Integer>> path =
+                graph.getTraverser(source, EDGE_TYPE).setMaxDepth(2)
+                    .setMaxReturnedEdges(20).setNodePredicate(predicate)
+                    .getPath();
+            assertEquals(expected, path);
+            for (GraphEdge<Integer> edge : path)
+                assertTrue(inStock.get(edge.getEndNode().getID()));
+
+            expected = graph.getBestFirstTraverser(source, EDGE_TYPE)
+                .setMaxDepth(2).setReturnableFilter(filter).getPath();
+            path = graph.getBestFirstTraverser(source, EDGE_TYPE)
+                .setMaxDepth(2).setNodePredicate(predicate).getPath();
+            assertEquals(expected, path);
+
+            @SuppressWarnings("unchecked")
+            List<NodeID<Integer>> sources =
+                Arrays.asList(source, createNodeID(i + 1));
+            expected = graph.getMultiTraverser(sources, EDGE_TYPE)
+                .setMaxDepth(2).setReturnableFilter(filter).getPath();
+            path = graph.getMultiTraverser(sources, EDGE_TYPE)
+                .setMaxDepth(2).setNodePredicate(predicate).getPath();
+            assertEquals(expected, path);
+        }
+    }
+
+    @Test
+    public void testBatchTraversal() {
+        final Graph<Integer> graph = buildGraph();
+        final NodeBitSet inStock = graph.getNodeAttributes().getBitSet("in_stock");
+        for (int i = 0; i < NODE_COUNT; i += 3)
+            inStock.set(i);
+        final NodePredicate predicate = NodePredicates.in(inStock);
+        int[] sources = new int[NODE_COUNT];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = i;
+        graph.getBatchTraverser(EDGE_TYPE).setMaxDepth(2)
+            .setNodePredicate(predicate)
+            .traverse(sources, new IndexPathProcedure() {
+                @Override
+                public boolean apply(int source, IndexCursor path) {
+                    int count = 0;
+                    while (path.next()) {
+                        assertTrue(inStock.get(path.getEndNode()));
+                        count++;
+                    }
+                    assertEquals(graph.getTraverser(createNodeID(source),
+                                                    EDGE_TYPE)
+                        .setMaxDepth(2)
+                        .setReturnableFilter(asEdgeFilter(predicate))
+                        .getPath().size(), count);
+                    return true;
+                }
+            });
+    }
+
+    @Test
+    public void testUpdates() {
+        Graph<Integer> graph = buildGraph();
+        NodeBitSet blocked = graph.getNodeAttributes().getBitSet("blocked");
+        Traverser<Integer> traverser =
+            graph.getTraverser(createNodeID(0), EDGE_TYPE)
+                .setNodePredicate(NodePredicates.notIn(blocked));
+        List<GraphEdge<Integer>> path = traverser.getPath();
+        assertFalse(path.isEmpty());
+        // Updates are visible to the next traversal
+        NodeID<Integer> first = path.get(0).getEndNode();
+        blocked.set(first.getID());
+        for (GraphEdge<Integer> edge : traverser.getPath())
+            assertFalse(first.equals(edge.getEndNode()));
+        blocked.clear();
+        assertEquals(path, traverser.getPath());
+    }
+}
@@ -4,5 +4,5 @@ import recng.graph.NodeType;
 
 public enum TestNodeType implements NodeType {
 
-    DEFAULT_NODE_TYPE;
+    DEFAULT_NODE_TYPE, SECONDARY_NODE_TYPE;
 }
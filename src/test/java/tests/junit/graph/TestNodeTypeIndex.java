@@ -0,0 +1,141 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests iterating, counting and sampling nodes of a certain type.
+ *
+ * @author jon
+ *
+ */
+public class TestNodeTypeIndex {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 1000;
+
+    private static List<Graph<Integer>> createGraphs() {
+        List<Graph<Integer>> graphs = createMixedGraphs(NODE_COUNT);
+        MutableGraph<Integer> mutable = new MutableGraphImpl<Integer>(METADATA);
+        for (int i = 1; i < NODE_COUNT; i++)
+            mutable.addEdge(createMixedNodeID(i - 1), createMixedNodeID(i),
+                            EDGE_TYPE, 1f);
+        graphs.add(mutable);
+        return graphs;
+    }
+
+    private static List<NodeID<Integer>> getNodes(Graph<Integer> graph,
+                                                  NodeType nodeType) {
+        final List<NodeID<Integer>> nodes = new ArrayList<NodeID<Integer>>();
+        graph.forEachNode(new NodeIDProcedure<Integer>() {
+            @Override
+            public boolean apply(NodeID<Integer> nodeId) {
+                nodes.add(nodeId);
+                return true;
+            }
+        }, nodeType);
+        return nodes;
+    }
+
+    @Test
+    public void testForEachNode() {
+        for (Graph<Integer> graph : createGraphs()) {
+            List<NodeID<Integer>> secondary =
+                getNodes(graph, TestNodeType.SECONDARY_NODE_TYPE);
+            assertEquals(NODE_COUNT / 10, secondary.size());
+            for (int i = 0; i < secondary.size(); i++)
+                assertEquals(createMixedNodeID(i * 10), secondary.get(i));
+            assertEquals(NODE_COUNT - NODE_COUNT / 10,
+                         getNodes(graph, TestNodeType.DEFAULT_NODE_TYPE).size());
+
+            // Stops when the procedure returns false
+            final List<NodeID<Integer>> first = new ArrayList<NodeID<Integer>>();
+            graph.forEachNode(new NodeIDProcedure<Integer>() {
+                @Override
+                public boolean apply(NodeID<Integer> nodeId) {
+                    first.add(nodeId);
+                    return first.size() < 3;
+                }
+            }, TestNodeType.SECONDARY_NODE_TYPE);
+            assertEquals(3, first.size());
+        }
+    }
+
+    @Test
+    public void testNodeCount() {
+        for (Graph<Integer> graph : createGraphs()) {
+            assertEquals(NODE_COUNT / 10,
+                         graph.nodeCount(TestNodeType.SECONDARY_NODE_TYPE));
+            assertEquals(NODE_COUNT - NODE_COUNT / 10,
+                         graph.nodeCount(TestNodeType.DEFAULT_NODE_TYPE));
+            assertEquals(0, graph.nodeCount(new NodeTypeImpl("UNKNOWN", 17)));
+        }
+    }
+
+    @Test
+    public void testMutations() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        assertEquals(0, graph.nodeCount(TestNodeType.SECONDARY_NODE_TYPE));
+        graph.addEdge(createMixedNodeID(1), createMixedNodeID(10), EDGE_TYPE, 1f);
+        graph.addEdge(createMixedNodeID(10), createMixedNodeID(20), EDGE_TYPE, 1f);
+        graph.addEdge(createMixedNodeID(20), createMixedNodeID(1), EDGE_TYPE, 1f);
+        assertEquals(2, graph.nodeCount(TestNodeType.SECONDARY_NODE_TYPE));
+        assertEquals(1, graph.nodeCount(TestNodeType.DEFAULT_NODE_TYPE));
+        List<NodeID<Integer>> secondary =
+            getNodes(graph, TestNodeType.SECONDARY_NODE_TYPE);
+        assertEquals(createMixedNodeID(10), secondary.get(0));
+        assertEquals(createMixedNodeID(20), secondary.get(1));
+    }
+
+    @Test
+    public void testSampleNodes() {
+        Random random = new Random(3);
+        for (Graph<Integer> graph : createGraphs()) {
+            List<NodeID<Integer>> sample =
+                graph.sampleNodes(TestNodeType.SECONDARY_NODE_TYPE, 20, random);
+            assertEquals(20, sample.size());
+            Set<NodeID<Integer>> distinct = new HashSet<NodeID<Integer>>(sample);
+            assertEquals(20, distinct.size());
+            for (NodeID<Integer> nodeId : sample)
+                assertEquals(TestNodeType.SECONDARY_NODE_TYPE,
+                             nodeId.getNodeType());
+
+            // Asking for more than there are returns all nodes
+            sample = graph.sampleNodes(TestNodeType.SECONDARY_NODE_TYPE,
+                                       NODE_COUNT, random);
+            assertEquals(getNodes(graph, TestNodeType.SECONDARY_NODE_TYPE),
+                         sample);
+            assertTrue(graph.sampleNodes(TestNodeType.SECONDARY_NODE_TYPE, 0,
+                                         random).isEmpty());
+        }
+    }
+
+    @Test
+    public void testUniformSampling() {
+        Graph<Integer> graph =
+            buildMixedGraph(CSRGraphImpl.Builder.<Integer> create(METADATA),
+                            NODE_COUNT);
+        Random random = new Random(5);
+        int[] counts = new int[NODE_COUNT];
+        int rounds = 5000;
+        for (int i = 0; i < rounds; i++) {
+            for (NodeID<Integer> nodeId : graph
+                .sampleNodes(TestNodeType.SECONDARY_NODE_TYPE, 10, random))
+                counts[nodeId.getID()]++;
+        }
+        // Each of the 100 nodes is expected to be picked 500 times
+        for (int i = 0; i < NODE_COUNT; i += 10)
+            assertTrue("Count: " + counts[i],
+                       counts[i] > 400 && counts[i] < 600);
+    }
+}
@@ -0,0 +1,270 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mahout.math.function.IntFloatProcedure;
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link OverlayGraphImpl}.
+ *
+ * @author jon
+ *
+ */
+public class TestOverlayGraphImpl {
+
+    /**
+     * Builds a base graph with the same edges as a mutable graph.
+     */
+    private static ImmutableGraph<Integer> createBase(final Graph<Integer> graph) {
+        final GraphBuilder<Integer> builder =
+            CSRGraphImpl.Builder.create(METADATA);
+        graph.forEachNode(new NodeIDProcedure<Integer>() {
+            @Override
+            public boolean apply(NodeID<Integer> nodeId) {
+                builder.addOrGetNode(nodeId);
+                return true;
+            }
+        });
+        graph.forEachEdge(new GraphEdgeProcedure<Integer>() {
+            @Override
+            public boolean apply(GraphEdge<Integer> edge) {
+                builder.addEdge(builder.getNodeIndex(edge.getStartNode()),
+                                builder.getNodeIndex(edge.getEndNode()),
+                                edge.getType(), edge.getWeight());
+                return true;
+            }
+        });
+        return (ImmutableGraph<Integer>) builder.build();
+    }
+
+    private static void assertSameGraph(Graph<Integer> expected,
+                                        Graph<Integer> actual) {
+        assertEquals(expected.nodeCount(), actual.nodeCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (EdgeType edgeType : TestEdgeType.values())
+            assertEquals(expected.edgeCount(edgeType), actual.edgeCount(edgeType));
+        assertEquals(getEdges(expected), getEdges(actual));
+    }
+
+    /**
+     * Applies random mutations that never add a second edge between the same
+     * pair of nodes to both graphs.
+     */
+    private static void mutate(Random random, MutableGraph<Integer> expected,
+                               MutableGraph<Integer> actual,
+                               Set<String> existing, int nodes) {
+        for (int i = 0; i < 1000; i++) {
+            NodeID<Integer> start = createNodeID(random.nextInt(nodes / 10));
+            NodeID<Integer> end = createNodeID(random.nextInt(nodes));
+            EdgeType edgeType =
+                random.nextBoolean() ? WEIGHTED
+                    : UNWEIGHTED;
+            String key = start + "->" + end + ":" + edgeType;
+            float weight = random.nextFloat();
+            switch (random.nextInt(3)) {
+            case 0:
+                // Adding an existing edge updates it
+                if (existing.add(key))
+                    expected.addEdge(start, end, edgeType, weight);
+                else
+                    expected.updateEdge(start, end, edgeType, weight);
+                actual.addEdge(start, end, edgeType, weight);
+                break;
+            case 1:
+                assertEquals(expected.updateEdge(start, end, edgeType, weight),
+                             actual.updateEdge(start, end, edgeType, weight));
+                break;
+            default:
+                existing.remove(key);
+                assertEquals(expected.removeEdge(start, end, edgeType),
+                             actual.removeEdge(start, end, edgeType));
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsMutableGraph() {
+        Random random = new Random(17);
+        int nodes = 300;
+        Set<String> existing = new HashSet<String>();
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        mutate(random, expected, new MutableGraphImpl<Integer>(METADATA),
+               existing, nodes);
+        OverlayGraphImpl<Integer> actual =
+            new OverlayGraphImpl<Integer>(createBase(expected));
+        assertSameGraph(expected, actual);
+        assertEquals(0, actual.getDeltaSize());
+
+        for (int round = 0; round < 10; round++) {
+            mutate(random, expected, actual, existing, nodes);
+            assertSameGraph(expected, actual);
+            assertTrue(actual.getDeltaSize() > 0);
+            if (round % 3 == 0) {
+                actual.fold();
+                assertEquals(0, actual.getDeltaSize());
+                assertSameGraph(expected, actual);
+            }
+        }
+        for (int id = 0; id < nodes; id++)
+            assertEquals(expected.getPrimaryKey(createNodeID(id)),
+                         actual.getPrimaryKey(createNodeID(id)));
+    }
+
+    @Test
+    public void testTraversalOrder() {
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 10; i++) {
+            expected.addEdge(start, createNodeID(i), WEIGHTED, i);
+            expected.addEdge(start, createNodeID(i), UNWEIGHTED, i);
+        }
+        OverlayGraphImpl<Integer> actual =
+            new OverlayGraphImpl<Integer>(createBase(expected));
+        List<GraphMutation<Integer>> mutations =
+            Arrays.asList(GraphMutation.add(start, createNodeID(11),
+                                            WEIGHTED, 5.5f),
+                          GraphMutation.update(start, createNodeID(2),
+                                               WEIGHTED, 20f),
+                          GraphMutation.remove(start, createNodeID(7),
+                                               WEIGHTED),
+                          GraphMutation.add(start, createNodeID(12),
+                                            UNWEIGHTED, 1f),
+                          GraphMutation.remove(start, createNodeID(3),
+                                               UNWEIGHTED));
+        assertEquals(5, expected.applyBatch(mutations));
+        assertEquals(5, actual.applyBatch(mutations));
+
+        int node = actual.getPrimaryKey(start);
+        for (EdgeType edgeType : TestEdgeType.values())
+            assertEquals(getEdges(expected, node, edgeType),
+                         getEdges(actual, node, edgeType));
+        // Descending weight, merging base and delta edges
+        List<String> weighted = getEdges(actual, node, WEIGHTED);
+        assertEquals(actual.getPrimaryKey(createNodeID(2)) + ":20.0",
+                     weighted.get(0));
+        assertEquals(actual.getPrimaryKey(createNodeID(11)) + ":5.5",
+                     weighted.get(5));
+        // The node iterators merge in the same order
+        for (EdgeType edgeType : TestEdgeType.values()) {
+            List<String> traversed = new ArrayList<String>();
+            for (GraphEdge<Integer> edge : actual.getTraverser(start, edgeType)
+                .getPath())
+                traversed.add(actual.getPrimaryKey(edge.getEndNode()) + ":"
+                    + edge.getWeight());
+            assertEquals(getEdges(actual, node, edgeType), traversed);
+        }
+
+        actual.fold();
+        for (EdgeType edgeType : TestEdgeType.values())
+            assertEquals(getEdges(expected, node, edgeType),
+                         getEdges(actual, node, edgeType));
+    }
+
+    @Test
+    public void testSetEdges() {
+        MutableGraph<Integer> expected = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 5; i++)
+            expected.addEdge(start, createNodeID(i), WEIGHTED, i);
+        OverlayGraphImpl<Integer> actual =
+            new OverlayGraphImpl<Integer>(createBase(expected));
+        List<NodeID<Integer>> endNodes =
+            Arrays.asList(createNodeID(6), createNodeID(2), createNodeID(7));
+        List<Float> weights = Arrays.asList(3f, 1f, 2f);
+        expected.setEdges(start, WEIGHTED, endNodes, weights);
+        actual.setEdges(start, WEIGHTED, endNodes, weights);
+        assertSameGraph(expected, actual);
+        actual.addEdge(start, createNodeID(1), WEIGHTED, 0.5f);
+        expected.addEdge(start, createNodeID(1), WEIGHTED, 0.5f);
+        assertSameGraph(expected, actual);
+        actual.fold();
+        assertSameGraph(expected, actual);
+    }
+
+    @Test
+    public void testEarlyTermination() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        NodeID<Integer> start = createNodeID(0);
+        for (int i = 1; i <= 10; i++)
+            graph.addEdge(start, createNodeID(i), WEIGHTED, i);
+        OverlayGraphImpl<Integer> overlay =
+            new OverlayGraphImpl<Integer>(createBase(graph));
+        overlay.addEdge(start, createNodeID(11), WEIGHTED, 9.5f);
+        final List<Float> weights = new ArrayList<Float>();
+        overlay.forEachNeighbor(overlay.getPrimaryKey(start),
+                                WEIGHTED,
+                                new IntFloatProcedure() {
+            @Override
+            public boolean apply(int endNode, float weight) {
+                weights.add(weight);
+                return weights.size() < 3;
+            }
+        });
+        assertEquals(Arrays.asList(10f, 9.5f, 9f), weights);
+    }
+
+    @Test
+    public void testConcurrentFolding() throws InterruptedException {
+        MutableGraph<Integer> initial = new MutableGraphImpl<Integer>(METADATA);
+        for (int i = 0; i < 100; i++)
+            initial.addEdge(createNodeID(i % 10), createNodeID(i), WEIGHTED, i);
+        final OverlayGraphImpl<Integer> graph =
+            new OverlayGraphImpl<Integer>(createBase(initial));
+        graph.setFoldThreshold(100);
+        graph.startFolding();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final int threads = 4;
+        final int edges = 2000;
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < edges; i++) {
+                            int id = 1000 + i * threads + offset;
+                            graph.addEdge(createNodeID(i % 20), createNodeID(id),
+                                          WEIGHTED, id);
+                            if (i % 2 == 1)
+                                assertTrue(graph.removeEdge(createNodeID((i - 1) % 20),
+                                                            createNodeID(id - threads),
+                                                            WEIGHTED));
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        graph.close();
+        assertNull(error.get());
+        assertTrue(graph.getFoldCount() > 0);
+        assertEquals(0, graph.getFailedFolds());
+
+        int expected = 100 + threads * edges / 2;
+        assertEquals(expected, graph.edgeCount());
+        assertEquals(expected, getEdges(graph).size());
+        graph.fold();
+        assertEquals(0, graph.getDeltaSize());
+        assertEquals(expected, graph.edgeCount());
+        assertEquals(expected, getEdges(graph).size());
+        assertEquals(expected, graph.getBase().edgeCount());
+    }
+}
@@ -0,0 +1,143 @@
+package tests.junit.graph;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.springframework.core.convert.converter.Converter;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link ParallelGraphImporter}.
+ *
+ * @author jon
+ *
+ */
+public class TestParallelGraphImporter {
+
+    private static final Converter<String, Integer> CONVERTER =
+        new Converter<String, Integer>() {
+            @Override
+            public Integer convert(String id) {
+                return Integer.valueOf(id);
+            }
+        };
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(17);
+        int nodeCount = 500;
+        for (int i = 0; i < nodeCount; i++)
+            builder.addOrGetNode(new NodeID<Integer>(i, TestNodeType.DEFAULT_NODE_TYPE));
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(nodeCount);
+            int end = random.nextInt(nodeCount);
+            EdgeType edgeType = random.nextBoolean() ? TestEdgeType.DEFAULT_EDGE_TYPE
+                : TestEdgeType.SECONDARY_EDGE_TYPE;
+            builder.addEdge(start, end, edgeType, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    private static File export(Graph<Integer> graph) throws IOException {
+        File file = File.createTempFile("graph", ".csv");
+        file.deleteOnExit();
+        new GraphExporterImpl<Integer>() {
+            @Override
+            protected String serializeNodeID(Integer nodeID) {
+                return nodeID.toString();
+            }
+        }.exportGraph(graph, file.getAbsolutePath());
+        return file;
+    }
+
+    private static ParallelGraphImporter<Integer> createImporter() {
+        ParallelGraphImporter<Integer> importer =
+            new ParallelGraphImporter<Integer>(CSRGraphImpl.Builder.<Integer> create(METADATA),
+                                               METADATA, CONVERTER, 4);
+        importer.setMinRangeSize(256);
+        return importer;
+    }
+
+    @Test
+    public void testImport() throws IOException {
+        Graph<Integer> graph = buildGraph();
+        File file = export(graph);
+
+        Graph<Integer> sequential =
+            new GraphImporterImpl<Integer>(CSRGraphImpl.Builder.<Integer> create(METADATA),
+                                           METADATA, CONVERTER)
+                .importGraph(file.getAbsolutePath());
+
+        ParallelGraphImporter<Integer> importer = createImporter();
+        Graph<Integer> parallel = importer.importGraph(file.getAbsolutePath());
+
+        assertEquals(graph.nodeCount(), parallel.nodeCount());
+        assertEquals(graph.edgeCount(), parallel.edgeCount());
+        assertEquals(getEdges(sequential), getEdges(parallel));
+        for (int i = 0; i < graph.nodeCount(); i++) {
+            NodeID<Integer> id = new NodeID<Integer>(i, TestNodeType.DEFAULT_NODE_TYPE);
+            assertEquals(graph.getPrimaryKey(id), parallel.getPrimaryKey(id));
+        }
+
+        ImportStats stats = importer.getStats();
+        assertEquals(graph.nodeCount(), stats.getNodeRows());
+        assertEquals(graph.edgeCount(), stats.getEdgeRows());
+        assertEquals(0, stats.getParseErrors());
+        assertFalse(stats.isRunning());
+    }
+
+    @Test
+    public void testParseErrors() throws IOException {
+        Graph<Integer> graph = buildGraph();
+        File file = export(graph);
+        FileWriter fw = new FileWriter(file, true);
+        try {
+            fw.write("0;1;0;not a float\n");
+            fw.write("0;1;17;0.5\n");
+            fw.write("0;1\n");
+        } finally {
+            fw.close();
+        }
+
+        ParallelGraphImporter<Integer> importer = createImporter();
+        Graph<Integer> parallel = importer.importGraph(file.getAbsolutePath());
+
+        assertEquals(getEdges(graph), getEdges(parallel));
+        assertEquals(3, importer.getStats().getParseErrors());
+    }
+
+    @Test
+    public void testGzippedShard() throws IOException {
+        Graph<Integer> graph = buildGraph();
+        File file = export(graph);
+        File gzipped = File.createTempFile("graph", ".csv.gz");
+        gzipped.deleteOnExit();
+        InputStream in = new FileInputStream(file);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped));
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        Graph<Integer> parallel =
+            createImporter().importGraph(gzipped.getAbsolutePath());
+        assertEquals(graph.nodeCount(), parallel.nodeCount());
+        assertEquals(getEdges(graph), getEdges(parallel));
+    }
+}
@@ -0,0 +1,150 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link RandomWalkRecommender}.
+ *
+ * @author jon
+ *
+ */
+public class TestRandomWalkRecommender {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    /**
+     * Builds two clusters, nodes 0-49 and 50-99, with no edges between them.
+     */
+    private static Graph<Integer> buildClusters() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 1000; i++) {
+            int offset = random.nextBoolean() ? 0 : 50;
+            int start = offset + random.nextInt(50);
+            int end = offset + random.nextInt(50);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    private static Set<Integer> getIds(List<NodeScore<Integer>> scores) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (NodeScore<Integer> score : scores)
+            ids.add(score.getNodeId().getID());
+        return ids;
+    }
+
+    @Test
+    public void testStaysInCluster() {
+        Graph<Integer> graph = buildClusters();
+        RandomWalkRecommender<Integer> recommender =
+            new RandomWalkRecommender<Integer>(graph, EDGE_TYPE)
+                .setMaxWalks(2000);
+        List<NodeID<Integer>> seeds =
+            Arrays.asList(createNodeID(1), createNodeID(2), createNodeID(3));
+        List<NodeScore<Integer>> res = recommender.recommend(seeds, 20);
+        assertEquals(20, res.size());
+        for (NodeScore<Integer> score : res) {
+            int id = score.getNodeId().getID();
+            assertTrue(id < 50);
+            assertTrue(id > 3);
+        }
+        float prev = Float.MAX_VALUE;
+        for (NodeScore<Integer> score : res) {
+            assertTrue(score.getScore() > 0f);
+            assertTrue(score.getScore() <= prev);
+            prev = score.getScore();
+        }
+
+        res = recommender.recommend(createNodeID(75), 10);
+        assertEquals(10, res.size());
+        for (Integer id : getIds(res))
+            assertTrue(id >= 50 && id != 75);
+    }
+
+    @Test
+    public void testWeightedSampling() {
+        // A star, where each walk takes exactly one step
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        for (int i = 0; i < 5; i++)
+            builder.addOrGetNode(createNodeID(i));
+        builder.addEdge(0, 1, EDGE_TYPE, 1f);
+        builder.addEdge(0, 2, EDGE_TYPE, 2f);
+        builder.addEdge(0, 3, EDGE_TYPE, 3f);
+        builder.addEdge(0, 4, EDGE_TYPE, 4f);
+        Graph<Integer> graph = builder.build();
+
+        RandomWalkRecommender<Integer> recommender =
+            new RandomWalkRecommender<Integer>(graph, EDGE_TYPE)
+                .setRestartProbability(1f).setMaxWalks(40000);
+        List<NodeScore<Integer>> res = recommender.recommend(createNodeID(0), 10);
+        assertEquals(4, res.size());
+        for (int i = 0; i < 4; i++) {
+            NodeScore<Integer> score = res.get(i);
+            assertEquals(4 - i, score.getNodeId().getID().intValue());
+            assertEquals((4 - i) / 10f, score.getScore(), 0.02f);
+        }
+    }
+
+    @Test
+    public void testParallel() throws InterruptedException {
+        Graph<Integer> graph = buildClusters();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            RandomWalkRecommender<Integer> recommender =
+                new RandomWalkRecommender<Integer>(graph, EDGE_TYPE, executor)
+                    .setParallelism(4).setMaxWalks(5000);
+            List<NodeScore<Integer>> res =
+                recommender.recommend(createNodeID(60), 100);
+            assertFalse(res.isEmpty());
+            for (Integer id : getIds(res))
+                assertTrue(id >= 50 && id != 60);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeBudget() {
+        Graph<Integer> graph = buildClusters();
+        RandomWalkRecommender<Integer> recommender =
+            new RandomWalkRecommender<Integer>(graph, EDGE_TYPE)
+                .setMaxWalks(Integer.MAX_VALUE).setTimeBudget(50);
+        long start = System.currentTimeMillis();
+        List<NodeScore<Integer>> res = recommender.recommend(createNodeID(1), 5);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(5, res.size());
+    }
+
+    @Test
+    public void testUnknownSeed() {
+        Graph<Integer> graph = buildClusters();
+        RandomWalkRecommender<Integer> recommender =
+            new RandomWalkRecommender<Integer>(graph, EDGE_TYPE);
+        assertTrue(recommender.recommend(createNodeID(1000), 5).isEmpty());
+        List<NodeID<Integer>> seeds = new ArrayList<NodeID<Integer>>();
+        assertTrue(recommender.recommend(seeds, 5).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRestartProbability() {
+        new RandomWalkRecommender<Integer>(buildClusters(), EDGE_TYPE)
+            .setRestartProbability(0f);
+    }
+}
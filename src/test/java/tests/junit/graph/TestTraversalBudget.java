@@ -0,0 +1,172 @@
+package tests.junit.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests time budgeted and cancelled traversals.
+ *
+ * @author jon
+ *
+ */
+public class TestTraversalBudget {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 1000;
+
+    private static Graph<Integer> buildGraph() {
+        GraphBuilder<Integer> builder = CSRGraphImpl.Builder.create(METADATA);
+        Random random = new Random(13);
+        for (int i = 0; i < NODE_COUNT; i++)
+            builder.addOrGetNode(createNodeID(i));
+        for (int i = 0; i < 20000; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                builder.addEdge(start, end, EDGE_TYPE, random.nextFloat());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Asserts that a traversal is truncated. If prefix is true, the truncated
+     * path must also be a prefix of the full path.
+     */
+    private static void assertTruncated(Graph<Integer> graph,
+                                        Traverser<Integer> traverser,
+                                        List<GraphEdge<Integer>> fullPath,
+                                        boolean prefix) {
+        int truncated = graph.getStats().getTruncatedTraversals();
+        GraphCursor<Integer> cursor = traverser.traverse();
+        int count = 0;
+        try {
+            while (cursor.hasNext()) {
+                GraphEdge<Integer> edge = cursor.next();
+                if (prefix)
+                    assertEquals(fullPath.get(count), edge);
+                count++;
+            }
+            assertTrue(cursor.isTruncated());
+        } finally {
+            cursor.close();
+        }
+        assertTrue(count < fullPath.size());
+        assertEquals(truncated + 1, graph.getStats().getTruncatedTraversals());
+    }
+
+    @Test
+    public void testDeadline() {
+        Graph<Integer> graph = buildGraph();
+        Traverser<Integer> traverser =
+            graph.getTraverser(createNodeID(0), EDGE_TYPE).setMaxDepth(3);
+        List<GraphEdge<Integer>> fullPath = traverser.getPath();
+        assertEquals(0, graph.getStats().getTruncatedTraversals());
+
+        // The deadline has already passed, so only the edges traversed before
+        // the first check are returned
+        traverser.setDeadline(System.currentTimeMillis() - 1);
+        assertTruncated(graph, traverser, fullPath, true);
+
+        traverser.setDeadline(Long.MAX_VALUE).setTimeBudget(0);
+        assertTruncated(graph, traverser, fullPath, true);
+
+        traverser.setTimeBudget(60000);
+        GraphCursor<Integer> cursor = traverser.traverse();
+        try {
+            while (cursor.hasNext())
+                cursor.next();
+            assertFalse(cursor.isTruncated());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(fullPath, traverser.getPath());
+    }
+
+    @Test
+    public void testOtherTraversers() {
+        Graph<Integer> graph = buildGraph();
+        BestFirstTraverser<Integer> bestFirst =
+            graph.getBestFirstTraverser(createNodeID(0), EDGE_TYPE);
+        bestFirst.setMaxDepth(3);
+        List<GraphEdge<Integer>> bestFirstPath = bestFirst.getPath();
+        assertTruncated(graph, bestFirst.setTimeBudget(0), bestFirstPath, true);
+
+        @SuppressWarnings("unchecked")
+        List<NodeID<Integer>> sources =
+            Arrays.asList(createNodeID(0), createNodeID(1));
+        MultiSourceTraverser<Integer> multi =
+            graph.getMultiTraverser(sources, EDGE_TYPE);
+        multi.setMaxDepth(3);
+        List<GraphEdge<Integer>> fullPath = multi.getPath();
+        // The merged order depends on how far each source got
+        assertTruncated(graph, multi.setTimeBudget(0), fullPath, false);
+    }
+
+    @Test
+    public void testAsync() throws InterruptedException, ExecutionException {
+        Graph<Integer> graph = buildGraph();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Traverser<Integer> traverser =
+                graph.getTraverser(createNodeID(0), EDGE_TYPE).setMaxDepth(2);
+            Future<List<GraphEdge<Integer>>> future =
+                traverser.getPathAsync(executor);
+            assertEquals(traverser.getPath(), future.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        Graph<Integer> graph = buildGraph();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger filterCalls = new AtomicInteger();
+        Traverser<Integer> traverser =
+            graph.getTraverser(createNodeID(0), EDGE_TYPE).setMaxDepth(3)
+                .setReturnableFilter(new EdgeFilter<Integer>() {
+                    @Override
+                    public boolean accepts(NodeID<Integer> start,
+                                           NodeID<Integer> end) {
+                        filterCalls.incrementAndGet();
+                        started.countDown();
+                        try {
+                            Thread.sleep(10); // A slow filter
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return true;
+                    }
+                });
+        int truncated = graph.getStats().getTruncatedTraversals();
+        try {
+            Future<List<GraphEdge<Integer>>> future =
+                traverser.getPathAsync(executor);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(future.cancel(true));
+            assertTrue(future.isCancelled());
+        } finally {
+            executor.shutdown();
+        }
+        // The traversal stops long before visiting all edges
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(filterCalls.get() < NODE_COUNT);
+        assertEquals(truncated + 1, graph.getStats().getTruncatedTraversals());
+    }
+}
@@ -0,0 +1,248 @@
+package tests.junit.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import recng.graph.*;
+import static org.junit.Assert.*;
+import static tests.junit.graph.AbstractTestGraph.*;
+
+/**
+ * Tests {@link TraversalCache}.
+ *
+ * @author jon
+ *
+ */
+public class TestTraversalCache {
+
+    private static final EdgeType EDGE_TYPE = TestEdgeType.DEFAULT_EDGE_TYPE;
+
+    private static final EdgeType SECONDARY_EDGE_TYPE =
+        TestEdgeType.SECONDARY_EDGE_TYPE;
+
+    private static final int NODE_COUNT = 100;
+
+    private static MutableGraph<Integer> populate(MutableGraph<Integer> graph) {
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start != end)
+                graph.addEdge(createNodeID(start), createNodeID(end), EDGE_TYPE,
+                              random.nextFloat());
+        }
+        return graph;
+    }
+
+    private static List<GraphEdge<Integer>> traverse(Graph<Integer> graph,
+                                                     int source, int maxDepth,
+                                                     int maxReturned) {
+        return graph.getTraverser(createNodeID(source), EDGE_TYPE)
+            .setMaxDepth(maxDepth).setMaxReturnedEdges(maxReturned).getPath();
+    }
+
+    @Test
+    public void testCachedPaths() {
+        Graph<Integer> graph =
+            populate(new MutableGraphImpl<Integer>(METADATA));
+        TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, 1 << 20);
+        for (int i = 0; i < NODE_COUNT; i++) {
+            List<GraphEdge<Integer>> expected = traverse(graph, i, 2, 10);
+            assertEquals(expected,
+                         cache.getPath(createNodeID(i), EDGE_TYPE, 2, 10));
+            assertEquals(expected,
+                         cache.getPath(createNodeID(i), EDGE_TYPE, 2, 10));
+        }
+        assertEquals(NODE_COUNT, cache.getMisses());
+        assertEquals(NODE_COUNT, cache.getHits());
+        assertEquals(NODE_COUNT, cache.size());
+
+        // Different limits are cached separately
+        assertEquals(traverse(graph, 0, 1, 3),
+                     cache.getPath(createNodeID(0), EDGE_TYPE, 1, 3));
+        assertEquals(NODE_COUNT + 1, cache.getMisses());
+
+        // Unknown nodes
+        assertTrue(cache.getPath(createNodeID(NODE_COUNT), EDGE_TYPE, 2, 10)
+            .isEmpty());
+    }
+
+    @Test
+    public void testDecayingEdges() {
+        ClockedGraph graph = new ClockedGraph();
+        graph.setEdgeDecay(EDGE_TYPE, EdgeDecay.ttl(60 * 1000L));
+        // 0 -> 1 -> 2
+        graph.addEdge(createNodeID(0), createNodeID(1), EDGE_TYPE, 1f);
+        graph.addEdge(createNodeID(1), createNodeID(2), EDGE_TYPE, 1f);
+        graph.addEdge(createNodeID(0), createNodeID(1), SECONDARY_EDGE_TYPE, 1f);
+        TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, 1 << 20);
+        assertEquals(2, cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10)
+            .size());
+        assertEquals(1, cache.getPath(createNodeID(0), SECONDARY_EDGE_TYPE, 2,
+                                      10).size());
+        // Only the path of the type without decay is cached
+        assertEquals(1, cache.size());
+
+        // 0 -> 1 expires without any modification
+        graph.advance(30 * 1000L);
+        graph.addEdge(createNodeID(1), createNodeID(3), EDGE_TYPE, 1f);
+        graph.advance(40 * 1000L);
+        assertEquals(traverse(graph, 1, 2, 10),
+                     cache.getPath(createNodeID(1), EDGE_TYPE, 2, 10));
+        assertTrue(cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10).isEmpty());
+        assertEquals(0, cache.getHits());
+
+        // Paths cached before the decay was set are not served either
+        graph.setEdgeDecay(SECONDARY_EDGE_TYPE, EdgeDecay.ttl(60 * 1000L));
+        long misses = cache.getMisses();
+        assertEquals(1, cache.getPath(createNodeID(0), SECONDARY_EDGE_TYPE, 2,
+                                      10).size());
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidation() {
+        MutableGraph<Integer> graph = new MutableGraphImpl<Integer>(METADATA);
+        // 0 -> 1 -> 2 -> 3
+        graph.addEdge(createNodeID(0), createNodeID(1), EDGE_TYPE, 1f);
+        graph.addEdge(createNodeID(1), createNodeID(2), EDGE_TYPE, 1f);
+        graph.addEdge(createNodeID(2), createNodeID(3), EDGE_TYPE, 1f);
+        TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, 1 << 20);
+        assertEquals(2, cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10).size());
+
+        // Node 2 is at depth 2, and is never expanded
+        graph.addEdge(createNodeID(2), createNodeID(4), EDGE_TYPE, 1f);
+        // Other edge types are not traversed
+        graph.addEdge(createNodeID(1), createNodeID(4), SECONDARY_EDGE_TYPE, 1f);
+        // Neither are unreachable nodes
+        graph.addEdge(createNodeID(5), createNodeID(0), EDGE_TYPE, 1f);
+        assertEquals(0, cache.getInvalidations());
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10).size());
+        assertEquals(1, cache.getMisses());
+
+        // Node 1 is expanded at depth 1
+        graph.addEdge(createNodeID(1), createNodeID(4), EDGE_TYPE, 1f);
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+        assertEquals(traverse(graph, 0, 2, 10),
+                     cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10));
+        assertEquals(3, cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10).size());
+
+        assertTrue(graph.removeEdge(createNodeID(0), createNodeID(1), EDGE_TYPE));
+        assertEquals(2, cache.getInvalidations());
+        assertTrue(cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10).isEmpty());
+
+        List<NodeID<Integer>> endNodes = new ArrayList<NodeID<Integer>>();
+        endNodes.add(createNodeID(3));
+        List<Float> weights = new ArrayList<Float>();
+        weights.add(1f);
+        graph.setEdges(createNodeID(0), EDGE_TYPE, endNodes, weights);
+        assertEquals(3, cache.getInvalidations());
+        assertEquals(traverse(graph, 0, 2, 10),
+                     cache.getPath(createNodeID(0), EDGE_TYPE, 2, 10));
+    }
+
+    @Test
+    public void testRandomMutations() {
+        MutableGraph<Integer> graph =
+            populate(new MutableGraphImpl<Integer>(METADATA));
+        TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, 1 << 20);
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            int source = random.nextInt(NODE_COUNT);
+            assertEquals(traverse(graph, source, 2, 5),
+                         cache.getPath(createNodeID(source), EDGE_TYPE, 2, 5));
+            int start = random.nextInt(NODE_COUNT);
+            int end = random.nextInt(NODE_COUNT);
+            if (start == end)
+                continue;
+            if (random.nextBoolean())
+                graph.addEdge(createNodeID(start), createNodeID(end),
+                              EDGE_TYPE, random.nextFloat());
+            else
+                graph.removeEdge(createNodeID(start), createNodeID(end),
+                                 EDGE_TYPE);
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getInvalidations() > 0);
+    }
+
+    @Test
+    public void testWeightEviction() {
+        Graph<Integer> graph =
+            populate(new MutableGraphImpl<Integer>(METADATA));
+        long maxWeight = 4096;
+        TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, maxWeight);
+        for (int i = 0; i < NODE_COUNT; i++)
+            cache.getPath(createNodeID(i), EDGE_TYPE, 2, 10);
+        assertTrue(cache.size() < NODE_COUNT);
+        assertTrue(cache.getWeight() <= maxWeight);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testSingleFlight() throws InterruptedException {
+        final AtomicBoolean slow = new AtomicBoolean(false);
+        final MutableGraph<Integer> graph =
+            populate(new MutableGraphImpl<Integer>(METADATA) {
+                @Override
+                public int getPrimaryKey(NodeID<Integer> nodeId) {
+                    if (slow.get() && nodeId.getID() == 0) {
+                        try {
+                            Thread.sleep(100); // Slow traversal
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return super.getPrimaryKey(nodeId);
+                }
+            });
+        final TraversalCache<Integer> cache =
+            new TraversalCache<Integer>(graph, 1 << 20);
+        final List<GraphEdge<Integer>> expected = traverse(graph, 0, 2, 10);
+        slow.set(true);
+
+        int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        if (!expected.equals(cache.getPath(createNodeID(0),
+                                                           EDGE_TYPE, 2, 10)))
+                            failures.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(0, failures.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(threadCount - 1, cache.getHits());
+    }
+}